@@ -0,0 +1,24 @@
+package es.uah.cc.todomanager;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the end of the boot, which clears every alarm, and sets the alarm of the deadline scheduler again.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) return;
+        // The deadlines reached while the device was off are notified as well, once the tasks are loaded.
+        final PendingResult result = goAsync();
+        ((TodoManagerApplication) context.getApplicationContext()).onDeadlineAlarm(new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
+    }
+}
@@ -20,6 +20,12 @@ public class CancelTaskDialog extends android.support.v4.app.DialogFragment{
     private int position;
     private CancelDialogListener listener;
 
+    /**
+     * Constructor for the dialog restored by the fragment manager.
+     */
+    public CancelTaskDialog() {
+    }
+
     /**
      * Constructor for a CancelTaskDialog.
      * @param task        The task which is being cancelled.
@@ -32,10 +38,38 @@ public class CancelTaskDialog extends android.support.v4.app.DialogFragment{
         this.listener = listener;
     }
 
+    /**
+     * Sets the listener for cancel events, as the host does for a dialog restored after a rotation.
+     * @param listener    The listener.
+     */
+    public void setListener(CancelDialogListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // A dialog restored by the fragment manager takes its listener from the fragment which showed it,
+        // or from the activity, which sets it when the dialog is attached.
+        if (listener == null && getTargetFragment() instanceof CancelDialogListener) listener = (CancelDialogListener) getTargetFragment();
+        position = getArguments().getInt(TaskDetailFragment.ARG_ITEM_POS, position);
+        // The task is looked up again, as it may have changed or been removed since the dialog was
+        // made. After the process was killed the list may still be loading, so the dialog is dropped
+        // instead of asking about a task it can not change.
+        TaskList.Task current = TaskList.getInstance().getTask(getArguments().getLong(TaskListActivity.ARG_TASK_ID));
+        if (current == null || listener == null) {
+            setShowsDialog(false);
+            dismissAllowingStateLoss();
+            return;
+        }
+        task = current;
+    }
+
     @NonNull
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
-        final TaskList.Task task = getArguments().getParcelable(TaskListActivity.ARG_TASK);
+        // The dialog changes a copy, which the listener publishes.
+        final TaskList.Task task = new TaskList.Task(this.task);
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
         return builder.setMessage(String.format(getResources().getString(R.string.cancel_task_dialog_message), task.getName()))
                 .setPositiveButton(R.string.yes, new DialogInterface.OnClickListener() {
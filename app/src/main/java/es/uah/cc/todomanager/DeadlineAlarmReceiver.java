@@ -0,0 +1,56 @@
+package es.uah.cc.todomanager;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import es.uah.cc.todomanager.domain.DeadlineScheduler;
+
+/**
+ * Receives the alarm of the deadline scheduler.
+ */
+public class DeadlineAlarmReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // The broadcast is kept until the deadlines are checked, so the process is not killed while the tasks load.
+        final PendingResult result = goAsync();
+        ((TodoManagerApplication) context.getApplicationContext()).onDeadlineAlarm(new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
+    }
+
+    /**
+     * The alarm of the scheduler, backed by a single pending intent of the AlarmManager.
+     */
+    public static class AlarmManagerAlarm implements DeadlineScheduler.Alarm {
+        private final Context context;
+
+        public AlarmManagerAlarm(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        private PendingIntent pendingIntent() {
+            Intent intent = new Intent(context, DeadlineAlarmReceiver.class);
+            return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+
+        @Override
+        public void set(long at) {
+            AlarmManager manager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            // Setting the same pending intent replaces the previous alarm.
+            manager.set(AlarmManager.RTC_WAKEUP, at, pendingIntent());
+        }
+
+        @Override
+        public void cancel() {
+            AlarmManager manager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            manager.cancel(pendingIntent());
+        }
+    }
+}
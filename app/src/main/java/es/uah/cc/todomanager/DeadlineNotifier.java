@@ -0,0 +1,77 @@
+package es.uah.cc.todomanager;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.List;
+
+import es.uah.cc.todomanager.domain.DeadlineScheduler;
+import es.uah.cc.todomanager.domain.TaskList;
+
+/**
+ * Shows the notifications of the deadline scheduler, with the ringtone and vibration preferences.
+ */
+public class DeadlineNotifier implements DeadlineScheduler.Listener {
+    private static final String CHANNEL_ID = "deadlines";
+    private static final int DEADLINE_NOTIFICATION = 1;
+    private static final int NEAR_DEADLINE_NOTIFICATION = 2;
+
+    private final Context context;
+
+    public DeadlineNotifier(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public void onDeadline(List<TaskList.Task> tasks) {
+        notify(DEADLINE_NOTIFICATION, R.string.deadline_notification_title, tasks, "deadline_ringtone", "deadline_vibrate");
+    }
+
+    @Override
+    public void onNearDeadline(List<TaskList.Task> tasks) {
+        notify(NEAR_DEADLINE_NOTIFICATION, R.string.near_deadline_notification_title, tasks, "near_deadline_ringtone", "near_deadline_vibrate");
+    }
+
+    /**
+     * Shows a notification which lists some tasks.
+     * @param id            The id of the notification.
+     * @param title         The title resource.
+     * @param tasks         The tasks.
+     * @param ringtoneKey   The key of the ringtone preference.
+     * @param vibrateKey    The key of the vibration preference.
+     */
+    private void notify(int id, int title, List<TaskList.Task> tasks, String ringtoneKey, String vibrateKey) {
+        NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && manager.getNotificationChannel(CHANNEL_ID) == null) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.pref_header_notifications), NotificationManager.IMPORTANCE_DEFAULT));
+        }
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        StringBuilder names = new StringBuilder();
+        for (TaskList.Task t : tasks) {
+            if (names.length() > 0) names.append(", ");
+            names.append(t.getName());
+        }
+        PendingIntent open = PendingIntent.getActivity(context, 0, new Intent(context, TaskListActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notifications_black_24dp)
+                .setContentTitle(context.getString(title))
+                .setContentText(names)
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(names))
+                .setNumber(tasks.size())
+                .setContentIntent(open)
+                .setAutoCancel(true);
+        String ringtone = preferences.getString(ringtoneKey, "content://settings/system/notification_sound");
+        if (ringtone.length() > 0) builder.setSound(Uri.parse(ringtone));
+        if (preferences.getBoolean(vibrateKey, true)) builder.setDefaults(NotificationCompat.DEFAULT_VIBRATE);
+        manager.notify(id, builder.build());
+    }
+}
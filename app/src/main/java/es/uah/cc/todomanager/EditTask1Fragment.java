@@ -72,9 +72,8 @@ public class EditTask1Fragment extends Fragment {
     public static EditTask1Fragment newInstance(OnEditTaskListener listener, TaskList.Task task) {
         EditTask1Fragment fragment = new EditTask1Fragment();
         fragment.setOnEditTaskListener(listener);
-        Bundle args = new Bundle();
-args.putParcelable(EDIT_TASK_1, task);
-        fragment.setArguments(args);
+        // The task is handed over as is; it is only parcelled if the fragment state is saved.
+        fragment.task = task;
         return fragment;
     }
 
@@ -103,11 +102,17 @@ args.putParcelable(EDIT_TASK_1, task);
             appBarLayout.setTitle(getResources().getString(R.string.title_edit_task_1));
         }
 
-        if (getArguments().containsKey(EDIT_TASK_1)) {
-task = getArguments().getParcelable(EDIT_TASK_1);
+        if (savedInstanceState != null && savedInstanceState.containsKey(EDIT_TASK_1)) {
+task = ((ParcelableTask) savedInstanceState.getParcelable(EDIT_TASK_1)).getTask();
         }
     }
 
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(EDIT_TASK_1, new ParcelableTask(task));
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -129,9 +134,9 @@ task = getArguments().getParcelable(EDIT_TASK_1);
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         prioritySp.setAdapter(adapter);
         switch (task.getPriority()) {
-            case TaskList.Task.HIGH_PRIORITY: prioritySp.setSelection(0); break;
-            case TaskList.Task.MEDIUM_PRIORITY: prioritySp.setSelection(1); break;
-            case TaskList.Task.LOW_PRIORITY: prioritySp.setSelection(2);
+            case HIGH: prioritySp.setSelection(0); break;
+            case MEDIUM: prioritySp.setSelection(1); break;
+            case LOW: prioritySp.setSelection(2);
         }
         ((EditText) a.findViewById(R.id.task_description)).setText(task.getDetails());
         ((CheckBox) a.findViewById(R.id.task_is_complex)).setChecked(task.isComplex());
@@ -217,9 +222,9 @@ task.setComplex(((CheckBox) v.findViewById(R.id.task_is_complex)).isChecked());
             task.setDeadline(Calendar.getInstance().getTime());
         else task.setDeadline(null);
         switch (((Spinner) v.findViewById(R.id.task_priority)).getSelectedItemPosition()) {
-            case 0: task.setPriority(TaskList.Task.HIGH_PRIORITY); break;
-            case 1: task.setPriority(TaskList.Task.MEDIUM_PRIORITY); break;
-            case 2: task.setPriority(TaskList.Task.LOW_PRIORITY);
+            case 0: task.setPriority(TaskList.Priority.HIGH); break;
+            case 1: task.setPriority(TaskList.Priority.MEDIUM); break;
+            case 2: task.setPriority(TaskList.Priority.LOW);
         }
     }
 
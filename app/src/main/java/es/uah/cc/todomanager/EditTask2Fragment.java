@@ -67,9 +67,8 @@ public class EditTask2Fragment extends Fragment {
      */
     public static EditTask2Fragment newInstance(OnEditTaskListener listener, TaskList.Task task) {
         EditTask2Fragment fragment = new EditTask2Fragment();
-        Bundle args = new Bundle();
-        args.putParcelable(EDIT_TASK_2, task);
-        fragment.setArguments(args);
+        // The task is handed over as is; it is only parcelled if the fragment state is saved.
+        fragment.task = task;
         fragment.setOnEditTaskListener(listener);
         return fragment;
     }
@@ -83,11 +82,17 @@ public class EditTask2Fragment extends Fragment {
             appBarLayout.setTitle(getResources().getString(R.string.title_edit_task_2));
         }
 
-        if (getArguments().containsKey(EDIT_TASK_2)) {
-            task = getArguments().getParcelable(EDIT_TASK_2);
+        if (savedInstanceState != null && savedInstanceState.containsKey(EDIT_TASK_2)) {
+            task = ((ParcelableTask) savedInstanceState.getParcelable(EDIT_TASK_2)).getTask();
         }
     }
 
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(EDIT_TASK_2, new ParcelableTask(task));
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
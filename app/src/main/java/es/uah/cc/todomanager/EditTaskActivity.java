@@ -36,17 +36,39 @@ public class EditTaskActivity extends AppCompatActivity {
         //
         // http://developer.android.com/guide/components/fragments.html
         //
-        if (savedInstanceState == null) {
-            // Create the new task 1 fragment and add it to the activity
-            // using a fragment transaction.
-            TaskList.Task task = getIntent().getParcelableExtra(TaskListActivity.ARG_TASK);
-            EditTask1Fragment fragment = EditTask1Fragment.newInstance(new OnEditTaskListener(), task);
-            getSupportFragmentManager().beginTransaction()
-                    .add(R.id.new_task_form_container, fragment)
-                    .commit();
+        if (savedInstanceState == null || getSupportFragmentManager().findFragmentById(R.id.new_task_form_container) == null) {
+            // The task is looked up once the stored tasks are loaded, as after the process was killed.
+            ((TodoManagerApplication) getApplication()).getTaskRepository().whenLoaded(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isFinishing()) showTask();
+                }
+            });
         }
          }
 
+    /**
+     * Shows the form with the task, or finishes if it was removed.
+     */
+    protected void showTask() {
+        // Create the new task 1 fragment and add it to the activity
+        // using a fragment transaction.
+        TaskList.Task task = TaskList.getInstance().getTask(getIntent().getLongExtra(TaskListActivity.ARG_TASK_ID, -1));
+        if (task == null) {
+            // The task was removed meanwhile.
+            setResult(EditTask1Fragment.TASK_EDITION_CANCELED);
+            finish();
+            return;
+        }
+        // The form edits a copy, which is published when it is finished.
+        task = new TaskList.Task(task);
+        EditTask1Fragment fragment = EditTask1Fragment.newInstance(new OnEditTaskListener(), task);
+        // The load may end after the state was saved; the form is then shown again when the activity is restored.
+        getSupportFragmentManager().beginTransaction()
+                .add(R.id.new_task_form_container, fragment)
+                .commitAllowingStateLoss();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -90,8 +112,9 @@ public class EditTaskActivity extends AppCompatActivity {
 
         @Override
         public void onFinish(TaskList.Task task) {
+            ((TodoManagerApplication) getApplication()).getTaskRepository().setTask(task, null);
             Intent intent = new Intent();
-            intent.putExtra(TaskListActivity.ARG_TASK, task);
+            intent.putExtra(TaskListActivity.ARG_TASK_ID, task.getId());
             setResult(EditTask1Fragment.TASK_EDITION_COMPLETED, intent);
             finish();
         }
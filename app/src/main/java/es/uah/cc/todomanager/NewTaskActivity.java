@@ -8,6 +8,7 @@ import android.view.MenuItem;
 
 import es.uah.cc.todomanager.R;
 import es.uah.cc.todomanager.domain.TaskList;
+import es.uah.cc.todomanager.domain.TaskRepository;
 
 /**
  * Activity to add a new task.
@@ -17,6 +18,10 @@ public class NewTaskActivity extends AppCompatActivity   {
      * The activity code for request code.
      */
     public static final int ACTIVITY_CODE = 2;
+    /**
+     * The key for the id of the parent of a new subtask, in the intent extras.
+     */
+    public static final String ARG_PARENT_ID = "es.uah.cc.todomanager.parent_id";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,7 +44,9 @@ public class NewTaskActivity extends AppCompatActivity   {
         if (savedInstanceState == null) {
             // Create the new task 1 fragment and add it to the activity
             // using a fragment transaction.
-            EditTask1Fragment fragment = EditTask1Fragment.newInstance(new OnNewTaskListener(), new TaskList.Task());
+            TaskList.Task task = new TaskList.Task();
+            task.setParentId(getIntent().getLongExtra(ARG_PARENT_ID, TaskList.Task.NO_PARENT));
+            EditTask1Fragment fragment = EditTask1Fragment.newInstance(new OnNewTaskListener(), task);
             getSupportFragmentManager().beginTransaction()
                     .add(R.id.new_task_form_container, fragment)
                     .commit();
@@ -89,10 +96,16 @@ getSupportFragmentManager().beginTransaction()
 
         @Override
         public void onFinish(TaskList.Task task) {
-            Intent intent = new Intent();
-            intent.putExtra(TaskListActivity.ARG_TASK, task);
-setResult(EditTask1Fragment.TASK_CREATION_COMPLETED, intent);
-            finish();
+            // The repository gives the new task its id.
+            ((TodoManagerApplication) getApplication()).getTaskRepository().addTask(task, new TaskRepository.Callback<TaskList.Task>() {
+                @Override
+                public void onResult(TaskList.Task added) {
+                    Intent intent = new Intent();
+                    intent.putExtra(TaskListActivity.ARG_TASK_ID, added.getId());
+                    setResult(EditTask1Fragment.TASK_CREATION_COMPLETED, intent);
+                    finish();
+                }
+            });
         }
     }
 }
@@ -0,0 +1,64 @@
+package es.uah.cc.todomanager;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Date;
+
+import es.uah.cc.todomanager.domain.TaskCodec;
+import es.uah.cc.todomanager.domain.TaskList;
+
+/**
+ * A parcelable container of a task, to keep it in a bundle.
+ * Priority, status, flags and progress travel packed in a single int.
+ */
+public class ParcelableTask implements Parcelable {
+
+    public static final Parcelable.Creator<ParcelableTask> CREATOR = new Parcelable.Creator<ParcelableTask>() {
+        @Override
+        public ParcelableTask createFromParcel(Parcel in) {
+            long id = in.readLong();
+            String name = in.readString();
+            String details = in.readString();
+            int packed = in.readInt();
+            Date deadline = TaskCodec.hasDeadline(packed) ? new Date(in.readLong()) : null;
+            TaskList.Task task = TaskCodec.unpack(id, name, details, packed, deadline);
+            if (TaskCodec.hasParent(packed)) task.setParentId(in.readLong());
+            return new ParcelableTask(task);
+        }
+
+        @Override
+        public ParcelableTask[] newArray(int size) {
+            return new ParcelableTask[size];
+        }
+    };
+
+    private final TaskList.Task task;
+
+    /**
+     * Constructor.
+     * @param task    The task to keep.
+     */
+    public ParcelableTask(TaskList.Task task) {
+        this.task = task;
+    }
+
+    public TaskList.Task getTask() {
+        return task;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(task.getId());
+        dest.writeString(task.getName());
+        dest.writeString(task.getDetails());
+        dest.writeInt(TaskCodec.pack(task));
+        if (task.getDeadline() != null) dest.writeLong(task.getDeadline().getTime());
+        if (task.isSubtask()) dest.writeLong(task.getParentId());
+    }
+}
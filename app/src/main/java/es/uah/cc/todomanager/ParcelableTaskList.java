@@ -0,0 +1,53 @@
+package es.uah.cc.todomanager;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.List;
+
+import es.uah.cc.todomanager.domain.TaskCodec;
+import es.uah.cc.todomanager.domain.TaskList;
+
+/**
+ * A parcelable container to transfer a whole list of tasks.
+ * The tasks are encoded with {@link TaskCodec} into a single byte array, so the parcel
+ * holds one blob instead of several aligned fields per task.
+ */
+public class ParcelableTaskList implements Parcelable {
+
+    public static final Parcelable.Creator<ParcelableTaskList> CREATOR = new Parcelable.Creator<ParcelableTaskList>() {
+        @Override
+        public ParcelableTaskList createFromParcel(Parcel source) {
+            return new ParcelableTaskList(TaskCodec.decodeList(source.createByteArray()));
+        }
+
+        @Override
+        public ParcelableTaskList[] newArray(int size) {
+            return new ParcelableTaskList[size];
+        }
+    };
+
+    private final List<TaskList.Task> tasks;
+
+    /**
+     * Constructor.
+     * @param tasks    The tasks to transfer.
+     */
+    public ParcelableTaskList(List<TaskList.Task> tasks) {
+        this.tasks = tasks;
+    }
+
+    public List<TaskList.Task> getTasks() {
+        return tasks;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(TaskCodec.encodeList(tasks));
+    }
+}
@@ -0,0 +1,130 @@
+package es.uah.cc.todomanager;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces the progress set on a seek bar into few changes of the task.
+ * The bar shows each value as it moves, but a change of the task is stored, logged for the sync
+ * and published to the list, so only the last value is committed: once when a touch gesture ends,
+ * or once per frame for the values which come without a gesture, as the ones of the keys or the
+ * accessibility actions.
+ * It counts the values and the commits of each gesture, so the list updates a drag costs can be seen.
+ * It must be used from a single thread.
+ */
+public class ProgressCoalescer {
+
+    /**
+     * Receives the values to commit.
+     */
+    public interface Sink {
+        /**
+         * Commits a progress.
+         * @param progress    The last value set.
+         */
+        void commit(int progress);
+    }
+
+    private static final int NONE = -1;
+
+    private final Executor frames;
+    private final Sink sink;
+    private final Runnable frameCommit = new Runnable() {
+        @Override
+        public void run() {
+            frameScheduled = false;
+            if (!tracking) flush();
+        }
+    };
+    private int pending = NONE;
+    private boolean tracking;
+    private boolean frameScheduled;
+    private int gestureValues;
+    private int gestureCommits;
+    private int lastGestureValues;
+    private int lastGestureCommits;
+    private int commits;
+
+    /**
+     * Constructor.
+     * @param frames    Runs a command on the next frame.
+     * @param sink      Receives the values to commit.
+     */
+    public ProgressCoalescer(Executor frames, Sink sink) {
+        this.frames = frames;
+        this.sink = sink;
+    }
+
+    /**
+     * Starts a touch gesture: the values set until it ends are committed then.
+     */
+    public void startGesture() {
+        tracking = true;
+        gestureValues = 0;
+        gestureCommits = 0;
+    }
+
+    /**
+     * Ends a touch gesture and commits its last value.
+     */
+    public void endGesture() {
+        flush();
+        tracking = false;
+        lastGestureValues = gestureValues;
+        lastGestureCommits = gestureCommits;
+    }
+
+    /**
+     * Sets a value. Outside a gesture it is committed on the next frame, with any other set before then.
+     * @param progress    The value.
+     */
+    public void set(int progress) {
+        pending = progress;
+        if (tracking) {
+            gestureValues++;
+        } else if (!frameScheduled) {
+            frameScheduled = true;
+            frames.execute(frameCommit);
+        }
+    }
+
+    /**
+     * Commits the value set, if there is one, as when the view goes away.
+     */
+    public void flush() {
+        if (pending == NONE) return;
+        int progress = pending;
+        pending = NONE;
+        commits++;
+        if (tracking) gestureCommits++;
+        sink.commit(progress);
+    }
+
+    /**
+     * Whether a value is set and not committed yet, so the value of the task is older than the one shown.
+     */
+    public boolean hasPending() {
+        return pending != NONE || tracking;
+    }
+
+    /**
+     * The values set during the last touch gesture which ended.
+     */
+    public int getLastGestureValues() {
+        return lastGestureValues;
+    }
+
+    /**
+     * The commits made during the last touch gesture which ended, each one a change of the task
+     * which is stored and updates the rows of the list.
+     */
+    public int getLastGestureCommits() {
+        return lastGestureCommits;
+    }
+
+    /**
+     * The commits made since the coalescer was made.
+     */
+    public int getCommits() {
+        return commits;
+    }
+}
@@ -186,13 +186,14 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
 
         public static final String HIDE_COMPLETED = "hide_completed";
         public static final String hide_canceled = "hide_canceled";
+        public static final String SORT_ORDER = "sort_order";
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
             addPreferencesFromResource(R.xml.pref_general);
             setHasOptionsMenu(true);
-
+            bindPreferenceSummaryToValue(findPreference(SORT_ORDER));
         }
 
         @Override
@@ -255,6 +256,7 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
             // updated to reflect the new value, per the Android Design
             // guidelines.
             bindPreferenceSummaryToValue(findPreference("sync_frequency"));
+            bindPreferenceSummaryToValue(findPreference("sync_server"));
         }
 
         @Override
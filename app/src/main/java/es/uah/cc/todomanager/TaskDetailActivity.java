@@ -2,6 +2,7 @@ package es.uah.cc.todomanager;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.support.v4.app.Fragment;
 import android.support.v7.widget.Toolbar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.app.ActionBar;
@@ -39,9 +40,13 @@ public class TaskDetailActivity extends AppCompatActivity implements OnTaskChang
      */
     private int position;
     /**
-     * The task to be shown.
+     * The id of the task to be shown.
      */
-    private TaskList.Task task;
+    private long taskId;
+    /**
+     * The key of whether the task changed in the saved state.
+     */
+    private static final String ARG_CHANGED = "es.uah.cc.todomanager.changed";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,12 +70,16 @@ public class TaskDetailActivity extends AppCompatActivity implements OnTaskChang
         //
         // http://developer.android.com/guide/components/fragments.html
         //
-        if (savedInstanceState == null) {
+        if (savedInstanceState != null) {
+            taskId = savedInstanceState.getLong(TaskListActivity.ARG_TASK_ID, -1);
+            position = savedInstanceState.getInt(TaskDetailFragment.ARG_ITEM_POS, -1);
+            changed = savedInstanceState.getBoolean(ARG_CHANGED);
+        } else {
             // Create the detail fragment and add it to the activity
             // using a fragment transaction.
-            task = getIntent().getParcelableExtra(TaskListActivity.ARG_TASK);
+            taskId = getIntent().getLongExtra(TaskListActivity.ARG_TASK_ID, -1);
             position = getIntent().getIntExtra(TaskDetailFragment.ARG_ITEM_POS, -1);
-            TaskDetailFragment fragment = TaskDetailFragment.newInstance(this, new OnDetailsEditButtonListener(), task, position);
+            TaskDetailFragment fragment = TaskDetailFragment.newInstance(this, new OnDetailsEditButtonListener(), taskId, position);
             getSupportFragmentManager().beginTransaction()
                     .addToBackStack(TaskDetailFragment.TAG)
                     .add(R.id.task_detail_container, fragment)
@@ -78,6 +87,24 @@ public class TaskDetailActivity extends AppCompatActivity implements OnTaskChang
         }
     }
 
+    @Override
+    public void onAttachFragment(Fragment fragment) {
+        super.onAttachFragment(fragment);
+        // A fragment restored after a rotation is made by the system, without the listeners of this activity.
+        if (fragment instanceof TaskDetailFragment) {
+            ((TaskDetailFragment) fragment).setOnTaskChangedListener(this);
+            ((TaskDetailFragment) fragment).setEditButtonListener(new OnDetailsEditButtonListener());
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLong(TaskListActivity.ARG_TASK_ID, taskId);
+        outState.putInt(TaskDetailFragment.ARG_ITEM_POS, position);
+        outState.putBoolean(ARG_CHANGED, changed);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -97,14 +124,14 @@ public class TaskDetailActivity extends AppCompatActivity implements OnTaskChang
     @Override
     public void onTaskChanged(TaskList.Task task, int position) {
         changed = true;
-        this.task = task;
+        ((TodoManagerApplication) getApplication()).getTaskRepository().setTask(task, null);
     }
 
     @Override
     public void onBackPressed() {
         Intent resultIntent = new Intent();
         resultIntent.putExtra(TaskDetailFragment.ARG_ITEM_POS, position);
-        resultIntent.putExtra(TaskListActivity.ARG_TASK, task);
+        resultIntent.putExtra(TaskListActivity.ARG_TASK_ID, taskId);
         int result = changed ? CHANGED : NOT_CHANGED;
         setResult(result, resultIntent);
         finish();
@@ -113,28 +140,16 @@ public class TaskDetailActivity extends AppCompatActivity implements OnTaskChang
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == EditTaskActivity.ACTIVITY_CODE) {
-            if (resultCode == EditTask1Fragment.TASK_EDITION_COMPLETED) {
-                changed = true;
-                task = data.getParcelableExtra(TaskListActivity.ARG_TASK);
-            }
+            // The edition is already in the task list and the fragment shows it when it starts again.
+            if (resultCode == EditTask1Fragment.TASK_EDITION_COMPLETED) changed = true;
         }
     }
 
-    @Override
-    protected void onPostResume() {
-        super.onPostResume();
-        TaskDetailFragment fragment = TaskDetailFragment.newInstance(this, new OnDetailsEditButtonListener(), task, position);
-        getSupportFragmentManager().popBackStack();
-        getSupportFragmentManager().beginTransaction()
-                .replace(R.id.task_detail_container, fragment)
-                .commit();
-    }
-
     protected  class OnDetailsEditButtonListener implements OnEditButtonListener {
         @Override
         public void init(TaskList.Task task) {
             Intent intent = new Intent(getApplicationContext(), EditTaskActivity.class);
-            intent.putExtra(TaskListActivity.ARG_TASK, task);
+            intent.putExtra(TaskListActivity.ARG_TASK_ID, task.getId());
             startActivityForResult(intent, EditTaskActivity.ACTIVITY_CODE);
         }
     }
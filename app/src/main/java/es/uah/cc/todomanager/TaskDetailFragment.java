@@ -1,19 +1,29 @@
 package es.uah.cc.todomanager;
 
 import android.app.Activity;
+import android.content.Intent;
 import java.text.DateFormat;
 import android.support.design.widget.CollapsingToolbarLayout;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
 import es.uah.cc.todomanager.R;
 import es.uah.cc.todomanager.domain.TaskList;
 
@@ -29,11 +39,24 @@ public class TaskDetailFragment extends Fragment implements CompleteTaskDialog.C
      * The key for the item position on the list view included in the input arguments.
      */
     public static final String ARG_ITEM_POS = "es.uah.cc.todomanager.item_ps";
+    /**
+     * The number of subtasks shown at a time.
+     */
+    private static final int SUBTASK_PAGE = 25;
+    private static final String LOG_TAG = "TaskDetailFragment";
 
     /**
-     * The task this fragment is presenting.
+     * The task this fragment is presenting, as held by the task list. It is never changed in place.
      */
     private TaskList.Task mItem;
+    /**
+     * The id of the task. The task may not be on the list yet, while the stored tasks are loaded.
+     */
+    private long taskId = -1;
+    /**
+     * The observer which refreshes the task when the list changes.
+     */
+    private final TaskList.TaskListObserver taskObserver = new OnListTaskObserver();
     /**
      * The position of the task on the list view.
      */
@@ -46,6 +69,26 @@ public class TaskDetailFragment extends Fragment implements CompleteTaskDialog.C
      * The listener for edit button interactions.
      */
     private OnEditButtonListener editButtonListener;
+    /**
+     * The ids of the subtasks of the task, in the order they were added.
+     */
+    private List<Long> subtaskIds = new ArrayList<Long>();
+    /**
+     * The same ids, to tell a subtask in constant time among the changes of the list.
+     */
+    private final Set<Long> subtaskSet = new HashSet<Long>();
+    /**
+     * The number of subtasks whose rows are shown.
+     */
+    private int subtasksShown;
+    /**
+     * Commits the progress set on the bar, a few times per drag instead of on every value.
+     */
+    private ProgressCoalescer progressCoalescer;
+    /**
+     * Whether the progress is committed because the screen is stopping, so completing the task is not asked.
+     */
+    private boolean stopping;
 
     public TaskDetailFragment() {
     }
@@ -54,16 +97,16 @@ public class TaskDetailFragment extends Fragment implements CompleteTaskDialog.C
      * A factory method.
      * @param taskChangedListener The listener for changes on the task.
      * @param editButtonListener  The listener for edit button interactions.
-     * @param task                The task to be presented.
+     * @param taskId              The id of the task to be presented.
      * @param position            The position of the task on the list view.
      * @return A fragment instance.
      */
-    public static TaskDetailFragment newInstance(OnTaskChangedListener taskChangedListener, OnEditButtonListener editButtonListener, TaskList.Task task, int position) {
+    public static TaskDetailFragment newInstance(OnTaskChangedListener taskChangedListener, OnEditButtonListener editButtonListener, long taskId, int position) {
 TaskDetailFragment fragment = new TaskDetailFragment();
         fragment.setOnTaskChangedListener(taskChangedListener);
         fragment.setEditButtonListener(editButtonListener);
         Bundle args = new Bundle();
-        args.putParcelable(TaskListActivity.ARG_TASK, task);
+        args.putLong(TaskListActivity.ARG_TASK_ID, taskId);
         args.putInt(ARG_ITEM_POS, position);
         fragment.setArguments(args);
         return fragment;
@@ -89,9 +132,10 @@ TaskDetailFragment fragment = new TaskDetailFragment();
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        if (getArguments().containsKey(TaskListActivity.ARG_TASK)) {
-            // Load the task.
-            mItem = (TaskList.Task) getArguments().getParcelable(TaskListActivity.ARG_TASK);
+        if (getArguments().containsKey(TaskListActivity.ARG_TASK_ID)) {
+            // Load the task. After the process was killed, it arrives when the stored tasks are loaded.
+            taskId = getArguments().getLong(TaskListActivity.ARG_TASK_ID);
+            mItem = TaskList.getInstance().getTask(taskId);
             position = getArguments().getInt(ARG_ITEM_POS);
 
             Activity activity = this.getActivity();
@@ -108,16 +152,76 @@ TaskDetailFragment fragment = new TaskDetailFragment();
         View rootView = inflater.inflate(R.layout.task_detail, container, false);
 
         // Shows the task details.
-        if (mItem != null) {
-fillData(rootView);
-showProgressIfComplex(rootView);
-        }
+        if (mItem != null) show(rootView);
 
         setHasOptionsMenu(true);
 
         return rootView;
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        // The task may have changed while the fragment was stopped, e.g. by the edition screen.
+        TaskList.getInstance().addObserver(taskObserver);
+        ((TodoManagerApplication) getActivity().getApplication()).getTaskRepository().whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                if (!isAdded() || getView() == null) return;
+                TaskList.Task task = TaskList.getInstance().getTask(taskId);
+                if (task == null) return;
+                if (mItem == null) {
+                    mItem = task;
+                    show(getView());
+                    getActivity().invalidateOptionsMenu();
+                    return;
+                }
+                if (task != mItem) refresh(task);
+                // Subtasks may have been added or removed meanwhile too.
+                showSubtasks(getView());
+            }
+        });
+    }
+
+    /**
+     * Shows the task once it is known.
+     * @param rootView    The root view.
+     */
+    protected void show(View rootView) {
+        fillData(rootView);
+        showProgressIfComplex(rootView);
+        showSubtasks(rootView);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        // A progress set and not committed yet is not lost, but no dialog can be shown any more.
+        if (progressCoalescer != null) {
+            stopping = true;
+            progressCoalescer.flush();
+            stopping = false;
+        }
+        TaskList.getInstance().removeObserver(taskObserver);
+    }
+
+    /**
+     * Shows a new version of the task.
+     * @param task    The task.
+     */
+    protected void refresh(TaskList.Task task) {
+        mItem = task;
+        View rootView = getView();
+        if (rootView == null) return;
+        fillData(rootView);
+        SeekBar bar = (SeekBar) rootView.findViewById(R.id.task_progress);
+        // While the progress set on the bar is not committed, the task on the list is older than the bar.
+        boolean settling = progressCoalescer != null && progressCoalescer.hasPending();
+        if (mItem.isComplex() && !settling && bar.getProgress() != mItem.getCompleted()) bar.setProgress(mItem.getCompleted());
+        updateSubtaskControls(rootView);
+        getActivity().invalidateOptionsMenu();
+    }
+
     /**
      * Fills the text views with the data from the task.
      * @param rootView    The root view.
@@ -126,21 +230,22 @@ showProgressIfComplex(rootView);
     ((TextView) rootView.findViewById(R.id.task_name)).setText(getResources().getString(R.string.task_name) + " " + mItem.getName());
     int p = R.string.medium_priority;
     switch (mItem.getPriority()) {
-        case TaskList.Task.HIGH_PRIORITY: p = R.string.high_priority; break;
-        case TaskList.Task.MEDIUM_PRIORITY: p = R.string.medium_priority; break;
-        case TaskList.Task.LOW_PRIORITY: p = R.string.low_priority; break;
+        case HIGH: p = R.string.high_priority; break;
+        case MEDIUM: p = R.string.medium_priority; break;
+        case LOW: p = R.string.low_priority; break;
     }
     ((TextView) rootView.findViewById(R.id.task_priority)).setText(getResources().getString(R.string.task_priority) + " " + getResources().getString(p));
+    // The statuses are singletons, so they are compared by identity.
     int s = R.string.pending_task;
-    switch (mItem.getStatus().getStatusDescription()) {
-        case TaskList.PendingTask.STATUS: s = R.string.pending_task; break;
-        case TaskList.CompletedTask.STATUS: s = R.string.completed_task; break;
-        case TaskList.CanceledTask.STATUS: s = R.string.canceled_task; break;
-    }
+    if (mItem.getStatus() == TaskList.CompletedTask.INSTANCE) s = R.string.completed_task;
+    else if (mItem.getStatus() == TaskList.CanceledTask.INSTANCE) s = R.string.canceled_task;
     ((TextView) rootView.findViewById(R.id.task_status)).setText(getResources().getString(R.string.task_status) + " " + getResources().getString(s));
     ((TextView) rootView.findViewById(R.id.task_description)).setText(getResources().getString(R.string.task_description) + "\n" + mItem.getDetails());
         // If the task has a deadline, it shows it.
-    if (mItem.getDeadline() != null) ((TextView) rootView.findViewById(R.id.task_deadline)).setText(getResources().getString(R.string.task_deadline) + " " + DateFormat.getDateInstance(DateFormat.SHORT).format(mItem.getDeadline()));
+    if (mItem.getDeadline() != null) {
+        ((TextView) rootView.findViewById(R.id.task_deadline)).setText(getResources().getString(R.string.task_deadline) + " " + DateFormat.getDateInstance(DateFormat.SHORT).format(mItem.getDeadline()));
+        ((View) rootView.findViewById(R.id.task_deadline)).setVisibility(View.VISIBLE);
+    }
     else ((View) rootView.findViewById(R.id.task_deadline)).setVisibility(View.INVISIBLE);
 }
 
@@ -150,26 +255,43 @@ showProgressIfComplex(rootView);
      */
     protected  void showProgressIfComplex(View rootView) {
         if (mItem.isComplex()) {
-            SeekBar bar = (SeekBar) rootView.findViewById(R.id.task_progress);
+            final SeekBar bar = (SeekBar) rootView.findViewById(R.id.task_progress);
             bar.setProgress(mItem.getCompleted());
+            progressCoalescer = new ProgressCoalescer(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    bar.postOnAnimation(command);
+                }
+            }, new ProgressCoalescer.Sink() {
+                @Override
+                public void commit(int progress) {
+                    TaskList.Task task = new TaskList.Task(mItem);
+                    task.setCompleted(progress);
+                    // If progress reaches 100%, completing the task is asked while the screen is shown.
+                    if (progress == 100 && !stopping && !isStateSaved()) completeTask();
+                    listener.onTaskChanged(task, position);
+                }
+            });
             bar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
                 @Override
                 public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                    // the task progress is updated each time the progress bar is changed.
-                    mItem.setCompleted(progress);
-                    // If progress reaches 100%, task is automatically marked as completed.
-                    if (progress == 100) completeTask();
-                    listener.onTaskChanged(mItem, position);
+                    // Changes made by refresh come from the list already.
+                    if (!fromUser) return;
+                    // The bar and its label show the value at once; the task is changed when it settles.
+                    showCompletion(getView(), progress);
+                    progressCoalescer.set(progress);
                 }
 
                 @Override
                 public void onStartTrackingTouch(SeekBar seekBar) {
-//Nothing to do.
+                    progressCoalescer.startGesture();
                 }
 
                 @Override
                 public void onStopTrackingTouch(SeekBar seekBar) {
-// Nothing to do.
+                    progressCoalescer.endGesture();
+                    Log.d(LOG_TAG, "Progress drag: " + progressCoalescer.getLastGestureValues() + " values, "
+                            + progressCoalescer.getLastGestureCommits() + " list updates");
                 }
             });
 
@@ -180,6 +302,149 @@ showProgressIfComplex(rootView);
         }
     }
 
+    /**
+     * Shows the first page of the subtasks of the task. The rows are added a page at a time, since
+     * the detail scrolls as a whole and a list inside it would build every row at once anyway.
+     * @param rootView    The root view.
+     */
+    protected void showSubtasks(View rootView) {
+        subtaskIds = TaskList.getInstance().getSubtaskIds(mItem.getId());
+        subtaskSet.clear();
+        subtaskSet.addAll(subtaskIds);
+        subtasksShown = 0;
+        ((LinearLayout) rootView.findViewById(R.id.subtask_list)).removeAllViews();
+        rootView.findViewById(R.id.more_subtasks_button).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showMoreSubtasks(getView());
+            }
+        });
+        rootView.findViewById(R.id.add_subtask_button).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(v.getContext(), NewTaskActivity.class);
+                intent.putExtra(NewTaskActivity.ARG_PARENT_ID, mItem.getId());
+                startActivity(intent);
+            }
+        });
+        showMoreSubtasks(rootView);
+    }
+
+    /**
+     * Adds the rows of the next page of subtasks.
+     * @param rootView    The root view.
+     */
+    protected void showMoreSubtasks(View rootView) {
+        LinearLayout rows = (LinearLayout) rootView.findViewById(R.id.subtask_list);
+        int end = Math.min(subtaskIds.size(), subtasksShown + SUBTASK_PAGE);
+        for (; subtasksShown < end; subtasksShown++) {
+            TaskList.Task subtask = TaskList.getInstance().getTask(subtaskIds.get(subtasksShown));
+            if (subtask != null) rows.addView(newSubtaskRow(rows, subtask));
+        }
+        updateSubtaskControls(rootView);
+    }
+
+    /**
+     * Makes the row of a subtask, which opens its detail.
+     * @param parent     The view the row is added to.
+     * @param subtask    The subtask.
+     * @return The row.
+     */
+    protected View newSubtaskRow(ViewGroup parent, TaskList.Task subtask) {
+        TextView row = (TextView) LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_1, parent, false);
+        row.setTag(subtask.getId());
+        bindSubtaskRow(row, subtask);
+        row.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(v.getContext(), TaskDetailActivity.class);
+                intent.putExtra(TaskListActivity.ARG_TASK_ID, (Long) v.getTag());
+                // The subtask may not be on the list view.
+                intent.putExtra(ARG_ITEM_POS, -1);
+                startActivity(intent);
+            }
+        });
+        return row;
+    }
+
+    /**
+     * Shows a subtask on its row.
+     * @param row        The row.
+     * @param subtask    The subtask.
+     */
+    protected void bindSubtaskRow(TextView row, TaskList.Task subtask) {
+        String state;
+        if (subtask.getStatus() == TaskList.CompletedTask.INSTANCE) state = getResources().getString(R.string.completed_task);
+        else if (subtask.getStatus() == TaskList.CanceledTask.INSTANCE) state = getResources().getString(R.string.canceled_task);
+        else if (subtask.isComplex()) state = subtask.getCompleted() + "%";
+        else state = getResources().getString(R.string.pending_task);
+        row.setText(getResources().getString(R.string.subtask_row, subtask.getName(), state));
+    }
+
+    /**
+     * Shows the number of subtasks and the buttons which depend on them. The progress of a task
+     * with subtasks comes from them, so it can not be set by hand.
+     * @param rootView    The root view.
+     */
+    protected void updateSubtaskControls(View rootView) {
+        int count = subtaskIds.size();
+        TextView header = (TextView) rootView.findViewById(R.id.task_subtasks);
+        header.setText(getResources().getString(R.string.task_subtasks, count));
+        header.setVisibility(count > 0 ? View.VISIBLE : View.GONE);
+        Button more = (Button) rootView.findViewById(R.id.more_subtasks_button);
+        more.setText(getResources().getString(R.string.more_subtasks, count - subtasksShown));
+        more.setVisibility(subtasksShown < count ? View.VISIBLE : View.GONE);
+        boolean pending = mItem.getStatus() instanceof TaskList.PendingTask;
+        rootView.findViewById(R.id.add_subtask_button).setVisibility(mItem.isComplex() && pending ? View.VISIBLE : View.GONE);
+        if (mItem.isComplex()) {
+            SeekBar bar = (SeekBar) rootView.findViewById(R.id.task_progress);
+            bar.setEnabled(pending && count == 0);
+            showCompletion(rootView, bar.getProgress());
+        }
+    }
+
+    /**
+     * Shows the completion of the task next to its progress bar.
+     * @param rootView    The root view.
+     * @param progress    The completion shown.
+     */
+    protected void showCompletion(View rootView, int progress) {
+        if (rootView == null) return;
+        int label = subtaskIds.isEmpty() ? R.string.task_completion : R.string.task_completion_subtasks;
+        ((TextView) rootView.findViewById(R.id.task_completion)).setText(getResources().getString(label) + " " + progress + "%");
+    }
+
+    /**
+     * Shows a change of a subtask of the task.
+     * @param task       The subtask, or null if it was removed.
+     * @param id         The id of the subtask.
+     */
+    protected void onSubtaskChanged(TaskList.Task task, long id) {
+        View rootView = getView();
+        if (rootView == null) return;
+        LinearLayout rows = (LinearLayout) rootView.findViewById(R.id.subtask_list);
+        View row = rows.findViewWithTag(id);
+        boolean known = subtaskSet.contains(id);
+        if (task == null || task.getParentId() != mItem.getId()) {
+            // Removed, or moved to another parent.
+            if (!known) return;
+            int index = subtaskIds.indexOf(id);
+            subtaskIds.remove(index);
+            subtaskSet.remove(id);
+            if (index < subtasksShown) subtasksShown--;
+            if (row != null) rows.removeView(row);
+        } else if (!known) {
+            subtaskIds.add(id);
+            subtaskSet.add(id);
+            // A new subtask is shown if the last page is, as if it had been loaded with it.
+            if (subtasksShown == subtaskIds.size() - 1) {
+                rows.addView(newSubtaskRow(rows, task));
+                subtasksShown++;
+            }
+        } else if (row != null) bindSubtaskRow((TextView) row, task);
+        updateSubtaskControls(rootView);
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
@@ -188,8 +453,8 @@ showProgressIfComplex(rootView);
 
     @Override
     public void onPrepareOptionsMenu(Menu menu) {
-        // If task is not pending, the user will not be able to edit, complete or cancel it.
-        if (!(mItem.getStatus() instanceof TaskList.PendingTask)) {
+        // If task is not pending, or not loaded yet, the user will not be able to edit, complete or cancel it.
+        if (mItem == null || !(mItem.getStatus() instanceof TaskList.PendingTask)) {
             menu.removeItem(R.id.complete_button);
             menu.removeItem(R.id.cancel_button);
             menu.removeItem(R.id.edit_task_option);
@@ -198,20 +463,18 @@ showProgressIfComplex(rootView);
 
     @Override
     public void onComplete(TaskList.Task task, int position) {
-        ((TextView) getView().findViewById(R.id.task_status)).setText(getResources().getString(R.string.task_status) + " " + getResources().getString(R.string.completed_task));
+        // The observer shows the new status once the task is published.
         listener.onTaskChanged(task, position);
-        getActivity().invalidateOptionsMenu();
     }
 
     @Override
     public void onCancel(TaskList.Task task, int position) {
-        ((TextView) getView().findViewById(R.id.task_status)).setText(getResources().getString(R.string.task_status) + " " + getResources().getString(R.string.canceled_task));
         listener.onTaskChanged(task, position);
-        getActivity().invalidateOptionsMenu();
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (mItem == null) return super.onOptionsItemSelected(item);
         switch (item.getItemId()) {
             case R.id.edit_task_option: editTask(); return true;
             case R.id.complete_button: completeTask(); return true;
@@ -232,8 +495,11 @@ editButtonListener.init(mItem);
      */
     protected void completeTask() {
         CompleteTaskDialog dialog = new CompleteTaskDialog(mItem, position, this);
+        // The dialog restored after a rotation finds this fragment again.
+        dialog.setTargetFragment(this, 0);
         Bundle args = new Bundle();
-        args.putParcelable(TaskListActivity.ARG_TASK, mItem);
+        args.putLong(TaskListActivity.ARG_TASK_ID, mItem.getId());
+        args.putInt(ARG_ITEM_POS, position);
         dialog.setArguments(args);
         dialog.show(getFragmentManager(), "CompleteTask");
     }
@@ -243,8 +509,11 @@ editButtonListener.init(mItem);
      */
     protected void cancelTask() {
         CancelTaskDialog dialog = new CancelTaskDialog(mItem, -1, this);
+        // The dialog restored after a rotation finds this fragment again.
+        dialog.setTargetFragment(this, 0);
         Bundle args = new Bundle();
-        args.putParcelable(TaskListActivity.ARG_TASK, mItem);
+        args.putLong(TaskListActivity.ARG_TASK_ID, mItem.getId());
+        args.putInt(ARG_ITEM_POS, -1);
         dialog.setArguments(args);
         dialog.show(getFragmentManager(), "CancelDialog");
     }
@@ -264,5 +533,49 @@ editButtonListener.init(mItem);
     public void setOnTaskChangedListener(OnTaskChangedListener listener) {
         this.listener = listener;
     }
+
+    /**
+     * Refreshes the task when it is updated on the list.
+     */
+    protected class OnListTaskObserver implements TaskList.TaskListObserver {
+        @Override
+        public void onTaskAdded(TaskList.Task task, int position) {
+            if (mItem == null && task.getId() == taskId && getView() != null) {
+                // The task arrived with the stored tasks.
+                mItem = task;
+                show(getView());
+                getActivity().invalidateOptionsMenu();
+                return;
+            }
+            if (mItem != null && task.getParentId() == mItem.getId()) onSubtaskChanged(task, task.getId());
+        }
+
+        @Override
+        public void onTaskUpdated(TaskList.Task task, int position) {
+            if (mItem == null) return;
+            if (task.getId() == mItem.getId()) refresh(task);
+            else if (task.getParentId() == mItem.getId() || subtaskSet.contains(task.getId())) onSubtaskChanged(task, task.getId());
+        }
+
+        @Override
+        public void onTaskRemoved(TaskList.Task task, int position) {
+            if (mItem != null && subtaskSet.contains(task.getId())) onSubtaskChanged(null, task.getId());
+        }
+
+        @Override
+        public void onTaskMoved(TaskList.Task task, int from, int to) {
+            // Nothing to do.
+        }
+
+        @Override
+        public void onBatchStarted() {
+            // The updates of the batch refresh the task as they come.
+        }
+
+        @Override
+        public void onBatchFinished() {
+            // Nothing to do.
+        }
+    }
 }
 
@@ -0,0 +1,62 @@
+package es.uah.cc.todomanager;
+
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+import es.uah.cc.todomanager.domain.TaskFilter;
+import es.uah.cc.todomanager.domain.TaskOrder;
+
+/**
+ * Builds the filters and the order of the task list from the preferences of the user.
+ */
+public final class TaskFilterPreferences {
+
+    private TaskFilterPreferences() {
+    }
+
+    /**
+     * Builds the filter of the task list attending to several preferences.
+     * @param preferences    The preferences.
+     * @return The filter.
+     */
+    public static TaskFilter read(SharedPreferences preferences) {
+        boolean hideCompleted = preferences.getBoolean(SettingsActivity.GeneralPreferenceFragment.HIDE_COMPLETED, false);
+        boolean hideCancelled = preferences.getBoolean(SettingsActivity.GeneralPreferenceFragment.hide_canceled, false);
+        return new TaskFilter.StatusFilter(hideCompleted, hideCancelled);
+    }
+
+    /**
+     * Whether a preference changes the filter.
+     * @param key    The key of the preference.
+     * @return True if the filter must be read again.
+     */
+    public static boolean affectsFilter(String key) {
+        return SettingsActivity.GeneralPreferenceFragment.hide_canceled.equals(key)
+                || SettingsActivity.GeneralPreferenceFragment.HIDE_COMPLETED.equals(key);
+    }
+
+    /**
+     * Builds the order of the task list from the preferences.
+     * @param preferences    The preferences.
+     * @param locale         The locale to compare names in.
+     * @return The order, or null for the order the tasks were created in.
+     */
+    public static TaskOrder readOrder(SharedPreferences preferences, Locale locale) {
+        try {
+            return TaskOrder.parse(preferences.getString(SettingsActivity.GeneralPreferenceFragment.SORT_ORDER, ""), locale);
+        } catch (IllegalArgumentException e) {
+            // A value of an older version of the application.
+            return null;
+        }
+    }
+
+    /**
+     * Whether a preference changes the order.
+     * @param key    The key of the preference.
+     * @return True if the order must be read again.
+     */
+    public static boolean affectsOrder(String key) {
+        return SettingsActivity.GeneralPreferenceFragment.SORT_ORDER.equals(key);
+    }
+}
@@ -9,9 +9,12 @@ import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -23,12 +26,22 @@ import android.widget.Toast;
 
 
 import es.uah.cc.todomanager.R;
+import es.uah.cc.todomanager.domain.FilteredTaskList;
+import es.uah.cc.todomanager.domain.SearchController;
+import es.uah.cc.todomanager.domain.TaskFilter;
 import es.uah.cc.todomanager.domain.TaskList;
+import es.uah.cc.todomanager.domain.TaskOrder;
+import es.uah.cc.todomanager.domain.TaskRepository;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * An activity representing a list of Tasks. This activity
@@ -41,18 +54,59 @@ import java.util.List;
 public class TaskListActivity extends AppCompatActivity {
 
     /**
-     * The key to exchange task objects between activities.
+     * The key to exchange task ids between activities.
+     * Screens resolve the ids against the task list and publish their changes to it.
      */
-    public static  final String ARG_TASK = "cc.uah.es.todomanager.task";
+    public static  final String ARG_TASK_ID = "cc.uah.es.todomanager.task_id";
     /**
      * Whether or not the activity is in two-pane mode, i.e. running on a tablet
      * device.
      */
     private boolean mTwoPane;
     /**
-     * A filtered task list.
+     * The number of search results shown at a time.
      */
-    private List<TaskList.Task> filteredTasks;
+    private static final int PAGE_SIZE = 50;
+    /**
+     * The maximum number of results of a search.
+     */
+    private static final int SEARCH_LIMIT = 500;
+    /**
+     * A live filtered view of the task list.
+     */
+    private FilteredTaskList filteredTasks;
+    /**
+     * The adapter of the recycler view. It lives as long as the activity.
+     */
+    private SimpleItemRecyclerViewAdapter adapter;
+    /**
+     * The row models of the tasks shown.
+     */
+    private TaskRowModelCache rowModels;
+    /**
+     * The executor to compute differences of the filtered list.
+     */
+    private ExecutorService diffExecutor;
+    /**
+     * Runs the searches typed in the toolbar.
+     */
+    private SearchController searchController;
+    /**
+     * The executor to wait for keystrokes and run the searches.
+     */
+    private ScheduledExecutorService searchExecutor;
+    /**
+     * The results shown instead of the list while searching, or null.
+     */
+    private List<TaskList.Task> searchResults;
+    /**
+     * The ids of the tasks selected to change them at once.
+     */
+    private final Set<Long> selectedIds = new HashSet<Long>();
+    /**
+     * The contextual toolbar shown while tasks are selected, or null.
+     */
+    private ActionMode selectionMode;
     /**
      * A OnSharedPreferenceChangeListener.
      * It must be a field of the activity in order to avoid the GC collects it.
@@ -60,39 +114,27 @@ public class TaskListActivity extends AppCompatActivity {
     private SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener;
 
     /**
-     * Filters the task list attending to several preferences.
-     * @param source    The original list.
-     * @return The filtered list.
+     * The repository to change the tasks through.
+     * @return The repository of the application.
      */
-    protected  List<TaskList.Task> filterTasks(List<TaskList.Task> source) {
-        List<TaskList.Task> l = new ArrayList<TaskList.Task>();
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        boolean hideCompleted = preferences.getBoolean(SettingsActivity.GeneralPreferenceFragment.HIDE_COMPLETED, false);
-boolean hideCancelled = preferences.getBoolean(SettingsActivity.GeneralPreferenceFragment.hide_canceled, false);
-        Iterator it = source.iterator();
-        while (it.hasNext()) {
-            TaskList.Task t = (TaskList.Task) it.next();
-if (hideCancelled & t.getStatus().getStatusDescription().equals(TaskList.CanceledTask.STATUS)) continue;
-            if (hideCompleted & t.getStatus().getStatusDescription().equals(TaskList.CompletedTask.STATUS)) continue;
-            l.add(t);
-        }
-        return l;
+    protected TaskRepository getTaskRepository() {
+        return ((TodoManagerApplication) getApplication()).getTaskRepository();
     }
 
     /**
-     * Filter the master task list and refresh the recycler view using the resulting list.
-     * @param list    The recycler view list.
+     * Builds the filter of the task list attending to several preferences.
+     * @return The filter.
      */
-    protected void refreshTasks(RecyclerView list) {
-        filteredTasks = filterTasks(TaskList.getInstance().getTasks());
-        setupRecyclerView(list, filteredTasks);
+    protected TaskFilter readFilter() {
+        return TaskFilterPreferences.read(PreferenceManager.getDefaultSharedPreferences(this));
     }
 
     /**
-     * Refresh the main recycler view.
+     * Builds the order of the task list from the preferences.
+     * @return The order, or null for the order the tasks were created in.
      */
-    protected void refreshTasks() {
-refreshTasks((RecyclerView) findViewById(R.id.task_list));
+    protected TaskOrder readOrder() {
+        return TaskFilterPreferences.readOrder(PreferenceManager.getDefaultSharedPreferences(this), Locale.getDefault());
     }
 
     @Override
@@ -104,8 +146,14 @@ refreshTasks((RecyclerView) findViewById(R.id.task_list));
         setSupportActionBar(toolbar);
         toolbar.setTitle(getTitle());
 
-        //Initializes the task list.
-        TaskList.fillSampleData(TaskList.getInstance());
+        //Initializes the task list, after the stored tasks are loaded.
+        getTaskRepository().submit(new TaskRepository.Command<Void>() {
+            @Override
+            public Void run(TaskList tasks) {
+                TaskList.fillSampleData(tasks);
+                return null;
+            }
+        }, null);
 
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -118,10 +166,23 @@ refreshTasks((RecyclerView) findViewById(R.id.task_list));
         // Listens to changes on preferences.
         preferenceChangeListener = new OnFilterChangedListener();
         PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(preferenceChangeListener);
-        // Initializes the recycler view.
+        // Initializes the recycler view. The filtered list notifies the adapter of each change.
         RecyclerView recyclerView = (RecyclerView) findViewById(R.id.task_list);
         assert recyclerView != null;
-        refreshTasks(recyclerView);
+        filteredTasks = new FilteredTaskList(TaskList.getInstance(), readFilter());
+        // Sorted once here; later changes reposition single rows.
+        filteredTasks.setOrder(readOrder());
+        filteredTasks.setCallback(new OnFilteredListChangedCallback());
+        // Whole list changes are diffed in background and applied on the main thread.
+        diffExecutor = Executors.newSingleThreadExecutor();
+        filteredTasks.setExecutors(diffExecutor, new MainThreadExecutor());
+        setupRecyclerView(recyclerView, filteredTasks);
+        // Searches are debounced and run in background; their results arrive in pages.
+        searchExecutor = Executors.newSingleThreadScheduledExecutor();
+        searchController = new SearchController(((TodoManagerApplication) getApplication()).getTaskSearchIndex(),
+                TaskList.getInstance(), searchExecutor, new MainThreadExecutor(),
+                SearchController.DEFAULT_DEBOUNCE, SEARCH_LIMIT, PAGE_SIZE);
+        searchController.setListener(new OnSearchResultsListener());
 
         if (findViewById(R.id.task_detail_container) != null) {
             // The detail container view will be present only in the
@@ -132,14 +193,96 @@ refreshTasks((RecyclerView) findViewById(R.id.task_list));
         }
     }
 
+    @Override
+    public void onAttachFragment(Fragment fragment) {
+        super.onAttachFragment(fragment);
+        // A detail or a dialog restored after a rotation is made by the system, without the listeners of this activity.
+        if (fragment instanceof TaskDetailFragment) {
+            ((TaskDetailFragment) fragment).setOnTaskChangedListener(new OnListTaskChangedListener());
+            ((TaskDetailFragment) fragment).setEditButtonListener(new OnListEditButtonListener());
+        } else if (fragment instanceof CompleteTaskDialog && fragment.getTargetFragment() == null) {
+            ((CompleteTaskDialog) fragment).setListener(new OnListCompleteTaskListener());
+        } else if (fragment instanceof CancelTaskDialog && fragment.getTargetFragment() == null) {
+            ((CancelTaskDialog) fragment).setListener(new OnListCancelTaskListener());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        filteredTasks.detach();
+        diffExecutor.shutdown();
+        searchController.clear();
+        searchExecutor.shutdownNow();
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        MenuItem searchItem = menu.findItem(R.id.search_option);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search));
+        searchView.setOnQueryTextListener(new OnSearchQueryListener());
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                endSearch();
+                return true;
+            }
+        });
         return true;
     }
 
-    private void setupRecyclerView(@NonNull RecyclerView recyclerView, List<TaskList.Task> tasks) {
-        recyclerView.setAdapter(new SimpleItemRecyclerViewAdapter(tasks));
+    /**
+     * Whether search results are shown instead of the list.
+     * @return True if searching.
+     */
+    protected boolean isSearching() {
+        return searchResults != null;
+    }
+
+    /**
+     * Starts a search, or shows the list again when the query is empty.
+     * @param query    The query typed.
+     */
+    protected void search(String query) {
+        if (query.trim().isEmpty()) endSearch();
+        else searchController.search(query);
+    }
+
+    /**
+     * Shows the list instead of the search results.
+     */
+    protected void endSearch() {
+        searchController.clear();
+        if (searchResults == null) return;
+        searchResults = null;
+        notifyTaskListChanged();
+    }
+
+    /**
+     * The task of a row.
+     * @param position    The position on the list view.
+     * @return The task.
+     */
+    protected TaskList.Task taskAt(int position) {
+        return isSearching() ? searchResults.get(position) : filteredTasks.get(position);
+    }
+
+    private void setupRecyclerView(@NonNull RecyclerView recyclerView, FilteredTaskList tasks) {
+        // Resources are read once, not on each bind.
+        rowModels = new TaskRowModelCache(getResources().getColor(R.color.high_priority),
+                getResources().getColor(R.color.medium_priority), getResources().getColor(R.color.low_priority),
+                getResources().getColor(R.color.completed), getResources().getColor(R.color.canceled),
+                getResources().getString(R.string.percentage_completed), DateFormat.getDateInstance(DateFormat.SHORT));
+        adapter = new SimpleItemRecyclerViewAdapter(tasks);
+        recyclerView.setAdapter(adapter);
     }
 
     /**
@@ -149,9 +292,9 @@ refreshTasks((RecyclerView) findViewById(R.id.task_list));
             extends RecyclerView.Adapter<SimpleItemRecyclerViewAdapter.ViewHolder> {
 
         // the task list.
-        private final List<TaskList.Task> mValues;
+        private final FilteredTaskList mValues;
 
-        public SimpleItemRecyclerViewAdapter(List<TaskList.Task> items) {
+        public SimpleItemRecyclerViewAdapter(FilteredTaskList items) {
             mValues = items;
         }
 
@@ -164,63 +307,23 @@ refreshTasks((RecyclerView) findViewById(R.id.task_list));
 
         @Override
         public void onBindViewHolder(final ViewHolder holder, final int position) {
-            holder.mItem = mValues.get(position);
-            // We change the color of the task's title depending on its priority if it is pending.
-            if (holder.mItem.getStatus() instanceof TaskList.PendingTask) {
-                switch (holder.mItem.getPriority()) {
-                    case TaskList.Task.HIGH_PRIORITY:
-                        holder.mNameView.setTextColor(getResources().getColor(R.color.high_priority));
-                        break;
-                    case TaskList.Task.LOW_PRIORITY:
-                        holder.mNameView.setTextColor(getResources().getColor(R.color.low_priority));
-                        break;
-                    default: holder.mNameView.setTextColor(getResources().getColor(R.color.medium_priority));
-                }
-            } else {
-                // Else we change the color of the task's title depending on its status.
-                if (holder.mItem.getStatus() instanceof TaskList.CompletedTask) holder.mNameView.setTextColor(getResources().getColor(R.color.completed));
-                else if (holder.mItem.getStatus() instanceof TaskList.CanceledTask) holder.mNameView.setTextColor(getResources().getColor(R.color.canceled));
-            }
-
-            holder.mNameView.setText(holder.mItem.getName());
-            if (holder.mItem.isComplex() & holder.mItem.getStatus() instanceof TaskList.PendingTask)
-                holder.mNameView.append("\n" + String.format(getResources().getString(R.string.percentage_completed), holder.mItem.getCompleted()));
-            // Deadline is only shown if it is setted.
-            if (holder.mItem.getDeadline() != null)
-            holder.mDeadlineView.setText(DateFormat.getDateInstance(DateFormat.SHORT).format(holder.mItem.getDeadline()));
+            // The row model holds the text and color of the task, computed when it changes.
+            TaskList.Task task = isSearching() ? searchResults.get(position) : mValues.get(position);
+            TaskRowModel row = rowModels.get(task);
+            holder.mItem = row.task;
+            holder.mView.setActivated(selectedIds.contains(task.getId()));
+            holder.mNameView.setTextColor(row.color);
+            holder.mNameView.setText(row.title);
+            holder.mDeadlineView.setText(row.deadline);
             // If the task is pending buttons to complete or cancel it are visible.
-            if (holder.mItem.getStatus() instanceof TaskList.CompletedTask | holder.mItem.getStatus() instanceof  TaskList.CanceledTask) {
-                holder.mCompleteButton.setVisibility(View.INVISIBLE);
-                holder.mCancelButton.setVisibility(View.INVISIBLE);
-            } else {
-                holder.mCompleteButton.setVisibility(View.VISIBLE);
-                holder.mCancelButton.setVisibility(View.VISIBLE);
-            }
-// If the user presses the title of the task its details will be shown.
-            holder.mNameView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    viewTask(holder.mItem, position, v);
-                }
-            });
-
-            holder.mCompleteButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    completeTask(holder.mItem, position);
-                }
-            });
-            holder.mCancelButton.setOnClickListener((new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-cancelTask(holder.mItem, position);
-                }
-            }));
+            int buttons = row.pending ? View.VISIBLE : View.INVISIBLE;
+            holder.mCompleteButton.setVisibility(buttons);
+            holder.mCancelButton.setVisibility(buttons);
         }
 
         @Override
         public int getItemCount() {
-            return mValues.size();
+            return isSearching() ? searchResults.size() : mValues.size();
         }
 
         /**
@@ -241,6 +344,42 @@ cancelTask(holder.mItem, position);
                 mDeadlineView = (TextView) view.findViewById(R.id.deadline);
                 mCancelButton = (ImageButton) view.findViewById(R.id.cancel_button);
                 mCompleteButton = (ImageButton) view.findViewById(R.id.complete_button);
+                // The listeners are set once; rows are not rebound when others are inserted or removed,
+                // so the position is read on click.
+                // If the user presses the title of the task its details will be shown,
+                // unless tasks are being selected; a long press starts the selection.
+                mNameView.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        int position = getAdapterPosition();
+                        if (position == RecyclerView.NO_POSITION) return;
+                        if (isSelecting()) toggleSelection(taskAt(position), position);
+                        else viewTask(taskAt(position), position, v);
+                    }
+                });
+                mNameView.setOnLongClickListener(new View.OnLongClickListener() {
+                    @Override
+                    public boolean onLongClick(View v) {
+                        int position = getAdapterPosition();
+                        if (position == RecyclerView.NO_POSITION) return false;
+                        toggleSelection(taskAt(position), position);
+                        return true;
+                    }
+                });
+                mCompleteButton.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        int position = getAdapterPosition();
+                        if (position != RecyclerView.NO_POSITION) completeTask(taskAt(position), position);
+                    }
+                });
+                mCancelButton.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        int position = getAdapterPosition();
+                        if (position != RecyclerView.NO_POSITION) cancelTask(taskAt(position), position);
+                    }
+                });
             }
 
             @Override
@@ -258,7 +397,8 @@ cancelTask(holder.mItem, position);
     protected void completeTask(TaskList.Task task, int position) {
         CompleteTaskDialog dialog = new CompleteTaskDialog(task, position, new OnListCompleteTaskListener());
         Bundle args = new Bundle();
-        args.putParcelable(ARG_TASK, task);
+        args.putLong(ARG_TASK_ID, task.getId());
+        args.putInt(TaskDetailFragment.ARG_ITEM_POS, position);
         dialog.setArguments(args);
         dialog.show(getSupportFragmentManager(), "CompleteTask");
     }
@@ -271,11 +411,129 @@ cancelTask(holder.mItem, position);
     protected void cancelTask (TaskList.Task task, int position) {
         CancelTaskDialog dialog = new CancelTaskDialog(task, position, new OnListCancelTaskListener());
         Bundle args = new Bundle();
-        args.putParcelable(ARG_TASK, task);
+        args.putLong(ARG_TASK_ID, task.getId());
+        args.putInt(TaskDetailFragment.ARG_ITEM_POS, position);
         dialog.setArguments(args);
         dialog.show(getSupportFragmentManager(), "CancelDialog");
     }
 
+    /**
+     * The row of a task.
+     * @param id    The id of the task.
+     * @return The position on the list view, or -1 if it is not shown.
+     */
+    protected int positionOf(long id) {
+        if (!isSearching()) return filteredTasks.indexOf(id);
+        for (int i = 0; i < searchResults.size(); i++) if (searchResults.get(i).getId() == id) return i;
+        return -1;
+    }
+
+    /**
+     * Whether tasks are being selected.
+     * @return True if the contextual toolbar is shown.
+     */
+    protected boolean isSelecting() {
+        return selectionMode != null;
+    }
+
+    /**
+     * Selects a task, or unselects it if it was selected. The first selection shows the contextual toolbar
+     * and the last unselection hides it.
+     * @param task        The task.
+     * @param position    The position on the list view.
+     */
+    protected void toggleSelection(TaskList.Task task, int position) {
+        if (!selectedIds.remove(task.getId())) selectedIds.add(task.getId());
+        notifyTaskChanged(position);
+        if (selectedIds.isEmpty()) {
+            if (selectionMode != null) selectionMode.finish();
+            return;
+        }
+        if (selectionMode == null) selectionMode = startSupportActionMode(new SelectionModeCallback());
+        selectionMode.setTitle(getString(R.string.selected_tasks, selectedIds.size()));
+    }
+
+    /**
+     * Changes every selected task with a single batch, which is stored with one write
+     * and refreshes the list once.
+     * @param action    The id of the option of the contextual toolbar.
+     * @return True if the option changes the selection.
+     */
+    protected boolean changeSelection(int action) {
+        List<TaskList.Task> updated = new ArrayList<TaskList.Task>();
+        List<Long> removed = new ArrayList<Long>();
+        TaskList tasks = TaskList.getInstance();
+        for (Long id : selectedIds) {
+            TaskList.Task task = tasks.getTask(id);
+            if (task == null) continue;
+            boolean pending = task.getStatus() instanceof TaskList.PendingTask;
+            // Changes are made on copies, which the repository publishes.
+            TaskList.Task copy = new TaskList.Task(task);
+            switch (action) {
+                case R.id.complete_selection_option:
+                    if (!pending) continue;
+                    copy.complete();
+                    break;
+                case R.id.cancel_selection_option:
+                    if (!pending) continue;
+                    copy.cancel();
+                    break;
+                case R.id.delete_selection_option:
+                    removed.add(id);
+                    continue;
+                case R.id.high_priority_option: copy.setPriority(TaskList.Priority.HIGH); break;
+                case R.id.medium_priority_option: copy.setPriority(TaskList.Priority.MEDIUM); break;
+                case R.id.low_priority_option: copy.setPriority(TaskList.Priority.LOW); break;
+                default: return false;
+            }
+            updated.add(copy);
+        }
+        getTaskRepository().applyBatch(updated, removed, new TaskRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer changed) {
+                // Nothing to undo if none of the selected tasks could be changed.
+                if (changed > 0) showUndo(getString(R.string.tasks_changed, changed));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Shows the options to change the selected tasks, and clears the selection when it is closed.
+     */
+    protected class SelectionModeCallback implements ActionMode.Callback {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            // The priority submenu is opened by its item.
+            if (item.hasSubMenu() || !changeSelection(item.getItemId())) return false;
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            // Only the rows which were selected change.
+            List<Long> unselected = new ArrayList<Long>(selectedIds);
+            selectedIds.clear();
+            for (Long id : unselected) {
+                int position = positionOf(id);
+                if (position >= 0) notifyTaskChanged(position);
+            }
+        }
+    }
+
     /**
      * Shows details of a task.
      * @param task the task to be shown.
@@ -284,7 +542,7 @@ cancelTask(holder.mItem, position);
      */
     protected void viewTask(TaskList.Task task, int position, View v) {
         if (mTwoPane) {
-            TaskDetailFragment fragment = TaskDetailFragment.newInstance(new OnListTaskChangedListener(), new OnListEditButtonListener(), task, position);
+            TaskDetailFragment fragment = TaskDetailFragment.newInstance(new OnListTaskChangedListener(), new OnListEditButtonListener(), task.getId(), position);
             getSupportFragmentManager().beginTransaction()
                     .addToBackStack(TaskDetailFragment.TAG)
                     .replace(R.id.task_detail_container, fragment)
@@ -292,7 +550,7 @@ cancelTask(holder.mItem, position);
         } else {
             Context context = v.getContext();
             Intent intent = new Intent(context, TaskDetailActivity.class);
-            intent.putExtra(ARG_TASK, task);
+            intent.putExtra(ARG_TASK_ID, task.getId());
             intent.putExtra(TaskDetailFragment.ARG_ITEM_POS, position);
 
             startActivityForResult(intent, TaskDetailActivity.ACTIVITY_CODE);
@@ -322,24 +580,22 @@ cancelTask(holder.mItem, position);
      * @param position    The position on the list view.
      */
     protected void notifyTaskChanged(int position) {
-        RecyclerView list = (RecyclerView) findViewById(R.id.task_list);
-        list.getAdapter().notifyItemChanged(position);
+        adapter.notifyItemChanged(position);
     }
 
     /**
      * Notifies that the tassk list was changed.
      */
     protected void notifyTaskListChanged() {
-        RecyclerView list = (RecyclerView) findViewById(R.id.task_list);
-        list.getAdapter().notifyDataSetChanged();
+        adapter.notifyDataSetChanged();
     }
 
     /**
      * Notifies that a new item was inserted on the list.
+     * @param position    the position on the list view.
      */
-    protected void notifyItemInserted() {
-        RecyclerView list = (RecyclerView) findViewById(R.id.task_list);
-        list.getAdapter().notifyItemInserted(TaskList.getInstance().getTasks().size());
+    protected void notifyItemInserted(int position) {
+        adapter.notifyItemInserted(position);
     }
 
     /**
@@ -347,15 +603,151 @@ cancelTask(holder.mItem, position);
      * @param position    the position on the list view.
      */
     protected void notifyItemRemoved(int position) {
-        RecyclerView list = (RecyclerView) findViewById(R.id.task_list);
-        list.getAdapter().notifyItemRemoved(position);
+        adapter.notifyItemRemoved(position);
+    }
+
+    /**
+     * Notifies that an item was moved on the list.
+     * @param from    The old position on the list view.
+     * @param to      The new position on the list view.
+     */
+    protected void notifyItemMoved(int from, int to) {
+        adapter.notifyItemMoved(from, to);
+    }
+
+    /**
+     * Forwards the changes of the filtered list to the recycler view.
+     */
+    protected class OnFilteredListChangedCallback implements FilteredTaskList.Callback {
+        // While searching the rows are the results, so the search runs again instead.
+        @Override
+        public void onInserted(int position, int count) {
+            if (isSearching()) searchController.refresh();
+            else if (count == 1) notifyItemInserted(position);
+            else adapter.notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (isSearching()) searchController.refresh();
+            else if (count == 1) notifyItemRemoved(position);
+            else adapter.notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            if (isSearching()) searchController.refresh();
+            else if (count == 1) notifyTaskChanged(position);
+            else adapter.notifyItemRangeChanged(position, count);
+        }
+
+        @Override
+        public void onMoved(int from, int to) {
+            if (!isSearching()) notifyItemMoved(from, to);
+        }
+
+        @Override
+        public void onReset() {
+            if (isSearching()) searchController.refresh();
+            else notifyTaskListChanged();
+        }
+    }
+
+    /**
+     * Searches the text typed in the toolbar.
+     */
+    protected class OnSearchQueryListener implements SearchView.OnQueryTextListener {
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+            search(query);
+            return true;
+        }
+
+        @Override
+        public boolean onQueryTextChange(String newText) {
+            search(newText);
+            return true;
+        }
+    }
+
+    /**
+     * Shows the results of the searches as they arrive.
+     */
+    protected class OnSearchResultsListener implements SearchController.Listener {
+        @Override
+        public void onSearchStarted(String query) {
+            searchResults = new ArrayList<TaskList.Task>();
+            notifyTaskListChanged();
+        }
+
+        @Override
+        public void onResults(String query, List<TaskList.Task> results) {
+            int start = searchResults.size();
+            searchResults.addAll(results);
+            adapter.notifyItemRangeInserted(start, results.size());
+        }
+
+        @Override
+        public void onSearchFinished(String query, int count, long latency) {
+            // Screen readers tell how many tasks were found.
+            findViewById(R.id.task_list).announceForAccessibility(getString(R.string.search_results, count));
+        }
+    }
+
+    /**
+     * Tells the user about a change, with an action to undo it.
+     * Completions and cancellations can not be changed afterwards, so a mistaken tap is undone here.
+     * @param message    The message.
+     */
+    protected void showUndo(String message) {
+        Snackbar.make(findViewById(R.id.frameLayout), message, Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        undo();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Undoes the last change of the user. The rows follow the change as any other one.
+     */
+    protected void undo() {
+        getTaskRepository().undo(new OnUndoneListener(R.string.change_undone, R.string.nothing_to_undo));
+    }
+
+    /**
+     * Redoes the last change undone.
+     */
+    protected void redo() {
+        getTaskRepository().redo(new OnUndoneListener(R.string.change_redone, R.string.nothing_to_redo));
+    }
+
+    /**
+     * Tells whether a change was undone or redone: screen readers announce it, as the list changes silently,
+     * and a toast tells when there was nothing to do.
+     */
+    protected class OnUndoneListener implements TaskRepository.Callback<Boolean> {
+        private final int done;
+        private final int nothing;
+
+        OnUndoneListener(int done, int nothing) {
+            this.done = done;
+            this.nothing = nothing;
+        }
+
+        @Override
+        public void onResult(Boolean changed) {
+            if (changed) findViewById(R.id.task_list).announceForAccessibility(getString(done));
+            else Toast.makeText(getApplicationContext(), nothing, Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
      * Do some operations after adding a task.
      */
     protected void addTask() {
-        refreshTasks();
         Toast toast = Toast.makeText(getApplicationContext(), R.string.task_added, Toast.LENGTH_SHORT);
         toast.show();
     }
@@ -366,14 +758,13 @@ cancelTask(holder.mItem, position);
     public class  OnListCancelTaskListener implements CancelTaskDialog.CancelDialogListener {
         @Override
         public void onCancel(TaskList.Task task, int position) {
-            TaskList.getInstance().setTask(task);
-            /* if (PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getBoolean(SettingsActivity.GeneralPreferenceFragment.hide_canceled, false)) {
-                notifyItemRemoved(position);
-                filteredTasks.remove(filteredTasks.indexOf(task));
-            } else notifyTaskChanged(position); */
-            refreshTasks();
-            Toast toast = Toast.makeText(getApplicationContext(), R.string.task_canceled, Toast.LENGTH_SHORT);
-            toast.show();
+            // The filtered list removes or updates the row once the change is applied.
+            getTaskRepository().setTask(task, new TaskRepository.Callback<Boolean>() {
+                @Override
+                public void onResult(Boolean updated) {
+                    showUndo(getString(R.string.task_canceled));
+                }
+            });
         }
     }
 
@@ -383,14 +774,13 @@ cancelTask(holder.mItem, position);
     public class OnListCompleteTaskListener implements CompleteTaskDialog.CompleteDialogListener {
         @Override
         public void onComplete(TaskList.Task task, int position) {
-            TaskList.getInstance().setTask(task);
-            /* if (PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getBoolean(SettingsActivity.GeneralPreferenceFragment.HIDE_COMPLETED, false)) {
-                filteredTasks.remove(filteredTasks.indexOf(task));
-                notifyItemRemoved(position);
-            } else notifyTaskChanged(position); */
-            refreshTasks();
-            Toast toast = Toast.makeText(getApplicationContext(), R.string.task_completed, Toast.LENGTH_SHORT);
-            toast.show();
+            // The filtered list removes or updates the row once the change is applied.
+            getTaskRepository().setTask(task, new TaskRepository.Callback<Boolean>() {
+                @Override
+                public void onResult(Boolean updated) {
+                    showUndo(getString(R.string.task_completed));
+                }
+            });
         }
     }
 
@@ -410,48 +800,16 @@ cancelTask(holder.mItem, position);
      * @param position
      */
     protected void updateTask(TaskList.Task task, int position) {
-        TaskList.getInstance().setTask(task);
-        refreshTasks();
-        /* SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
-        boolean hideCompleted = preferences.getBoolean(SettingsActivity.GeneralPreferenceFragment.HIDE_COMPLETED, false);
-        boolean hideCancelled = preferences.getBoolean(SettingsActivity.GeneralPreferenceFragment.hide_canceled, false);
-        if (hideCancelled & task.getStatus().getStatusDescription().equals(TaskList.CanceledTask.STATUS)) {
-            filteredTasks.remove(filteredTasks.indexOf(task));
-            notifyItemRemoved(position);
-        } else if (hideCompleted & task.getStatus().getStatusDescription().equals(TaskList.CompletedTask.STATUS)) {
-            filteredTasks.remove(filteredTasks.indexOf(task));
-            notifyItemRemoved(position);
-        } else {
-            filteredTasks.set(filteredTasks.indexOf(task), task);
-            notifyTaskChanged(position);
-        }
-        */
+        getTaskRepository().setTask(task, null);
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        // The other screens publish their changes to the task list, which updates the rows.
         switch (requestCode) {
-            case TaskDetailActivity.ACTIVITY_CODE:
-                if (resultCode == TaskDetailActivity.CHANGED) {
-                    TaskList.Task t = data.getParcelableExtra(ARG_TASK);
-                    int position = data.getIntExtra(TaskDetailFragment.ARG_ITEM_POS, -1);
-updateTask(t, position);
-                }
-                break;
             case NewTaskActivity.ACTIVITY_CODE:
-                if (resultCode == EditTask1Fragment.TASK_CREATION_COMPLETED) {
-                    TaskList.Task t = data.getParcelableExtra(TaskListActivity.ARG_TASK);
-                    TaskList.getInstance().addTask(t);
-                    addTask();
-                }
+                if (resultCode == EditTask1Fragment.TASK_CREATION_COMPLETED) addTask();
                     break;
-            case EditTaskActivity.ACTIVITY_CODE: if (requestCode == TaskDetailActivity.CHANGED) {
-                TaskList.Task t = data.getParcelableExtra(ARG_TASK);
-                TaskList.getInstance().setTask(t);
-                filteredTasks.set(filteredTasks.indexOf(t), t);
-                notifyTaskChanged(data.getIntExtra(TaskDetailFragment.ARG_ITEM_POS, -1));
-            }
-                break;
         }
     }
 
@@ -462,6 +820,10 @@ updateTask(t, position);
             case R.id.settings_option: Intent intent = new Intent(this, SettingsActivity.class);
                 startActivity(intent);
                 return true;
+            case R.id.undo_option: undo();
+                return true;
+            case R.id.redo_option: redo();
+                return true;
             case R.id.help_option: Intent helpIntent = new Intent(this, HelpActivity.class);
                 startActivity(helpIntent);
                 return true;
@@ -498,10 +860,15 @@ getSupportFragmentManager().popBackStack();
 
         @Override
         public void onFinish(TaskList.Task task) {
-TaskList.getInstance().addTask(task);
-            addTask();
             getSupportFragmentManager().popBackStack(EditTask1Fragment.TAG, FragmentManager.POP_BACK_STACK_INCLUSIVE);
-            viewTask(task, TaskList.getInstance().getTasks().size(), null);
+            // The repository gives the new task its id.
+            getTaskRepository().addTask(task, new TaskRepository.Callback<TaskList.Task>() {
+                @Override
+                public void onResult(TaskList.Task added) {
+                    addTask();
+                    viewTask(added, filteredTasks.indexOf(added.getId()), null);
+                }
+            });
         }
 
     }
@@ -532,12 +899,12 @@ TaskList.getInstance().addTask(task);
 
         @Override
         public void onFinish(TaskList.Task task) {
-            int position = filteredTasks.indexOf(task);
+            int position = filteredTasks.indexOf(task.getId());
 new OnListTaskChangedListener().onTaskChanged(task, position);
             getSupportFragmentManager().popBackStack(EditTask1Fragment.TAG, FragmentManager.POP_BACK_STACK_INCLUSIVE);
             getSupportFragmentManager().popBackStack();
             getSupportFragmentManager().beginTransaction()
-                    .replace(R.id.task_detail_container, TaskDetailFragment.newInstance(new OnListTaskChangedListener(), new OnListEditButtonListener(), task, position))
+                    .replace(R.id.task_detail_container, TaskDetailFragment.newInstance(new OnListTaskChangedListener(), new OnListEditButtonListener(), task.getId(), position))
                     .addToBackStack(TaskDetailFragment.TAG)
                     .commit();
         }
@@ -549,7 +916,8 @@ new OnListTaskChangedListener().onTaskChanged(task, position);
     protected class OnListEditButtonListener implements  OnEditButtonListener {
     @Override
     public void init(TaskList.Task task) {
-        EditTask1Fragment fragment = EditTask1Fragment.newInstance(new OnUpdateTaskListener(), task);
+        // The form edits a copy, which is published when it is finished.
+        EditTask1Fragment fragment = EditTask1Fragment.newInstance(new OnUpdateTaskListener(), new TaskList.Task(task));
         getSupportFragmentManager().beginTransaction()
                 .addToBackStack(EditTask1Fragment.TAG)
                 .replace(R.id.task_detail_container, fragment)
@@ -563,8 +931,10 @@ new OnListTaskChangedListener().onTaskChanged(task, position);
     protected class OnFilterChangedListener implements SharedPreferences.OnSharedPreferenceChangeListener {
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(SettingsActivity.GeneralPreferenceFragment.hide_canceled) | key.equals(SettingsActivity.GeneralPreferenceFragment.HIDE_COMPLETED))
-refreshTasks();
+        if (TaskFilterPreferences.affectsFilter(key))
+            filteredTasks.setFilter(readFilter());
+        else if (TaskFilterPreferences.affectsOrder(key))
+            filteredTasks.setOrder(readOrder());
     }
 }
 }
@@ -0,0 +1,43 @@
+package es.uah.cc.todomanager;
+
+import es.uah.cc.todomanager.domain.TaskList;
+
+/**
+ * What a row of the task list shows for a version of a task, computed once so binding a row
+ * only sets precomputed values on its views.
+ */
+public class TaskRowModel {
+    /**
+     * The task the row was computed for.
+     */
+    public final TaskList.Task task;
+    /**
+     * The content hash of the task when the row was computed.
+     */
+    final int hash;
+    /**
+     * The title of the task, followed by its progress if it is complex and pending.
+     */
+    public final String title;
+    /**
+     * The formatted deadline, or an empty string if the task has no deadline.
+     */
+    public final String deadline;
+    /**
+     * The color of the title.
+     */
+    public final int color;
+    /**
+     * Whether the task is pending, so it can be completed or canceled.
+     */
+    public final boolean pending;
+
+    TaskRowModel(TaskList.Task task, int hash, String title, String deadline, int color, boolean pending) {
+        this.task = task;
+        this.hash = hash;
+        this.title = title;
+        this.deadline = deadline;
+        this.color = color;
+        this.pending = pending;
+    }
+}
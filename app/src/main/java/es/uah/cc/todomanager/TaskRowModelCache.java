@@ -0,0 +1,122 @@
+package es.uah.cc.todomanager;
+
+import java.text.DateFormat;
+
+import es.uah.cc.todomanager.domain.TaskList;
+import es.uah.cc.todomanager.domain.TaskListDiff;
+
+/**
+ * A cache of the row models of the tasks.
+ * It is a direct mapped table indexed by task id, so it is bounded and looking up a row
+ * allocates nothing. A row is computed again only when its task is replaced or its content
+ * changes, or when another task takes its slot.
+ * It must be used from a single thread.
+ */
+public class TaskRowModelCache {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final TaskRowModel[] rows;
+    private final int mask;
+    private final int highPriorityColor;
+    private final int mediumPriorityColor;
+    private final int lowPriorityColor;
+    private final int completedColor;
+    private final int canceledColor;
+    private final String progressFormat;
+    private final DateFormat dateFormat;
+    /**
+     * The progress texts by percentage, formatted when first needed.
+     */
+    private final String[] progressTexts = new String[101];
+    private int misses;
+
+    /**
+     * Constructor.
+     * @param capacity               The number of rows kept. It is rounded up to a power of two.
+     * @param highPriorityColor      The color of pending tasks with high priority.
+     * @param mediumPriorityColor    The color of pending tasks with medium priority.
+     * @param lowPriorityColor       The color of pending tasks with low priority.
+     * @param completedColor         The color of completed tasks.
+     * @param canceledColor          The color of canceled tasks.
+     * @param progressFormat         The format of the progress, with the percentage as argument.
+     * @param dateFormat             The format of the deadline.
+     */
+    public TaskRowModelCache(int capacity, int highPriorityColor, int mediumPriorityColor, int lowPriorityColor,
+                             int completedColor, int canceledColor, String progressFormat, DateFormat dateFormat) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        rows = new TaskRowModel[size];
+        mask = size - 1;
+        this.highPriorityColor = highPriorityColor;
+        this.mediumPriorityColor = mediumPriorityColor;
+        this.lowPriorityColor = lowPriorityColor;
+        this.completedColor = completedColor;
+        this.canceledColor = canceledColor;
+        this.progressFormat = progressFormat;
+        this.dateFormat = dateFormat;
+    }
+
+    /**
+     * Constructor for a cache of a few screens of rows.
+     */
+    public TaskRowModelCache(int highPriorityColor, int mediumPriorityColor, int lowPriorityColor,
+                             int completedColor, int canceledColor, String progressFormat, DateFormat dateFormat) {
+        this(DEFAULT_CAPACITY, highPriorityColor, mediumPriorityColor, lowPriorityColor, completedColor, canceledColor,
+                progressFormat, dateFormat);
+    }
+
+    /**
+     * Gets the row of a task.
+     * @param task    The task.
+     * @return The row.
+     */
+    public TaskRowModel get(TaskList.Task task) {
+        long id = task.getId();
+        int slot = (int) (id ^ (id >>> 32)) & mask;
+        int hash = TaskListDiff.contentHash(task);
+        TaskRowModel row = rows[slot];
+        if (row != null && row.task == task && row.hash == hash) return row;
+        row = compute(task, hash);
+        rows[slot] = row;
+        misses++;
+        return row;
+    }
+
+    /**
+     * Drops every row, e.g. when the formats change.
+     */
+    public void clear() {
+        for (int i = 0; i < rows.length; i++) rows[i] = null;
+    }
+
+    /**
+     * The number of rows computed so far.
+     * @return The number of rows.
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    private TaskRowModel compute(TaskList.Task task, int hash) {
+        boolean pending = task.getStatus() instanceof TaskList.PendingTask;
+        int color;
+        if (pending) {
+            switch (task.getPriority()) {
+                case HIGH: color = highPriorityColor; break;
+                case LOW: color = lowPriorityColor; break;
+                default: color = mediumPriorityColor;
+            }
+        } else if (task.getStatus() instanceof TaskList.CanceledTask) color = canceledColor;
+        else color = completedColor;
+        String title = task.getName();
+        if (task.isComplex() && pending) title = title + "\n" + progressText(task.getCompleted());
+        String deadline = task.getDeadline() == null ? "" : dateFormat.format(task.getDeadline());
+        return new TaskRowModel(task, hash, title, deadline, color, pending);
+    }
+
+    private String progressText(int completed) {
+        int p = Math.max(0, Math.min(100, completed));
+        if (progressTexts[p] == null) progressTexts[p] = String.format(progressFormat, p);
+        return progressTexts[p];
+    }
+}
@@ -0,0 +1,170 @@
+package es.uah.cc.todomanager;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.Executors;
+
+import es.uah.cc.todomanager.domain.DeadlineScheduler;
+import es.uah.cc.todomanager.domain.FileTaskStorage;
+import es.uah.cc.todomanager.domain.HttpSyncChannel;
+import es.uah.cc.todomanager.domain.ResumableSyncTransport;
+import es.uah.cc.todomanager.domain.SyncEngine;
+import es.uah.cc.todomanager.domain.SyncLog;
+import es.uah.cc.todomanager.domain.TaskList;
+import es.uah.cc.todomanager.domain.TaskRepository;
+import es.uah.cc.todomanager.domain.TaskSearchIndex;
+
+/**
+ * The application. It creates the repository of the tasks before any activity is created,
+ * so every screen finds the stored tasks, even after the process was killed.
+ * The repository loads and writes the storage on its own thread and mirrors the changes on the task list.
+ * It also owns the scheduler of the deadline notifications, the search index of the tasks
+ * and the sync engine, which syncs with the server of the preferences at the chosen frequency.
+ */
+public class TodoManagerApplication extends Application {
+    /**
+     * The preference which keeps the instant up to which deadlines were notified.
+     */
+    private static final String DEADLINE_LAST_CHECK = "deadline_last_check";
+    private static final String NOTIFY_DEADLINE = "notify_deadline";
+    private static final String NOTIFY_NEAR_DEADLINE = "notify_near_deadline";
+    private static final String SYNC_FREQUENCY = "sync_frequency";
+    private static final String SYNC_SERVER = "sync_server";
+    /**
+     * The default of the sync frequency preference, in minutes.
+     */
+    private static final String DEFAULT_SYNC_FREQUENCY = "180";
+    private static final String LOG_TAG = "TodoManager";
+
+    private TaskRepository taskRepository;
+    private TaskSearchIndex taskSearchIndex;
+    private DeadlineScheduler deadlineScheduler;
+    private HttpSyncChannel syncChannel;
+    private SyncEngine syncEngine;
+    /**
+     * A OnSharedPreferenceChangeListener.
+     * It must be a field in order to avoid the GC collects it.
+     */
+    private SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        taskRepository = new TaskRepository(new FileTaskStorage(new File(getFilesDir(), "tasks")),
+                TaskList.getInstance(), Executors.newSingleThreadExecutor(), new MainThreadExecutor());
+        // A command which fails, as a write on a full disk or a sync in background, is reported
+        // instead of crashing the app; the changes it made before failing are still shown.
+        taskRepository.setErrorListener(new TaskRepository.ErrorListener() {
+            @Override
+            public void onError(RuntimeException e) {
+                Log.e(LOG_TAG, "A change of the tasks failed", e);
+                Toast.makeText(TodoManagerApplication.this, R.string.task_change_failed, Toast.LENGTH_LONG).show();
+            }
+        });
+        // The index follows the list as the repository fills it.
+        taskSearchIndex = new TaskSearchIndex(TaskList.getInstance());
+
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        deadlineScheduler = new DeadlineScheduler(TaskList.getInstance(), new DeadlineScheduler.Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        }, new DeadlineAlarmReceiver.AlarmManagerAlarm(this), new DeadlineNotifier(this));
+        if (preferences.contains(DEADLINE_LAST_CHECK))
+            deadlineScheduler.setLastCheck(preferences.getLong(DEADLINE_LAST_CHECK, 0));
+        updateNotifications(preferences);
+        // Changes are recorded for the next sync from now on, even while there is no server.
+        // Batches travel compressed, in chunks which are not sent again when the connection drops.
+        syncChannel = new HttpSyncChannel(null);
+        syncEngine = new SyncEngine(taskRepository, new SyncLog(new File(getFilesDir(), "sync")),
+                new ResumableSyncTransport(syncChannel), Executors.newSingleThreadScheduledExecutor(), SyncEngine.DEFAULT_BATCH_SIZE);
+        updateSync(preferences);
+        preferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                if (NOTIFY_DEADLINE.equals(key) || NOTIFY_NEAR_DEADLINE.equals(key)) updateNotifications(sharedPreferences);
+                else if (SYNC_FREQUENCY.equals(key) || SYNC_SERVER.equals(key)) updateSync(sharedPreferences);
+            }
+        };
+        preferences.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+    }
+
+    /**
+     * The repository to change the tasks through.
+     * @return The repository.
+     */
+    public TaskRepository getTaskRepository() {
+        return taskRepository;
+    }
+
+    /**
+     * The index to search the tasks with.
+     * @return The index.
+     */
+    public TaskSearchIndex getTaskSearchIndex() {
+        return taskSearchIndex;
+    }
+
+    /**
+     * The engine which syncs the tasks with the server.
+     * @return The engine.
+     */
+    public SyncEngine getSyncEngine() {
+        return syncEngine;
+    }
+
+    /**
+     * Points the engine to the server of the preferences and syncs at their frequency,
+     * or stops syncing if there is no valid server or the frequency is never.
+     */
+    private void updateSync(SharedPreferences preferences) {
+        URL server = null;
+        String address = preferences.getString(SYNC_SERVER, "").trim();
+        if (!address.isEmpty()) {
+            try {
+                server = new URL(address);
+            } catch (MalformedURLException e) {
+                // The summary of the preference shows the wrong address.
+            }
+        }
+        long minutes;
+        try {
+            minutes = Long.parseLong(preferences.getString(SYNC_FREQUENCY, DEFAULT_SYNC_FREQUENCY));
+        } catch (NumberFormatException e) {
+            minutes = Long.parseLong(DEFAULT_SYNC_FREQUENCY);
+        }
+        syncChannel.setUrl(server);
+        syncEngine.setInterval(server == null ? -1 : minutes);
+    }
+
+    private void updateNotifications(SharedPreferences preferences) {
+        deadlineScheduler.setNotifications(preferences.getBoolean(NOTIFY_DEADLINE, false), preferences.getBoolean(NOTIFY_NEAR_DEADLINE, false));
+    }
+
+    /**
+     * Called when the alarm of the deadline scheduler goes off, or when the device boots, which clears the alarm.
+     * If the alarm started the process, the stored tasks are still being loaded, so the deadlines
+     * are checked, and the instant checked saved, only once they are on the list.
+     * @param done    Run when the deadlines have been checked.
+     */
+    void onDeadlineAlarm(final Runnable done) {
+        taskRepository.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                deadlineScheduler.onAlarm();
+                PreferenceManager.getDefaultSharedPreferences(TodoManagerApplication.this).edit()
+                        .putLong(DEADLINE_LAST_CHECK, deadlineScheduler.getLastCheck())
+                        .apply();
+                done.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package es.uah.cc.todomanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ProgressCoalescer}.
+ */
+public class ProgressCoalescerTest {
+
+    /**
+     * The commands waiting for the next frame.
+     */
+    private final List<Runnable> frame = new ArrayList<Runnable>();
+    private final List<Integer> committed = new ArrayList<Integer>();
+    private ProgressCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        coalescer = new ProgressCoalescer(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                frame.add(command);
+            }
+        }, new ProgressCoalescer.Sink() {
+            @Override
+            public void commit(int progress) {
+                committed.add(progress);
+            }
+        });
+    }
+
+    private void nextFrame() {
+        List<Runnable> commands = new ArrayList<Runnable>(frame);
+        frame.clear();
+        for (Runnable r : commands) r.run();
+    }
+
+    @Test
+    public void aDragCommitsOnceWhenItEnds() {
+        coalescer.startGesture();
+        for (int p = 0; p <= 80; p++) {
+            coalescer.set(p);
+            // Frames pass during the drag, but the task is not changed until it ends.
+            if (p % 4 == 0) nextFrame();
+        }
+        assertTrue(committed.isEmpty());
+        assertTrue(coalescer.hasPending());
+        coalescer.endGesture();
+        assertEquals(1, committed.size());
+        assertEquals(80, (int) committed.get(0));
+        assertEquals(81, coalescer.getLastGestureValues());
+        assertEquals(1, coalescer.getLastGestureCommits());
+        assertFalse(coalescer.hasPending());
+        // A tap without moving the bar changes nothing.
+        coalescer.startGesture();
+        coalescer.endGesture();
+        assertEquals(0, coalescer.getLastGestureCommits());
+        assertEquals(1, coalescer.getCommits());
+    }
+
+    @Test
+    public void valuesWithoutAGestureCommitOncePerFrame() {
+        // As the keys held down, or the actions of an accessibility service.
+        coalescer.set(10);
+        coalescer.set(15);
+        coalescer.set(20);
+        assertEquals(1, frame.size());
+        assertTrue(committed.isEmpty());
+        nextFrame();
+        coalescer.set(25);
+        nextFrame();
+        nextFrame();
+        assertEquals(2, committed.size());
+        assertEquals(20, (int) committed.get(0));
+        assertEquals(25, (int) committed.get(1));
+        // A value waiting for its frame is committed when the view goes away.
+        coalescer.set(30);
+        coalescer.flush();
+        nextFrame();
+        assertEquals(3, committed.size());
+        assertEquals(30, (int) committed.get(2));
+    }
+
+    /**
+     * Compares the changes of the task a drag makes committing each value and coalescing them.
+     * Each commit is a change of the task which is stored and updates the rows of the list.
+     */
+    @Test
+    public void listUpdatesPerDrag() {
+        // A drag across the bar sets a value for each pixel it crosses, one frame apart.
+        int values = 300;
+        coalescer.startGesture();
+        for (int i = 0; i < values; i++) {
+            coalescer.set(i * 100 / values);
+            nextFrame();
+        }
+        coalescer.endGesture();
+        assertEquals(values, coalescer.getLastGestureValues());
+        assertEquals(1, coalescer.getLastGestureCommits());
+        assertEquals((values - 1) * 100 / values, (int) committed.get(0));
+    }
+}
@@ -0,0 +1,104 @@
+package es.uah.cc.todomanager;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import es.uah.cc.todomanager.domain.TaskList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskRowModelCache}.
+ */
+public class TaskRowModelCacheTest {
+
+    private static final int HIGH = 1;
+    private static final int MEDIUM = 2;
+    private static final int LOW = 3;
+    private static final int COMPLETED = 4;
+    private static final int CANCELED = 5;
+
+    private static TaskRowModelCache newCache(int capacity) {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        return new TaskRowModelCache(capacity, HIGH, MEDIUM, LOW, COMPLETED, CANCELED, "%1$d%% completed", format);
+    }
+
+    @Test
+    public void rowsShowTheTask() {
+        TaskRowModelCache cache = newCache(16);
+        TaskList.Task task = new TaskList.Task(1, "Tarea", "", TaskList.Priority.HIGH, null, true);
+        task.setCompleted(40);
+        TaskRowModel row = cache.get(task);
+        assertEquals("Tarea\n40% completed", row.title);
+        assertEquals("", row.deadline);
+        assertEquals(HIGH, row.color);
+        assertTrue(row.pending);
+
+        TaskList.Task done = new TaskList.Task(task);
+        done.setDeadline(new Date(0));
+        done.complete();
+        row = cache.get(done);
+        assertEquals("Tarea", row.title);
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").format(new Date(0)), row.deadline);
+        assertEquals(COMPLETED, row.color);
+        assertFalse(row.pending);
+
+        TaskList.Task canceled = new TaskList.Task(2, "Otra", "", TaskList.Priority.LOW, null, false);
+        assertEquals(LOW, cache.get(canceled).color);
+        canceled.cancel();
+        assertEquals(CANCELED, cache.get(canceled).color);
+    }
+
+    @Test
+    public void rowsAreComputedOnlyWhenTheTaskChanges() {
+        TaskRowModelCache cache = newCache(16);
+        TaskList.Task task = new TaskList.Task(1, "Tarea", "", TaskList.Priority.MEDIUM, null, true);
+        TaskRowModel row = cache.get(task);
+        assertSame(row, cache.get(task));
+        assertEquals(1, cache.getMisses());
+        // A change in place is noticed by the content hash.
+        task.setCompleted(50);
+        assertNotSame(row, cache.get(task));
+        assertEquals(2, cache.getMisses());
+        // A replaced task gets a new row even if it shows the same.
+        TaskList.Task copy = new TaskList.Task(task);
+        assertSame(copy, cache.get(copy).task);
+        assertEquals(3, cache.getMisses());
+        cache.clear();
+        cache.get(copy);
+        assertEquals(4, cache.getMisses());
+    }
+
+    /**
+     * Binding rows which are in the cache must not allocate.
+     */
+    @Test
+    public void bindDoesNotAllocate() {
+        int visible = 100;
+        TaskRowModelCache cache = newCache(256);
+        TaskList.Task[] tasks = new TaskList.Task[visible];
+        for (int i = 0; i < visible; i++) {
+            tasks[i] = new TaskList.Task(i, "Tarea " + i, "", TaskList.Priority.values()[i % 3], new Date(i * 86400000L), i % 2 == 0);
+            tasks[i].setCompleted(i);
+        }
+        int binds = 1000000;
+        int checksum = 0;
+        for (int i = 0; i < binds; i++) checksum += cache.get(tasks[i % visible]).color;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < binds; i++) checksum += cache.get(tasks[i % visible]).color;
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue(checksum > 0);
+        assertEquals(visible, cache.getMisses());
+        // Only the measurement itself may allocate a little.
+        assertTrue(allocated < 1024);
+    }
+}
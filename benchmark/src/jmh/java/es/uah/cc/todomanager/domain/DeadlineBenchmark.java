@@ -0,0 +1,93 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the deadline queries, through the index and scanning the list, and of an edit
+ * of a deadline with the scheduler observing the list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeadlineBenchmark {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private TaskList tasks;
+    private Date from;
+    private Date to;
+
+    @Setup
+    public void setUp() {
+        tasks = Tasks.fill(new TaskList(null), size);
+        from = new Date(System.currentTimeMillis() + 100 * HOUR);
+        to = new Date(from.getTime() + 6 * HOUR);
+        DeadlineScheduler scheduler = new DeadlineScheduler(tasks, new DeadlineScheduler.Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        }, new DeadlineScheduler.Alarm() {
+            @Override
+            public void set(long at) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }, new DeadlineScheduler.Listener() {
+            @Override
+            public void onDeadline(List<TaskList.Task> tasks) {
+            }
+
+            @Override
+            public void onNearDeadline(List<TaskList.Task> tasks) {
+            }
+        });
+        scheduler.setNotifications(true, true);
+    }
+
+    /**
+     * Looks for the tasks due in the next six hours through the deadline index.
+     */
+    @Benchmark
+    public List<TaskList.Task> dueBetweenByIndex() {
+        return tasks.getTasksDueBetween(from, to);
+    }
+
+    /**
+     * Looks for the same tasks checking every task.
+     */
+    @Benchmark
+    public void dueBetweenByScan(Blackhole blackhole) {
+        for (TaskList.Task t : tasks.getTasks()) {
+            if (t.getDeadline() == null || t.getStatus() != TaskList.PendingTask.INSTANCE) continue;
+            if (!t.getDeadline().before(from) && t.getDeadline().before(to)) blackhole.consume(t);
+        }
+    }
+
+    /**
+     * Moves a deadline an hour later, which the scheduler sees.
+     */
+    @Benchmark
+    public boolean editDeadline() {
+        TaskList.Task t = new TaskList.Task(tasks.getTasks().get(Tasks.RANDOM.nextInt(size / 2) * 2));
+        t.setDeadline(new Date(t.getDeadline().getTime() + HOUR));
+        return tasks.setTask(t);
+    }
+}
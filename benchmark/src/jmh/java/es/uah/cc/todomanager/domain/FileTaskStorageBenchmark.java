@@ -0,0 +1,69 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the file storage: the write of a change of a task, with the compactions of the log
+ * it leads to, and the cold start, which loads the snapshot and replays the log.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileTaskStorageBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private File directory;
+    private FileTaskStorage storage;
+    private TaskList tasks;
+    private TaskList.Task[] edited;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tasks", "");
+        directory.delete();
+        directory.mkdirs();
+        storage = new FileTaskStorage(directory);
+        tasks = Tasks.fill(new TaskList(storage), size);
+        edited = new TaskList.Task[Math.min(size, 4096)];
+        for (int i = 0; i < edited.length; i++) {
+            TaskList.Task t = new TaskList.Task(tasks.getTasks().get(Tasks.RANDOM.nextInt(size)));
+            t.setCompleted(Tasks.RANDOM.nextInt(101));
+            edited[i] = t;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean write() {
+        if (++next == edited.length) next = 0;
+        return tasks.setTask(edited[next]);
+    }
+
+    @Benchmark
+    public List<TaskList.Task> coldStart() throws IOException {
+        return new FileTaskStorage(directory).load();
+    }
+}
@@ -0,0 +1,56 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a view of the list sorted by priority and name: the sort, and an edit of a task
+ * which repositions its row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilteredTaskListBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private final TaskOrder order = TaskOrder.parse("priority,name", new Locale("es", "ES"));
+    private TaskList tasks;
+    private FilteredTaskList view;
+
+    @Setup
+    public void setUp() {
+        tasks = Tasks.fill(new TaskList(null), size);
+        view = new FilteredTaskList(tasks, TaskFilter.ALL);
+        view.setOrder(order);
+    }
+
+    @TearDown
+    public void tearDown() {
+        view.detach();
+    }
+
+    @Benchmark
+    public int sort() {
+        view.setOrder(order);
+        return view.size();
+    }
+
+    @Benchmark
+    public boolean edit() {
+        TaskList.Task t = new TaskList.Task(tasks.getTasks().get(Tasks.RANDOM.nextInt(size)));
+        t.setName("Tarea " + Tasks.RANDOM.nextInt(1000000));
+        return tasks.setTask(t);
+    }
+}
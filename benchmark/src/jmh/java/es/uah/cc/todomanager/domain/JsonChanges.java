@@ -0,0 +1,173 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The naive alternative to the sync wire format, for the benchmarks: one JSON object per changed task
+ * and line, parsed to a map of fields and then to a task, as a generic JSON library would do it.
+ */
+final class JsonChanges {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private JsonChanges() {
+    }
+
+    static byte[] encode(List<SyncMessage.Change> changes) {
+        StringBuilder json = new StringBuilder(changes.size() * 256);
+        for (SyncMessage.Change c : changes) {
+            TaskList.Task t = c.getTask();
+            json.append("{\"id\":").append(c.getId());
+            json.append(",\"version\":");
+            string(json, c.getVersion().toString());
+            json.append(",\"changed\":").append(c.getChangedFields());
+            json.append(",\"created\":").append(c.isCreated());
+            json.append(",\"removed\":").append(t == null);
+            if (t != null) {
+                json.append(",\"name\":");
+                string(json, t.getName());
+                json.append(",\"details\":");
+                string(json, t.getDetails());
+                json.append(",\"priority\":");
+                string(json, t.getPriority().getKey());
+                json.append(",\"status\":");
+                string(json, t.getStatus().getStatusDescription());
+                json.append(",\"completed\":").append(t.getCompleted());
+                json.append(",\"complex\":").append(t.isComplex());
+                json.append(",\"deadline\":").append(t.getDeadline() == null ? "null" : Long.toString(t.getDeadline().getTime()));
+            }
+            json.append("}\n");
+        }
+        return json.toString().getBytes(UTF8);
+    }
+
+    static List<SyncMessage.Change> decode(byte[] data) throws IOException {
+        String json = new String(data, UTF8);
+        List<SyncMessage.Change> changes = new ArrayList<SyncMessage.Change>();
+        int start = 0;
+        for (int end; (end = json.indexOf('\n', start)) >= 0; start = end + 1) {
+            Map<String, Object> o = new Parser(json, start).object();
+            long id = (Long) o.get("id");
+            TaskList.Task t = null;
+            if (!(Boolean) o.get("removed")) {
+                Long deadline = (Long) o.get("deadline");
+                t = new TaskList.Task(id, (String) o.get("name"), (String) o.get("details"),
+                        TaskList.Priority.fromKey((String) o.get("priority")), deadline == null ? null : new Date(deadline),
+                        (Boolean) o.get("complex"));
+                t.setCompleted(((Long) o.get("completed")).intValue());
+                t.setStatus(status((String) o.get("status")));
+            }
+            changes.add(new SyncMessage.Change(id, version((String) o.get("version")),
+                    t, ((Long) o.get("changed")).intValue(), (Boolean) o.get("created")));
+        }
+        return changes;
+    }
+
+    private static void string(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+        }
+        json.append('"');
+    }
+
+    private static TaskList.TaskStatus status(String status) {
+        if (TaskList.CompletedTask.STATUS.equals(status)) return TaskList.CompletedTask.INSTANCE;
+        if (TaskList.CanceledTask.STATUS.equals(status)) return TaskList.CanceledTask.INSTANCE;
+        return TaskList.PendingTask.INSTANCE;
+    }
+
+    /**
+     * Parses a version written by {@link VersionVector#toString()}.
+     */
+    private static VersionVector version(String s) {
+        VersionVector v = VersionVector.EMPTY;
+        if (s.length() <= 2) return v;
+        for (String entry : s.substring(1, s.length() - 1).split(", ")) {
+            int eq = entry.indexOf('=');
+            long replica = Long.parseLong(entry.substring(0, eq));
+            for (long n = Long.parseLong(entry.substring(eq + 1)); n > 0; n--) v = v.increment(replica);
+        }
+        return v;
+    }
+
+    /**
+     * Parses a flat object of strings, numbers, booleans and nulls.
+     */
+    private static class Parser {
+        private final String json;
+        private int pos;
+
+        Parser(String json, int pos) {
+            this.json = json;
+            this.pos = pos;
+        }
+
+        Map<String, Object> object() throws IOException {
+            Map<String, Object> o = new HashMap<String, Object>();
+            expect('{');
+            if (json.charAt(pos) == '}') {
+                pos++;
+                return o;
+            }
+            do {
+                String key = string();
+                expect(':');
+                o.put(key, value());
+            } while (json.charAt(pos++) == ',');
+            if (json.charAt(pos - 1) != '}') throw new IOException("Malformed JSON at " + pos);
+            return o;
+        }
+
+        private Object value() throws IOException {
+            char c = json.charAt(pos);
+            if (c == '"') return string();
+            if (json.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            }
+            if (json.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            if (json.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < json.length() && (json.charAt(pos) == '-' || Character.isDigit(json.charAt(pos)))) pos++;
+            if (start == pos) throw new IOException("Malformed JSON at " + pos);
+            return Long.parseLong(json.substring(start, pos));
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder s = new StringBuilder();
+            for (char c; (c = json.charAt(pos++)) != '"'; ) {
+                if (c != '\\') {
+                    s.append(c);
+                    continue;
+                }
+                c = json.charAt(pos++);
+                if (c == 'u') {
+                    s.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    pos += 4;
+                } else s.append(c);
+            }
+            return s.toString();
+        }
+
+        private void expect(char c) throws IOException {
+            if (json.charAt(pos++) != c) throw new IOException("Expected " + c + " at " + (pos - 1));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a change of a subtask of a parent with many subtasks, rolled up two levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SubtaskBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private TaskList tasks;
+    private List<Long> ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        tasks = new TaskList(null);
+        tasks.addTask("Inventario", "", TaskList.Priority.MEDIUM, null, true);
+        TaskList.Task shelf = new TaskList.Task(-1, "Estantería", "", TaskList.Priority.MEDIUM, null, true);
+        shelf.setParentId(0);
+        tasks.addTask(shelf);
+        long parent = tasks.getTasks().get(1).getId();
+        for (int i = 0; i < size; i++) {
+            TaskList.Task t = new TaskList.Task(-1, "Artículo " + i, "", TaskList.Priority.MEDIUM, null, false);
+            t.setParentId(parent);
+            tasks.addTask(t);
+        }
+        ids = tasks.getSubtaskIds(parent);
+    }
+
+    @Benchmark
+    public boolean setProgress() {
+        if (++next == Integer.MAX_VALUE) next = 0;
+        TaskList.Task t = new TaskList.Task(tasks.getTask(ids.get(next % size)));
+        t.setCompleted(next % 101);
+        return tasks.setTask(t);
+    }
+}
@@ -0,0 +1,94 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the round trip of a change set through the sync wire format, as encoded and framed,
+ * against JSON per task. The encoding benchmarks report the bytes they produce as secondary results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyncWireBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private SyncMessage.Request request;
+    private byte[] framed;
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        List<SyncMessage.Change> changes = new ArrayList<SyncMessage.Change>(size);
+        VersionVector version = VersionVector.EMPTY.increment(7);
+        for (TaskList.Task t : Tasks.fill(new TaskList(null), size).getTasks())
+            changes.add(new SyncMessage.Change(t.getId(), version, t, TaskMerge.ALL, true));
+        request = new SyncMessage.Request(7, 0, SyncEngine.DEFAULT_BATCH_SIZE, changes);
+        framed = SyncWire.compress(request.encode());
+        json = JsonChanges.encode(changes);
+    }
+
+    @Benchmark
+    public byte[] encodeFramed(Sizes sizes) {
+        byte[] encoded = request.encode();
+        byte[] framed = SyncWire.compress(encoded);
+        sizes.encodedBytes += encoded.length;
+        sizes.framedBytes += framed.length;
+        sizes.messages++;
+        return framed;
+    }
+
+    @Benchmark
+    public SyncMessage.Request decodeFramed() throws IOException {
+        return SyncMessage.Request.decode(SyncWire.decompress(framed));
+    }
+
+    @Benchmark
+    public byte[] encodeJson(Sizes sizes) {
+        byte[] json = JsonChanges.encode(request.getChanges());
+        sizes.jsonBytes += json.length;
+        sizes.messages++;
+        return json;
+    }
+
+    @Benchmark
+    public List<SyncMessage.Change> decodeJson() throws IOException {
+        return JsonChanges.decode(json);
+    }
+
+    /**
+     * The bytes of the messages encoded in an iteration. JMH adds up these counters the same way,
+     * so the size of a message is the bytes divided by the messages.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long encodedBytes;
+        public long framedBytes;
+        public long jsonBytes;
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            encodedBytes = 0;
+            framedBytes = 0;
+            jsonBytes = 0;
+            messages = 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of what binding and filtering the rows costs with the priority and status keys
+ * they used to switch on and with the enum and the shared states.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskBindBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private TaskList.Task[] tasks;
+    private final TaskFilter filter = new TaskFilter.StatusFilter(true, false);
+
+    @Setup
+    public void setUp() {
+        tasks = new TaskList.Task[size];
+        TaskList.Priority[] priorities = TaskList.Priority.values();
+        for (int i = 0; i < size; i++) {
+            tasks[i] = new TaskList.Task(i, "", "", priorities[i % 3], null, false);
+            if (i % 5 == 0) tasks[i].complete();
+            else if (i % 7 == 0) tasks[i].cancel();
+        }
+    }
+
+    @Benchmark
+    public int bindByKey() {
+        int checksum = 0;
+        for (TaskList.Task t : tasks) {
+            int color;
+            switch (t.getPriority().getKey()) {
+                case TaskList.Task.HIGH_PRIORITY: color = 1; break;
+                case TaskList.Task.LOW_PRIORITY: color = 3; break;
+                default: color = 2;
+            }
+            switch (t.getStatus().getStatusDescription()) {
+                case TaskList.CompletedTask.STATUS: checksum += color + 10; break;
+                case TaskList.CanceledTask.STATUS: checksum += color + 20; break;
+                default: checksum += color;
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public int bindByEnum() {
+        int checksum = 0;
+        for (TaskList.Task t : tasks) {
+            int color;
+            switch (t.getPriority()) {
+                case HIGH: color = 1; break;
+                case LOW: color = 3; break;
+                default: color = 2;
+            }
+            if (t.getStatus() == TaskList.CompletedTask.INSTANCE) checksum += color + 10;
+            else if (t.getStatus() == TaskList.CanceledTask.INSTANCE) checksum += color + 20;
+            else checksum += color;
+            if (filter.accept(t)) checksum++;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,48 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the encoding of a task, as written to parcels and to the storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TaskCodecBenchmark {
+
+    private TaskList.Task single;
+    private byte[] singleEncoded;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+    @Setup
+    public void setUp() throws IOException {
+        single = Tasks.fill(new TaskList(null), 3).getTask(0);
+        TaskCodec.write(new DataOutputStream(buffer), single);
+        singleEncoded = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public int encodeTask() throws IOException {
+        buffer.reset();
+        TaskCodec.write(new DataOutputStream(buffer), single);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public TaskList.Task decodeTask() throws IOException {
+        return TaskCodec.read(new DataInputStream(new ByteArrayInputStream(singleEncoded)));
+    }
+}
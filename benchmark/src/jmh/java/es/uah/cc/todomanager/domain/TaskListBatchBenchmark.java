@@ -0,0 +1,82 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of status transitions of 10k tasks, one by one and as a batch,
+ * with a view of the pending tasks observing the list as the list screen does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TaskListBatchBenchmark {
+
+    private static final int BATCH = 10000;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private TaskList tasks;
+    private FilteredTaskList view;
+    /**
+     * Completed and pending copies of the same tasks; each invocation publishes the opposite of the last one.
+     */
+    private List<TaskList.Task> completed;
+    private List<TaskList.Task> pending;
+    private boolean complete;
+
+    @Setup
+    public void setUp() {
+        tasks = Tasks.fill(new TaskList(null), size);
+        view = new FilteredTaskList(tasks, new TaskFilter.StatusFilter(true, true));
+        completed = new ArrayList<TaskList.Task>(BATCH);
+        pending = new ArrayList<TaskList.Task>(BATCH);
+        for (TaskList.Task t : tasks.getTasks().subList(0, Math.min(size, BATCH))) {
+            TaskList.Task done = new TaskList.Task(t);
+            done.setStatus(TaskList.CompletedTask.INSTANCE);
+            completed.add(done);
+            TaskList.Task open = new TaskList.Task(t);
+            open.setStatus(TaskList.PendingTask.INSTANCE);
+            pending.add(open);
+        }
+        // Every task starts pending.
+        tasks.applyBatch(pending, Collections.<Long>emptyList());
+        complete = true;
+    }
+
+    @TearDown
+    public void tearDown() {
+        view.detach();
+    }
+
+    private List<TaskList.Task> next() {
+        List<TaskList.Task> batch = complete ? completed : pending;
+        complete = !complete;
+        return batch;
+    }
+
+    @Benchmark
+    public int oneByOne() {
+        int changed = 0;
+        for (TaskList.Task t : next()) if (tasks.setTask(t)) changed++;
+        return changed;
+    }
+
+    @Benchmark
+    public int batch() {
+        return tasks.applyBatch(next(), Collections.<Long>emptyList());
+    }
+}
@@ -0,0 +1,111 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the changes and lookups of the task list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TaskListBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    private TaskList tasks;
+    /**
+     * Copies of the tasks to publish, edited in advance.
+     */
+    private TaskList.Task[] edited;
+    private long[] ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        tasks = Tasks.fill(new TaskList(null), size);
+        edited = new TaskList.Task[Math.min(size, 4096)];
+        ids = new long[edited.length];
+        for (int i = 0; i < edited.length; i++) {
+            TaskList.Task t = new TaskList.Task(tasks.getTasks().get(Tasks.RANDOM.nextInt(size)));
+            t.setName(t.getName() + " *");
+            t.setCompleted(Tasks.RANDOM.nextInt(101));
+            edited[i] = t;
+            ids[i] = t.getId();
+        }
+    }
+
+    private int next() {
+        if (++next == edited.length) next = 0;
+        return next;
+    }
+
+    /**
+     * Adds a task and removes it, so the size of the list does not change between invocations.
+     */
+    @Benchmark
+    public void addTask() {
+        tasks.addTask("Nueva tarea", "Detalles", TaskList.Priority.HIGH, null, false);
+        List<TaskList.Task> all = tasks.getTasks();
+        tasks.removeTask(all.get(all.size() - 1).getId());
+    }
+
+    @Benchmark
+    public boolean setTask() {
+        return tasks.setTask(edited[next()]);
+    }
+
+    @Benchmark
+    public TaskList.Task getTask() {
+        return tasks.getTask(ids[next()]);
+    }
+
+    /**
+     * Completes a pending task or reopens a completed one, which moves it between the status indexes.
+     */
+    @Benchmark
+    public boolean statusTransition() {
+        TaskList.Task t = new TaskList.Task(tasks.getTask(ids[next()]));
+        if (t.getStatus() == TaskList.PendingTask.INSTANCE) t.complete();
+        else t.setStatus(TaskList.PendingTask.INSTANCE);
+        return tasks.setTask(t);
+    }
+
+    /**
+     * Looks up the canceled tasks, a fifteenth of the list, through the status index.
+     */
+    @Benchmark
+    public List<TaskList.Task> tasksWithStatus() {
+        return tasks.getTasksWithStatus(TaskList.CanceledTask.STATUS);
+    }
+
+    /**
+     * Builds the view of the list which hides completed and canceled tasks, through the status index.
+     */
+    @Benchmark
+    public int filterByIndex() {
+        FilteredTaskList view = new FilteredTaskList(tasks, new TaskFilter.StatusFilter(true, true));
+        view.detach();
+        return view.size();
+    }
+
+    /**
+     * Filters the list checking every task, as the list screen did before the status index.
+     */
+    @Benchmark
+    public void filterByScan(Blackhole blackhole) {
+        TaskFilter filter = new TaskFilter.StatusFilter(true, true);
+        for (TaskList.Task t : tasks.getTasks()) if (filter.accept(t)) blackhole.consume(t);
+    }
+}
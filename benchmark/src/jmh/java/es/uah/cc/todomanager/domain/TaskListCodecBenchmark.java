@@ -0,0 +1,47 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the bulk encoding of the task list, as written to a parcel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskListCodecBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    private List<TaskList.Task> tasks;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        tasks = Tasks.fill(new TaskList(null), size).getTasks();
+        encoded = TaskCodec.encodeList(tasks);
+    }
+
+    /**
+     * Encodes the whole list, as a bulk parcel does.
+     */
+    @Benchmark
+    public byte[] encodeList() {
+        return TaskCodec.encodeList(tasks);
+    }
+
+    @Benchmark
+    public List<TaskList.Task> decodeList() {
+        return TaskCodec.decodeList(encoded);
+    }
+}
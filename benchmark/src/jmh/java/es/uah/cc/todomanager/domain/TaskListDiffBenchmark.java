@@ -0,0 +1,51 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the difference of two versions of the list, with a twentieth of the tasks removed,
+ * a twentieth changed and a hundredth added.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskListDiffBenchmark {
+
+    @Param({"1000", "50000", "100000"})
+    public int size;
+
+    private List<TaskList.Task> oldTasks;
+    private List<TaskList.Task> newTasks;
+
+    @Setup
+    public void setUp() {
+        oldTasks = Tasks.fill(new TaskList(null), size).getTasks();
+        newTasks = new ArrayList<TaskList.Task>();
+        for (TaskList.Task t : oldTasks) {
+            int r = Tasks.RANDOM.nextInt(100);
+            if (r < 5) continue;
+            if (r < 10) {
+                TaskList.Task c = new TaskList.Task(t);
+                c.setName(t.getName() + " *");
+                newTasks.add(c);
+            } else newTasks.add(t);
+            if (r == 99) newTasks.add(new TaskList.Task(size + newTasks.size(), "Nueva tarea", "", TaskList.Priority.LOW, null, false));
+        }
+    }
+
+    @Benchmark
+    public TaskListDiff calculate() {
+        return TaskListDiff.calculate(oldTasks, newTasks);
+    }
+}
@@ -0,0 +1,71 @@
+package es.uah.cc.todomanager.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the search index: queries and the cost its updates add to the changes of the list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TaskSearchIndexBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    /**
+     * A word of every task, a prefix, two words and a word of a single task.
+     */
+    @Param({"tarea", "det", "tarea 99", "12345"})
+    public String query;
+
+    private TaskList tasks;
+    private TaskSearchIndex index;
+    /**
+     * Tasks with a new name and their originals, published in turns so every change reindexes.
+     */
+    private TaskList.Task[][] versions;
+    private int next;
+    private int turn;
+
+    @Setup
+    public void setUp() {
+        tasks = Tasks.fill(new TaskList(null), size);
+        index = new TaskSearchIndex(tasks);
+        versions = new TaskList.Task[2][Math.min(size, 4096)];
+        for (int i = 0; i < versions[0].length; i++) {
+            TaskList.Task original = new TaskList.Task(tasks.getTasks().get(Tasks.RANDOM.nextInt(size)));
+            TaskList.Task renamed = new TaskList.Task(original);
+            renamed.setName("Redacción " + original.getName());
+            versions[0][i] = renamed;
+            versions[1][i] = original;
+        }
+    }
+
+    @Benchmark
+    public List<TaskList.Task> search() {
+        return index.search(query, 20);
+    }
+
+    /**
+     * Publishes a task with a new name, which reindexes its words.
+     */
+    @Benchmark
+    public boolean renameTask() {
+        if (++next == versions[turn].length) {
+            next = 0;
+            turn = 1 - turn;
+        }
+        return tasks.setTask(new TaskList.Task(versions[turn][next]));
+    }
+}
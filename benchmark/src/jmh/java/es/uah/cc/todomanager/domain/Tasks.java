@@ -0,0 +1,39 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Sample data for the benchmarks.
+ */
+final class Tasks {
+
+    static final Random RANDOM = new Random(42);
+    private static final TaskList.Priority[] PRIORITIES = TaskList.Priority.values();
+
+    private Tasks() {
+    }
+
+    /**
+     * Adds tasks to a list. A third of them are completed and a tenth canceled;
+     * half of them have a deadline.
+     * @param tasks    The list.
+     * @param size     The number of tasks to add.
+     * @return The list.
+     */
+    static TaskList fill(TaskList tasks, int size) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            Date deadline = i % 2 == 0 ? new Date(now + RANDOM.nextInt(1000) * 3600000L) : null;
+            tasks.addTask("Tarea " + i, "Detalles de la tarea " + i, PRIORITIES[i % 3], deadline, i % 4 == 0);
+        }
+        for (int i = 0; i < size; i++) {
+            if (i % 3 != 0 && i % 10 != 0) continue;
+            TaskList.Task t = new TaskList.Task(tasks.getTasks().get(i));
+            if (i % 3 == 0) t.complete();
+            else t.cancel();
+            tasks.setTask(t);
+        }
+        return tasks;
+    }
+}
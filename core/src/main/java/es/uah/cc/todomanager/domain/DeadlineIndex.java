@@ -0,0 +1,103 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The ids of the pending tasks with a deadline, sorted by deadline and then by id.
+ * Range queries take O(log n + k) time, where k is the number of tasks found.
+ */
+class DeadlineIndex {
+
+    private final NavigableSet<Entry> entries = new TreeSet<Entry>();
+    /**
+     * The indexed deadline of each task, to find its entry.
+     */
+    private final Map<Long, Long> deadlines = new HashMap<Long, Long>();
+
+    /**
+     * Indexes a task, or removes it if it has no deadline or it is not pending.
+     * @param task    The task.
+     */
+    void update(TaskList.Task task) {
+        long id = task.getId();
+        boolean indexed = task.getDeadline() != null && task.getStatus() instanceof TaskList.PendingTask;
+        Long old = deadlines.get(id);
+        if (indexed && old != null && old == task.getDeadline().getTime()) return;
+        if (old != null) {
+            entries.remove(new Entry(old, id));
+            deadlines.remove(id);
+        }
+        if (indexed) {
+            long deadline = task.getDeadline().getTime();
+            entries.add(new Entry(deadline, id));
+            deadlines.put(id, deadline);
+        }
+    }
+
+    /**
+     * Removes a task.
+     * @param id    The id of the task.
+     */
+    void remove(long id) {
+        Long old = deadlines.remove(id);
+        if (old != null) entries.remove(new Entry(old, id));
+    }
+
+    /**
+     * Gets the tasks with a deadline in a range.
+     * @param from    The first instant, inclusive, in milliseconds.
+     * @param to      The last instant, exclusive, in milliseconds.
+     * @return The ids, sorted by deadline.
+     */
+    List<Long> between(long from, long to) {
+        List<Long> ids = new ArrayList<Long>();
+        if (from >= to) return ids;
+        for (Entry e : entries.subSet(new Entry(from, Long.MIN_VALUE), true, new Entry(to, Long.MIN_VALUE), false))
+            ids.add(e.id);
+        return ids;
+    }
+
+    /**
+     * Gets the first task with a deadline at or after an instant.
+     * @param from    The instant in milliseconds.
+     * @return The id or null if there is not such task.
+     */
+    Long next(long from) {
+        Entry e = entries.ceiling(new Entry(from, Long.MIN_VALUE));
+        return e == null ? null : e.id;
+    }
+
+    /**
+     * Gets the deadline of a task, if it is indexed.
+     * @param id    The id of the task.
+     * @return The deadline in milliseconds or null.
+     */
+    Long deadlineOf(long id) {
+        return deadlines.get(id);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final long deadline;
+        final long id;
+
+        Entry(long deadline, long id) {
+            this.deadline = deadline;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (deadline != o.deadline) return deadline < o.deadline ? -1 : 1;
+            return id < o.id ? -1 : id == o.id ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Schedules the notifications of the deadlines of the tasks using a single alarm.
+ * The alarm is set for the earliest instant something has to be notified, found in the
+ * deadline index of the list, and it is only set again when a change of the list moves
+ * that instant. So the cost does not grow with the number of tasks.
+ */
+public class DeadlineScheduler implements TaskList.TaskListObserver {
+
+    /**
+     * The time before a deadline to notify that it is near.
+     */
+    public static final long DEFAULT_NEAR_DEADLINE_LEAD = 3 * 24 * 3600 * 1000L;
+
+    private final TaskList tasks;
+    private final Clock clock;
+    private final Alarm alarm;
+    private final Listener listener;
+    private boolean notifyDeadline;
+    private boolean notifyNearDeadline;
+    private long nearDeadlineLead = DEFAULT_NEAR_DEADLINE_LEAD;
+    /**
+     * Deadlines before this instant have been notified.
+     */
+    private long deadlineCheck;
+    /**
+     * Deadlines before this instant plus the lead have been notified as near.
+     */
+    private long nearDeadlineCheck;
+    /**
+     * The instant the alarm is set for, or -1 if it is not set.
+     */
+    private long armedAt = -1;
+    /**
+     * Whether the list is notifying a batch, so the alarm is set once at its end.
+     */
+    private boolean inBatch;
+
+    /**
+     * Constructor. The scheduler observes the list and starts notifying from the current instant.
+     * @param tasks       The task list.
+     * @param clock       The clock.
+     * @param alarm       The alarm to wake up the scheduler.
+     * @param listener    The listener which shows the notifications.
+     */
+    public DeadlineScheduler(TaskList tasks, Clock clock, Alarm alarm, Listener listener) {
+        this.tasks = tasks;
+        this.clock = clock;
+        this.alarm = alarm;
+        this.listener = listener;
+        deadlineCheck = clock.now();
+        nearDeadlineCheck = deadlineCheck;
+        tasks.addObserver(this);
+    }
+
+    /**
+     * Stops observing the list and cancels the alarm.
+     */
+    public void detach() {
+        tasks.removeObserver(this);
+        disarm();
+    }
+
+    /**
+     * Sets which notifications are shown.
+     * @param notifyDeadline        Whether reached deadlines are notified.
+     * @param notifyNearDeadline    Whether near deadlines are notified.
+     */
+    public void setNotifications(boolean notifyDeadline, boolean notifyNearDeadline) {
+        this.notifyDeadline = notifyDeadline;
+        this.notifyNearDeadline = notifyNearDeadline;
+        rearm();
+    }
+
+    /**
+     * Sets how long before a deadline it is notified as near.
+     * @param lead    The time in milliseconds.
+     */
+    public void setNearDeadlineLead(long lead) {
+        nearDeadlineLead = lead;
+        rearm();
+    }
+
+    /**
+     * Gets the instant up to which deadlines have been notified, to resume after a restart.
+     * @return The instant in milliseconds.
+     */
+    public long getLastCheck() {
+        return Math.min(deadlineCheck, nearDeadlineCheck);
+    }
+
+    /**
+     * Resumes notifying from an instant, so deadlines passed while the scheduler was not running
+     * are notified too.
+     * @param lastCheck    The value of {@link #getLastCheck()} before the restart.
+     */
+    public void setLastCheck(long lastCheck) {
+        deadlineCheck = lastCheck;
+        nearDeadlineCheck = lastCheck;
+        rearm();
+    }
+
+    /**
+     * The instant the alarm is set for.
+     * @return The instant in milliseconds or -1 if there is nothing to notify.
+     */
+    public long getArmedAt() {
+        return armedAt;
+    }
+
+    /**
+     * Called when the alarm goes off. Notifies every deadline reached since the last call
+     * and sets the alarm for the next one.
+     */
+    public void onAlarm() {
+        armedAt = -1;
+        long now = clock.now();
+        if (notifyDeadline && now >= deadlineCheck) {
+            List<TaskList.Task> due = tasks.getTasksDueBetween(new Date(deadlineCheck), new Date(now + 1));
+            if (!due.isEmpty()) listener.onDeadline(due);
+        }
+        deadlineCheck = Math.max(deadlineCheck, now + 1);
+        if (notifyNearDeadline && now >= nearDeadlineCheck) {
+            List<TaskList.Task> near = tasks.getTasksDueBetween(new Date(nearDeadlineCheck + nearDeadlineLead), new Date(now + nearDeadlineLead + 1));
+            if (!near.isEmpty()) listener.onNearDeadline(near);
+        }
+        nearDeadlineCheck = Math.max(nearDeadlineCheck, now + 1);
+        rearm();
+    }
+
+    /**
+     * Sets the alarm for the next instant with something to notify, if it changed.
+     */
+    private void rearm() {
+        long next = Long.MAX_VALUE;
+        if (notifyDeadline) {
+            TaskList.Task t = tasks.getNextDueTask(new Date(deadlineCheck));
+            if (t != null) next = t.getDeadline().getTime();
+        }
+        if (notifyNearDeadline) {
+            TaskList.Task t = tasks.getNextDueTask(new Date(nearDeadlineCheck + nearDeadlineLead));
+            if (t != null) next = Math.min(next, t.getDeadline().getTime() - nearDeadlineLead);
+        }
+        if (next == Long.MAX_VALUE) disarm();
+        else if (next != armedAt) {
+            armedAt = next;
+            alarm.set(next);
+        }
+    }
+
+    private void disarm() {
+        if (armedAt != -1) alarm.cancel();
+        armedAt = -1;
+    }
+
+    @Override
+    public void onTaskAdded(TaskList.Task task, int position) {
+        if (!inBatch) rearm();
+    }
+
+    @Override
+    public void onTaskUpdated(TaskList.Task task, int position) {
+        if (!inBatch) rearm();
+    }
+
+    @Override
+    public void onTaskRemoved(TaskList.Task task, int position) {
+        if (!inBatch) rearm();
+    }
+
+    @Override
+    public void onTaskMoved(TaskList.Task task, int from, int to) {
+        // The order of the list does not change any deadline.
+    }
+
+    @Override
+    public void onBatchStarted() {
+        inBatch = true;
+    }
+
+    @Override
+    public void onBatchFinished() {
+        inBatch = false;
+        rearm();
+    }
+
+    /**
+     * A source of the current time.
+     */
+    public static interface Clock {
+        /**
+         * The current time.
+         * @return The time in milliseconds since the epoch.
+         */
+        long now();
+    }
+
+    /**
+     * A single alarm to wake up the scheduler. Setting it replaces the previous instant.
+     */
+    public static interface Alarm {
+        /**
+         * Sets the alarm. When it goes off, {@link DeadlineScheduler#onAlarm()} must be called.
+         * @param at    The instant in milliseconds since the epoch.
+         */
+        void set(long at);
+
+        void cancel();
+    }
+
+    /**
+     * A listener which shows the notifications.
+     */
+    public static interface Listener {
+        /**
+         * Some deadlines have been reached.
+         * @param tasks    The tasks, sorted by deadline.
+         */
+        void onDeadline(List<TaskList.Task> tasks);
+
+        /**
+         * Some deadlines are near.
+         * @param tasks    The tasks, sorted by deadline.
+         */
+        void onNearDeadline(List<TaskList.Task> tasks);
+    }
+}
@@ -0,0 +1,426 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A task storage on local files made of a snapshot and an append-only log.
+ * Every write appends a checksummed record to the log, so a process killed in the middle
+ * of a write loses at most that record; a batch of changes is a single record. The log is folded into a new snapshot when it grows
+ * larger than the live data, or when it holds many moves; the snapshot is replaced atomically by renaming a temporary file.
+ * Both files carry the generation of the snapshot, and a log left behind by a compaction is never replayed over the newer
+ * snapshot, as its moves would reorder the tasks.
+ */
+public class FileTaskStorage implements TaskStorage {
+
+    private static final int MAGIC = 0x54444d31;
+    private static final int VERSION = 2;
+    /**
+     * The version of the files written before the generation was added to the header.
+     */
+    private static final int VERSION_WITHOUT_GENERATION = 1;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    private static final int RECORD_PUT = 1;
+    private static final int RECORD_REMOVE = 2;
+    private static final int RECORD_BATCH = 3;
+    private static final int RECORD_MOVE = 4;
+    /**
+     * The moves the log holds before it is compacted. Loading a move reorders every task, so they
+     * are bounded apart from the other records.
+     */
+    private static final int MAX_LOG_MOVES = 64;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final File tempFile;
+    private final boolean syncWrites;
+    private FileOutputStream log;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+    private int logRecords;
+    private int liveRecords;
+    private int logMoves;
+    /**
+     * The length the log must be cut back to before the next append, as a failed write may have
+     * left part of a record at its end, or -1.
+     */
+    private long tornLength = -1;
+    /**
+     * The generation of the snapshot, which the log must carry to be replayed over it, or -1 if the snapshot
+     * was not read yet.
+     */
+    private int generation = -1;
+
+    /**
+     * Constructor.
+     * @param directory     The directory to keep the files in. It is created if needed.
+     * @param syncWrites    Whether each write is flushed to the device before returning.
+     *                      A killed process never loses a finished write; syncing also protects
+     *                      against power loss at the cost of write latency.
+     */
+    public FileTaskStorage(File directory, boolean syncWrites) {
+        directory.mkdirs();
+        snapshotFile = new File(directory, "tasks.snapshot");
+        logFile = new File(directory, "tasks.log");
+        tempFile = new File(directory, "tasks.snapshot.tmp");
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Constructor for a storage which does not sync each write.
+     * @param directory    The directory to keep the files in.
+     */
+    public FileTaskStorage(File directory) {
+        this(directory, false);
+    }
+
+    @Override
+    public synchronized List<TaskList.Task> load() throws IOException {
+        Map<Long, TaskList.Task> tasks = new LinkedHashMap<Long, TaskList.Task>();
+        tempFile.delete();
+        generation = 0;
+        if (snapshotFile.exists()) readRecords(snapshotFile, tasks, true);
+        long validLength = logFile.exists() ? readRecords(logFile, tasks, false) : 0;
+        if (validLength < 0) {
+            // A compaction was interrupted after publishing its snapshot, which holds every change of the log.
+            if (!logFile.delete()) throw new IOException("Can not delete " + logFile);
+            logRecords = 0;
+            logMoves = 0;
+        } else if (logFile.exists() && validLength < logFile.length()) {
+            // The tail of the log was left by an interrupted write.
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        liveRecords = tasks.size();
+        return new ArrayList<TaskList.Task>(tasks.values());
+    }
+
+    /**
+     * Reads the records of a file.
+     * @param file        The file to read.
+     * @param tasks       The map to put the tasks in.
+     * @param snapshot    Whether the file is a snapshot, which must be complete.
+     * @return The length of the valid prefix of the file, or -1 if it is a log of an older snapshot.
+     */
+    private long readRecords(File file, Map<Long, TaskList.Task> tasks, boolean snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        long valid = 0;
+        int records = 0;
+        int moves = 0;
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Unknown file format: " + file);
+            int version = in.readInt();
+            int fileGeneration;
+            if (version == VERSION) {
+                fileGeneration = in.readInt();
+                valid = 12;
+            } else if (version == VERSION_WITHOUT_GENERATION) {
+                fileGeneration = 0;
+                valid = 8;
+            } else throw new IOException("Unknown file format: " + file);
+            if (snapshot) generation = fileGeneration;
+            else if (fileGeneration != generation) return -1;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload = readPayload(in, length);
+                if (payload == null) {
+                    if (snapshot) throw new IOException("Corrupted snapshot: " + file);
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                int type = record.readUnsignedByte();
+                if (type == RECORD_PUT) {
+                    TaskList.Task task = TaskCodec.read(record);
+                    tasks.put(task.getId(), task);
+                } else if (type == RECORD_REMOVE) {
+                    tasks.remove(TaskCodec.readVarLong(record));
+                } else if (type == RECORD_BATCH) {
+                    records += readBatch(record, tasks) - 1;
+                } else if (type == RECORD_MOVE) {
+                    readMove(record, tasks);
+                    moves++;
+                } else throw new IOException("Unknown record type " + type + ": " + file);
+                valid += 8 + length;
+                records++;
+            }
+        } catch (EOFException e) {
+            // A header cut by a crash before the first record.
+            if (snapshot) throw new IOException("Corrupted snapshot: " + file);
+        } finally {
+            in.close();
+        }
+        if (!snapshot) {
+            logRecords = records;
+            logMoves = moves;
+        }
+        return valid;
+    }
+
+    /**
+     * Applies a move record, putting the tasks back in the map in their new order.
+     */
+    private static void readMove(DataInputStream record, Map<Long, TaskList.Task> tasks) throws IOException {
+        long id = TaskCodec.readVarLong(record);
+        int position = (int) TaskCodec.readVarLong(record);
+        TaskList.Task task = tasks.get(id);
+        if (task == null) return;
+        List<TaskList.Task> order = new ArrayList<TaskList.Task>(tasks.values());
+        order.remove(task);
+        order.add(Math.min(position, order.size()), task);
+        tasks.clear();
+        for (TaskList.Task t : order) tasks.put(t.getId(), t);
+    }
+
+    /**
+     * Applies a batch record.
+     * @return The number of changes of the batch.
+     */
+    private static int readBatch(DataInputStream record, Map<Long, TaskList.Task> tasks) throws IOException {
+        int written = (int) TaskCodec.readVarLong(record);
+        for (int i = 0; i < written; i++) {
+            TaskList.Task task = TaskCodec.read(record);
+            tasks.put(task.getId(), task);
+        }
+        int removed = (int) TaskCodec.readVarLong(record);
+        for (int i = 0; i < removed; i++) tasks.remove(TaskCodec.readVarLong(record));
+        return written + removed;
+    }
+
+    /**
+     * Reads the payload of a record and checks it.
+     * @return The payload or null if it is incomplete or corrupted.
+     */
+    private byte[] readPayload(DataInputStream in, int length) throws IOException {
+        if (length <= 0 || length > MAX_RECORD_LENGTH) return null;
+        int expected;
+        byte[] payload;
+        try {
+            expected = in.readInt();
+            payload = new byte[length];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        crc.reset();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == expected ? payload : null;
+    }
+
+    @Override
+    public synchronized void write(TaskList.Task task) throws IOException {
+        buffer.reset();
+        bufferOut.writeInt(0);
+        bufferOut.writeInt(0);
+        bufferOut.writeByte(RECORD_PUT);
+        TaskCodec.write(bufferOut, task);
+        append();
+    }
+
+    @Override
+    public synchronized void remove(long id) throws IOException {
+        buffer.reset();
+        bufferOut.writeInt(0);
+        bufferOut.writeInt(0);
+        bufferOut.writeByte(RECORD_REMOVE);
+        TaskCodec.writeVarLong(bufferOut, id);
+        append();
+    }
+
+    @Override
+    public synchronized void writeBatch(List<TaskList.Task> written, List<Long> removed) throws IOException {
+        buffer.reset();
+        bufferOut.writeInt(0);
+        bufferOut.writeInt(0);
+        bufferOut.writeByte(RECORD_BATCH);
+        TaskCodec.writeVarLong(bufferOut, written.size());
+        for (TaskList.Task task : written) TaskCodec.write(bufferOut, task);
+        TaskCodec.writeVarLong(bufferOut, removed.size());
+        for (long id : removed) TaskCodec.writeVarLong(bufferOut, id);
+        if (buffer.size() - 8 > MAX_RECORD_LENGTH) throw new IOException("Batch too large: " + buffer.size() + " bytes");
+        append();
+        // Each change of the batch counts towards the compaction.
+        logRecords += written.size() + removed.size() - 1;
+    }
+
+    @Override
+    public synchronized void move(long id, int position) throws IOException {
+        buffer.reset();
+        bufferOut.writeInt(0);
+        bufferOut.writeInt(0);
+        bufferOut.writeByte(RECORD_MOVE);
+        TaskCodec.writeVarLong(bufferOut, id);
+        TaskCodec.writeVarLong(bufferOut, position);
+        append();
+        logMoves++;
+    }
+
+    /**
+     * Appends the record in the buffer to the log, filling its length and checksum.
+     */
+    private void append() throws IOException {
+        if (log == null) log = openLog();
+        byte[] record = buffer.toByteArray();
+        int length = record.length - 8;
+        crc.reset();
+        crc.update(record, 8, length);
+        putInt(record, 0, length);
+        putInt(record, 4, (int) crc.getValue());
+        long validLength = log.getChannel().size();
+        try {
+            // A single write call so a record is never interleaved with another one.
+            log.write(record);
+            if (syncWrites) log.getFD().sync();
+        } catch (IOException e) {
+            // The records appended after a torn one would be lost on the next load, so the log
+            // is cut back to the last whole record, now or before the next append.
+            tornLength = validLength;
+            closeQuietly(log);
+            log = null;
+            try {
+                truncateTornTail();
+            } catch (IOException ignored) {
+                // It is tried again by the next append.
+            }
+            throw e;
+        }
+        logRecords++;
+    }
+
+    @Override
+    public synchronized boolean needsCompaction() {
+        return logRecords > Math.max(MIN_COMPACTION_RECORDS, liveRecords) || logMoves > MAX_LOG_MOVES;
+    }
+
+    @Override
+    public synchronized void compact(List<TaskList.Task> tasks) throws IOException {
+        int nextGeneration = generation() + 1;
+        FileOutputStream file = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nextGeneration);
+            for (TaskList.Task task : tasks) {
+                buffer.reset();
+                bufferOut.writeByte(RECORD_PUT);
+                TaskCodec.write(bufferOut, task);
+                crc.reset();
+                crc.update(buffer.toByteArray());
+                out.writeInt(buffer.size());
+                out.writeInt((int) crc.getValue());
+                buffer.writeTo(out);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        // Once renamed, the snapshot holds every task, so the log can be dropped. If the process dies before
+        // deleting it, the log still carries the previous generation and the next load skips it.
+        if (!tempFile.renameTo(snapshotFile)) throw new IOException("Can not replace " + snapshotFile);
+        generation = nextGeneration;
+        if (log != null) log.close();
+        log = null;
+        logFile.delete();
+        tornLength = -1;
+        logRecords = 0;
+        logMoves = 0;
+        liveRecords = tasks.size();
+    }
+
+    /**
+     * Closes the log file.
+     * @throws IOException If the file can not be closed.
+     */
+    public synchronized void close() throws IOException {
+        if (log != null) log.close();
+        log = null;
+    }
+
+    /**
+     * Cuts the log back to the length it had before a failed append, if any.
+     */
+    private void truncateTornTail() throws IOException {
+        if (tornLength < 0) return;
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            if (file.length() > tornLength) file.setLength(tornLength);
+        } finally {
+            file.close();
+        }
+        tornLength = -1;
+    }
+
+    private static void closeQuietly(FileOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // The write failed already.
+        }
+    }
+
+    /**
+     * Gets the generation of the snapshot, reading it if the storage was not loaded.
+     */
+    private int generation() throws IOException {
+        if (generation < 0) {
+            generation = 0;
+            if (snapshotFile.exists()) {
+                DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile));
+                try {
+                    if (in.readInt() == MAGIC && in.readInt() == VERSION) generation = in.readInt();
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return generation;
+    }
+
+    private FileOutputStream openLog() throws IOException {
+        truncateTornTail();
+        boolean exists = logFile.exists() && logFile.length() > 0;
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        if (!exists) {
+            byte[] header = new byte[12];
+            putInt(header, 0, MAGIC);
+            putInt(header, 4, VERSION);
+            putInt(header, 8, generation());
+            out.write(header);
+        }
+        return out;
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
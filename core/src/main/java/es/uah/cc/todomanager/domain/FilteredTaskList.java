@@ -0,0 +1,414 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A live view of the tasks of a {@link TaskList} which pass a filter.
+ * The view keeps the order of the source list, or a {@link TaskOrder}, and applies each change
+ * of the source incrementally: the affected row is found by a binary search over the source
+ * positions or the order, and a precise insert, remove, move or change event is sent to the callback.
+ * Changes of the whole view, as a new filter or a batch of changes of the source, are diffed
+ * on a background executor and sent as batched events; without executors they are applied
+ * in a single pass and sent as one reset.
+ */
+public class FilteredTaskList implements TaskList.TaskListObserver {
+
+    private final TaskList source;
+    private TaskFilter filter;
+    /**
+     * The order of the view, or null for the order of the source.
+     */
+    private TaskOrder order;
+    /**
+     * The order the visible tasks are sorted by. It differs from the order of the view
+     * while a new order is being applied in background.
+     */
+    private TaskOrder arranged;
+    private final List<TaskList.Task> visible;
+    /**
+     * The visible tasks by id, to find the row of a task by its old values.
+     */
+    private final Map<Long, TaskList.Task> shown = new HashMap<Long, TaskList.Task>();
+    private Callback callback;
+    /**
+     * Incremented on each change of the view, to discard diffs computed over an old state.
+     */
+    private int version;
+    /**
+     * Whether a difference is being computed.
+     */
+    private boolean diffPending;
+    private Executor backgroundExecutor;
+    private Executor mainExecutor;
+    /**
+     * Whether the source is notifying a batch, and whether the batch changed the source.
+     */
+    private boolean inBatch;
+    private boolean batchChanged;
+    /**
+     * Whether the difference being computed follows a batch, so the visible tasks may no longer
+     * be in the source and its changes can not be applied to them one by one.
+     */
+    private boolean stale;
+
+    /**
+     * Constructor. The view observes the source until {@link #detach()} is called.
+     * @param source    The list to filter.
+     * @param filter    The filter.
+     */
+    public FilteredTaskList(TaskList source, TaskFilter filter) {
+        this.source = source;
+        this.filter = filter;
+        visible = new ArrayList<TaskList.Task>();
+        refilter();
+        source.addObserver(this);
+    }
+
+    /**
+     * Stops observing the source list.
+     */
+    public void detach() {
+        source.removeObserver(this);
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    public TaskFilter getFilter() {
+        return filter;
+    }
+
+    public TaskOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * Sets the executors to compute the differences of the whole view.
+     * Without them, a change of filter or a batch resets the view synchronously.
+     * @param background    The executor to compute differences on.
+     * @param main          The executor of the thread which owns the view.
+     */
+    public void setExecutors(Executor background, Executor main) {
+        backgroundExecutor = background;
+        mainExecutor = main;
+    }
+
+    /**
+     * Changes the filter and recomputes the whole view.
+     * If there are executors, the difference with the current view is computed in background
+     * and the callback receives batched events; else it receives a reset.
+     * @param filter    The new filter.
+     */
+    public void setFilter(TaskFilter filter) {
+        this.filter = filter;
+        reload();
+    }
+
+    /**
+     * Changes the order and sorts the whole view, as {@link #setFilter(TaskFilter)} does.
+     * Only this sort takes O(n log n) time; later changes reposition single rows.
+     * @param order    The new order, or null for the order of the source.
+     */
+    public void setOrder(TaskOrder order) {
+        this.order = order;
+        reload();
+    }
+
+    private void reload() {
+        version++;
+        if (backgroundExecutor == null) {
+            refilter();
+            if (callback != null) callback.onReset();
+        } else if (!diffPending) {
+            diffPending = true;
+            recompute();
+        }
+    }
+
+    /**
+     * Computes the difference between the visible tasks and the filtered source in background,
+     * then applies it on the main executor unless the view changed in the meanwhile.
+     * In that case the computation is started again over the new state.
+     */
+    private void recompute() {
+        final int expected = version;
+        final List<TaskList.Task> oldTasks = new ArrayList<TaskList.Task>(visible);
+        final List<TaskList.Task> newTasks = filterSource();
+        final TaskOrder newOrder = order;
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (newOrder != null) Collections.sort(newTasks, newOrder);
+                final TaskListDiff diff = TaskListDiff.calculate(oldTasks, newTasks);
+                mainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (version != expected) {
+                            recompute();
+                            return;
+                        }
+                        diffPending = false;
+                        stale = false;
+                        setVisible(newTasks, newOrder);
+                        if (callback != null) diff.dispatchUpdatesTo(callback);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Gets a visible task.
+     * @param position    The position on the view.
+     * @return The task.
+     */
+    public TaskList.Task get(int position) {
+        return visible.get(position);
+    }
+
+    /**
+     * The number of visible tasks.
+     * @return The size of the view.
+     */
+    public int size() {
+        return visible.size();
+    }
+
+    /**
+     * Gets the position of a task on the view.
+     * @param id    The id of the task.
+     * @return The position or -1 if the task is not visible.
+     */
+    public int indexOf(long id) {
+        if (arranged != null) {
+            TaskList.Task t = shown.get(id);
+            return t == null ? -1 : locate(t);
+        }
+        int position = source.indexOf(id);
+        if (position < 0) return -1;
+        int i = search(position, false);
+        return i >= 0 ? i : -1;
+    }
+
+    private void refilter() {
+        List<TaskList.Task> tasks = filterSource();
+        if (order != null) Collections.sort(tasks, order);
+        setVisible(tasks, order);
+    }
+
+    private void setVisible(List<TaskList.Task> tasks, TaskOrder sortedBy) {
+        arranged = sortedBy;
+        visible.clear();
+        visible.addAll(tasks);
+        shown.clear();
+        for (TaskList.Task t : tasks) shown.put(t.getId(), t);
+    }
+
+    /**
+     * Looks for the row of a visible task by the order, in O(log n) time. Tasks on the list are never
+     * changed in place and the order breaks ties by id, so the row is where the values of the task say.
+     * @param task    The task as it is shown.
+     * @return The position of the task, or -1 if it is not shown.
+     */
+    private int locate(TaskList.Task task) {
+        int i = Collections.binarySearch(visible, task, arranged);
+        return i >= 0 && visible.get(i).getId() == task.getId() ? i : -1;
+    }
+
+    /**
+     * The row a task goes to by the order.
+     */
+    private int insertionPoint(TaskList.Task task) {
+        int i = Collections.binarySearch(visible, task, arranged);
+        return i < 0 ? -(i + 1) : i;
+    }
+
+    private void show(int position, TaskList.Task task) {
+        visible.add(position, task);
+        shown.put(task.getId(), task);
+    }
+
+    private TaskList.Task hide(int position) {
+        TaskList.Task t = visible.remove(position);
+        shown.remove(t.getId());
+        return t;
+    }
+
+    /**
+     * Filters the whole source list. Status filters are served by the status index of the list,
+     * in time proportional to the number of visible tasks.
+     * @return A new list with the accepted tasks.
+     */
+    private List<TaskList.Task> filterSource() {
+        if (filter instanceof TaskFilter.StatusFilter)
+            return source.getTasksWithStatus(((TaskFilter.StatusFilter) filter).getAcceptedStatuses());
+        List<TaskList.Task> tasks = new ArrayList<TaskList.Task>();
+        for (TaskList.Task t : source.getTasks()) if (filter.accept(t)) tasks.add(t);
+        return tasks;
+    }
+
+    /**
+     * Looks for a position of the source list among the visible tasks.
+     * @param sourcePosition    The position on the source list.
+     * @param removed           Whether the task was removed from the source. In that case it is
+     *                          the only visible task without a source position, and the tasks after
+     *                          it have already been shifted to its position and beyond.
+     * @return The index of the task if it is visible, else (-(insertion point) - 1).
+     */
+    private int search(int sourcePosition, boolean removed) {
+        int low = 0;
+        int high = visible.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int p = source.indexOf(visible.get(mid).getId());
+            if (removed ? p < 0 : p == sourcePosition) return mid;
+            if (p < sourcePosition) low = mid + 1;
+            else high = mid - 1;
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    public void onTaskAdded(TaskList.Task task, int position) {
+        if (deferred()) return;
+        if (!filter.accept(task)) return;
+        int i = arranged != null ? insertionPoint(task) : -(search(position, false) + 1);
+        show(i, task);
+        version++;
+        if (callback != null) callback.onInserted(i, 1);
+    }
+
+    @Override
+    public void onTaskUpdated(TaskList.Task task, int position) {
+        if (deferred()) return;
+        version++;
+        if (arranged != null) {
+            updateOrdered(task);
+            return;
+        }
+        int i = search(position, false);
+        boolean accepted = filter.accept(task);
+        if (i >= 0) {
+            if (accepted) {
+                visible.set(i, task);
+                shown.put(task.getId(), task);
+                if (callback != null) callback.onChanged(i, 1);
+            } else {
+                hide(i);
+                if (callback != null) callback.onRemoved(i, 1);
+            }
+        } else if (accepted) {
+            i = -(i + 1);
+            show(i, task);
+            if (callback != null) callback.onInserted(i, 1);
+        }
+    }
+
+    /**
+     * Repositions an updated task: its old row is found by its old values and
+     * its new row by binary insertion, so only that row moves.
+     */
+    private void updateOrdered(TaskList.Task task) {
+        TaskList.Task old = shown.get(task.getId());
+        int i = old == null ? -1 : locate(old);
+        boolean accepted = filter.accept(task);
+        if (i >= 0) hide(i);
+        if (!accepted) {
+            if (i >= 0 && callback != null) callback.onRemoved(i, 1);
+            return;
+        }
+        int target = insertionPoint(task);
+        show(target, task);
+        if (callback == null) return;
+        if (i < 0) callback.onInserted(target, 1);
+        else {
+            if (i != target) callback.onMoved(i, target);
+            callback.onChanged(target, 1);
+        }
+    }
+
+    @Override
+    public void onTaskRemoved(TaskList.Task task, int position) {
+        if (arranged != null) arranged.forget(task.getId());
+        if (deferred()) return;
+        int i;
+        if (arranged != null) {
+            TaskList.Task old = shown.get(task.getId());
+            i = old == null ? -1 : locate(old);
+        } else i = search(position, true);
+        if (i < 0) return;
+        hide(i);
+        version++;
+        if (callback != null) callback.onRemoved(i, 1);
+    }
+
+    @Override
+    public void onTaskMoved(TaskList.Task task, int from, int to) {
+        if (deferred()) return;
+        // The order of the view does not depend on the positions of the source.
+        if (arranged != null) return;
+        // The old positions are gone by now, so the moved task is looked for by id.
+        int i = -1;
+        for (int j = 0; j < visible.size(); j++) {
+            if (visible.get(j).getId() == task.getId()) {
+                i = j;
+                break;
+            }
+        }
+        if (i < 0) return;
+        version++;
+        visible.remove(i);
+        int target = -(search(to, false) + 1);
+        visible.add(target, task);
+        if (callback != null && i != target) callback.onMoved(i, target);
+    }
+
+    /**
+     * Whether a change of the source is left to the difference of the whole view, as it happens
+     * during a batch and until the difference computed after it is applied.
+     */
+    private boolean deferred() {
+        if (inBatch) {
+            batchChanged = true;
+            return true;
+        }
+        if (!stale) return false;
+        // The difference being computed is older than the change, so it is started again.
+        version++;
+        return true;
+    }
+
+    @Override
+    public void onBatchStarted() {
+        inBatch = true;
+        batchChanged = false;
+    }
+
+    /**
+     * Filters and sorts the source again in one pass, which is cheaper than
+     * moving rows one by one for many changes, and diffs it with the view if there are executors.
+     */
+    @Override
+    public void onBatchFinished() {
+        inBatch = false;
+        if (!batchChanged) return;
+        if (backgroundExecutor != null) stale = true;
+        reload();
+    }
+
+    /**
+     * Receives the changes of the view.
+     */
+    public static interface Callback extends TaskListDiff.UpdateCallback {
+        /**
+         * The whole view changed.
+         */
+        void onReset();
+    }
+}
@@ -0,0 +1,108 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The resumable upload protocol over HTTP. Each call is a request to the URL of the sync server
+ * with the id of the upload as a parameter:
+ * <ul>
+ *     <li>{@code PUT ?upload=id&offset=n} with a chunk as body answers the number of bytes the server has, as text.</li>
+ *     <li>{@code GET ?upload=id} answers the number of bytes the server has, as text.</li>
+ *     <li>{@code POST ?upload=id&length=n} answers the framed response.</li>
+ * </ul>
+ */
+public class HttpSyncChannel implements SyncChannel {
+
+    private static final int TIMEOUT = 30000;
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private volatile URL url;
+
+    /**
+     * Constructor.
+     * @param url    The URL of the server, or null while there is none.
+     */
+    public HttpSyncChannel(URL url) {
+        this.url = url;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Changes the server. The uploads which already started go on with the new one, which starts them again.
+     * @param url    The URL of the server, or null to stop syncing.
+     */
+    public void setUrl(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public long send(long upload, long offset, byte[] data, int start, int length) throws IOException {
+        return parseOffset(call("PUT", "upload=" + upload + "&offset=" + offset, data, start, length));
+    }
+
+    @Override
+    public long received(long upload) throws IOException {
+        return parseOffset(call("GET", "upload=" + upload, null, 0, 0));
+    }
+
+    @Override
+    public byte[] finish(long upload, long length) throws IOException {
+        return call("POST", "upload=" + upload + "&length=" + length, null, 0, 0);
+    }
+
+    private byte[] call(String method, String query, byte[] body, int start, int length) throws IOException {
+        URL target = url;
+        if (target == null) throw new IOException("No sync server");
+        target = new URL(target.toString() + (target.getQuery() == null ? "?" : "&") + query);
+        HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setRequestMethod(method);
+            if (!"GET".equals(method)) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+                connection.setFixedLengthStreamingMode(length);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    if (body != null) out.write(body, start, length);
+                } finally {
+                    out.close();
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) throw new IOException("The sync server answered " + status);
+            InputStream in = connection.getInputStream();
+            try {
+                return readAll(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static long parseOffset(byte[] body) throws IOException {
+        try {
+            return Long.parseLong(new String(body, "US-ASCII").trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed upload offset");
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,78 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A transport which posts each request to a URL of the sync server, as a binary body.
+ */
+public class HttpSyncTransport implements SyncTransport {
+
+    private static final int TIMEOUT = 30000;
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private volatile URL url;
+
+    /**
+     * Constructor.
+     * @param url    The URL of the server, or null while there is none.
+     */
+    public HttpSyncTransport(URL url) {
+        this.url = url;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Changes the server. The syncs which already started keep the old one.
+     * @param url    The URL of the server, or null to stop syncing.
+     */
+    public void setUrl(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public SyncMessage.Response exchange(SyncMessage.Request request) throws IOException {
+        URL target = url;
+        if (target == null) throw new IOException("No sync server");
+        byte[] body = request.encode();
+        HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) throw new IOException("The sync server answered " + status);
+            InputStream in = connection.getInputStream();
+            try {
+                return SyncMessage.Response.decode(readAll(in));
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+}
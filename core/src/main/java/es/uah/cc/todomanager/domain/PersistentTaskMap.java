@@ -0,0 +1,172 @@
+package es.uah.cc.todomanager.domain;
+
+/**
+ * An immutable map of tasks by id, as a hash array mapped trie.
+ * Each level of the trie takes 5 bits of a mixed hash of the id and keeps only the slots in use,
+ * so a change copies a path of at most 13 small nodes and shares the rest with the previous version.
+ * The mix is a bijection on 64 bit values, so different ids never collide on the full hash.
+ */
+final class PersistentTaskMap {
+
+    static final PersistentTaskMap EMPTY = new PersistentTaskMap(new Node(0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentTaskMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Mixes the bits of an id, as the finalizer of SplitMix64.
+     * @param id    The id.
+     * @return The hash.
+     */
+    static long mix(long id) {
+        long z = id;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets a task by id.
+     * @param id    The id.
+     * @return The task or null if there is no such task.
+     */
+    public TaskList.Task get(long id) {
+        long hash = mix(id);
+        Node node = root;
+        for (int shift = 0; ; shift += 5) {
+            int bit = 1 << (int) ((hash >>> shift) & 31);
+            if ((node.bitmap & bit) == 0) return null;
+            Object entry = node.array[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (entry instanceof Node) node = (Node) entry;
+            else {
+                TaskList.Task task = (TaskList.Task) entry;
+                return task.getId() == id ? task : null;
+            }
+        }
+    }
+
+    /**
+     * Puts a task, replacing the task with the same id.
+     * @param task    The task.
+     * @return The new map.
+     */
+    public PersistentTaskMap put(TaskList.Task task) {
+        boolean[] added = new boolean[1];
+        Node newRoot = put(root, task, mix(task.getId()), 0, added);
+        return new PersistentTaskMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Removes a task.
+     * @param id    The id of the task.
+     * @return The new map, or this map if there was no such task.
+     */
+    public PersistentTaskMap remove(long id) {
+        Object newRoot = remove(root, id, mix(id), 0);
+        if (newRoot == root) return this;
+        if (newRoot == null) return EMPTY;
+        // A single task left below the root is kept in a root node.
+        if (!(newRoot instanceof Node)) {
+            TaskList.Task task = (TaskList.Task) newRoot;
+            return new PersistentTaskMap(new Node(slotBit(mix(task.getId()), 0), new Object[] {task}), size - 1);
+        }
+        return new PersistentTaskMap((Node) newRoot, size - 1);
+    }
+
+    private static int slotBit(long hash, int shift) {
+        return 1 << (int) ((hash >>> shift) & 31);
+    }
+
+    private static Node put(Node node, TaskList.Task task, long hash, int shift, boolean[] added) {
+        int bit = slotBit(hash, shift);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] array = new Object[node.array.length + 1];
+            System.arraycopy(node.array, 0, array, 0, index);
+            array[index] = task;
+            System.arraycopy(node.array, index, array, index + 1, node.array.length - index);
+            return new Node(node.bitmap | bit, array);
+        }
+        Object entry = node.array[index];
+        Object replacement;
+        if (entry instanceof Node) replacement = put((Node) entry, task, hash, shift + 5, added);
+        else {
+            TaskList.Task other = (TaskList.Task) entry;
+            if (other.getId() == task.getId()) replacement = task;
+            else {
+                added[0] = true;
+                replacement = pair(other, mix(other.getId()), task, hash, shift + 5);
+            }
+        }
+        Object[] array = node.array.clone();
+        array[index] = replacement;
+        return new Node(node.bitmap, array);
+    }
+
+    /**
+     * Builds the node which holds two tasks whose hashes are equal up to a level.
+     */
+    private static Node pair(TaskList.Task a, long hashA, TaskList.Task b, long hashB, int shift) {
+        int bitA = slotBit(hashA, shift);
+        int bitB = slotBit(hashB, shift);
+        if (bitA == bitB) return new Node(bitA, new Object[] {pair(a, hashA, b, hashB, shift + 5)});
+        // Entries are kept in the order of their slots; the bit of the last slot is negative.
+        return new Node(bitA | bitB, (bitA & (bitB - 1)) != 0 ? new Object[] {a, b} : new Object[] {b, a});
+    }
+
+    /**
+     * Removes a task from a node.
+     * @return The same node if nothing was removed, null if the node is left empty,
+     * the remaining task if it is the only entry left, or the new node.
+     */
+    private static Object remove(Node node, long id, long hash, int shift) {
+        int bit = slotBit(hash, shift);
+        if ((node.bitmap & bit) == 0) return node;
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object entry = node.array[index];
+        Object replacement;
+        if (entry instanceof Node) {
+            replacement = remove((Node) entry, id, hash, shift + 5);
+            if (replacement == entry) return node;
+        } else {
+            if (((TaskList.Task) entry).getId() != id) return node;
+            replacement = null;
+        }
+        if (replacement == null) {
+            if (node.array.length == 1) return null;
+            if (node.array.length == 2 && !(node.array[1 - index] instanceof Node)) return node.array[1 - index];
+            Object[] array = new Object[node.array.length - 1];
+            System.arraycopy(node.array, 0, array, 0, index);
+            System.arraycopy(node.array, index + 1, array, index, array.length - index);
+            return new Node(node.bitmap & ~bit, array);
+        }
+        // A single task left in a child is pulled up, unless it is the only entry of this node.
+        if (!(replacement instanceof Node) && node.array.length == 1) return replacement;
+        Object[] array = node.array.clone();
+        array[index] = replacement;
+        return new Node(node.bitmap, array);
+    }
+
+    /**
+     * A node of the trie. Its entries are tasks or child nodes, in the order of their slots.
+     */
+    private static final class Node {
+        final int bitmap;
+        final Object[] array;
+
+        Node(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable sequence of tasks indexed by position, as a treap ordered by position.
+ * The priority of a node is the mixed hash of the id of its task, so the shape does not depend
+ * on the order of the changes and the depth is logarithmic in expectation.
+ * A change copies the nodes on the paths it touches and shares the rest with the previous version.
+ */
+final class PersistentTaskVector extends AbstractList<TaskList.Task> {
+
+    static final PersistentTaskVector EMPTY = new PersistentTaskVector(null);
+
+    private final Node root;
+
+    private PersistentTaskVector(Node root) {
+        this.root = root;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public TaskList.Task get(int position) {
+        if (position < 0 || position >= size()) throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        Node node = root;
+        while (true) {
+            int left = size(node.left);
+            if (position < left) node = node.left;
+            else if (position == left) return node.task;
+            else {
+                position -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Replaces the task at a position.
+     * @param position    The position.
+     * @param task        The new task.
+     * @return The new sequence.
+     */
+    public PersistentTaskVector with(int position, TaskList.Task task) {
+        if (position < 0 || position >= size()) throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        return new PersistentTaskVector(replace(root, position, task));
+    }
+
+    /**
+     * Inserts a task.
+     * @param position    The position of the new task.
+     * @param task        The task.
+     * @return The new sequence.
+     */
+    public PersistentTaskVector plus(int position, TaskList.Task task) {
+        if (position < 0 || position > size()) throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        return new PersistentTaskVector(insert(root, position, new Node(task, priority(task), null, null)));
+    }
+
+    /**
+     * Appends a task.
+     * @param task    The task.
+     * @return The new sequence.
+     */
+    public PersistentTaskVector plus(TaskList.Task task) {
+        return plus(size(), task);
+    }
+
+    /**
+     * Removes the task at a position.
+     * @param position    The position.
+     * @return The new sequence.
+     */
+    public PersistentTaskVector minus(int position) {
+        if (position < 0 || position >= size()) throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        return new PersistentTaskVector(delete(root, position));
+    }
+
+    @Override
+    public Iterator<TaskList.Task> iterator() {
+        return new InOrderIterator(root);
+    }
+
+    private static int priority(TaskList.Task task) {
+        return (int) (PersistentTaskMap.mix(task.getId()) >>> 32);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node replace(Node node, int position, TaskList.Task task) {
+        int left = size(node.left);
+        if (position < left) return new Node(node.task, node.priority, replace(node.left, position, task), node.right);
+        if (position == left) return new Node(task, node.priority, node.left, node.right);
+        return new Node(node.task, node.priority, node.left, replace(node.right, position - left - 1, task));
+    }
+
+    private static Node insert(Node node, int position, Node single) {
+        if (node == null) return single;
+        if (single.priority > node.priority) {
+            Node[] parts = new Node[2];
+            split(node, position, parts);
+            return new Node(single.task, single.priority, parts[0], parts[1]);
+        }
+        int left = size(node.left);
+        if (position <= left) return new Node(node.task, node.priority, insert(node.left, position, single), node.right);
+        return new Node(node.task, node.priority, node.left, insert(node.right, position - left - 1, single));
+    }
+
+    private static Node delete(Node node, int position) {
+        int left = size(node.left);
+        if (position < left) return new Node(node.task, node.priority, delete(node.left, position), node.right);
+        if (position == left) return merge(node.left, node.right);
+        return new Node(node.task, node.priority, node.left, delete(node.right, position - left - 1));
+    }
+
+    /**
+     * Splits a tree into the first tasks and the rest.
+     * @param count    The number of tasks of the first part.
+     * @param parts    Receives both parts.
+     */
+    private static void split(Node node, int count, Node[] parts) {
+        if (node == null) {
+            parts[0] = null;
+            parts[1] = null;
+            return;
+        }
+        int left = size(node.left);
+        if (count <= left) {
+            split(node.left, count, parts);
+            parts[1] = new Node(node.task, node.priority, parts[1], node.right);
+        } else {
+            split(node.right, count - left - 1, parts);
+            parts[0] = new Node(node.task, node.priority, node.left, parts[0]);
+        }
+    }
+
+    /**
+     * Joins two trees, every task of the first one going before the second one.
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) return second;
+        if (second == null) return first;
+        if (first.priority > second.priority) return new Node(first.task, first.priority, first.left, merge(first.right, second));
+        return new Node(second.task, second.priority, merge(first, second.left), second.right);
+    }
+
+    private static final class Node {
+        final TaskList.Task task;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(TaskList.Task task, int priority, Node left, Node right) {
+            this.task = task;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            size = 1 + PersistentTaskVector.size(left) + PersistentTaskVector.size(right);
+        }
+    }
+
+    /**
+     * Walks the tree in order with a stack of the pending ancestors.
+     */
+    private static final class InOrderIterator implements Iterator<TaskList.Task> {
+        private Node[] stack = new Node[16];
+        private int depth;
+
+        InOrderIterator(Node root) {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node node) {
+            for (; node != null; node = node.left) {
+                if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = node;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        public TaskList.Task next() {
+            if (depth == 0) throw new NoSuchElementException();
+            Node node = stack[--depth];
+            stack[depth] = null;
+            pushLeft(node.right);
+            return node.task;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * A transport for mobile networks: each request is framed by {@link SyncWire}, so batches travel
+ * compressed, and uploaded in chunks through a {@link SyncChannel}. When the connection drops the
+ * upload goes on from the last chunk the server has instead of starting again, and a response lost
+ * on the way is asked for again; the server answers each upload only once.
+ * <p>
+ * Failures are retried at once, as most of them are short drops; a server which stays unreachable
+ * fails the sync, which the engine retries at its next interval.
+ */
+public class ResumableSyncTransport implements SyncTransport {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    /**
+     * The number of failures in a row of an exchange before it fails.
+     */
+    public static final int DEFAULT_RETRIES = 3;
+
+    private final SyncChannel channel;
+    private final int chunkSize;
+    private final int retries;
+    private final Random random = new SecureRandom();
+    private long bytesSent;
+    private long bytesReceived;
+    private long messageBytes;
+    private int resumes;
+
+    /**
+     * Constructor.
+     * @param channel      The channel to the server.
+     * @param chunkSize    The maximum length of a chunk.
+     * @param retries      The number of failures in a row of an exchange before it fails.
+     */
+    public ResumableSyncTransport(SyncChannel channel, int chunkSize, int retries) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size " + chunkSize);
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.retries = retries;
+    }
+
+    public ResumableSyncTransport(SyncChannel channel) {
+        this(channel, DEFAULT_CHUNK_SIZE, DEFAULT_RETRIES);
+    }
+
+    @Override
+    public SyncMessage.Response exchange(SyncMessage.Request request) throws IOException {
+        byte[] message = request.encode();
+        byte[] body = SyncWire.compress(message);
+        long upload = random.nextLong();
+        long offset = 0;
+        boolean resuming = false;
+        int failures = 0;
+        while (true) {
+            try {
+                if (resuming) offset = check(channel.received(upload), body.length);
+                while (offset < body.length) {
+                    int length = (int) Math.min(chunkSize, body.length - offset);
+                    long next = check(channel.send(upload, offset, body, (int) offset, length), body.length);
+                    count(length, 0);
+                    // A chunk which got through is progress; only failures in a row count.
+                    if (next > offset) failures = 0;
+                    offset = next;
+                }
+                byte[] response = channel.finish(upload, body.length);
+                count(0, response.length);
+                synchronized (this) {
+                    messageBytes += message.length;
+                }
+                return SyncMessage.Response.decode(SyncWire.decompress(response));
+            } catch (IOException e) {
+                if (++failures > retries) throw e;
+                resuming = true;
+                synchronized (this) {
+                    resumes++;
+                }
+            }
+        }
+    }
+
+    private static long check(long offset, long length) throws IOException {
+        if (offset < 0 || offset > length) throw new IOException("The sync server has " + offset + " bytes of an upload of " + length);
+        return offset;
+    }
+
+    private synchronized void count(long sent, long received) {
+        bytesSent += sent;
+        bytesReceived += received;
+    }
+
+    /**
+     * The number of bytes of the chunks sent, including the chunks sent again.
+     */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * The number of bytes of the responses received.
+     */
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * The number of bytes of the requests sent before they were framed, to tell the compression.
+     */
+    public synchronized long getMessageBytes() {
+        return messageBytes;
+    }
+
+    /**
+     * The number of times an exchange went on after a failure.
+     */
+    public synchronized int getResumes() {
+        return resumes;
+    }
+}
@@ -0,0 +1,239 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the searches typed by the user. A query waits until the user stops typing for a while,
+ * runs on a background thread and delivers its results on the main thread in batches, so the
+ * first rows are shown before the rest are resolved. A newer query cancels the older ones,
+ * whether they are waiting, running or delivering.
+ * Its methods are called on the main thread, which is also the thread of the task list.
+ */
+public class SearchController {
+
+    /**
+     * The default time to wait for more keystrokes, in milliseconds.
+     */
+    public static final long DEFAULT_DEBOUNCE = 250;
+
+    private final TaskSearchIndex index;
+    private final TaskList tasks;
+    private final ScheduledExecutorService background;
+    private final Executor main;
+    private final long debounce;
+    private final int limit;
+    private final int batchSize;
+    private Listener listener;
+    /**
+     * Increased by every query; a query whose generation is not the current one is cancelled.
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    private Future<?> pending;
+    /**
+     * Whether the current query has not delivered all its results yet.
+     */
+    private boolean running;
+    private String query;
+
+    private int completed;
+    private int cancelled;
+    private long lastLatency;
+    private long totalLatency;
+
+    /**
+     * Receives the results of the queries on the main thread.
+     */
+    public interface Listener {
+        /**
+         * The results of a query are going to be delivered; the results of older queries are no longer valid.
+         * @param query    The query.
+         */
+        void onSearchStarted(String query);
+
+        /**
+         * More results of the current query, after the ones already delivered.
+         * @param query      The query.
+         * @param results    The next results, best first.
+         */
+        void onResults(String query, List<TaskList.Task> results);
+
+        /**
+         * Every result of the current query was delivered.
+         * @param query      The query.
+         * @param count      The number of results.
+         * @param latency    The time since the query started until its last result was delivered, in nanoseconds.
+         */
+        void onSearchFinished(String query, int count, long latency);
+    }
+
+    /**
+     * Constructor.
+     * @param index         The index to query.
+     * @param tasks         The list of the index, to resolve the results.
+     * @param background    The executor to wait and query on.
+     * @param main          The executor of the main thread.
+     * @param debounce      The time to wait for more keystrokes, in milliseconds.
+     * @param limit         The maximum number of results of a query.
+     * @param batchSize     The number of results delivered at once.
+     */
+    public SearchController(TaskSearchIndex index, TaskList tasks, ScheduledExecutorService background, Executor main,
+                            long debounce, int limit, int batchSize) {
+        this.index = index;
+        this.tasks = tasks;
+        this.background = background;
+        this.main = main;
+        this.debounce = debounce;
+        this.limit = limit;
+        this.batchSize = batchSize;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The query being run or the last one run.
+     * @return The query, or null.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Starts a query after the debounce time, cancelling the older ones.
+     * @param query    The query.
+     */
+    public void search(String query) {
+        cancel();
+        this.query = query;
+        running = true;
+        final int current = generation.get();
+        final String q = query;
+        pending = background.schedule(new Runnable() {
+            @Override
+            public void run() {
+                query(current, q);
+            }
+        }, debounce, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the current query again, as when the tasks changed.
+     */
+    public void refresh() {
+        if (query != null) search(query);
+    }
+
+    /**
+     * Cancels the current query, if it has not finished.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        if (running) cancelled++;
+        running = false;
+    }
+
+    /**
+     * Cancels the current query and forgets it.
+     */
+    public void clear() {
+        cancel();
+        query = null;
+    }
+
+    /**
+     * The number of queries which delivered all their results.
+     */
+    public int getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * The number of queries cancelled by newer ones before they finished.
+     */
+    public int getCancelledCount() {
+        return cancelled;
+    }
+
+    /**
+     * The latency of the last query which finished, in nanoseconds.
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * The mean latency of the queries which finished, in nanoseconds.
+     */
+    public long getAverageLatency() {
+        return completed == 0 ? 0 : totalLatency / completed;
+    }
+
+    private boolean isCurrent(int queryGeneration) {
+        return generation.get() == queryGeneration;
+    }
+
+    /**
+     * Runs a query on the background thread.
+     */
+    private void query(final int queryGeneration, final String q) {
+        if (!isCurrent(queryGeneration)) return;
+        final long start = System.nanoTime();
+        final long[] ids = index.searchIds(q, limit, new TaskSearchIndex.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return !isCurrent(queryGeneration);
+            }
+        });
+        if (ids == null) return;
+        main.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCurrent(queryGeneration)) return;
+                if (listener != null) listener.onSearchStarted(q);
+                deliver(queryGeneration, q, ids, 0, 0, start);
+            }
+        });
+    }
+
+    /**
+     * Resolves and delivers a batch of results on the main thread, and posts the next one.
+     * @param from     The first result of the batch.
+     * @param count    The results delivered so far; removed tasks are skipped.
+     */
+    private void deliver(final int queryGeneration, final String q, final long[] ids, final int from, int count, final long start) {
+        int to = Math.min(ids.length, from + batchSize);
+        List<TaskList.Task> batch = new ArrayList<TaskList.Task>(to - from);
+        for (int i = from; i < to; i++) {
+            TaskList.Task t = tasks.getTask(ids[i]);
+            // The task may have been removed since the query ran.
+            if (t != null) batch.add(t);
+        }
+        final int delivered = count + batch.size();
+        if (!batch.isEmpty() && listener != null) listener.onResults(q, batch);
+        if (to < ids.length) {
+            // The main thread draws the rows between batches.
+            main.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCurrent(queryGeneration)) deliver(queryGeneration, q, ids, from + batchSize, delivered, start);
+                }
+            });
+            return;
+        }
+        running = false;
+        pending = null;
+        lastLatency = System.nanoTime() - start;
+        totalLatency += lastLatency;
+        completed++;
+        if (listener != null) listener.onSearchFinished(q, delivered, lastLatency);
+    }
+}
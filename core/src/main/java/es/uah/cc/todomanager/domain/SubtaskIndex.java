@@ -0,0 +1,221 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The subtasks of each task and the sum of their progress, so the progress of a parent is known
+ * in O(1) time and a change of a subtask updates it in O(1) time, without walking the subtasks.
+ * A canceled subtask does not count, a completed one counts as done, and a complex one counts
+ * with its own rolled up progress, so a change goes up the tree one level at a time.
+ * <p>
+ * Only subtasks have entries. A link which would make a task its own ancestor is ignored, so the
+ * tasks always make a forest.
+ */
+class SubtaskIndex {
+
+    /**
+     * Orders pairs of depth and id by descending depth.
+     */
+    private static final Comparator<long[]> DEEPEST_FIRST = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return a[0] > b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+        }
+    };
+
+    private final Map<Long, Node> nodes = new HashMap<Long, Node>();
+    /**
+     * The entry of each subtask.
+     */
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+    /**
+     * Indexes a task.
+     * @param task       The task.
+     * @param changed    Receives the ids of the tasks whose progress changed.
+     */
+    void update(TaskList.Task task, Collection<Long> changed) {
+        long id = task.getId();
+        long parent = task.getParentId();
+        if (parent != TaskList.Task.NO_PARENT && isAncestor(id, parent)) parent = TaskList.Task.NO_PARENT;
+        int contribution = contributionOf(task);
+        Entry e = entries.get(id);
+        if (e != null && e.parent == parent) {
+            if (e.contribution == contribution) return;
+            Node node = nodes.get(parent);
+            node.subtract(e.contribution);
+            node.add(contribution);
+            e.contribution = contribution;
+            changed.add(parent);
+            return;
+        }
+        if (e != null) {
+            detach(id, e);
+            changed.add(e.parent);
+        }
+        if (parent == TaskList.Task.NO_PARENT) return;
+        Node node = nodes.get(parent);
+        if (node == null) {
+            node = new Node();
+            nodes.put(parent, node);
+        }
+        node.children.add(id);
+        node.add(contribution);
+        entries.put(id, new Entry(parent, contribution));
+        changed.add(parent);
+    }
+
+    /**
+     * Removes a task. Its subtasks keep their entries until they are removed too.
+     * @param id         The id of the task.
+     * @param changed    Receives the id of its parent, if it was a subtask.
+     */
+    void remove(long id, Collection<Long> changed) {
+        Entry e = entries.get(id);
+        if (e == null) return;
+        detach(id, e);
+        changed.add(e.parent);
+    }
+
+    /**
+     * Gets the subtasks of a task.
+     * @param id    The id of the task.
+     * @return The ids, in the order they were added.
+     */
+    List<Long> children(long id) {
+        Node node = nodes.get(id);
+        return node == null ? new ArrayList<Long>() : new ArrayList<Long>(node.children);
+    }
+
+    int count(long id) {
+        Node node = nodes.get(id);
+        return node == null ? 0 : node.children.size();
+    }
+
+    /**
+     * Gets the subtasks of a task, their subtasks and so on.
+     * @param id    The id of the task.
+     * @return The ids, each one after its parent.
+     */
+    List<Long> descendants(long id) {
+        List<Long> ids = new ArrayList<Long>();
+        Node node = nodes.get(id);
+        if (node != null) ids.addAll(node.children);
+        for (int i = 0; i < ids.size(); i++) {
+            node = nodes.get(ids.get(i));
+            if (node != null) ids.addAll(node.children);
+        }
+        return ids;
+    }
+
+    /**
+     * The rolled up progress of a task.
+     * @param id    The id of the task.
+     * @return The average progress of its subtasks which count, or -1 if none counts.
+     */
+    int progress(long id) {
+        Node node = nodes.get(id);
+        return node == null || node.counted == 0 ? -1 : (int) (node.sum / node.counted);
+    }
+
+    /**
+     * Starts a queue of tasks to roll their progress up.
+     * @return A new queue.
+     */
+    RollUpQueue newQueue() {
+        return new RollUpQueue();
+    }
+
+    private int depth(long id) {
+        int depth = 0;
+        for (Entry e = entries.get(id); e != null; e = entries.get(e.parent)) depth++;
+        return depth;
+    }
+
+    private boolean isAncestor(long id, long of) {
+        if (id == of) return true;
+        for (Entry e = entries.get(of); e != null; e = entries.get(e.parent)) if (e.parent == id) return true;
+        return false;
+    }
+
+    private void detach(long id, Entry e) {
+        entries.remove(id);
+        Node node = nodes.get(e.parent);
+        node.children.remove(id);
+        node.subtract(e.contribution);
+        if (node.children.isEmpty()) nodes.remove(e.parent);
+    }
+
+    /**
+     * The progress a subtask adds to its parent, or -1 if it does not count.
+     */
+    private static int contributionOf(TaskList.Task task) {
+        if (task.getStatus() instanceof TaskList.CanceledTask) return -1;
+        if (task.getStatus() instanceof TaskList.CompletedTask) return 100;
+        return Math.max(0, Math.min(100, task.getCompleted()));
+    }
+
+    /**
+     * A queue which hands out the deepest task first, so each parent is taken after every subtask
+     * below it, once however many of them changed. Adding a task takes O(depth + log n) time.
+     */
+    class RollUpQueue {
+        private final PriorityQueue<long[]> queue = new PriorityQueue<long[]>(16, DEEPEST_FIRST);
+        private final Set<Long> queued = new HashSet<Long>();
+
+        /**
+         * Adds tasks which are not in the queue yet.
+         * @param ids    The ids of the tasks.
+         */
+        void addAll(Collection<Long> ids) {
+            for (Long id : ids) if (queued.add(id)) queue.add(new long[] {depth(id), id});
+        }
+
+        boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        long poll() {
+            long id = queue.poll()[1];
+            queued.remove(id);
+            return id;
+        }
+    }
+
+    private static class Node {
+        final Set<Long> children = new LinkedHashSet<Long>();
+        long sum;
+        int counted;
+
+        void add(int contribution) {
+            if (contribution < 0) return;
+            sum += contribution;
+            counted++;
+        }
+
+        void subtract(int contribution) {
+            if (contribution < 0) return;
+            sum -= contribution;
+            counted--;
+        }
+    }
+
+    private static class Entry {
+        final long parent;
+        int contribution;
+
+        Entry(long parent, int contribution) {
+            this.parent = parent;
+            this.contribution = contribution;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+
+/**
+ * The calls of the resumable upload protocol of the sync server. A framed request is uploaded
+ * in chunks under an id chosen by the replica; after a connection loss the replica asks how much
+ * of it the server has and goes on from there. Once complete, the server answers it once and
+ * keeps the answer, so a response lost on the way is asked for again without applying the request twice.
+ */
+public interface SyncChannel {
+
+    /**
+     * Sends a chunk of an upload.
+     * @param upload    The id of the upload.
+     * @param offset    The position of the chunk in the upload.
+     * @param data      The data of the upload.
+     * @param start     The position of the chunk in the data.
+     * @param length    The length of the chunk.
+     * @return The number of bytes of the upload the server has, which is where the next chunk starts.
+     * @throws IOException If the server can not be reached or answers with an error.
+     */
+    long send(long upload, long offset, byte[] data, int start, int length) throws IOException;
+
+    /**
+     * Asks for the number of bytes of an upload the server has, to resume it.
+     * @param upload    The id of the upload.
+     * @return The number of bytes; 0 if the server does not know the upload.
+     * @throws IOException If the server can not be reached or answers with an error.
+     */
+    long received(long upload) throws IOException;
+
+    /**
+     * Ends an upload and gets the answer to it.
+     * @param upload    The id of the upload.
+     * @param length    The length of the upload.
+     * @return The framed response.
+     * @throws IOException If the server does not have the whole upload, can not be reached or answers with an error.
+     */
+    byte[] finish(long upload, long length) throws IOException;
+}
@@ -0,0 +1,248 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the tasks of a repository with a server, offline first: every change is applied and stored
+ * locally at once and recorded by a {@link SyncLog}; a sync pushes the recorded changes and pulls
+ * the changes of the server in batches, so it sends and receives only the changed tasks.
+ * <p>
+ * The log is prepared and the responses applied on the writer thread of the repository, as any
+ * other command, while the network is used on a background thread, so local changes never wait
+ * for the server. A failed sync is retried at the next interval; nothing is lost as the log keeps
+ * the changes until the server acknowledges them.
+ */
+public class SyncEngine {
+
+    /**
+     * The maximum number of changes of a request and of a response.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final TaskRepository repository;
+    private final SyncLog log;
+    private final SyncTransport transport;
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+    private ScheduledFuture<?> scheduled;
+    private long interval;
+    private volatile Listener listener;
+
+    private final Runnable syncTask = new Runnable() {
+        @Override
+        public void run() {
+            runSync();
+        }
+    };
+
+    /**
+     * Constructor. The log starts recording the changes of the repository at once.
+     * @param repository    The repository of the tasks.
+     * @param log           The sync state.
+     * @param transport     The transport to the server.
+     * @param executor      A single threaded executor to run the syncs on.
+     * @param batchSize     The maximum number of changes of a message.
+     */
+    public SyncEngine(TaskRepository repository, final SyncLog log, SyncTransport transport,
+                      ScheduledExecutorService executor, int batchSize) {
+        this.repository = repository;
+        this.log = log;
+        this.transport = transport;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        repository.submit(new TaskRepository.Command<Void>() {
+            @Override
+            public Void run(TaskList tasks) {
+                log.attach(tasks);
+                return null;
+            }
+        }, null);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Syncs now and then periodically.
+     * @param minutes    The minutes between the end of a sync and the start of the next one;
+     *                   0 or less stops the periodic syncs.
+     */
+    public synchronized void setInterval(long minutes) {
+        if (minutes == interval && (scheduled != null) == (minutes > 0)) return;
+        interval = minutes;
+        if (scheduled != null) scheduled.cancel(false);
+        scheduled = minutes > 0 ? executor.scheduleWithFixedDelay(syncTask, 0, minutes, TimeUnit.MINUTES) : null;
+    }
+
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Syncs as soon as the running sync, if any, finishes.
+     */
+    public void syncNow() {
+        executor.execute(syncTask);
+    }
+
+    /**
+     * Stops the periodic syncs.
+     */
+    public void stop() {
+        setInterval(0);
+    }
+
+    /**
+     * Exchanges batches with the server until no local change is left and no change of the server is missing.
+     */
+    private void runSync() {
+        final Result result = new Result();
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                final SyncMessage.Request request = onWriter(new TaskRepository.Command<SyncMessage.Request>() {
+                    @Override
+                    public SyncMessage.Request run(TaskList tasks) {
+                        return log.prepare(batchSize, batchSize);
+                    }
+                });
+                final SyncMessage.Response response = transport.exchange(request);
+                onWriter(new TaskRepository.Command<Void>() {
+                    @Override
+                    public Void run(TaskList tasks) {
+                        log.apply(request, response, result);
+                        return null;
+                    }
+                });
+                result.exchanges++;
+                if (request.getChanges().size() < batchSize && !response.hasMore()) break;
+            }
+            result.latency = System.nanoTime() - start;
+            notifyListener(result, null);
+        } catch (IOException e) {
+            notifyListener(result, e);
+        } catch (RuntimeException e) {
+            // The repository reports the errors of its commands too.
+            notifyListener(result, e);
+        }
+    }
+
+    /**
+     * Runs a command on the writer thread and waits for it.
+     */
+    private <T> T onWriter(final TaskRepository.Command<T> command) throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        final RuntimeException[] error = new RuntimeException[1];
+        repository.submit(new TaskRepository.Command<T>() {
+            @Override
+            public T run(TaskList tasks) {
+                try {
+                    T r = command.run(tasks);
+                    result[0] = r;
+                    return r;
+                } catch (RuntimeException e) {
+                    error[0] = e;
+                    throw e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        }, null);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sync interrupted");
+        }
+        if (error[0] != null) throw error[0];
+        @SuppressWarnings("unchecked")
+        T r = (T) result[0];
+        return r;
+    }
+
+    /**
+     * Notifies the listener through the repository, so the changes pulled are on the replica by then.
+     */
+    private void notifyListener(final Result result, final Exception error) {
+        final Listener l = listener;
+        if (l == null) return;
+        repository.submit(new TaskRepository.Command<Void>() {
+            @Override
+            public Void run(TaskList tasks) {
+                return null;
+            }
+        }, new TaskRepository.Callback<Void>() {
+            @Override
+            public void onResult(Void nothing) {
+                if (error == null) l.onSyncFinished(result);
+                else l.onSyncFailed(result, error);
+            }
+        });
+    }
+
+    /**
+     * What a sync did.
+     */
+    public static class Result {
+        int pushed;
+        int pulled;
+        int conflicts;
+        int exchanges;
+        long latency;
+
+        /**
+         * The number of local changes the server received.
+         */
+        public int getPushed() {
+            return pushed;
+        }
+
+        /**
+         * The number of changes of the server applied to the list.
+         */
+        public int getPulled() {
+            return pulled;
+        }
+
+        /**
+         * The number of changes merged with concurrent local changes.
+         */
+        public int getConflicts() {
+            return conflicts;
+        }
+
+        /**
+         * The number of requests sent.
+         */
+        public int getExchanges() {
+            return exchanges;
+        }
+
+        /**
+         * The duration of the sync in nanoseconds.
+         */
+        public long getLatency() {
+            return latency;
+        }
+    }
+
+    /**
+     * Receives the end of the syncs on the main thread.
+     */
+    public interface Listener {
+        void onSyncFinished(Result result);
+
+        /**
+         * A sync could not finish. The changes it did not push are pushed by the next one.
+         * @param result    What the sync did before the error.
+         * @param error     The error.
+         */
+        void onSyncFailed(Result result, Exception error);
+    }
+}
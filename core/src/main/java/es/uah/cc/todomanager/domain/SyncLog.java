@@ -0,0 +1,648 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The sync state of a replica: the version vector of each task, a fingerprint of the version
+ * last synced, and the tasks changed since then, in the order they were first changed.
+ * It observes the task list of the repository, on its writer thread, so every local change is
+ * recorded in O(1) time; the changes applied from the server are not recorded as local ones.
+ * <p>
+ * The state is kept in files as {@link FileTaskStorage} keeps the tasks: a snapshot and an
+ * append-only log of checksummed records, folded into a new snapshot when it grows larger than
+ * the state. A sync writes its cursor after its changes, so a sync interrupted by a crash is
+ * pulled again, which only repeats known versions.
+ */
+public class SyncLog implements TaskList.TaskListObserver {
+
+    private static final int MAGIC = 0x54444c31;
+    private static final int VERSION = 1;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+    private static final int RECORD_REPLICA = 1;
+    private static final int RECORD_ENTRY = 2;
+    private static final int RECORD_DROP = 3;
+    private static final int RECORD_CURSOR = 4;
+    private static final int FLAG_REMOVED = 1;
+    private static final int FLAG_DIRTY = 1 << 1;
+    private static final int FLAG_SYNCED = 1 << 2;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final File tempFile;
+    private FileOutputStream log;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+    private int logRecords;
+
+    private TaskList tasks;
+    private long replica;
+    private long cursor;
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+    private final Set<Long> dirty = new LinkedHashSet<Long>();
+    /**
+     * Whether changes of the server are being applied, which are not local changes.
+     */
+    private boolean applying;
+
+    /**
+     * Constructor.
+     * @param directory    The directory to keep the files in, or null to keep the state only in memory.
+     */
+    public SyncLog(File directory) {
+        if (directory == null) {
+            snapshotFile = logFile = tempFile = null;
+        } else {
+            directory.mkdirs();
+            snapshotFile = new File(directory, "sync.snapshot");
+            logFile = new File(directory, "sync.log");
+            tempFile = new File(directory, "sync.snapshot.tmp");
+        }
+    }
+
+    /**
+     * Loads the state and starts recording the changes of a list. Tasks the state does not know,
+     * as those created before syncing was set up, are recorded as created, and tasks missing from
+     * the list as removed. It must be called on the thread which changes the list.
+     * @param tasks    The list.
+     */
+    public void attach(TaskList tasks) {
+        this.tasks = tasks;
+        try {
+            load();
+            if (replica == 0) {
+                replica = newReplicaId();
+                startRecord(RECORD_REPLICA);
+                TaskCodec.writeVarLong(bufferOut, replica);
+                append();
+            }
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+        for (TaskList.Task t : tasks.getTasks()) if (!entries.containsKey(t.getId())) changed(t.getId(), false);
+        for (Long id : new ArrayList<Long>(entries.keySet()))
+            if (!entries.get(id).removed && tasks.getTask(id) == null) changed(id, true);
+        tasks.addObserver(this);
+    }
+
+    /**
+     * The id of this replica in the version vectors. It is random, so replicas need no coordination.
+     */
+    public long getReplica() {
+        return replica;
+    }
+
+    /**
+     * The last change of the server this replica has seen.
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * The number of tasks changed since the last sync.
+     */
+    public int getPendingCount() {
+        return dirty.size();
+    }
+
+    /**
+     * The version of a task.
+     * @param id    The id of the task.
+     * @return The version, or null if the log does not know the task.
+     */
+    public VersionVector getVersion(long id) {
+        Entry e = entries.get(id);
+        return e == null ? null : e.version;
+    }
+
+    /**
+     * Builds a request with the oldest local changes.
+     * @param maxChanges    The maximum number of changes to send.
+     * @param limit         The maximum number of changes to receive.
+     * @return The request.
+     */
+    public SyncMessage.Request prepare(int maxChanges, int limit) {
+        List<SyncMessage.Change> changes = new ArrayList<SyncMessage.Change>(Math.min(maxChanges, dirty.size()));
+        for (long id : dirty) {
+            if (changes.size() == maxChanges) break;
+            Entry e = entries.get(id);
+            TaskList.Task task = e.removed ? null : tasks.getTask(id);
+            if (task == null && !e.removed) continue;
+            changes.add(new SyncMessage.Change(id, e.version, task == null ? null : new TaskList.Task(task),
+                    TaskMerge.changedFields(e.base, task), e.base == null));
+        }
+        return new SyncMessage.Request(replica, cursor, limit, changes);
+    }
+
+    /**
+     * Applies the response to a request: the pushed changes are marked as synced unless the tasks
+     * changed again meanwhile, and the changes of the server are applied to the list as one batch.
+     * Changes of the server concurrent with local ones are merged by {@link TaskMerge}, and the
+     * merge is pushed by the next sync.
+     * @param sent        The request.
+     * @param response    Its response.
+     * @param result      The result to add the counts to.
+     */
+    public void apply(SyncMessage.Request sent, SyncMessage.Response response, SyncEngine.Result result) {
+        Map<Long, TaskList.Task> pending = new LinkedHashMap<Long, TaskList.Task>();
+        applying = true;
+        try {
+            Map<Long, Entry> renamed = rename(sent.getChanges(), response.getRenamed(), pending);
+            for (SyncMessage.Change c : sent.getChanges())
+                acknowledge(c, response.getRenamed().get(c.getId()), renamed.get(c.getId()), pending);
+            List<Long> moved = reparent(response.getRenamed(), pending);
+            result.pushed += sent.getChanges().size();
+            for (SyncMessage.Change c : response.getChanges()) {
+                long id = c.getId();
+                Entry e = entries.get(id);
+                VersionVector.Order order = e == null ? VersionVector.Order.AFTER : c.getVersion().compare(e.version);
+                if (order == VersionVector.Order.AFTER) {
+                    pending.put(id, c.getTask());
+                    if (c.isRemoved()) forget(id);
+                    else synced(id, c.getVersion(), c.getTask(), false);
+                    result.pulled++;
+                } else if (order == VersionVector.Order.CONCURRENT) {
+                    // Changed here since the version the server merged, or not sent yet.
+                    TaskList.Task mine = e.removed ? null : current(id, pending);
+                    TaskList.Task merged = TaskMerge.merge(c.getTask(), mine, TaskMerge.changedFields(e.base, mine));
+                    pending.put(id, merged);
+                    if (merged == null) forget(id);
+                    else synced(id, c.getVersion().merge(e.version).increment(replica),
+                            c.getTask() == null ? merged : c.getTask(), true);
+                    result.conflicts++;
+                }
+            }
+            commit(pending);
+            // The server may have them under the old ids of their parents.
+            for (long id : moved) changed(id, false);
+        } finally {
+            applying = false;
+        }
+        cursor = response.getCursor();
+        try {
+            startRecord(RECORD_CURSOR);
+            TaskCodec.writeVarLong(bufferOut, cursor);
+            append();
+            if (needsCompaction()) compact();
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+    }
+
+    /**
+     * Moves the tasks the server gave new ids to them. A new id may be the old id of another task
+     * of the request, so every task leaves its old id before any takes its new one.
+     * @return The entry of each task moved, by its old id.
+     */
+    private Map<Long, Entry> rename(List<SyncMessage.Change> sent, Map<Long, Long> renamed, Map<Long, TaskList.Task> pending) {
+        Map<Long, Entry> moved = new LinkedHashMap<Long, Entry>();
+        Map<Long, TaskList.Task> local = new HashMap<Long, TaskList.Task>();
+        for (SyncMessage.Change c : sent) {
+            Entry e = entries.get(c.getId());
+            if (e == null || !renamed.containsKey(c.getId())) continue;
+            moved.put(c.getId(), e);
+            local.put(c.getId(), current(c.getId(), pending));
+        }
+        for (long id : moved.keySet()) {
+            pending.put(id, null);
+            forget(id);
+        }
+        for (Map.Entry<Long, Entry> m : moved.entrySet()) {
+            long id = renamed.get(m.getKey());
+            TaskList.Task task = local.get(m.getKey());
+            if (task != null) pending.put(id, TaskMerge.withId(task, id));
+            entries.put(id, m.getValue());
+        }
+        return moved;
+    }
+
+    /**
+     * Marks a pushed change as synced.
+     * @param newId    The id the server gave to the task, or null if it kept its id.
+     * @param moved    The entry of the task, if it was moved to its new id.
+     */
+    private void acknowledge(SyncMessage.Change c, Long newId, Entry moved, Map<Long, TaskList.Task> pending) {
+        long id = newId == null ? c.getId() : newId;
+        Entry e = newId == null ? entries.get(id) : moved;
+        if (e == null) {
+            // Created and removed while the request was on its way: the server has it now.
+            if (c.isCreated() && !c.isRemoved()) {
+                synced(id, c.getVersion(), c.getTask(), false);
+                changed(id, true);
+            }
+            return;
+        }
+        if (e.version.equals(c.getVersion())) {
+            if (e.removed) forget(id);
+            else synced(id, e.version, c.getTask(), false);
+        } else if (!c.isRemoved()) {
+            // Changed again meanwhile: it stays pending, but the server already has what was sent.
+            synced(id, e.version, c.getTask(), true);
+        }
+    }
+
+    /**
+     * Moves the subtasks of the tasks the server gave new ids to their new parents.
+     * @return The ids of the subtasks moved.
+     */
+    private List<Long> reparent(Map<Long, Long> renamed, Map<Long, TaskList.Task> pending) {
+        List<Long> moved = new ArrayList<Long>();
+        for (Map.Entry<Long, Long> r : renamed.entrySet()) {
+            for (long child : tasks.getSubtaskIds(r.getKey())) {
+                // A subtask created with its parent may have been renamed too.
+                Long renamedChild = renamed.get(child);
+                long id = renamedChild == null ? child : renamedChild;
+                TaskList.Task task = current(id, pending);
+                if (task == null || task.getParentId() != r.getKey()) continue;
+                task = new TaskList.Task(task);
+                task.setParentId(r.getValue());
+                pending.put(id, task);
+                moved.add(id);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * The task as the list will have it once the pending changes are applied.
+     */
+    private TaskList.Task current(long id, Map<Long, TaskList.Task> pending) {
+        return pending.containsKey(id) ? pending.get(id) : tasks.getTask(id);
+    }
+
+    /**
+     * Applies the changes of the server to the list: existing tasks in a batch, new ones one by one.
+     */
+    private void commit(Map<Long, TaskList.Task> pending) {
+        List<TaskList.Task> updated = new ArrayList<TaskList.Task>();
+        List<Long> removed = new ArrayList<Long>();
+        List<TaskList.Task> added = new ArrayList<TaskList.Task>();
+        for (Map.Entry<Long, TaskList.Task> p : pending.entrySet()) {
+            boolean exists = tasks.indexOf(p.getKey()) >= 0;
+            if (p.getValue() == null) {
+                if (exists) removed.add(p.getKey());
+            } else if (exists) updated.add(new TaskList.Task(p.getValue()));
+            else added.add(new TaskList.Task(p.getValue()));
+        }
+        if (!updated.isEmpty() || !removed.isEmpty()) tasks.applyBatch(updated, removed);
+        for (TaskList.Task t : added) tasks.putTask(t);
+    }
+
+    @Override
+    public void onTaskAdded(TaskList.Task task, int position) {
+        if (!applying) changed(task.getId(), false);
+    }
+
+    @Override
+    public void onTaskUpdated(TaskList.Task task, int position) {
+        if (!applying) changed(task.getId(), false);
+    }
+
+    @Override
+    public void onTaskRemoved(TaskList.Task task, int position) {
+        if (!applying) changed(task.getId(), true);
+    }
+
+    @Override
+    public void onTaskMoved(TaskList.Task task, int from, int to) {
+        // The order of the list is not synced.
+    }
+
+    @Override
+    public void onBatchStarted() {
+    }
+
+    @Override
+    public void onBatchFinished() {
+    }
+
+    /**
+     * Records a local change of a task.
+     */
+    private void changed(long id, boolean removed) {
+        Entry e = entries.get(id);
+        if (e == null) {
+            e = new Entry();
+            entries.put(id, e);
+        }
+        if (removed && e.base == null) {
+            // The server never knew it.
+            forget(id);
+            return;
+        }
+        e.version = e.version.increment(replica);
+        e.removed = removed;
+        dirty.add(id);
+        try {
+            writeEntry(id, e);
+            if (needsCompaction()) compact();
+        } catch (IOException ex) {
+            throw new TaskStorage.StorageException(ex);
+        }
+    }
+
+    /**
+     * Records that the server has a version of a task.
+     * @param task       The version the server has.
+     * @param pending    Whether the task has local changes the server does not have.
+     */
+    private void synced(long id, VersionVector version, TaskList.Task task, boolean pending) {
+        Entry e = entries.get(id);
+        if (e == null) {
+            e = new Entry();
+            entries.put(id, e);
+        }
+        e.version = version;
+        e.base = TaskMerge.fingerprint(task);
+        e.removed = false;
+        if (pending) dirty.add(id);
+        else dirty.remove(id);
+        try {
+            writeEntry(id, e);
+        } catch (IOException ex) {
+            throw new TaskStorage.StorageException(ex);
+        }
+    }
+
+    /**
+     * Drops a task both sides agree is removed.
+     */
+    private void forget(long id) {
+        if (entries.remove(id) == null) return;
+        dirty.remove(id);
+        try {
+            startRecord(RECORD_DROP);
+            TaskCodec.writeVarLong(bufferOut, id);
+            append();
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+    }
+
+    private static long newReplicaId() {
+        // 48 bits keep the varints short; 0 is the server.
+        long id;
+        do {
+            id = new SecureRandom().nextLong() & 0xFFFFFFFFFFFFL;
+        } while (id == SyncServer.REPLICA);
+        return id;
+    }
+
+    private void load() throws IOException {
+        entries.clear();
+        dirty.clear();
+        if (logFile == null) return;
+        tempFile.delete();
+        if (snapshotFile.exists()) readRecords(snapshotFile, true);
+        long validLength = logFile.exists() ? readRecords(logFile, false) : 0;
+        if (logFile.exists() && validLength < logFile.length()) {
+            // The tail of the log was left by an interrupted write.
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a file.
+     * @param snapshot    Whether the file is a snapshot, which must be complete.
+     * @return The length of the valid prefix of the file.
+     */
+    private long readRecords(File file, boolean snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        long valid = 0;
+        int records = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Unknown file format: " + file);
+            valid = 8;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] payload = readPayload(in, length);
+                if (payload == null) {
+                    if (snapshot) throw new IOException("Corrupted snapshot: " + file);
+                    break;
+                }
+                readRecord(new DataInputStream(new ByteArrayInputStream(payload)), file);
+                valid += 8 + length;
+                records++;
+            }
+        } catch (EOFException e) {
+            if (snapshot) throw new IOException("Corrupted snapshot: " + file);
+        } finally {
+            in.close();
+        }
+        if (!snapshot) logRecords = records;
+        return valid;
+    }
+
+    private void readRecord(DataInputStream record, File file) throws IOException {
+        int type = record.readUnsignedByte();
+        switch (type) {
+            case RECORD_REPLICA:
+                replica = TaskCodec.readVarLong(record);
+                break;
+            case RECORD_CURSOR:
+                cursor = TaskCodec.readVarLong(record);
+                break;
+            case RECORD_DROP: {
+                long id = TaskCodec.readVarLong(record);
+                entries.remove(id);
+                dirty.remove(id);
+                break;
+            }
+            case RECORD_ENTRY: {
+                long id = TaskCodec.readVarLong(record);
+                Entry e = new Entry();
+                e.version = VersionVector.read(record);
+                int flags = record.readUnsignedByte();
+                e.removed = (flags & FLAG_REMOVED) != 0;
+                if ((flags & FLAG_SYNCED) != 0) {
+                    e.base = new int[TaskMerge.fingerprint(new TaskList.Task()).length];
+                    for (int i = 0; i < e.base.length; i++) e.base[i] = record.readInt();
+                }
+                entries.put(id, e);
+                if ((flags & FLAG_DIRTY) != 0) dirty.add(id);
+                else dirty.remove(id);
+                break;
+            }
+            default:
+                throw new IOException("Unknown record type " + type + ": " + file);
+        }
+    }
+
+    private byte[] readPayload(DataInputStream in, int length) throws IOException {
+        if (length <= 0 || length > MAX_RECORD_LENGTH) return null;
+        int expected;
+        byte[] payload;
+        try {
+            expected = in.readInt();
+            payload = new byte[length];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        crc.reset();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == expected ? payload : null;
+    }
+
+    private void writeEntry(long id, Entry e) throws IOException {
+        startRecord(RECORD_ENTRY);
+        writeEntryPayload(id, e);
+        append();
+    }
+
+    private void writeEntryPayload(long id, Entry e) throws IOException {
+        TaskCodec.writeVarLong(bufferOut, id);
+        e.version.write(bufferOut);
+        bufferOut.writeByte((e.removed ? FLAG_REMOVED : 0) | (dirty.contains(id) ? FLAG_DIRTY : 0)
+                | (e.base != null ? FLAG_SYNCED : 0));
+        if (e.base != null) for (int h : e.base) bufferOut.writeInt(h);
+    }
+
+    /**
+     * Starts a record in the buffer, leaving room for its length and checksum.
+     */
+    private void startRecord(int type) throws IOException {
+        buffer.reset();
+        bufferOut.writeInt(0);
+        bufferOut.writeInt(0);
+        bufferOut.writeByte(type);
+    }
+
+    /**
+     * Appends the record in the buffer to the log, filling its length and checksum.
+     */
+    private void append() throws IOException {
+        if (logFile == null) return;
+        if (log == null) log = openLog();
+        byte[] record = buffer.toByteArray();
+        int length = record.length - 8;
+        crc.reset();
+        crc.update(record, 8, length);
+        putInt(record, 0, length);
+        putInt(record, 4, (int) crc.getValue());
+        log.write(record);
+        logRecords++;
+    }
+
+    private boolean needsCompaction() {
+        return logRecords > Math.max(MIN_COMPACTION_RECORDS, entries.size());
+    }
+
+    /**
+     * Writes the whole state as a new snapshot and drops the log. The entries changed since the
+     * last sync go last, in order, so they are loaded in the order they were changed.
+     */
+    private void compact() throws IOException {
+        if (logFile == null) return;
+        FileOutputStream file = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            startRecord(RECORD_REPLICA);
+            TaskCodec.writeVarLong(bufferOut, replica);
+            writeSnapshotRecord(out);
+            startRecord(RECORD_CURSOR);
+            TaskCodec.writeVarLong(bufferOut, cursor);
+            writeSnapshotRecord(out);
+            for (Map.Entry<Long, Entry> e : entries.entrySet()) {
+                if (dirty.contains(e.getKey())) continue;
+                startRecord(RECORD_ENTRY);
+                writeEntryPayload(e.getKey(), e.getValue());
+                writeSnapshotRecord(out);
+            }
+            for (long id : dirty) {
+                startRecord(RECORD_ENTRY);
+                writeEntryPayload(id, entries.get(id));
+                writeSnapshotRecord(out);
+            }
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!tempFile.renameTo(snapshotFile)) throw new IOException("Can not replace " + snapshotFile);
+        if (log != null) log.close();
+        log = null;
+        logFile.delete();
+        logRecords = 0;
+    }
+
+    private void writeSnapshotRecord(DataOutputStream out) throws IOException {
+        int length = buffer.size() - 8;
+        crc.reset();
+        crc.update(buffer.toByteArray(), 8, length);
+        out.writeInt(length);
+        out.writeInt((int) crc.getValue());
+        out.write(buffer.toByteArray(), 8, length);
+    }
+
+    /**
+     * Closes the log file.
+     * @throws IOException If the file can not be closed.
+     */
+    public void close() throws IOException {
+        if (log != null) log.close();
+        log = null;
+    }
+
+    private FileOutputStream openLog() throws IOException {
+        boolean exists = logFile.exists() && logFile.length() > 0;
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        if (!exists) {
+            byte[] header = new byte[8];
+            putInt(header, 0, MAGIC);
+            putInt(header, 4, VERSION);
+            out.write(header);
+        }
+        return out;
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static class Entry {
+        VersionVector version = VersionVector.EMPTY;
+        /**
+         * The fingerprint of the version the server has, or null if it has none.
+         */
+        int[] base;
+        boolean removed;
+    }
+}
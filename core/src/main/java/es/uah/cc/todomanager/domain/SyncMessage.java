@@ -0,0 +1,251 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The messages of the sync protocol. A replica sends the tasks it changed since its last sync
+ * and a cursor of the changes of the server it has already seen; the server answers with the
+ * changes made after the cursor. Both only carry changed tasks, so their size does not depend
+ * on the number of tasks. They are encoded with {@link TaskCodec} and framed by {@link SyncWire}
+ * on the network.
+ */
+public final class SyncMessage {
+
+    private static final int MAGIC = 0x54445331;
+    private static final int FLAG_REMOVED = 1;
+    private static final int FLAG_CREATED = 1 << 1;
+
+    private SyncMessage() {
+    }
+
+    /**
+     * The last version of a task known by a replica.
+     */
+    public static class Change {
+        private final long id;
+        private final VersionVector version;
+        private final TaskList.Task task;
+        private final int changedFields;
+        private final boolean created;
+
+        /**
+         * Constructor.
+         * @param id               The id of the task.
+         * @param version          The version of the task.
+         * @param task             The task, or null if it was removed.
+         * @param changedFields    The fields changed since the last sync, as {@link TaskMerge} constants.
+         * @param created          Whether the task was created after the last sync, so its id is only local.
+         */
+        public Change(long id, VersionVector version, TaskList.Task task, int changedFields, boolean created) {
+            this.id = id;
+            this.version = version;
+            this.task = task;
+            this.changedFields = changedFields;
+            this.created = created;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public VersionVector getVersion() {
+            return version;
+        }
+
+        public TaskList.Task getTask() {
+            return task;
+        }
+
+        public boolean isRemoved() {
+            return task == null;
+        }
+
+        public int getChangedFields() {
+            return changedFields;
+        }
+
+        public boolean isCreated() {
+            return created;
+        }
+
+        void write(DataOutput out) throws IOException {
+            TaskCodec.writeVarLong(out, id);
+            version.write(out);
+            out.writeByte((task == null ? FLAG_REMOVED : 0) | (created ? FLAG_CREATED : 0));
+            out.writeByte(changedFields);
+            if (task != null) TaskCodec.write(out, task);
+        }
+
+        static Change read(DataInput in) throws IOException {
+            long id = TaskCodec.readVarLong(in);
+            VersionVector version = VersionVector.read(in);
+            int flags = in.readUnsignedByte();
+            int changed = in.readUnsignedByte();
+            TaskList.Task task = (flags & FLAG_REMOVED) != 0 ? null : TaskCodec.read(in);
+            if (task != null && task.getId() != id) throw new IOException("Change of task " + id + " holds task " + task.getId());
+            return new Change(id, version, task, changed, (flags & FLAG_CREATED) != 0);
+        }
+    }
+
+    /**
+     * The changes a replica pushes, and how many changes of the server it can take.
+     */
+    public static class Request {
+        private final long replica;
+        private final long cursor;
+        private final int limit;
+        private final List<Change> changes;
+
+        /**
+         * Constructor.
+         * @param replica    The id of the replica.
+         * @param cursor     The last change of the server the replica has seen.
+         * @param limit      The maximum number of changes of the answer.
+         * @param changes    The local changes.
+         */
+        public Request(long replica, long cursor, int limit, List<Change> changes) {
+            this.replica = replica;
+            this.cursor = cursor;
+            this.limit = limit;
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        public long getReplica() {
+            return replica;
+        }
+
+        public long getCursor() {
+            return cursor;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        public byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(MAGIC);
+                TaskCodec.writeVarLong(out, replica);
+                TaskCodec.writeVarLong(out, cursor);
+                TaskCodec.writeVarLong(out, limit);
+                writeChanges(out, changes);
+                out.flush();
+            } catch (IOException e) {
+                // A byte array does not fail.
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        public static Request decode(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) throw new IOException("Not a sync request");
+            long replica = TaskCodec.readVarLong(in);
+            long cursor = TaskCodec.readVarLong(in);
+            int limit = (int) TaskCodec.readVarLong(in);
+            return new Request(replica, cursor, limit, readChanges(in));
+        }
+    }
+
+    /**
+     * The changes of the server after the cursor of a request, and the ids it gave to the tasks created by the replica.
+     */
+    public static class Response {
+        private final long cursor;
+        private final boolean more;
+        private final List<Change> changes;
+        private final Map<Long, Long> renamed;
+
+        /**
+         * Constructor.
+         * @param cursor     The last change of the server included.
+         * @param more       Whether there are changes after the cursor which did not fit.
+         * @param changes    The changes of the server.
+         * @param renamed    The new id of each created task whose local id was taken, by its local id.
+         */
+        public Response(long cursor, boolean more, List<Change> changes, Map<Long, Long> renamed) {
+            this.cursor = cursor;
+            this.more = more;
+            this.changes = Collections.unmodifiableList(changes);
+            this.renamed = Collections.unmodifiableMap(renamed);
+        }
+
+        public long getCursor() {
+            return cursor;
+        }
+
+        public boolean hasMore() {
+            return more;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        public Map<Long, Long> getRenamed() {
+            return renamed;
+        }
+
+        public byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(MAGIC);
+                TaskCodec.writeVarLong(out, cursor);
+                out.writeBoolean(more);
+                writeChanges(out, changes);
+                TaskCodec.writeVarLong(out, renamed.size());
+                for (Map.Entry<Long, Long> e : renamed.entrySet()) {
+                    TaskCodec.writeVarLong(out, e.getKey());
+                    TaskCodec.writeVarLong(out, e.getValue());
+                }
+                out.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        public static Response decode(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) throw new IOException("Not a sync response");
+            long cursor = TaskCodec.readVarLong(in);
+            boolean more = in.readBoolean();
+            List<Change> changes = readChanges(in);
+            int size = (int) TaskCodec.readVarLong(in);
+            Map<Long, Long> renamed = new LinkedHashMap<Long, Long>();
+            for (int i = 0; i < size; i++) renamed.put(TaskCodec.readVarLong(in), TaskCodec.readVarLong(in));
+            return new Response(cursor, more, changes, renamed);
+        }
+    }
+
+    private static void writeChanges(DataOutput out, List<Change> changes) throws IOException {
+        TaskCodec.writeVarLong(out, changes.size());
+        for (Change c : changes) c.write(out);
+    }
+
+    private static List<Change> readChanges(DataInput in) throws IOException {
+        int size = (int) TaskCodec.readVarLong(in);
+        if (size < 0) throw new IOException("Malformed sync message");
+        List<Change> changes = new ArrayList<Change>(Math.min(size, 4096));
+        for (int i = 0; i < size; i++) changes.add(Change.read(in));
+        return changes;
+    }
+}
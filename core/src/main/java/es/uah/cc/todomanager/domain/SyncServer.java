@@ -0,0 +1,312 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A sync server which keeps the tasks in memory. It is the reference of the protocol and
+ * stands in for the remote server in tests, directly or behind an HTTP endpoint.
+ * <p>
+ * Each stored change gets the next number of a sequence; a task keeps only the number of its
+ * last change, so the changes after a cursor are found in a sorted map in time proportional to
+ * their number. Removed tasks are kept as tombstones so their removal reaches every replica.
+ * Tasks created offline on several replicas may share an id; the first one keeps it and the
+ * others get new ids, which their replicas adopt.
+ * <p>
+ * Requests come encoded as they are, through {@link #exchange(byte[])}, or framed and in chunks,
+ * through the {@link UploadChannel}.
+ */
+public class SyncServer {
+
+    /**
+     * The id of the server in the version vectors, for the merges it makes.
+     */
+    public static final long REPLICA = 0;
+
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+    /**
+     * The id of the task changed by each number of the sequence.
+     */
+    private final TreeMap<Long, Long> changes = new TreeMap<Long, Long>();
+    /**
+     * The id given to each task created by a replica, by replica and local id,
+     * so a request sent again does not create the tasks twice.
+     */
+    private final Map<Long, Map<Long, Long>> createdIds = new HashMap<Long, Map<Long, Long>>();
+    private long sequence;
+    private long nextId;
+    private int conflicts;
+    private UploadChannel uploadChannel;
+
+    /**
+     * Stores the changes of a replica, merging the concurrent ones, and answers with the
+     * changes it has not seen.
+     * @param request    The request.
+     * @return The response.
+     */
+    public synchronized SyncMessage.Response exchange(SyncMessage.Request request) {
+        // Changes stored as the replica sent them, which it does not need back.
+        Set<Long> acknowledged = new HashSet<Long>();
+        // Changes the replica has missed although they are before its cursor.
+        Set<Long> forced = new LinkedHashSet<Long>();
+        Map<Long, Long> renamed = new LinkedHashMap<Long, Long>();
+        List<Long> stored = new ArrayList<Long>();
+        for (SyncMessage.Change c : request.getChanges()) {
+            long id = c.getId();
+            TaskList.Task task = c.getTask();
+            if (c.isCreated()) {
+                id = assignId(request.getReplica(), c.getId());
+                if (id != c.getId()) {
+                    renamed.put(c.getId(), id);
+                    if (task != null) task = TaskMerge.withId(task, id);
+                }
+            }
+            Entry e = entries.get(id);
+            VersionVector.Order order = e == null ? VersionVector.Order.AFTER : c.getVersion().compare(e.version);
+            switch (order) {
+                case AFTER:
+                    store(id, task, c.getVersion());
+                    stored.add(id);
+                    if (id == c.getId()) acknowledged.add(id);
+                    break;
+                case CONCURRENT:
+                    conflicts++;
+                    store(id, TaskMerge.merge(e.task, task, c.getChangedFields()),
+                            c.getVersion().merge(e.version).increment(REPLICA));
+                    break;
+                default:
+                    if (e.sequence <= request.getCursor()) forced.add(id);
+            }
+        }
+        // The subtasks stored as the request sent them follow the new ids of their parents created by it.
+        // Merged ones are moved by their replica, which pushes them again.
+        if (!renamed.isEmpty()) {
+            for (long id : stored) {
+                Entry e = entries.get(id);
+                if (e.task != null && renamed.containsKey(e.task.getParentId()))
+                    e.task.setParentId(renamed.get(e.task.getParentId()));
+            }
+        }
+
+        List<SyncMessage.Change> answer = new ArrayList<SyncMessage.Change>();
+        for (long id : forced) answer.add(change(id));
+        int limit = Math.max(1, request.getLimit());
+        long cursor = request.getCursor();
+        boolean more = false;
+        for (Map.Entry<Long, Long> change : changes.tailMap(request.getCursor(), false).entrySet()) {
+            if (answer.size() >= limit) {
+                more = true;
+                break;
+            }
+            cursor = change.getKey();
+            if (!acknowledged.contains(change.getValue())) answer.add(change(change.getValue()));
+        }
+        return new SyncMessage.Response(cursor, more, answer, renamed);
+    }
+
+    /**
+     * Answers an encoded request, as an HTTP endpoint would.
+     * @param request    The encoded request.
+     * @return The encoded response.
+     * @throws IOException If the request is malformed.
+     */
+    public byte[] exchange(byte[] request) throws IOException {
+        return exchange(SyncMessage.Request.decode(request)).encode();
+    }
+
+    private long assignId(long replica, long localId) {
+        Map<Long, Long> ids = createdIds.get(replica);
+        if (ids == null) {
+            ids = new HashMap<Long, Long>();
+            createdIds.put(replica, ids);
+        }
+        Long id = ids.get(localId);
+        if (id == null) {
+            id = entries.containsKey(localId) ? Math.max(nextId, localId + 1) : localId;
+            ids.put(localId, id);
+        }
+        nextId = Math.max(nextId, id + 1);
+        return id;
+    }
+
+    private void store(long id, TaskList.Task task, VersionVector version) {
+        Entry e = entries.get(id);
+        if (e == null) {
+            e = new Entry();
+            entries.put(id, e);
+        } else changes.remove(e.sequence);
+        e.task = task == null ? null : new TaskList.Task(task);
+        e.version = version;
+        e.sequence = ++sequence;
+        changes.put(e.sequence, id);
+        if (id >= nextId) nextId = id + 1;
+    }
+
+    private SyncMessage.Change change(long id) {
+        Entry e = entries.get(id);
+        return new SyncMessage.Change(id, e.version, e.task == null ? null : new TaskList.Task(e.task), TaskMerge.ALL, false);
+    }
+
+    /**
+     * Gets a stored task.
+     * @param id    The id of the task.
+     * @return A copy of the task, or null if it is not stored or was removed.
+     */
+    public synchronized TaskList.Task getTask(long id) {
+        Entry e = entries.get(id);
+        return e == null || e.task == null ? null : new TaskList.Task(e.task);
+    }
+
+    /**
+     * The number of tasks which were not removed.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Entry e : entries.values()) if (e.task != null) size++;
+        return size;
+    }
+
+    /**
+     * The number of concurrent changes merged so far.
+     */
+    public synchronized int getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * A transport which talks to this server in the same process. Messages are encoded and decoded
+     * as on the network, and their sizes are counted.
+     * @return A new transport.
+     */
+    public LocalTransport localTransport() {
+        return new LocalTransport();
+    }
+
+    /**
+     * A transport to the server in the same process.
+     */
+    public class LocalTransport implements SyncTransport {
+        private long bytesSent;
+        private long bytesReceived;
+
+        @Override
+        public SyncMessage.Response exchange(SyncMessage.Request request) throws IOException {
+            byte[] sent = request.encode();
+            byte[] received = SyncServer.this.exchange(sent);
+            synchronized (this) {
+                bytesSent += sent.length;
+                bytesReceived += received.length;
+            }
+            return SyncMessage.Response.decode(received);
+        }
+
+        public synchronized long getBytesSent() {
+            return bytesSent;
+        }
+
+        public synchronized long getBytesReceived() {
+            return bytesReceived;
+        }
+    }
+
+    /**
+     * The endpoint of the resumable uploads of this server, see {@link SyncChannel}.
+     * @return The endpoint, shared by every replica.
+     */
+    public synchronized UploadChannel uploadChannel() {
+        if (uploadChannel == null) uploadChannel = new UploadChannel();
+        return uploadChannel;
+    }
+
+    /**
+     * The server side of the resumable uploads. It keeps the uploads in progress and the answers
+     * to the last finished ones; the oldest are forgotten, so a replica which comes back much later
+     * starts its upload again.
+     */
+    public class UploadChannel implements SyncChannel {
+        private static final int MAX_UPLOADS = 64;
+
+        private final Map<Long, Upload> uploads = new LinkedHashMap<Long, Upload>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Upload> eldest) {
+                return size() > MAX_UPLOADS;
+            }
+        };
+
+        private UploadChannel() {
+        }
+
+        @Override
+        public synchronized long send(long upload, long offset, byte[] data, int start, int length) throws IOException {
+            Upload u = uploads.get(upload);
+            if (u == null) {
+                u = new Upload();
+                uploads.put(upload, u);
+            }
+            if (u.response != null) return u.length;
+            // A chunk after a gap is dropped, and the overlap of a chunk sent again is skipped.
+            if (offset > u.length || offset + length <= u.length) return u.length;
+            int skip = (int) (u.length - offset);
+            if (u.length + length - skip > SyncWire.MAX_MESSAGE_LENGTH) {
+                uploads.remove(upload);
+                throw new IOException("Upload longer than " + SyncWire.MAX_MESSAGE_LENGTH + " bytes");
+            }
+            u.append(data, start + skip, length - skip);
+            return u.length;
+        }
+
+        @Override
+        public synchronized long received(long upload) {
+            Upload u = uploads.get(upload);
+            return u == null ? 0 : u.length;
+        }
+
+        @Override
+        public synchronized byte[] finish(long upload, long length) throws IOException {
+            Upload u = uploads.get(upload);
+            if (u == null || u.length != length) throw new IOException("Incomplete upload");
+            if (u.response == null) {
+                try {
+                    u.response = SyncWire.compress(exchange(SyncWire.decompress(u.data())));
+                } catch (IOException e) {
+                    // The replica starts a malformed upload again.
+                    uploads.remove(upload);
+                    throw e;
+                }
+                u.data = null;
+            }
+            return u.response;
+        }
+    }
+
+    private static class Upload {
+        byte[] data = new byte[1024];
+        int length;
+        byte[] response;
+
+        void append(byte[] chunk, int start, int count) {
+            if (length + count > data.length) data = Arrays.copyOf(data, Math.max(length + count, data.length * 2));
+            System.arraycopy(chunk, start, data, length, count);
+            length += count;
+        }
+
+        byte[] data() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    private static class Entry {
+        TaskList.Task task;
+        VersionVector version;
+        long sequence;
+    }
+}
@@ -0,0 +1,17 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+
+/**
+ * Carries the sync messages between a replica and the server.
+ */
+public interface SyncTransport {
+
+    /**
+     * Sends a request and waits for its response. It is called on a background thread.
+     * @param request    The request.
+     * @return The response of the server.
+     * @throws IOException If the server can not be reached or answers with an error.
+     */
+    SyncMessage.Response exchange(SyncMessage.Request request) throws IOException;
+}
@@ -0,0 +1,121 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The frame of the sync messages on the network: a magic, the method, the length of the encoded
+ * message and the message, compressed with deflate when that makes it smaller. Names and details
+ * of tasks repeat a lot, so a batch of changes shrinks to a fraction; a message of a few changes
+ * is stored as it is, as the headers of deflate would only make it bigger.
+ */
+public final class SyncWire {
+
+    /**
+     * The maximum length of a decoded message, so a malformed frame can not exhaust the memory.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    private static final int MAGIC = 0x54445A31;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 1;
+    /**
+     * Messages shorter than this are stored; deflate does not pay off for them.
+     */
+    private static final int MIN_DEFLATE_LENGTH = 256;
+
+    private SyncWire() {
+    }
+
+    /**
+     * Frames an encoded message.
+     * @param message    The message, as encoded by {@link SyncMessage}.
+     * @return The frame.
+     */
+    public static byte[] compress(byte[] message) {
+        byte[] deflated = message.length < MIN_DEFLATE_LENGTH ? null : deflate(message);
+        boolean stored = deflated == null || deflated.length >= message.length;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + (stored ? message.length : deflated.length));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(stored ? STORED : DEFLATED);
+            TaskCodec.writeVarLong(out, message.length);
+            out.write(stored ? message : deflated);
+            out.flush();
+        } catch (IOException e) {
+            // A byte array output does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the message of a frame written by {@link #compress(byte[])}.
+     * @param frame    The frame.
+     * @return The encoded message.
+     * @throws IOException If the frame is malformed or truncated, or its message is too long.
+     */
+    public static byte[] decompress(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        if (in.readInt() != MAGIC) throw new IOException("Not a sync frame");
+        int method = in.readUnsignedByte();
+        long length = TaskCodec.readVarLong(in);
+        if (length < 0 || length > MAX_MESSAGE_LENGTH) throw new IOException("Sync message of " + length + " bytes");
+        int offset = frame.length - in.available();
+        byte[] message = new byte[(int) length];
+        switch (method) {
+            case STORED:
+                if (frame.length - offset != length) throw new IOException("Truncated sync frame");
+                System.arraycopy(frame, offset, message, 0, message.length);
+                return message;
+            case DEFLATED:
+                inflate(frame, offset, message);
+                return message;
+            default:
+                throw new IOException("Unknown sync frame method " + method);
+        }
+    }
+
+    private static byte[] deflate(byte[] message) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(message);
+            deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) bytes.write(buffer, 0, deflater.deflate(buffer));
+            return bytes.toByteArray();
+        } finally {
+            // Deflaters hold native memory until they are ended.
+            deflater.end();
+        }
+    }
+
+    private static void inflate(byte[] frame, int offset, byte[] message) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(frame, offset, frame.length - offset);
+            int length = 0;
+            while (length < message.length) {
+                int n = inflater.inflate(message, length, message.length - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated sync frame");
+                length += n;
+            }
+            // The checksum at the end of the stream is only checked once it is read.
+            if (!inflater.finished() && inflater.inflate(new byte[1]) != 0) throw new IOException("Sync frame longer than its message");
+            if (!inflater.finished() || inflater.getRemaining() != 0) throw new IOException("Malformed sync frame");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt sync frame", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A compact binary encoding for tasks.
+ * Numbers are written as varints and priority, status and flags share a single byte.
+ * It is used by the storage and by the bulk transfer of tasks between components.
+ */
+public final class TaskCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_COMPLEX = 1 << 4;
+    private static final int FLAG_DEADLINE = 1 << 5;
+    private static final int FLAG_CUSTOM_PRIORITY = 1 << 6;
+    private static final int FLAG_PARENT = 1 << 7;
+    /**
+     * The priorities by code, which is their ordinal.
+     */
+    private static final TaskList.Priority[] PRIORITIES = TaskList.Priority.values();
+
+    private TaskCodec() {
+    }
+
+    /**
+     * Writes a task.
+     * @param out     The output.
+     * @param task    The task to write.
+     * @throws IOException If the output fails.
+     */
+    public static void write(DataOutput out, TaskList.Task task) throws IOException {
+        int packed = pack(task);
+        out.writeByte(packed);
+        writeVarLong(out, task.getId());
+        writeString(out, task.getName());
+        writeString(out, task.getDetails());
+        out.writeByte(task.getCompleted());
+        if (hasDeadline(packed)) writeVarLong(out, task.getDeadline().getTime());
+        if (hasParent(packed)) writeVarLong(out, task.getParentId());
+    }
+
+    /**
+     * Reads a task written by {@link #write(DataOutput, TaskList.Task)}.
+     * @param in    The input.
+     * @return The task.
+     * @throws IOException If the input fails.
+     */
+    public static TaskList.Task read(DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        long id = readVarLong(in);
+        String name = readString(in);
+        String details = readString(in);
+        int completed = in.readByte();
+        Date deadline = hasDeadline(flags) ? new Date(readVarLong(in)) : null;
+        long parentId = hasParent(flags) ? readVarLong(in) : TaskList.Task.NO_PARENT;
+        TaskList.Priority priority = hasCustomPriority(flags) ? TaskList.Priority.fromKey(readString(in)) : priorityOf(flags);
+        TaskList.Task task = new TaskList.Task(id, name, details, priority, deadline, isComplex(flags));
+        task.setCompleted(completed);
+        task.setStatus(statusOf(flags));
+        task.setParentId(parentId);
+        return task;
+    }
+
+    /**
+     * Encodes a list of tasks.
+     * @param tasks    The tasks.
+     * @return The count of tasks followed by the tasks.
+     */
+    public static byte[] encodeList(List<TaskList.Task> tasks) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + tasks.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeVarLong(out, tasks.size());
+            for (TaskList.Task t : tasks) write(out, t);
+        } catch (IOException e) {
+            // A byte array output does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a list of tasks written by {@link #encodeList(List)}.
+     * @param data    The encoded tasks.
+     * @return The tasks.
+     */
+    public static List<TaskList.Task> decodeList(byte[] data) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            int size = (int) readVarLong(in);
+            List<TaskList.Task> tasks = new ArrayList<TaskList.Task>(size);
+            for (int i = 0; i < size; i++) tasks.add(read(in));
+            return tasks;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed task list", e);
+        }
+    }
+
+    /**
+     * Packs the priority, status, flags and progress of a task in an int.
+     * The lowest byte holds the priority, status and flags, the next one the progress.
+     * @param task    The task.
+     * @return The packed fields.
+     */
+    public static int pack(TaskList.Task task) {
+        TaskList.Priority priority = task.getPriority() == null ? TaskList.Priority.MEDIUM : task.getPriority();
+        int packed = priority.ordinal() | statusCode(task.getStatus()) << 2 | (task.getCompleted() & 0xFF) << 8;
+        if (task.isComplex()) packed |= FLAG_COMPLEX;
+        if (task.getDeadline() != null) packed |= FLAG_DEADLINE;
+        if (task.isSubtask()) packed |= FLAG_PARENT;
+        return packed;
+    }
+
+    /**
+     * Builds a task from its fields and its packed fields. The parent, if the packed fields tell
+     * it has one, is set apart.
+     * @param id         The id.
+     * @param name       The title.
+     * @param details    The description.
+     * @param packed     The fields packed by {@link #pack(TaskList.Task)}.
+     * @param deadline   The deadline, if the packed fields tell it has one.
+     * @return The task.
+     */
+    public static TaskList.Task unpack(long id, String name, String details, int packed, Date deadline) {
+        TaskList.Task task = new TaskList.Task(id, name, details, priorityOf(packed), deadline, isComplex(packed));
+        task.setCompleted(progressOf(packed));
+        task.setStatus(statusOf(packed));
+        return task;
+    }
+
+    public static boolean isComplex(int packed) {
+        return (packed & FLAG_COMPLEX) != 0;
+    }
+
+    public static boolean hasDeadline(int packed) {
+        return (packed & FLAG_DEADLINE) != 0;
+    }
+
+    public static boolean hasParent(int packed) {
+        return (packed & FLAG_PARENT) != 0;
+    }
+
+    /**
+     * Whether the priority follows as a string. Only data written when priorities were strings has it.
+     */
+    static boolean hasCustomPriority(int packed) {
+        return (packed & FLAG_CUSTOM_PRIORITY) != 0;
+    }
+
+    public static int progressOf(int packed) {
+        return packed >> 8 & 0xFF;
+    }
+
+    public static TaskList.Priority priorityOf(int packed) {
+        return PRIORITIES[Math.min(packed & 3, PRIORITIES.length - 1)];
+    }
+
+    public static TaskList.TaskStatus statusOf(int packed) {
+        return status(packed >> 2 & 3);
+    }
+
+    private static int statusCode(TaskList.TaskStatus status) {
+        if (status instanceof TaskList.CompletedTask) return 1;
+        if (status instanceof TaskList.CanceledTask) return 2;
+        return 0;
+    }
+
+    private static TaskList.TaskStatus status(int code) {
+        switch (code) {
+            case 1: return TaskList.CompletedTask.INSTANCE;
+            case 2: return TaskList.CanceledTask.INSTANCE;
+            default: return TaskList.PendingTask.INSTANCE;
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes. Null is written as an empty string.
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s == null ? new byte[0] : s.getBytes(UTF8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = (int) readVarLong(in);
+        if (length == 0) return "";
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Writes a number using 7 bits per byte. Negative numbers take ten bytes.
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,63 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A condition which decides whether a task is shown.
+ */
+public interface TaskFilter {
+
+    /**
+     * A filter which accepts every task.
+     */
+    TaskFilter ALL = new TaskFilter() {
+        @Override
+        public boolean accept(TaskList.Task task) {
+            return true;
+        }
+    };
+
+    /**
+     * Whether a task passes the filter.
+     * @param task    The task.
+     * @return True if the task is shown.
+     */
+    boolean accept(TaskList.Task task);
+
+    /**
+     * A filter which hides completed and/or cancelled tasks.
+     */
+    public static class StatusFilter implements TaskFilter {
+        private final boolean hideCompleted;
+        private final boolean hideCanceled;
+
+        /**
+         * Constructor.
+         * @param hideCompleted    Whether completed tasks are hidden.
+         * @param hideCanceled     Whether cancelled tasks are hidden.
+         */
+        public StatusFilter(boolean hideCompleted, boolean hideCanceled) {
+            this.hideCompleted = hideCompleted;
+            this.hideCanceled = hideCanceled;
+        }
+
+        /**
+         * The statuses shown by the filter, to query the status index of the list.
+         * @return The status descriptions.
+         */
+        public String[] getAcceptedStatuses() {
+            List<String> statuses = new ArrayList<String>(3);
+            statuses.add(TaskList.PendingTask.STATUS);
+            if (!hideCompleted) statuses.add(TaskList.CompletedTask.STATUS);
+            if (!hideCanceled) statuses.add(TaskList.CanceledTask.STATUS);
+            return statuses.toArray(new String[statuses.size()]);
+        }
+
+        @Override
+        public boolean accept(TaskList.Task task) {
+            if (hideCompleted && task.getStatus() instanceof TaskList.CompletedTask) return false;
+            return !(hideCanceled && task.getStatus() instanceof TaskList.CanceledTask);
+        }
+    }
+}
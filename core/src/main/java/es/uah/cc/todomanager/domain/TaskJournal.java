@@ -0,0 +1,263 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A journal of the changes of a task list, to undo and redo them. Each step keeps the versions of
+ * the tasks it changed before and after the change, not copies of the list: tasks can not be modified
+ * once they are on the list, so a version costs a reference, and a new version shares its strings
+ * with the old one. The journal keeps a bounded number of steps and of changes; the oldest are forgotten.
+ * <p>
+ * Only the changes made between {@link #begin()} and {@link #end()} are recorded, so changes which
+ * the user did not make, as the ones pulled by a sync, can not be undone. A step which a later change
+ * of the same tasks made stale is not undone, since undoing it would revert that change too.
+ * <p>
+ * Undoing and redoing go through the list as any other change, so they are stored by the append-only
+ * log of the storage, which is the write-ahead log of the list, and observed by the views and the sync log.
+ * The journal itself is only kept in memory. It is used from the thread which changes the list.
+ */
+public class TaskJournal {
+
+    public static final int DEFAULT_MAX_STEPS = 50;
+    /**
+     * The default maximum number of changes of the steps kept, enough to undo a batch over 10k tasks.
+     */
+    public static final int DEFAULT_MAX_CHANGES = 20000;
+
+    private final int maxSteps;
+    private final int maxChanges;
+    private final LinkedList<Step> undoSteps = new LinkedList<Step>();
+    private final LinkedList<Step> redoSteps = new LinkedList<Step>();
+    /**
+     * The step being recorded, or null.
+     */
+    private Step open;
+    private int depth;
+
+    /**
+     * Constructor.
+     * @param maxSteps      The maximum number of steps kept.
+     * @param maxChanges    The maximum number of changes of the steps kept.
+     */
+    public TaskJournal(int maxSteps, int maxChanges) {
+        this.maxSteps = maxSteps;
+        this.maxChanges = maxChanges;
+    }
+
+    public TaskJournal() {
+        this(DEFAULT_MAX_STEPS, DEFAULT_MAX_CHANGES);
+    }
+
+    /**
+     * Starts a step: the changes until the matching {@link #end()} are undone together.
+     * Steps can be nested; the nested ones are part of the outer one.
+     */
+    public void begin() {
+        if (depth++ == 0) open = new Step();
+    }
+
+    /**
+     * Ends a step. A step which changed something becomes the next one to undo, and the steps undone before are forgotten.
+     */
+    public void end() {
+        if (depth == 0) throw new IllegalStateException("No step was begun");
+        if (--depth > 0) return;
+        Step step = open;
+        open = null;
+        if (step.changes.isEmpty()) return;
+        redoSteps.clear();
+        undoSteps.addLast(step);
+        trim();
+    }
+
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * The number of steps which can be undone.
+     */
+    public int getUndoCount() {
+        return undoSteps.size();
+    }
+
+    /**
+     * The number of steps which can be redone.
+     */
+    public int getRedoCount() {
+        return redoSteps.size();
+    }
+
+    /**
+     * Undoes the last step.
+     * @param tasks    The list the step changed.
+     * @return True if it was undone; false if there was none, or if later changes made it stale, so it was forgotten.
+     */
+    public boolean undo(TaskList tasks) {
+        return move(tasks, undoSteps, redoSteps, true);
+    }
+
+    /**
+     * Redoes the last step undone.
+     * @param tasks    The list the step changed.
+     * @return True if it was redone; false if there was none, or if later changes made it stale, so it was forgotten.
+     */
+    public boolean redo(TaskList tasks) {
+        return move(tasks, redoSteps, undoSteps, false);
+    }
+
+    /**
+     * Forgets every step.
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+    }
+
+    void recordAdded(TaskList.Task task, int position) {
+        if (open != null) open.record(task.getId(), null, task, position);
+    }
+
+    void recordUpdated(TaskList.Task old, TaskList.Task task) {
+        if (open != null && old != task) open.record(task.getId(), old, task, -1);
+    }
+
+    void recordRemoved(TaskList.Task task, int position) {
+        if (open != null) open.record(task.getId(), task, null, position);
+    }
+
+    private boolean move(TaskList tasks, LinkedList<Step> from, LinkedList<Step> to, boolean undo) {
+        if (from.isEmpty()) return false;
+        Step step = from.removeLast();
+        if (!step.isCurrent(tasks, undo)) return false;
+        // The step is applied as it is; it does not record itself again, and it brings back the
+        // progress of the parents it rolled up.
+        Step recording = open;
+        open = null;
+        tasks.suspendRollUp();
+        try {
+            step.apply(tasks, undo);
+        } finally {
+            open = recording;
+            tasks.resumeRollUp();
+        }
+        to.addLast(step);
+        return true;
+    }
+
+    /**
+     * Forgets the oldest steps beyond the limits. A step larger than the limit alone is not kept either.
+     */
+    private void trim() {
+        int changes = 0;
+        for (Step s : undoSteps) changes += s.changes.size();
+        while (!undoSteps.isEmpty() && (undoSteps.size() > maxSteps || changes > maxChanges))
+            changes -= undoSteps.removeFirst().changes.size();
+    }
+
+    /**
+     * A change of a task: its versions before and after it, where null means it was not on the list.
+     */
+    private static class Change {
+        final long id;
+        final TaskList.Task before;
+        TaskList.Task after;
+        /**
+         * The position of the task while it was on the list, for additions and removals.
+         */
+        int position;
+
+        Change(long id, TaskList.Task before, TaskList.Task after, int position) {
+            this.id = id;
+            this.before = before;
+            this.after = after;
+            this.position = position;
+        }
+    }
+
+    /**
+     * The changes undone and redone together.
+     */
+    private static class Step {
+        private static final Comparator<Change> BY_POSITION = new Comparator<Change>() {
+            @Override
+            public int compare(Change a, Change b) {
+                return a.position < b.position ? -1 : a.position == b.position ? 0 : 1;
+            }
+        };
+
+        final List<Change> changes = new ArrayList<Change>(1);
+        /**
+         * The change of each task, by id.
+         */
+        private final Map<Long, Change> byId = new HashMap<Long, Change>(2);
+
+        /**
+         * Records a change. A task changed again in the same step, as a parent whose progress is
+         * rolled up after the change of its subtask, keeps one change from its first version to its last one.
+         */
+        void record(long id, TaskList.Task before, TaskList.Task after, int position) {
+            Change c = byId.get(id);
+            if (c == null) {
+                c = new Change(id, before, after, position);
+                byId.put(id, c);
+                changes.add(c);
+                return;
+            }
+            c.after = after;
+            if (after == null) c.position = position;
+        }
+
+        /**
+         * Whether the tasks are still the versions the step left, or the versions before it to redo it.
+         * The list holds the very versions it was given, so they are compared by identity.
+         */
+        boolean isCurrent(TaskList tasks, boolean undo) {
+            for (Change c : changes) if (tasks.getTask(c.id) != (undo ? c.after : c.before)) return false;
+            return true;
+        }
+
+        /**
+         * Puts the tasks back as they were before the step, or after it. Several changes are applied
+         * as a batch, so they are stored with one write and the views refresh once.
+         */
+        void apply(TaskList tasks, boolean undo) {
+            List<TaskList.Task> updated = new ArrayList<TaskList.Task>();
+            List<Long> removed = new ArrayList<Long>();
+            List<Change> restored = new ArrayList<Change>();
+            for (Change c : changes) {
+                // Added and removed by the step.
+                if (c.before == null && c.after == null) continue;
+                TaskList.Task target = undo ? c.before : c.after;
+                if (target == null) removed.add(c.id);
+                else if ((undo ? c.after : c.before) == null) restored.add(c);
+                else updated.add(target);
+            }
+            if (updated.size() + removed.size() == 1) {
+                if (updated.isEmpty()) tasks.removeTask(removed.get(0));
+                else tasks.setTask(updated.get(0));
+            } else if (!updated.isEmpty() || !removed.isEmpty()) tasks.applyBatch(updated, removed);
+            if (restored.isEmpty()) return;
+            // In ascending order, each position is right once the tasks before it are back.
+            Collections.sort(restored, BY_POSITION);
+            List<TaskList.Task> back = new ArrayList<TaskList.Task>(restored.size());
+            int[] positions = new int[restored.size()];
+            for (int i = 0; i < positions.length; i++) {
+                Change c = restored.get(i);
+                back.add(undo ? c.before : c.after);
+                positions[i] = c.position;
+            }
+            tasks.restoreTasks(back, positions);
+        }
+    }
+}
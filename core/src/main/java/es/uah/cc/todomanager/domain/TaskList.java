@@ -0,0 +1,1240 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Date;
+        import java.util.Calendar;
+
+/**
+ * A task list using singleton pattern.
+ */
+public class TaskList {
+
+    /**
+     * The position of each task on the list, by id.
+     */
+    private Map<Long, Integer> positions;
+    private List<Task> taskList;
+    /**
+     * A read only view of the tasks.
+     */
+    private List<Task> readOnlyTaskList;
+    private long idSerial   ;
+    private static TaskList instance;
+    private static boolean isInitialized = false;
+    /**
+     * The storage which keeps the tasks, or null if they are only kept in memory.
+     */
+    private TaskStorage storage;
+    /**
+     * Whether the tasks of the storage have been loaded.
+     */
+    private boolean loaded = true;
+    /**
+     * The observers of the changes of the list.
+     */
+    private List<TaskListObserver> observers = new ArrayList<TaskListObserver>();
+    /**
+     * The ids of the tasks with each status description.
+     */
+    private Map<String, Set<Long>> statusIndex = new HashMap<String, Set<Long>>();
+    /**
+     * The ids of the tasks with each priority.
+     */
+    private Map<Priority, Set<Long>> priorityIndex = new EnumMap<Priority, Set<Long>>(Priority.class);
+    /**
+     * The pending tasks sorted by deadline.
+     */
+    private DeadlineIndex deadlineIndex = new DeadlineIndex();
+    /**
+     * The subtasks of each task and their progress.
+     */
+    private SubtaskIndex subtaskIndex = new SubtaskIndex();
+    /**
+     * The tasks whose subtasks changed since their progress was last rolled up.
+     */
+    private Set<Long> dirtyParents = new HashSet<Long>();
+    /**
+     * Whether the list mirrors another one, which rolls up the progress and removes the subtasks for it.
+     */
+    private boolean mirror;
+    /**
+     * How many times the roll up was suspended.
+     */
+    private int rollUpSuspended;
+    /**
+     * The journal which records the inverse of the changes, or null.
+     */
+    private TaskJournal journal;
+
+    private TaskList() {
+        positions = new HashMap<Long, Integer>(10);
+        taskList = new ArrayList<Task>();
+        readOnlyTaskList = Collections.unmodifiableList(taskList);
+        idSerial = 0;
+    }
+
+    /**
+     * Constructor for a list backed by a storage.
+     * @param storage    The storage.
+     */
+    TaskList(TaskStorage storage) {
+        this();
+        setStorage(storage);
+    }
+
+    /**
+     * Singleton pattern.
+     * The list itself is not thread-safe; it is used from the main thread and changed through a {@link TaskRepository}.
+     *
+     * @return A singleton instance.
+     */
+    public static synchronized TaskList getInstance() {
+        if (instance == null) instance = new TaskList();
+        return instance;
+    }
+
+    /**
+     * Sets the storage of the list. The stored tasks are loaded on the first access to the list.
+     * @param storage    The storage, or null to keep the tasks only in memory.
+     */
+    public void setStorage(TaskStorage storage) {
+        this.storage = storage;
+        loaded = storage == null;
+    }
+
+    /**
+     * Registers an observer of the changes of the list.
+     * @param observer    The observer.
+     */
+    public void addObserver(TaskListObserver observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Unregisters an observer.
+     * @param observer    The observer.
+     */
+    public void removeObserver(TaskListObserver observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Sets the journal which records the inverse of the changes, to undo them.
+     * @param journal    The journal, or null.
+     */
+    void setJournal(TaskJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Makes the list a mirror of another one, which sends it the progress rolled up and the subtasks
+     * removed with their parents, so it does not make those changes itself.
+     * @param mirror    Whether it is a mirror.
+     */
+    void setMirror(boolean mirror) {
+        this.mirror = mirror;
+    }
+
+    /**
+     * Stops rolling up the progress, for changes which bring the progress of the parents with them,
+     * as the steps of a journal, until {@link #resumeRollUp()}.
+     */
+    void suspendRollUp() {
+        rollUpSuspended++;
+    }
+
+    /**
+     * Rolls up the progress again, and the one of the parents which changed meanwhile, if it does not match.
+     */
+    void resumeRollUp() {
+        if (--rollUpSuspended == 0) storeRollUp();
+    }
+
+    /**
+     * Loads the stored tasks if it was not done yet.
+     */
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        try {
+            for (Task t : storage.load()) {
+                positions.put(t.getId(), taskList.size());
+                taskList.add(t);
+                attach(t);
+                if (t.getId() >= idSerial) idSerial = t.getId() + 1;
+            }
+            // The progress was stored rolled up.
+            dirtyParents.clear();
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+    }
+
+    /**
+     * Writes a task to the storage, if any. It is called before the list is changed, so a failed
+     * write leaves the list as the storage has it.
+     * @param task    The task to write.
+     */
+    private void write(Task task) {
+        if (storage == null) return;
+        try {
+            storage.write(task);
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+    }
+
+    /**
+     * Folds the log of the storage into a snapshot if it grew enough. It is called once a change
+     * is stored and notified, so a failed compaction loses nothing.
+     */
+    private void compactIfNeeded() {
+        if (storage == null) return;
+        try {
+            if (storage.needsCompaction()) storage.compact(taskList);
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+    }
+
+    /**
+     * Gets the task list.
+     * It is a live view, so it must be read from the thread which changes the list;
+     * other threads read the snapshots of a {@link TaskRepository}.
+     * @return A read only list.
+     */
+    public List<Task> getTasks() {
+        ensureLoaded();
+        return readOnlyTaskList;
+    }
+
+    /**
+     * Gets the task identified by the introduced id.
+     * @param id    The id of the task to get.
+     * @return
+     */
+    public Task getTask(long id) {
+        ensureLoaded();
+        Integer position = positions.get(id);
+        return position == null ? null : taskList.get(position);
+    }
+
+    /**
+     * Gets the position of a task on the list.
+     * @param id    The id of the task.
+     * @return The position or -1 if there is not such task.
+     */
+    public int indexOf(long id) {
+        ensureLoaded();
+        Integer position = positions.get(id);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Updates a task if it is in the list. The progress of its parent, if it is a subtask, is rolled up.
+     * @param task    The task to update.
+     * @return True if it was updated, false else.
+     */
+    public boolean setTask(Task task) {
+        ensureLoaded();
+        Integer position = positions.get(task.getId());
+        if (position != null) {
+            write(task);
+            Task old = taskList.get(position);
+            replace(position, task);
+            if (journal != null) journal.recordUpdated(old, task);
+            for (TaskListObserver o : observers) o.onTaskUpdated(task, position);
+            storeRollUp();
+            compactIfNeeded();
+            return true;
+        }
+        else return false;
+    }
+
+    /**
+     * Adds a new task to the list.
+     * @param name The title of the task.
+     * @param details     The description of the task.
+     * @param priority    The priority of the task.
+     * @param deadline    The deadline date.
+     * @param complex     Whether the task is complex or not.
+     */
+    public void addTask(String name, String details, Priority priority, Date deadline, boolean complex) {
+        ensureLoaded();
+        add(new Task(idSerial++, name, details, priority, deadline, complex));
+    }
+
+    /**
+     * Adds a new task to the list. A subtask is added to its parent, whose progress is rolled up.
+     * @param task    The task to add.
+     * @throws IllegalArgumentException If it is a subtask and its parent is not a complex task of the list.
+     */
+    public void addTask(Task task) {
+        ensureLoaded();
+        if (task.isSubtask()) {
+            Task parent = getTask(task.getParentId());
+            if (parent == null || !parent.isComplex())
+                throw new IllegalArgumentException("The parent of a subtask must be a complex task of the list: " + task.getParentId());
+        }
+        Task t = new Task(idSerial++, task.getName(), task.getDetails(), task.getPriority(), task.getDeadline(), task.isComplex());
+        t.setParentId(task.getParentId());
+        add(t);
+    }
+
+    /**
+     * Adds a task with a new id at the end of the list.
+     */
+    private void add(Task t) {
+        write(t);
+        positions.put(t.getId(), taskList.size());
+        taskList.add(t);
+        attach(t);
+        if (journal != null) journal.recordAdded(t, taskList.size() - 1);
+        for (TaskListObserver o : observers) o.onTaskAdded(t, taskList.size() - 1);
+        storeRollUp();
+        compactIfNeeded();
+    }
+
+    /**
+     * Adds a task keeping its id, or updates it if it is in the list.
+     * It is used to mirror the changes of another list.
+     * @param task    The task.
+     */
+    void putTask(Task task) {
+        if (setTask(task)) return;
+        write(task);
+        positions.put(task.getId(), taskList.size());
+        taskList.add(task);
+        attach(task);
+        if (task.getId() >= idSerial) idSerial = task.getId() + 1;
+        if (journal != null) journal.recordAdded(task, taskList.size() - 1);
+        for (TaskListObserver o : observers) o.onTaskAdded(task, taskList.size() - 1);
+        storeRollUp();
+        compactIfNeeded();
+    }
+
+    /**
+     * Adds or updates several tasks keeping their ids, as one batch of the observers.
+     * It is used to mirror the tasks another list loaded.
+     * @param tasks    The tasks.
+     */
+    void putTasks(List<Task> tasks) {
+        ensureLoaded();
+        if (tasks.isEmpty()) return;
+        for (TaskListObserver o : observers) o.onBatchStarted();
+        try {
+            for (Task task : tasks) putTask(task);
+        } finally {
+            for (TaskListObserver o : observers) o.onBatchFinished();
+        }
+    }
+
+    /**
+     * Puts removed tasks back in the positions they had, keeping their ids. It is used to undo removals.
+     * The storage keeps the positions, so it is compacted if a task is not restored at the end.
+     * @param tasks    The tasks, which must not be in the list.
+     * @param at       The position of each task, in ascending order.
+     */
+    void restoreTasks(List<Task> tasks, int[] at) {
+        ensureLoaded();
+        if (tasks.isEmpty()) return;
+        boolean batch = tasks.size() > 1;
+        if (batch) for (TaskListObserver o : observers) o.onBatchStarted();
+        try {
+            boolean moved = false;
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                int position = Math.min(at[i], taskList.size());
+                moved |= position < taskList.size();
+                taskList.add(position, task);
+                reindex(position, taskList.size() - 1);
+                attach(task);
+                if (task.getId() >= idSerial) idSerial = task.getId() + 1;
+            }
+            if (storage != null) {
+                try {
+                    if (moved) storage.compact(taskList);
+                    else storage.writeBatch(tasks, Collections.<Long>emptyList());
+                } catch (IOException e) {
+                    // The tasks are taken out again, as the storage does not have them.
+                    for (int i = tasks.size() - 1; i >= 0; i--) {
+                        long id = tasks.get(i).getId();
+                        taskList.remove((int) positions.remove(id));
+                        unindex(id);
+                    }
+                    reindex(0, taskList.size() - 1);
+                    throw new TaskStorage.StorageException(e);
+                }
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                if (journal != null) journal.recordAdded(task, positions.get(task.getId()));
+                for (TaskListObserver o : observers) o.onTaskAdded(task, positions.get(task.getId()));
+            }
+            storeRollUp();
+        } finally {
+            if (batch) for (TaskListObserver o : observers) o.onBatchFinished();
+        }
+    }
+
+    /**
+     * Removes a task from the list. Its subtasks are removed with it, as a batch.
+     * @param id    The id of the task to remove.
+     * @return True if it was removed, false if it was not in the list.
+     */
+    public boolean removeTask(long id) {
+        ensureLoaded();
+        if (!mirror && subtaskIndex.count(id) > 0 && positions.containsKey(id))
+            return applyBatch(Collections.<Task>emptyList(), Collections.singletonList(id)) > 0;
+        if (!positions.containsKey(id)) return false;
+        if (storage != null) {
+            try {
+                storage.remove(id);
+            } catch (IOException e) {
+                throw new TaskStorage.StorageException(e);
+            }
+        }
+        int position = positions.remove(id);
+        Task t = taskList.remove(position);
+        reindex(position, taskList.size() - 1);
+        unindex(id);
+        if (journal != null) journal.recordRemoved(t, position);
+        for (TaskListObserver o : observers) o.onTaskRemoved(t, position);
+        storeRollUp();
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Applies several changes as one transaction: the tasks are replaced and removed in a single pass,
+     * the storage receives a single write which keeps all of them or none after a crash, and the
+     * observers receive the changes between {@link TaskListObserver#onBatchStarted()} and
+     * {@link TaskListObserver#onBatchFinished()}, so they can coalesce them.
+     * @param updated    New versions of tasks of the list, as completed or canceled copies.
+     *                   Tasks which are not in the list, or which are also removed, are ignored.
+     * @param removed    The ids of the tasks to remove, which take the subtasks they have after
+     *                   the updates with them. Ids which are not in the list are ignored.
+     * @return The number of tasks updated or removed. The parents whose progress was rolled up are not counted.
+     */
+    public int applyBatch(Collection<Task> updated, Collection<Long> removed) {
+        ensureLoaded();
+        Set<Long> removedIds = new HashSet<Long>(removed);
+        for (TaskListObserver o : observers) o.onBatchStarted();
+        try {
+            List<Task> written = new ArrayList<Task>(updated.size());
+            List<Task> replaced = new ArrayList<Task>(updated.size());
+            int[] writtenPositions = new int[updated.size()];
+            for (Task task : updated) {
+                Integer position = positions.get(task.getId());
+                if (position == null || removedIds.contains(task.getId())) continue;
+                writtenPositions[written.size()] = position;
+                replaced.add(taskList.get(position));
+                replace(position, task);
+                written.add(task);
+            }
+            // The subtasks as of after the updates, which may have moved some to other parents.
+            if (!mirror) for (Long id : removed) removedIds.addAll(subtaskIndex.descendants(id));
+            List<Task> removedTasks = new ArrayList<Task>(removedIds.size());
+            int[] removedPositions = removeAll(removedIds, removedTasks);
+            int count = written.size() + removedTasks.size();
+            List<Task> rolledOld = new ArrayList<Task>();
+            List<Task> rolled = rollUp(rolledOld);
+            List<Task> stored = new ArrayList<Task>(written);
+            stored.addAll(rolled);
+            try {
+                storeBatch(stored, removedTasks);
+            } catch (TaskStorage.StorageException e) {
+                // Undone from the last change to the first, so the list is again as the storage has it.
+                putBack(rolledOld);
+                for (int i = 0; i < removedTasks.size(); i++) {
+                    taskList.add(removedPositions[i], removedTasks.get(i));
+                    attach(removedTasks.get(i));
+                }
+                if (!removedTasks.isEmpty()) reindex(removedPositions[0], taskList.size() - 1);
+                putBack(replaced);
+                throw e;
+            }
+            for (int i = 0; i < written.size(); i++) {
+                if (journal != null) journal.recordUpdated(replaced.get(i), written.get(i));
+                for (TaskListObserver o : observers) o.onTaskUpdated(written.get(i), writtenPositions[i]);
+            }
+            // From the last position to the first, so each one is still the position of the task
+            // once the tasks after it are gone.
+            for (int i = removedTasks.size() - 1; i >= 0; i--) {
+                Task t = removedTasks.get(i);
+                if (journal != null) journal.recordRemoved(t, removedPositions[i]);
+                for (TaskListObserver o : observers) o.onTaskRemoved(t, removedPositions[i]);
+            }
+            recordRollUp(rolledOld, rolled);
+            notifyRollUp(rolled);
+            compactIfNeeded();
+            return count;
+        } finally {
+            for (TaskListObserver o : observers) o.onBatchFinished();
+        }
+    }
+
+    /**
+     * Removes tasks in one pass over the list, from the first removed position.
+     * @param ids        The ids to remove.
+     * @param removed    Receives the removed tasks, by order of position.
+     * @return The positions the removed tasks had.
+     */
+    private int[] removeAll(Set<Long> ids, List<Task> removed) {
+        int[] found = new int[ids.size()];
+        int count = 0;
+        for (Long id : ids) {
+            Integer position = positions.get(id);
+            if (position != null) found[count++] = position;
+        }
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        if (count == 0) return found;
+        int next = 0;
+        int kept = found[0];
+        for (int i = kept; i < taskList.size(); i++) {
+            Task t = taskList.get(i);
+            if (next < count && found[next] == i) {
+                next++;
+                removed.add(t);
+                positions.remove(t.getId());
+                unindex(t.getId());
+            } else {
+                taskList.set(kept, t);
+                positions.put(t.getId(), kept++);
+            }
+        }
+        taskList.subList(kept, taskList.size()).clear();
+        return found;
+    }
+
+    /**
+     * Writes the changes of a batch, already applied to the list, to the storage, if any, in a single write.
+     * A batch which touches more tasks than the list keeps rewrites the snapshot instead.
+     */
+    private void storeBatch(List<Task> written, List<Task> removed) {
+        if (storage == null || written.isEmpty() && removed.isEmpty()) return;
+        List<Long> removedIds = new ArrayList<Long>(removed.size());
+        for (Task t : removed) removedIds.add(t.getId());
+        try {
+            if (written.size() + removed.size() > taskList.size()) storage.compact(taskList);
+            else storage.writeBatch(written, removedIds);
+        } catch (IOException e) {
+            throw new TaskStorage.StorageException(e);
+        }
+    }
+
+    /**
+     * Puts back the versions of tasks which were replaced, from the last one to the first.
+     * @param replaced    The versions, in the order they were replaced.
+     */
+    private void putBack(List<Task> replaced) {
+        for (int i = replaced.size() - 1; i >= 0; i--) {
+            Task old = replaced.get(i);
+            replace(positions.get(old.getId()), old);
+        }
+    }
+
+    /**
+     * Rolls the progress of the subtasks which changed up to their parents, from the deepest to the top,
+     * so each parent is replaced once. A pending parent with subtasks which count takes their average progress.
+     * @param replaced    Receives the versions of the parents before the roll up.
+     * @return The new versions of the parents, to store and notify.
+     */
+    private List<Task> rollUp(List<Task> replaced) {
+        List<Task> rolled = new ArrayList<Task>();
+        if (rollUpSuspended > 0) return rolled;
+        if (mirror || dirtyParents.isEmpty()) {
+            dirtyParents.clear();
+            return rolled;
+        }
+        SubtaskIndex.RollUpQueue queue = subtaskIndex.newQueue();
+        queue.addAll(dirtyParents);
+        dirtyParents.clear();
+        while (!queue.isEmpty()) {
+            long id = queue.poll();
+            Integer position = positions.get(id);
+            int progress = subtaskIndex.progress(id);
+            if (position == null || progress < 0) continue;
+            Task old = taskList.get(position);
+            if (old.getCompleted() == progress || !(old.getStatus() instanceof PendingTask)) continue;
+            Task task = new Task(old);
+            task.setCompleted(progress);
+            replace(position, task);
+            replaced.add(old);
+            rolled.add(task);
+            // Its own parent, which is higher.
+            queue.addAll(dirtyParents);
+            dirtyParents.clear();
+        }
+        return rolled;
+    }
+
+    /**
+     * Rolls the progress up after a single change, storing and notifying each parent.
+     */
+    private void storeRollUp() {
+        List<Task> replaced = new ArrayList<Task>();
+        List<Task> rolled = rollUp(replaced);
+        try {
+            storeBatch(rolled, Collections.<Task>emptyList());
+        } catch (TaskStorage.StorageException e) {
+            // The parents keep their stored progress; being out of date, they are rolled up with the next change.
+            putBack(replaced);
+            throw e;
+        }
+        recordRollUp(replaced, rolled);
+        notifyRollUp(rolled);
+    }
+
+    private void recordRollUp(List<Task> replaced, List<Task> rolled) {
+        if (journal == null) return;
+        for (int i = 0; i < rolled.size(); i++) journal.recordUpdated(replaced.get(i), rolled.get(i));
+    }
+
+    private void notifyRollUp(List<Task> rolled) {
+        for (Task t : rolled) {
+            int position = positions.get(t.getId());
+            for (TaskListObserver o : observers) o.onTaskUpdated(t, position);
+        }
+    }
+
+    /**
+     * Moves a task to another position of the list.
+     * @param from    The current position of the task.
+     * @param to      The new position.
+     */
+    public void moveTask(int from, int to) {
+        ensureLoaded();
+        if (from == to) return;
+        if (storage != null) {
+            try {
+                // A move is a record of the log, as any other change, not a new snapshot.
+                storage.move(taskList.get(from).getId(), to);
+            } catch (IOException e) {
+                throw new TaskStorage.StorageException(e);
+            }
+        }
+        Task t = taskList.remove(from);
+        taskList.add(to, t);
+        reindex(Math.min(from, to), Math.max(from, to));
+        for (TaskListObserver o : observers) o.onTaskMoved(t, from, to);
+        compactIfNeeded();
+    }
+
+    /**
+     * Puts a new version of a task in its position and updates the indexes.
+     */
+    private void replace(int position, Task task) {
+        taskList.set(position, task);
+        attach(task);
+    }
+
+    /**
+     * Updates the positions of the tasks in a range of the list.
+     * @param from    The first position.
+     * @param to      The last position, inclusive.
+     */
+    private void reindex(int from, int to) {
+        for (int i = from; i <= to; i++) positions.put(taskList.get(i).getId(), i);
+    }
+
+    /**
+     * Freezes a task put on the list and indexes it.
+     * @param task    The task.
+     */
+    private void attach(Task task) {
+        task.frozen = true;
+        index(task);
+    }
+
+    /**
+     * Updates the secondary indexes of a task: its status, priority, deadline, progress and parent.
+     * It takes O(log n) time.
+     * @param task    The task.
+     */
+    private void index(Task task) {
+        long id = task.getId();
+        index(statusIndex, task.getStatus().getStatusDescription(), id);
+        index(priorityIndex, task.getPriority(), id);
+        deadlineIndex.update(task);
+        subtaskIndex.update(task, dirtyParents);
+        // A parent given another progress, as by an edition made on an older version, is rolled up again.
+        int progress = subtaskIndex.progress(id);
+        if (progress >= 0 && progress != task.getCompleted()) dirtyParents.add(id);
+    }
+
+    /**
+     * Takes a task out of the secondary indexes.
+     * @param id    The id of the task.
+     */
+    private void unindex(long id) {
+        unindex(statusIndex, id);
+        unindex(priorityIndex, id);
+        deadlineIndex.remove(id);
+        subtaskIndex.remove(id, dirtyParents);
+    }
+
+    private static <K> void index(Map<K, Set<Long>> index, K key, long id) {
+        Set<Long> ids = index.get(key);
+        if (ids != null && ids.contains(id)) return;
+        unindex(index, id);
+        if (ids == null) {
+            ids = new LinkedHashSet<Long>();
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void unindex(Map<?, Set<Long>> index, long id) {
+        // There are only a few statuses and priorities.
+        for (Set<Long> ids : index.values()) if (ids.remove(id)) return;
+    }
+
+    /**
+     * Counts the tasks with a status.
+     * @param status    The status description, as {@link CompletedTask#STATUS}.
+     * @return The number of tasks.
+     */
+    public int countTasksWithStatus(String status) {
+        ensureLoaded();
+        Set<Long> ids = statusIndex.get(status);
+        return ids == null ? 0 : ids.size();
+    }
+
+    /**
+     * Counts the tasks with a priority.
+     * @param priority    The priority.
+     * @return The number of tasks.
+     */
+    public int countTasksWithPriority(Priority priority) {
+        ensureLoaded();
+        Set<Long> ids = priorityIndex.get(priority);
+        return ids == null ? 0 : ids.size();
+    }
+
+    /**
+     * Gets the tasks with some statuses, in the order of the list.
+     * It takes time proportional to the number of tasks found.
+     * @param statuses    The status descriptions.
+     * @return A new list.
+     */
+    public List<Task> getTasksWithStatus(String... statuses) {
+        ensureLoaded();
+        return collect(statusIndex, statuses);
+    }
+
+    /**
+     * Gets the tasks with some priorities, in the order of the list.
+     * It takes time proportional to the number of tasks found.
+     * @param priorities    The priorities.
+     * @return A new list.
+     */
+    public List<Task> getTasksWithPriority(Priority... priorities) {
+        ensureLoaded();
+        return collect(priorityIndex, priorities);
+    }
+
+    /**
+     * Gets the pending tasks whose deadline is in a range, sorted by deadline.
+     * @param from    The first date, inclusive.
+     * @param to      The last date, exclusive.
+     * @return A new list.
+     */
+    public List<Task> getTasksDueBetween(Date from, Date to) {
+        ensureLoaded();
+        return resolve(deadlineIndex.between(from.getTime(), to.getTime()));
+    }
+
+    /**
+     * Gets the pending tasks whose deadline has passed, sorted by deadline.
+     * @param now    The current date.
+     * @return A new list.
+     */
+    public List<Task> getOverdueTasks(Date now) {
+        ensureLoaded();
+        return resolve(deadlineIndex.between(Long.MIN_VALUE, now.getTime()));
+    }
+
+    /**
+     * Gets the pending task with the first deadline at or after a date.
+     * @param from    The date.
+     * @return The task or null if there is not such task.
+     */
+    public Task getNextDueTask(Date from) {
+        ensureLoaded();
+        Long id = deadlineIndex.next(from.getTime());
+        return id == null ? null : getTask(id);
+    }
+
+    /**
+     * Counts the pending tasks with a deadline.
+     * @return The number of tasks.
+     */
+    public int countTasksWithDeadline() {
+        ensureLoaded();
+        return deadlineIndex.size();
+    }
+
+    /**
+     * Gets the subtasks of a task, in the order they were added.
+     * It takes time proportional to the number of subtasks.
+     * @param id    The id of the task.
+     * @return A new list.
+     */
+    public List<Task> getSubtasks(long id) {
+        ensureLoaded();
+        return resolve(subtaskIndex.children(id));
+    }
+
+    /**
+     * Gets the ids of the subtasks of a task, so a view can load the tasks a page at a time.
+     * @param id    The id of the task.
+     * @return A new list.
+     */
+    public List<Long> getSubtaskIds(long id) {
+        ensureLoaded();
+        return subtaskIndex.children(id);
+    }
+
+    /**
+     * Counts the subtasks of a task, in O(1) time.
+     * @param id    The id of the task.
+     * @return The number of subtasks.
+     */
+    public int countSubtasks(long id) {
+        ensureLoaded();
+        return subtaskIndex.count(id);
+    }
+
+    private List<Task> resolve(List<Long> ids) {
+        List<Task> result = new ArrayList<Task>(ids.size());
+        for (Long id : ids) result.add(taskList.get(positions.get(id)));
+        return result;
+    }
+
+    private <K> List<Task> collect(Map<K, Set<Long>> index, K[] keys) {
+        int size = 0;
+        for (K key : keys) if (index.containsKey(key)) size += index.get(key).size();
+        int[] found = new int[size];
+        int i = 0;
+        for (K key : keys) {
+            Set<Long> ids = index.get(key);
+            if (ids != null) for (Long id : ids) found[i++] = positions.get(id);
+        }
+        Arrays.sort(found);
+        List<Task> result = new ArrayList<Task>(size);
+        for (int position : found) result.add(taskList.get(position));
+        return result;
+    }
+
+    /**
+     * A method to fill the list with sample data.
+     */
+    public static void fillSampleData(TaskList tasks) {
+        // Stored tasks are kept, samples are only added on the first run.
+        if (!isInitialized && tasks.getTasks().isEmpty()) {
+            tasks.addTask("Pasear al perro", "Darle una vuelta de 15 minutos para que haga sus cositas", Priority.MEDIUM, null, false);
+            tasks.addTask("Envolver el regalo de Ana", "Comprar el papel de regalo y ponerle un lacito bonito.", Priority.LOW, Calendar.getInstance().getTime(), false);
+            tasks.addTask("Terminar la redacción de historia", "Investigar sobre los Reyes Católicos y resumir su reinado.", Priority.HIGH, Calendar.getInstance().getTime(), true);
+            tasks.addTask("Ir a ver Star Wars", "Quedar con Pedro para ir a ver la nueva película de Star Wars al cine.", Priority.HIGH, null, false);
+            // The tasks are changed on copies, which are published.
+            Task completed = new Task(tasks.getTask(1l));
+            completed.complete();
+            tasks.setTask(completed);
+            Task started = new Task(tasks.getTask(2l));
+            started.setCompleted(40);
+            tasks.setTask(started);
+            Task canceled = new Task(tasks.getTask(3l));
+            canceled.cancel();
+            tasks.setTask(canceled);
+isInitialized = true;
+        }
+    }
+
+    /**
+     * /**
+     * A task to achieve.
+     */
+    public static class Task {
+
+        private long id;
+        private String name;
+        private String details;
+        private Priority priority;
+        private Date deadline;
+        private boolean complex;
+        private int completed;
+        private TaskStatus status;
+        private long parentId = NO_PARENT;
+        /**
+         * Whether the task has been put on a list. The list, its snapshots and its journal share
+         * the task, so it can not be changed any more; a copy is changed and published instead.
+         */
+        transient boolean frozen;
+
+        /**
+         * The keys which named the priorities when they were strings.
+         * @see Priority#getKey()
+         */
+        public static final String LOW_PRIORITY = "low_priority";
+        public static final String MEDIUM_PRIORITY = "medium_priority";
+        public static final String HIGH_PRIORITY = "high_priority";
+        /**
+         * The parent id of a task which is not a subtask.
+         */
+        public static final long NO_PARENT = -1;
+
+        /**
+         * Empty constructor.
+         */
+        public Task() {
+            name = "";
+priority = Priority.MEDIUM;
+            status = PendingTask.INSTANCE;
+            details = "";
+            complex = false;
+            deadline = null;
+            completed = 0;
+        }
+
+        /**
+         * Constructor to fill a task.
+         * @param id The task id
+         * @param name The title of the task.
+         * @param details The description of the task.
+         * @param priority the priority of the task.
+         * @param deadline The date of deadline.
+         * @param complex Whether the task is complex or not.
+         */
+        public Task(long id, String name, String details, Priority priority, Date deadline, boolean complex) {
+            this.id = id;
+            this.name = name;
+            this.details = details;
+            this.priority = priority;
+            this.complex = complex;
+            this.deadline = deadline;
+            completed = 0;
+            status = PendingTask.INSTANCE;
+        }
+
+        /**
+         * Copy constructor. The copy is not held by any list, so it can be changed
+         * and then published with {@link TaskList#setTask(Task)}.
+         * @param task    The task to copy.
+         */
+        public Task(Task task) {
+            id = task.id;
+            name = task.name;
+            details = task.details;
+            priority = task.priority;
+            deadline = task.deadline == null ? null : new Date(task.deadline.getTime());
+            complex = task.complex;
+            completed = task.completed;
+            status = task.status;
+            parentId = task.parentId;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            checkNotFrozen();
+            this.name = name;
+        }
+
+        public String getDetails() {
+            return details;
+        }
+
+        public void setDetails(String details) {
+            checkNotFrozen();
+            this.details = details;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public void setPriority(Priority priority) {
+            checkNotFrozen();
+            this.priority = priority;
+        }
+
+        public Date getDeadline() {
+            return deadline;
+        }
+
+        public void setDeadline(Date deadline) {
+            checkNotFrozen();
+            this.deadline = deadline;
+        }
+
+        public boolean isComplex() {
+            return complex;
+        }
+
+        public void setComplex(boolean complex) {
+            checkNotFrozen();
+            this.complex = complex;
+        }
+
+        public int getCompleted() {
+            return completed;
+        }
+
+        public void setCompleted(int completed) {
+            checkNotFrozen();
+            this.completed = completed;
+        }
+
+        public TaskStatus getStatus() {
+            return status;
+        }
+
+        public void setStatus(TaskStatus status) {
+            checkNotFrozen();
+            this.status = status;
+        }
+
+        /**
+         * The id of the complex task this task is a subtask of.
+         * @return The id, or {@link #NO_PARENT}.
+         */
+        public long getParentId() {
+            return parentId;
+        }
+
+        public void setParentId(long parentId) {
+            checkNotFrozen();
+            this.parentId = parentId;
+        }
+
+        /**
+         * Checks that the task can be changed.
+         * @throws IllegalStateException If it has been put on a list.
+         */
+        private void checkNotFrozen() {
+            if (frozen) throw new IllegalStateException("A task on a list can not be changed; change a copy and publish it with setTask");
+        }
+
+        public boolean isSubtask() {
+            return parentId != NO_PARENT;
+        }
+
+        public void complete() {
+            status.complete(this);
+        }
+
+        public void cancel() {
+            status.cancel(this);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Task task = (Task) o;
+
+            return id == task.id;
+
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (id ^ (id >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * An observer of the changes of a task list.
+     * It is notified after the change is applied, with the positions the task has on the list.
+     */
+    public static interface TaskListObserver {
+        void onTaskAdded(Task task, int position);
+
+        void onTaskUpdated(Task task, int position);
+
+        /**
+         * A task was removed.
+         * @param task        The removed task.
+         * @param position    The position it had.
+         */
+        void onTaskRemoved(Task task, int position);
+
+        void onTaskMoved(Task task, int from, int to);
+
+        /**
+         * Several changes are going to be notified as one. Until {@link #onBatchFinished()}
+         * the list may already be in its final state, so views should wait for the end to refresh;
+         * the positions of the changes are still consistent in the order they are notified.
+         */
+        void onBatchStarted();
+
+        /**
+         * Every change of the batch was notified.
+         */
+        void onBatchFinished();
+    }
+
+    /**
+     * The priority of a task. The order is from the highest to the lowest priority.
+     */
+    public static enum Priority {
+        HIGH(Task.HIGH_PRIORITY),
+        MEDIUM(Task.MEDIUM_PRIORITY),
+        LOW(Task.LOW_PRIORITY);
+
+        private static final Priority[] VALUES = values();
+
+        private final String key;
+
+        Priority(String key) {
+            this.key = key;
+        }
+
+        /**
+         * The string which named the priority when priorities were strings.
+         * @return The key, as {@link Task#HIGH_PRIORITY}.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the priority named by a key, to read data written when priorities were strings.
+         * @param key    The key.
+         * @return The priority, or {@link #MEDIUM} if the key is unknown.
+         */
+        public static Priority fromKey(String key) {
+            for (Priority p : VALUES) if (p.key.equals(key)) return p;
+            return MEDIUM;
+        }
+    }
+
+    /**
+     * Defining a state pattern for the tasks.
+     * The states have no fields, so there is a single instance of each one.
+     */
+    public static interface TaskStatus {
+        /**
+         * Completes the task.
+         * @param task    The task.
+         */
+        void complete(TaskList.Task task);
+
+        /**
+         * Cancels the task.
+         * @param task    The task.
+         */
+        void cancel(TaskList.Task task);
+
+        /**
+         * A string representing the status of the task.
+         * @return
+         */
+        String getStatusDescription();
+    }
+
+    /**
+     * A pending task status.
+     */
+    public static class PendingTask implements TaskStatus {
+        public static final String STATUS = "pending_task";
+        public static final PendingTask INSTANCE = new PendingTask();
+
+        private PendingTask() {
+        }
+
+        @Override
+        public void complete(TaskList.Task task) {
+            task.setStatus(CompletedTask.INSTANCE);
+            task.setCompleted(100);
+        }
+
+        @Override
+        public void cancel(TaskList.Task task) {
+            task.setStatus(CanceledTask.INSTANCE);
+        }
+
+        @Override
+        public String getStatusDescription() {
+            return STATUS;
+        }
+    }
+
+    /**
+     * A completed task status.
+     */
+    public static class CompletedTask implements TaskStatus {
+        public static final String STATUS = "completed_task";
+        public static final CompletedTask INSTANCE = new CompletedTask();
+
+        private CompletedTask() {
+        }
+
+        @Override
+        public void complete(TaskList.Task task) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancel(TaskList.Task task) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getStatusDescription() {
+            return STATUS;
+        }
+    }
+
+    /**
+     * A cancelled task status.
+     */
+    public static class CanceledTask implements TaskStatus {
+        public static final String STATUS = "canceled_task";
+        public static final CanceledTask INSTANCE = new CanceledTask();
+
+        private CanceledTask() {
+        }
+
+        @Override
+    public void complete(TaskList.Task task) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancel(TaskList.Task task) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getStatusDescription() {
+            return STATUS;
+        }
+    }
+
+    }
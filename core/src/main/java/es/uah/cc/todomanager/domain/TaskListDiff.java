@@ -0,0 +1,190 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes an edit script which turns a list of tasks into another one.
+ * Tasks are matched by id and compared by a hash of the content shown on the list.
+ * The tasks kept in place are the longest run of common tasks which keeps its relative order,
+ * found in O(n log n); any other task is removed and/or inserted, and kept tasks whose content
+ * changed are reported as changed. Consecutive positions are reported as a single range.
+ */
+public class TaskListDiff {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    /**
+     * The operations as (type, position, count) triples, in dispatch order.
+     */
+    private final int[] operations;
+    private final int size;
+
+    private TaskListDiff(int[] operations, int size) {
+        this.operations = operations;
+        this.size = size;
+    }
+
+    /**
+     * A hash of the content of a task which is shown on the list.
+     * @param task    The task.
+     * @return The hash.
+     */
+    public static int contentHash(TaskList.Task task) {
+        int h = task.getName() == null ? 0 : task.getName().hashCode();
+        h = 31 * h + (task.getPriority() == null ? -1 : task.getPriority().ordinal());
+        h = 31 * h + task.getStatus().getStatusDescription().hashCode();
+        h = 31 * h + task.getCompleted();
+        h = 31 * h + (task.isComplex() ? 1 : 0);
+        if (task.getDeadline() != null) {
+            long d = task.getDeadline().getTime();
+            h = 31 * h + (int) (d ^ (d >>> 32));
+        }
+        return h;
+    }
+
+    /**
+     * Calculates the difference between two lists of tasks.
+     * @param oldTasks    The current list.
+     * @param newTasks    The new list.
+     * @return The difference.
+     */
+    public static TaskListDiff calculate(List<TaskList.Task> oldTasks, List<TaskList.Task> newTasks) {
+        int n = oldTasks.size();
+        int m = newTasks.size();
+        long[] oldIds = new long[n];
+        int[] oldHashes = new int[n];
+        long[] newIds = new long[m];
+        int[] newHashes = new int[m];
+        for (int i = 0; i < n; i++) {
+            oldIds[i] = oldTasks.get(i).getId();
+            oldHashes[i] = contentHash(oldTasks.get(i));
+        }
+        for (int j = 0; j < m; j++) {
+            newIds[j] = newTasks.get(j).getId();
+            newHashes[j] = contentHash(newTasks.get(j));
+        }
+        return calculate(oldIds, oldHashes, newIds, newHashes);
+    }
+
+    /**
+     * Calculates the difference between two lists given by ids and content hashes.
+     */
+    static TaskListDiff calculate(long[] oldIds, int[] oldHashes, long[] newIds, int[] newHashes) {
+        int n = oldIds.length;
+        int m = newIds.length;
+        Map<Long, Integer> oldPositions = new HashMap<Long, Integer>(n * 2);
+        for (int i = 0; i < n; i++) oldPositions.put(oldIds[i], i);
+
+        // The old position of each new task, or -1 for inserted tasks.
+        int[] source = new int[m];
+        for (int j = 0; j < m; j++) {
+            Integer i = oldPositions.get(newIds[j]);
+            source[j] = i == null ? -1 : i;
+        }
+
+        // Longest increasing subsequence of old positions, by patience sorting.
+        int[] tails = new int[m];
+        int[] previous = new int[m];
+        int length = 0;
+        for (int j = 0; j < m; j++) {
+            if (source[j] < 0) continue;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (source[tails[mid]] < source[j]) low = mid + 1;
+                else high = mid;
+            }
+            previous[j] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = j;
+            if (low == length) length++;
+        }
+        boolean[] keptOld = new boolean[n];
+        boolean[] keptNew = new boolean[m];
+        for (int j = length > 0 ? tails[length - 1] : -1; j >= 0; j = previous[j]) {
+            keptNew[j] = true;
+            keptOld[source[j]] = true;
+        }
+
+        Builder builder = new Builder();
+        // Removals from the end, so the positions before them are still valid.
+        for (int i = n - 1; i >= 0; ) {
+            if (keptOld[i]) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && !keptOld[i]) i--;
+            builder.add(REMOVE, i + 1, end - i);
+        }
+        // Only kept tasks remain, in order, so each new task is inserted at its final position.
+        for (int j = 0; j < m; ) {
+            if (!keptNew[j]) {
+                int start = j;
+                while (j < m && !keptNew[j]) j++;
+                builder.add(INSERT, start, j - start);
+            } else if (newHashes[j] != oldHashes[source[j]]) {
+                int start = j;
+                while (j < m && keptNew[j] && newHashes[j] != oldHashes[source[j]]) j++;
+                builder.add(CHANGE, start, j - start);
+            } else j++;
+        }
+        return new TaskListDiff(builder.toArray(), builder.size / 3);
+    }
+
+    /**
+     * The number of batched notifications of the difference.
+     * @return The number of operations.
+     */
+    public int getOperationCount() {
+        return size;
+    }
+
+    /**
+     * Sends the difference to a callback.
+     * @param callback    The callback.
+     */
+    public void dispatchUpdatesTo(UpdateCallback callback) {
+        for (int k = 0; k < operations.length; k += 3) {
+            switch (operations[k]) {
+                case INSERT: callback.onInserted(operations[k + 1], operations[k + 2]); break;
+                case REMOVE: callback.onRemoved(operations[k + 1], operations[k + 2]); break;
+                case CHANGE: callback.onChanged(operations[k + 1], operations[k + 2]);
+            }
+        }
+    }
+
+    /**
+     * Receives the changes of a list as ranges of positions.
+     */
+    public static interface UpdateCallback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+
+        void onMoved(int from, int to);
+    }
+
+    private static class Builder {
+        int[] data = new int[48];
+        int size;
+
+        void add(int type, int position, int count) {
+            if (size + 3 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            data[size++] = type;
+            data[size++] = position;
+            data[size++] = count;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.Date;
+
+/**
+ * Resolves concurrent changes of a task made on two replicas, field by field.
+ * A replica only knows which fields it changed since its last sync, by comparing the task with a
+ * fingerprint of the synced version; the fields it did not change keep the other version.
+ * Fields changed on both sides are resolved as follows:
+ * <ul>
+ *     <li>Name, details, priority, deadline, complexity and parent: the last replica to sync wins.</li>
+ *     <li>Progress: the highest one, since progress only moves forward.</li>
+ *     <li>Status: a completed task stays completed and a canceled one stays canceled,
+ *     completion winning over cancellation.</li>
+ *     <li>A removal loses against a concurrent edit, so no edit is lost.</li>
+ * </ul>
+ */
+public final class TaskMerge {
+
+    public static final int NAME = 1;
+    public static final int DETAILS = 1 << 1;
+    public static final int PROGRESS = 1 << 2;
+    public static final int STATUS = 1 << 3;
+    public static final int PRIORITY = 1 << 4;
+    public static final int DEADLINE = 1 << 5;
+    /**
+     * The complexity and the parent of the task, which are a single field, so the fingerprints kept
+     * by {@link SyncLog} before tasks had parents are still valid.
+     */
+    public static final int COMPLEX = 1 << 6;
+    /**
+     * Every field, for tasks without a synced version.
+     */
+    public static final int ALL = (1 << 7) - 1;
+
+    private TaskMerge() {
+    }
+
+    /**
+     * Hashes each field of a task, to find out later which ones changed.
+     * @param task    The task.
+     * @return A hash per field, in the order of the field constants.
+     */
+    public static int[] fingerprint(TaskList.Task task) {
+        return new int[] {
+                hash(task.getName()),
+                hash(task.getDetails()),
+                task.getCompleted(),
+                statusRank(task),
+                task.getPriority().ordinal(),
+                task.getDeadline() == null ? 0 : task.getDeadline().hashCode() | 1,
+                structure(task)
+        };
+    }
+
+    /**
+     * The fields of a task which differ from a fingerprint.
+     * @param base    The fingerprint of the synced version, or null if there is none.
+     * @param task    The task, or null if it was removed.
+     * @return A mask of field constants.
+     */
+    public static int changedFields(int[] base, TaskList.Task task) {
+        if (base == null || task == null) return ALL;
+        int[] current = fingerprint(task);
+        int changed = 0;
+        for (int i = 0; i < current.length; i++) if (current[i] != base[i]) changed |= 1 << i;
+        return changed;
+    }
+
+    /**
+     * Merges two concurrent versions of a task.
+     * @param theirs     The version of the other replica, or null if it removed the task.
+     * @param mine       The version of this replica, or null if it removed the task.
+     * @param changed    The fields this replica changed since its last sync.
+     * @return A new task with the merged values, or null if the task stays removed.
+     */
+    public static TaskList.Task merge(TaskList.Task theirs, TaskList.Task mine, int changed) {
+        if (mine == null) return theirs == null ? null : new TaskList.Task(theirs);
+        if (theirs == null) return new TaskList.Task(mine);
+        TaskList.Task merged = new TaskList.Task(theirs);
+        if ((changed & NAME) != 0) merged.setName(mine.getName());
+        if ((changed & DETAILS) != 0) merged.setDetails(mine.getDetails());
+        if ((changed & PROGRESS) != 0) merged.setCompleted(Math.max(theirs.getCompleted(), mine.getCompleted()));
+        if ((changed & STATUS) != 0 && statusRank(mine) > statusRank(theirs)) merged.setStatus(mine.getStatus());
+        if ((changed & PRIORITY) != 0) merged.setPriority(mine.getPriority());
+        if ((changed & DEADLINE) != 0) merged.setDeadline(mine.getDeadline());
+        if ((changed & COMPLEX) != 0) {
+            merged.setComplex(mine.isComplex());
+            merged.setParentId(mine.getParentId());
+        }
+        return merged;
+    }
+
+    /**
+     * A copy of a task with another id.
+     * @param task    The task.
+     * @param id      The new id.
+     * @return The copy.
+     */
+    public static TaskList.Task withId(TaskList.Task task, long id) {
+        Date deadline = task.getDeadline() == null ? null : new Date(task.getDeadline().getTime());
+        TaskList.Task copy = new TaskList.Task(id, task.getName(), task.getDetails(), task.getPriority(), deadline, task.isComplex());
+        copy.setCompleted(task.getCompleted());
+        copy.setStatus(task.getStatus());
+        copy.setParentId(task.getParentId());
+        return copy;
+    }
+
+    /**
+     * Pending tasks rank lowest and completed ones highest.
+     */
+    private static int statusRank(TaskList.Task task) {
+        if (task.getStatus() instanceof TaskList.CompletedTask) return 2;
+        if (task.getStatus() instanceof TaskList.CanceledTask) return 1;
+        return 0;
+    }
+
+    /**
+     * The complexity, and the parent of a subtask. A task which is not a subtask hashes as it did before.
+     */
+    private static int structure(TaskList.Task task) {
+        int h = task.isComplex() ? 1 : 0;
+        if (!task.isSubtask()) return h;
+        long parent = task.getParentId();
+        return h | 2 | (int) (parent ^ (parent >>> 32)) << 2;
+    }
+
+    private static int hash(String s) {
+        return s == null ? 0 : s.hashCode();
+    }
+}
@@ -0,0 +1,168 @@
+package es.uah.cc.todomanager.domain;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An order of the tasks by several keys: the first key decides, the next one breaks its ties, and so on.
+ * Tasks equal by every key keep the order they were created in, so the order is stable and total.
+ * Names are compared with the collation of a locale; their collation keys are cached per task.
+ */
+public class TaskOrder implements Comparator<TaskList.Task> {
+
+    /**
+     * The keys to order by. Each one has a natural direction which can be reversed.
+     */
+    public static enum Key {
+        /**
+         * Higher priorities first.
+         */
+        PRIORITY,
+        /**
+         * Nearer deadlines first; tasks without deadline at the end.
+         */
+        DEADLINE,
+        /**
+         * Less completed tasks first.
+         */
+        PROGRESS,
+        /**
+         * Pending tasks first, then completed and canceled ones.
+         */
+        STATUS,
+        /**
+         * Names in alphabetical order.
+         */
+        NAME
+    }
+
+    private final Key[] keys;
+    private final boolean[] reversed;
+    private final Collator collator;
+    /**
+     * The collation key of the name of each task, by id. Guarded by itself, since the view
+     * may sort a copy of the list in background while it repositions rows on the main thread.
+     */
+    private final Map<Long, NameKey> nameKeys = new HashMap<Long, NameKey>();
+
+    /**
+     * Constructor.
+     * @param locale      The locale to compare names in.
+     * @param keys        The keys to order by, most significant first.
+     * @param reversed    Whether each key is in the opposite of its natural direction.
+     */
+    public TaskOrder(Locale locale, Key[] keys, boolean[] reversed) {
+        if (keys.length != reversed.length) throw new IllegalArgumentException("A direction for each key is needed");
+        this.keys = keys.clone();
+        this.reversed = reversed.clone();
+        collator = Collator.getInstance(locale);
+    }
+
+    /**
+     * Builds an order from its description: the names of the keys separated by commas,
+     * each one preceded by a minus sign if it is reversed, as "priority,deadline,-progress".
+     * @param spec      The description of the order.
+     * @param locale    The locale to compare names in.
+     * @return The order, or null if the description has no keys, which stands for the order of the list.
+     */
+    public static TaskOrder parse(String spec, Locale locale) {
+        if (spec == null) return null;
+        List<Key> keys = new ArrayList<Key>();
+        List<Boolean> reversed = new ArrayList<Boolean>();
+        for (String part : spec.split(",")) {
+            String name = part.trim();
+            if (name.isEmpty()) continue;
+            boolean minus = name.startsWith("-");
+            if (minus) name = name.substring(1).trim();
+            try {
+                keys.add(Key.valueOf(name.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown sort key: " + name);
+            }
+            reversed.add(minus);
+        }
+        if (keys.isEmpty()) return null;
+        boolean[] directions = new boolean[reversed.size()];
+        for (int i = 0; i < directions.length; i++) directions[i] = reversed.get(i);
+        return new TaskOrder(locale, keys.toArray(new Key[keys.size()]), directions);
+    }
+
+    @Override
+    public int compare(TaskList.Task a, TaskList.Task b) {
+        if (a == b) return 0;
+        for (int i = 0; i < keys.length; i++) {
+            int c = compare(keys[i], a, b);
+            if (c != 0) return reversed[i] ? -c : c;
+        }
+        return a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1;
+    }
+
+    private int compare(Key key, TaskList.Task a, TaskList.Task b) {
+        switch (key) {
+            case PRIORITY: return a.getPriority().ordinal() - b.getPriority().ordinal();
+            case DEADLINE:
+                if (a.getDeadline() == null) return b.getDeadline() == null ? 0 : 1;
+                if (b.getDeadline() == null) return -1;
+                return a.getDeadline().compareTo(b.getDeadline());
+            case PROGRESS: return a.getCompleted() - b.getCompleted();
+            case STATUS: return statusRank(a) - statusRank(b);
+            case NAME: return nameKey(a).compareTo(nameKey(b));
+            default: throw new IllegalStateException();
+        }
+    }
+
+    private static int statusRank(TaskList.Task task) {
+        if (task.getStatus() instanceof TaskList.CompletedTask) return 1;
+        if (task.getStatus() instanceof TaskList.CanceledTask) return 2;
+        return 0;
+    }
+
+    /**
+     * The collation key of the name of a task, computed again only when the name changes.
+     */
+    private CollationKey nameKey(TaskList.Task task) {
+        String name = task.getName() == null ? "" : task.getName();
+        synchronized (nameKeys) {
+            NameKey cached = nameKeys.get(task.getId());
+            if (cached != null && cached.name.equals(name)) return cached.key;
+            CollationKey key = collator.getCollationKey(name);
+            nameKeys.put(task.getId(), new NameKey(name, key));
+            return key;
+        }
+    }
+
+    /**
+     * Drops the cached data of a task which is no longer in the list.
+     * @param id    The id of the task.
+     */
+    void forget(long id) {
+        synchronized (nameKeys) {
+            nameKeys.remove(id);
+        }
+    }
+
+    /**
+     * The number of cached collation keys.
+     */
+    int cachedKeys() {
+        synchronized (nameKeys) {
+            return nameKeys.size();
+        }
+    }
+
+    private static class NameKey {
+        final String name;
+        final CollationKey key;
+
+        NameKey(String name, CollationKey key) {
+            this.name = name;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package es.uah.cc.todomanager.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Changes the tasks off the main thread.
+ * Every change is a command run on a single writer thread against a task list which owns the storage,
+ * so changes are applied and stored one at a time and in order. After each command the writer publishes
+ * an immutable snapshot, which any thread can read without locks, and the main thread mirrors the
+ * changes on the list the screens observe before receiving the result.
+ * Snapshots are persistent structures: a new version copies the paths it changes and shares the rest,
+ * so publishing it costs O(log n) time and memory and old versions stay valid while they are read.
+ * <p>
+ * The changes made through {@link #addTask}, {@link #setTask}, {@link #removeTask} and {@link #applyBatch}
+ * are the changes of the user, so each one is a step of a {@link TaskJournal} which {@link #undo} and
+ * {@link #redo} go through. Other commands, as the ones of a sync, are not journaled.
+ */
+public class TaskRepository {
+
+    private final TaskList store;
+    private final TaskList replica;
+    private final Executor writer;
+    private final Executor main;
+    /**
+     * The steps to undo. It is only used on the writer thread.
+     */
+    private final TaskJournal journal = new TaskJournal();
+    private volatile Snapshot snapshot = new Snapshot(0, PersistentTaskVector.EMPTY, PersistentTaskMap.EMPTY);
+    private volatile ErrorListener errorListener;
+    /**
+     * Whether the stored tasks are on the replica. It is only used on the main thread.
+     */
+    private boolean loaded;
+    /**
+     * The actions waiting for the stored tasks. They are only used on the main thread.
+     */
+    private final List<Runnable> loadActions = new ArrayList<Runnable>();
+    /**
+     * The changes of the store made by the running command. It is only used on the writer thread.
+     */
+    private final List<Change> changes = new ArrayList<Change>();
+    /**
+     * The tasks of the store in order and by id, as of the running command. They are only used on the writer thread.
+     */
+    private PersistentTaskVector ordered = PersistentTaskVector.EMPTY;
+    private PersistentTaskMap byId = PersistentTaskMap.EMPTY;
+
+    /**
+     * Constructor. The stored tasks are loaded on the writer and then added to the replica.
+     * @param storage    The storage.
+     * @param replica    The list to mirror the changes on. It must only be used from the main thread.
+     * @param writer     A single threaded executor to run the commands on.
+     * @param main       The executor of the main thread.
+     */
+    public TaskRepository(TaskStorage storage, TaskList replica, Executor writer, Executor main) {
+        this.store = new TaskList(storage);
+        this.replica = replica;
+        this.writer = writer;
+        this.main = main;
+        // The store rolls up the progress and removes the subtasks; the replica receives those changes.
+        replica.setMirror(true);
+        store.addObserver(new ChangeRecorder());
+        store.setJournal(journal);
+        submit(new Command<RuntimeException>() {
+            @Override
+            public RuntimeException run(TaskList tasks) {
+                List<TaskList.Task> stored;
+                try {
+                    stored = tasks.getTasks();
+                } catch (RuntimeException e) {
+                    return e;
+                }
+                // The replica receives them as a single batch, so its views are refreshed once.
+                Change load = new Change(Change.LOAD, null, 0);
+                for (TaskList.Task t : stored) {
+                    ordered = ordered.plus(t);
+                    byId = byId.put(t);
+                    load.updated.add(new TaskList.Task(t));
+                }
+                if (!stored.isEmpty()) changes.add(load);
+                return null;
+            }
+        }, new Callback<RuntimeException>() {
+            @Override
+            public void onResult(RuntimeException error) {
+                // The actions run even if the storage could not be read, so none waits forever,
+                // as a broadcast kept alive until they run.
+                loaded = true;
+                List<Runnable> actions = new ArrayList<Runnable>(loadActions);
+                loadActions.clear();
+                for (Runnable action : actions) action.run();
+                if (error != null) report(error);
+            }
+        });
+    }
+
+    /**
+     * Whether the stored tasks have been loaded and are on the replica, or could not be read.
+     * Until then the replica may lack tasks which exist. It must be called from the main thread.
+     * @return True once they are.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Runs an action on the main thread once the stored tasks are on the replica: at once if they
+     * are already, or after they are loaded or fail to load. It must be called from the main thread.
+     * An action which looks tasks up by id, as one which restores a screen after the process was
+     * killed, waits for them so as not to take a missing task for a removed one.
+     * @param action    The action.
+     */
+    public void whenLoaded(Runnable action) {
+        if (loaded) action.run();
+        else loadActions.add(action);
+    }
+
+    /**
+     * Sets the listener of the errors of the commands.
+     * If there is none, errors are thrown on the main thread.
+     * @param listener    The listener.
+     */
+    public void setErrorListener(ErrorListener listener) {
+        errorListener = listener;
+    }
+
+    /**
+     * The last published version of the tasks. It can be called from any thread.
+     * @return The snapshot.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Runs a command on the writer thread.
+     * The tasks the command reads are shared with the snapshots, so they must not be modified;
+     * the command publishes modified copies with {@link TaskList#setTask(TaskList.Task)}.
+     * @param command     The command.
+     * @param callback    The callback to receive the result on the main thread, or null.
+     */
+    public <T> void submit(final Command<T> command, final Callback<T> callback) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                RuntimeException error = null;
+                try {
+                    result = command.run(store);
+                } catch (RuntimeException e) {
+                    // Changes made before the error are still published.
+                    error = e;
+                }
+                final List<Change> applied = new ArrayList<Change>(changes);
+                changes.clear();
+                if (!applied.isEmpty()) snapshot = new Snapshot(snapshot.getVersion() + 1, ordered, byId);
+                final T r = result;
+                final RuntimeException e = error;
+                main.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Change c : applied) c.applyTo(replica);
+                        if (e != null) report(e);
+                        else if (callback != null) callback.onResult(r);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reports the error of a command on the main thread, to the listener or by throwing it if there is none.
+     */
+    private void report(RuntimeException e) {
+        if (errorListener == null) throw e;
+        errorListener.onError(e);
+    }
+
+    /**
+     * Undoes the last change of the user.
+     * @param callback    Receives whether it was undone, or null. It is not when later changes
+     *                    of the same tasks, as a sync, made it stale, or when there was none.
+     */
+    public void undo(Callback<Boolean> callback) {
+        submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(TaskList tasks) {
+                return journal.undo(tasks);
+            }
+        }, callback);
+    }
+
+    /**
+     * Redoes the last change undone.
+     * @param callback    Receives whether it was redone, or null.
+     */
+    public void redo(Callback<Boolean> callback) {
+        submit(new Command<Boolean>() {
+            @Override
+            public Boolean run(TaskList tasks) {
+                return journal.redo(tasks);
+            }
+        }, callback);
+    }
+
+    /**
+     * Runs a change of the user as a step of the journal.
+     */
+    private <T> Command<T> journaled(final Command<T> command) {
+        return new Command<T>() {
+            @Override
+            public T run(TaskList tasks) {
+                journal.begin();
+                try {
+                    return command.run(tasks);
+                } finally {
+                    journal.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a new task.
+     * @param task        The task to add. It is not modified.
+     * @param callback    Receives the added task, with its id, or null.
+     */
+    public void addTask(final TaskList.Task task, final Callback<TaskList.Task> callback) {
+        final TaskList.Task draft = new TaskList.Task(task);
+        submit(journaled(new Command<TaskList.Task>() {
+            @Override
+            public TaskList.Task run(TaskList tasks) {
+                tasks.addTask(draft);
+                return tasks.getTasks().get(tasks.getTasks().size() - 1);
+            }
+        }), callback == null ? null : new Callback<TaskList.Task>() {
+            @Override
+            public void onResult(TaskList.Task added) {
+                // The task of the replica, which the screens use.
+                callback.onResult(replica.getTask(added.getId()));
+            }
+        });
+    }
+
+    /**
+     * Updates a task.
+     * @param task        The new version of the task. It is not modified.
+     * @param callback    Receives whether the task was in the list, or null.
+     */
+    public void setTask(TaskList.Task task, Callback<Boolean> callback) {
+        final TaskList.Task copy = new TaskList.Task(task);
+        submit(journaled(new Command<Boolean>() {
+            @Override
+            public Boolean run(TaskList tasks) {
+                return tasks.setTask(copy);
+            }
+        }), callback);
+    }
+
+    /**
+     * Removes a task.
+     * @param id          The id of the task.
+     * @param callback    Receives whether the task was in the list, or null.
+     */
+    public void removeTask(final long id, Callback<Boolean> callback) {
+        submit(journaled(new Command<Boolean>() {
+            @Override
+            public Boolean run(TaskList tasks) {
+                return tasks.removeTask(id);
+            }
+        }), callback);
+    }
+
+    /**
+     * Updates and removes several tasks as one transaction, with a single write of the storage
+     * and a single notification of the views of the replica.
+     * @param updated     The new versions of the tasks, as completed or canceled copies. They are not modified.
+     * @param removed     The ids of the tasks to remove.
+     * @param callback    Receives the number of tasks updated or removed, or null.
+     */
+    public void applyBatch(Collection<TaskList.Task> updated, Collection<Long> removed, Callback<Integer> callback) {
+        final List<TaskList.Task> copies = new ArrayList<TaskList.Task>(updated.size());
+        for (TaskList.Task t : updated) copies.add(new TaskList.Task(t));
+        final List<Long> ids = new ArrayList<Long>(removed);
+        submit(journaled(new Command<Integer>() {
+            @Override
+            public Integer run(TaskList tasks) {
+                return tasks.applyBatch(copies, ids);
+            }
+        }), callback);
+    }
+
+    /**
+     * Records the changes of the store, to mirror them on the replica.
+     */
+    private class ChangeRecorder implements TaskList.TaskListObserver {
+        /**
+         * The changes of the batch being notified, or null.
+         */
+        private Change batch;
+
+        @Override
+        public void onTaskAdded(TaskList.Task task, int position) {
+            ordered = ordered.plus(position, task);
+            byId = byId.put(task);
+            changes.add(new Change(Change.PUT, new TaskList.Task(task), 0));
+            // The replica adds it at the end; restored tasks go back to where they were.
+            if (position < ordered.size() - 1) changes.add(new Change(Change.MOVE, task, position));
+        }
+
+        @Override
+        public void onTaskUpdated(TaskList.Task task, int position) {
+            ordered = ordered.with(position, task);
+            byId = byId.put(task);
+            if (batch != null) batch.updated.add(new TaskList.Task(task));
+            else changes.add(new Change(Change.PUT, new TaskList.Task(task), 0));
+        }
+
+        @Override
+        public void onTaskRemoved(TaskList.Task task, int position) {
+            ordered = ordered.minus(position);
+            byId = byId.remove(task.getId());
+            if (batch != null) batch.removed.add(task.getId());
+            else changes.add(new Change(Change.REMOVE, task, 0));
+        }
+
+        @Override
+        public void onTaskMoved(TaskList.Task task, int from, int to) {
+            ordered = ordered.minus(from).plus(to, task);
+            changes.add(new Change(Change.MOVE, task, to));
+        }
+
+        @Override
+        public void onBatchStarted() {
+            batch = new Change(Change.BATCH, null, 0);
+        }
+
+        @Override
+        public void onBatchFinished() {
+            changes.add(batch);
+            batch = null;
+        }
+    }
+
+    /**
+     * A change of the store to mirror on the replica.
+     */
+    private static class Change {
+        static final int PUT = 0;
+        static final int REMOVE = 1;
+        static final int MOVE = 2;
+        /**
+         * Several updates and removals, applied to the replica as a batch.
+         */
+        static final int BATCH = 3;
+        /**
+         * The stored tasks, added to the replica as a batch.
+         */
+        static final int LOAD = 4;
+
+        final int type;
+        final TaskList.Task task;
+        /**
+         * The new position of a moved task.
+         */
+        final int to;
+        final List<TaskList.Task> updated;
+        final List<Long> removed;
+
+        Change(int type, TaskList.Task task, int to) {
+            this.type = type;
+            this.task = task;
+            this.to = to;
+            updated = type == BATCH || type == LOAD ? new ArrayList<TaskList.Task>() : null;
+            removed = type == BATCH ? new ArrayList<Long>() : null;
+        }
+
+        void applyTo(TaskList replica) {
+            switch (type) {
+                case PUT: replica.putTask(task); break;
+                case REMOVE: replica.removeTask(task.getId()); break;
+                case MOVE: replica.moveTask(replica.indexOf(task.getId()), to); break;
+                case BATCH: replica.applyBatch(updated, removed); break;
+                case LOAD: replica.putTasks(updated);
+            }
+        }
+    }
+
+    /**
+     * An immutable version of the tasks. Taking it, and reading it from any thread, needs no copy nor lock.
+     */
+    public static class Snapshot {
+        private final long version;
+        private final PersistentTaskVector tasks;
+        private final PersistentTaskMap byId;
+
+        Snapshot(long version, PersistentTaskVector tasks, PersistentTaskMap byId) {
+            this.version = version;
+            this.tasks = tasks;
+            this.byId = byId;
+        }
+
+        /**
+         * The number of the version. It grows with each command which changes the tasks.
+         * @return The version.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * The tasks, in the order of the list. They must not be modified.
+         * @return An unmodifiable list. Access by position is O(log n); iterating is O(1) per task.
+         */
+        public List<TaskList.Task> getTasks() {
+            return tasks;
+        }
+
+        /**
+         * Gets a task by id.
+         * @param id    The id.
+         * @return The task or null if there was no such task.
+         */
+        public TaskList.Task getTask(long id) {
+            return byId.get(id);
+        }
+
+        public int size() {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * A change of the tasks, run on the writer thread.
+     */
+    public static interface Command<T> {
+        /**
+         * Runs the command.
+         * @param tasks    The list to change.
+         * @return The result for the callback.
+         */
+        T run(TaskList tasks);
+    }
+
+    /**
+     * Receives the result of a command on the main thread, after the replica has been updated.
+     */
+    public static interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Receives the errors of the commands on the main thread.
+     */
+    public static interface ErrorListener {
+        void onError(RuntimeException e);
+    }
+}
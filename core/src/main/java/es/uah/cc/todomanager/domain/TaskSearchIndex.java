@@ -0,0 +1,467 @@
+package es.uah.cc.todomanager.domain;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index over the names and details of the tasks of a list, kept up to date as an observer.
+ * Text is split in words which are lower cased and folded to their base letters, so "Redacción"
+ * is found by "redaccion". Every word of a query must match the start of a word of the task;
+ * tasks are ranked by how rare the matched words are, whether they are in the name and whether
+ * they match whole.
+ * The index is changed on the thread of the list, but it can be queried by ids from any thread.
+ */
+public class TaskSearchIndex implements TaskList.TaskListObserver {
+
+    /**
+     * How much more a word of the name weighs than a word of the details.
+     */
+    private static final int NAME_WEIGHT = 3;
+    /**
+     * How much less a word weighs when the query only matches its start.
+     */
+    private static final float PREFIX_FACTOR = 0.5f;
+
+    private final TaskList tasks;
+    /**
+     * The tasks of each word, sorted by word to find the words starting by a prefix.
+     */
+    private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+    /**
+     * The indexed text of each task, to remove its words when it changes.
+     */
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+    /**
+     * Queries from other threads read while the list thread is not changing the index.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Lets a query stop early when its results are not wanted any more.
+     */
+    public interface Cancellation {
+        boolean isCancelled();
+    }
+
+    /**
+     * Constructor. The tasks of the list are indexed and the index observes its changes.
+     * @param tasks    The task list.
+     */
+    public TaskSearchIndex(TaskList tasks) {
+        this.tasks = tasks;
+        lock.writeLock().lock();
+        try {
+            for (TaskList.Task t : tasks.getTasks()) index(t);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        tasks.addObserver(this);
+    }
+
+    /**
+     * Stops observing the list.
+     */
+    public void detach() {
+        tasks.removeObserver(this);
+    }
+
+    /**
+     * The number of different words.
+     * @return The number of words.
+     */
+    public int getWordCount() {
+        lock.readLock().lock();
+        try {
+            return words.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks for the tasks which match a query. Called on the thread of the list.
+     * @param query    The words to look for.
+     * @param limit    The maximum number of results.
+     * @return The best matches first. Empty if the query has no words.
+     */
+    public List<TaskList.Task> search(String query, int limit) {
+        long[] ids = searchIds(query, limit, null);
+        List<TaskList.Task> result = new ArrayList<TaskList.Task>(ids.length);
+        for (long id : ids) result.add(tasks.getTask(id));
+        return result;
+    }
+
+    /**
+     * Looks for the ids of the tasks which match a query. It may be called on any thread.
+     * @param query           The words to look for.
+     * @param limit           The maximum number of results.
+     * @param cancellation    Checked while the query runs, or null.
+     * @return The ids of the best matches first, or null if the query was cancelled.
+     */
+    public long[] searchIds(String query, int limit, Cancellation cancellation) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) return new long[0];
+        lock.readLock().lock();
+        try {
+            return searchIds(tokens, limit, cancellation);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long[] searchIds(List<String> tokens, int limit, Cancellation cancellation) {
+        List<Match> matches = new ArrayList<Match>(tokens.size());
+        for (String token : tokens) {
+            Match m = new Match(token, words.subMap(token, token + Character.MAX_VALUE));
+            // No task can match every word.
+            if (m.size == 0) return new long[0];
+            matches.add(m);
+        }
+        // The rarest word gives the candidates; the rest only filter and score them.
+        Collections.sort(matches);
+        Candidates candidates = matches.get(0).collect(entries.size());
+        for (int i = 1; i < matches.size() && candidates.size > 0; i++) {
+            if (cancellation != null && cancellation.isCancelled()) return null;
+            candidates = matches.get(i).filter(candidates);
+        }
+        if (cancellation != null && cancellation.isCancelled()) return null;
+
+        PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(Math.min(limit, Math.max(1, candidates.size)));
+        for (int i = 0; i < candidates.size; i++) {
+            if (best.size() < limit) best.add(new Candidate(candidates.ids[i], candidates.scores[i]));
+            else if (best.peek().isBelow(candidates.ids[i], candidates.scores[i])) {
+                best.poll();
+                best.add(new Candidate(candidates.ids[i], candidates.scores[i]));
+            }
+        }
+        long[] result = new long[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) result[i] = best.poll().id;
+        return result;
+    }
+
+    /**
+     * Splits a text in folded words: lower case letters and digits without accents.
+     * The compatibility decomposition also folds ordinals, ligatures and full width forms.
+     * @param text    The text.
+     * @return The words, in order.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        if (text == null) return tokens;
+        if (!isAscii(text)) text = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) token.append(Character.toLowerCase(c));
+            else if (!isMark(c) && token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) tokens.add(token.toString());
+        return tokens;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) if (text.charAt(i) >= 0x80) return false;
+        return true;
+    }
+
+    /**
+     * Whether a character is a combining mark, as the accents split from their letters.
+     */
+    private static boolean isMark(char c) {
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK;
+    }
+
+    private void index(TaskList.Task task) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String w : tokenize(task.getName())) add(weights, w, NAME_WEIGHT);
+        for (String w : tokenize(task.getDetails())) add(weights, w, 1);
+        String[] taskWords = new String[weights.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+            Postings postings = words.get(e.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                // The word is kept once, shared by the map and the entries.
+                words.put(e.getKey(), postings);
+            }
+            postings.put(task.getId(), e.getValue());
+            taskWords[i++] = e.getKey();
+        }
+        entries.put(task.getId(), new Entry(task.getName(), task.getDetails(), taskWords));
+    }
+
+    private static void add(Map<String, Integer> weights, String word, int weight) {
+        Integer current = weights.get(word);
+        weights.put(word, current == null ? weight : current + weight);
+    }
+
+    private void unindex(long id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) return;
+        for (String w : entry.words) {
+            Postings postings = words.get(w);
+            postings.remove(id);
+            if (postings.size == 0) words.remove(w);
+        }
+    }
+
+    @Override
+    public void onTaskAdded(TaskList.Task task, int position) {
+        lock.writeLock().lock();
+        try {
+            index(task);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onTaskUpdated(TaskList.Task task, int position) {
+        // Most updates change the progress or the status, not the text. Only this thread writes the entries.
+        Entry entry = entries.get(task.getId());
+        if (entry != null && same(entry.name, task.getName()) && same(entry.details, task.getDetails())) return;
+        lock.writeLock().lock();
+        try {
+            unindex(task.getId());
+            index(task);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public void onTaskRemoved(TaskList.Task task, int position) {
+        lock.writeLock().lock();
+        try {
+            unindex(task.getId());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onTaskMoved(TaskList.Task task, int from, int to) {
+        // The order of the list does not change the text.
+    }
+
+    /**
+     * Queries wait for the whole batch, instead of taking turns with each change.
+     */
+    @Override
+    public void onBatchStarted() {
+        lock.writeLock().lock();
+    }
+
+    @Override
+    public void onBatchFinished() {
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * The text of a task when it was indexed and its words.
+     */
+    private static class Entry {
+        final String name;
+        final String details;
+        final String[] words;
+
+        Entry(String name, String details, String[] words) {
+            this.name = name;
+            this.details = details;
+            this.words = words;
+        }
+    }
+
+    /**
+     * The words which match a word of a query.
+     */
+    private class Match implements Comparable<Match> {
+        final Postings[] postings;
+        /**
+         * The score of a unit of weight of each word: rarer words and whole words score higher.
+         */
+        final float[] factors;
+        /**
+         * The number of postings of the words, an upper bound of the tasks which match.
+         */
+        int size;
+
+        Match(String token, SortedMap<String, Postings> range) {
+            postings = new Postings[range.size()];
+            factors = new float[postings.length];
+            int i = 0;
+            for (Map.Entry<String, Postings> e : range.entrySet()) {
+                Postings p = e.getValue();
+                float idf = (float) Math.log(1 + (double) entries.size() / p.size);
+                postings[i] = p;
+                factors[i++] = idf * (e.getKey().length() == token.length() ? 1 : PREFIX_FACTOR);
+                size += p.size;
+            }
+        }
+
+        /**
+         * The tasks which have any of the words, with their best score.
+         */
+        Candidates collect(int capacity) {
+            Candidates c = new Candidates(Math.min(size, capacity));
+            // The slot of each task in the candidates, plus one, when several words may repeat it.
+            Postings slots = postings.length > 1 ? new Postings() : null;
+            for (int i = 0; i < postings.length; i++) {
+                Postings p = postings[i];
+                for (int j = 0; j < p.keys.length; j++) {
+                    if (p.values[j] == 0) continue;
+                    float s = p.values[j] * factors[i];
+                    int slot = slots == null ? 0 : slots.get(p.keys[j]);
+                    if (slot == 0) {
+                        if (slots != null) slots.put(p.keys[j], c.size + 1);
+                        c.add(p.keys[j], s);
+                    } else c.scores[slot - 1] = Math.max(c.scores[slot - 1], s);
+                }
+            }
+            return c;
+        }
+
+        /**
+         * Keeps the candidates which have any of the words, adding their best score.
+         */
+        Candidates filter(Candidates candidates) {
+            Candidates kept = new Candidates(candidates.size);
+            for (int k = 0; k < candidates.size; k++) {
+                float best = 0;
+                for (int i = 0; i < postings.length; i++) {
+                    int weight = postings[i].get(candidates.ids[k]);
+                    if (weight > 0) best = Math.max(best, weight * factors[i]);
+                }
+                if (best > 0) kept.add(candidates.ids[k], candidates.scores[k] + best);
+            }
+            return kept;
+        }
+
+        @Override
+        public int compareTo(Match o) {
+            return size < o.size ? -1 : size == o.size ? 0 : 1;
+        }
+    }
+
+    /**
+     * Tasks matched so far and their scores.
+     */
+    private static class Candidates {
+        long[] ids;
+        float[] scores;
+        int size;
+
+        Candidates(int capacity) {
+            ids = new long[Math.max(capacity, 4)];
+            scores = new float[ids.length];
+        }
+
+        void add(long id, float score) {
+            ids[size] = id;
+            scores[size++] = score;
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        final long id;
+        final float score;
+
+        Candidate(long id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        boolean isBelow(long id, float score) {
+            return this.score != score ? this.score < score : this.id > id;
+        }
+
+        /**
+         * Higher scores first, then older tasks.
+         */
+        @Override
+        public int compareTo(Candidate o) {
+            if (score != o.score) return score < o.score ? -1 : 1;
+            return id < o.id ? 1 : id == o.id ? 0 : -1;
+        }
+    }
+
+    /**
+     * The weights of a word in the tasks which have it, as an open addressing hash table from
+     * task id to weight. Empty slots have weight 0.
+     */
+    private static class Postings {
+        long[] keys = new long[4];
+        int[] values = new int[4];
+        int size;
+
+        private int slot(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (keys.length - 1);
+        }
+
+        int get(long id) {
+            for (int i = slot(id); values[i] != 0; i = (i + 1) & (keys.length - 1))
+                if (keys[i] == id) return values[i];
+            return 0;
+        }
+
+        void put(long id, int weight) {
+            if ((size + 1) * 2 > keys.length) grow();
+            int i = slot(id);
+            for (; values[i] != 0; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == id) {
+                    values[i] = weight;
+                    return;
+                }
+            }
+            keys[i] = id;
+            values[i] = weight;
+            size++;
+        }
+
+        void remove(long id) {
+            int mask = keys.length - 1;
+            int i = slot(id);
+            while (values[i] != 0 && keys[i] != id) i = (i + 1) & mask;
+            if (values[i] == 0) return;
+            values[i] = 0;
+            size--;
+            // Moves back the following entries of the run which would not be found past the gap.
+            for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = 0;
+                    i = j;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) if (oldValues[i] != 0) put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A persistent store for the tasks of a {@link TaskList}.
+ */
+public interface TaskStorage {
+
+    /**
+     * Loads every stored task.
+     * @return The tasks in insertion order.
+     * @throws IOException If the storage can not be read.
+     */
+    List<TaskList.Task> load() throws IOException;
+
+    /**
+     * Writes a task, replacing any previous version with the same id.
+     * @param task    The task to write.
+     * @throws IOException If the task could not be written.
+     */
+    void write(TaskList.Task task) throws IOException;
+
+    /**
+     * Removes a task.
+     * @param id    The id of the task to remove.
+     * @throws IOException If the removal could not be written.
+     */
+    void remove(long id) throws IOException;
+
+    /**
+     * Writes several tasks and removes others as a single change: a storage interrupted while
+     * writing it keeps either all of the change or none of it.
+     * @param written    The tasks to write, replacing their previous versions.
+     * @param removed    The ids of the tasks to remove.
+     * @throws IOException If the change could not be written.
+     */
+    void writeBatch(List<TaskList.Task> written, List<Long> removed) throws IOException;
+
+    /**
+     * Moves a task to another position of the stored order.
+     * @param id          The id of the task.
+     * @param position    Its new position among the stored tasks.
+     * @throws IOException If the move could not be written.
+     */
+    void move(long id, int position) throws IOException;
+
+    /**
+     * Whether the storage would benefit from a compaction.
+     * @return True if {@link #compact(List)} should be called.
+     */
+    boolean needsCompaction();
+
+    /**
+     * Replaces the stored data with the introduced tasks. It is also used to store a new order.
+     * @param tasks    Every live task, in insertion order.
+     * @throws IOException If the tasks could not be written.
+     */
+    void compact(List<TaskList.Task> tasks) throws IOException;
+
+    /**
+     * An unchecked exception to report storage failures from the task list.
+     */
+    public static class StorageException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StorageException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package es.uah.cc.todomanager.domain;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A version vector: for each replica, the number of changes of a task made on it.
+ * Two versions of a task are ordered when one vector dominates the other, and concurrent
+ * when they were changed on different replicas which had not seen each other's changes.
+ * Vectors are immutable. A task is changed on a few replicas, so they are kept as sorted arrays.
+ */
+public final class VersionVector {
+
+    /**
+     * The version of a task nobody changed.
+     */
+    public static final VersionVector EMPTY = new VersionVector(new long[0], new long[0]);
+
+    /**
+     * How a version relates to another one.
+     */
+    public static enum Order {
+        EQUAL,
+        /**
+         * The other version includes every change of this one and more.
+         */
+        BEFORE,
+        /**
+         * This version includes every change of the other one and more.
+         */
+        AFTER,
+        /**
+         * Each version has changes the other one has not seen.
+         */
+        CONCURRENT
+    }
+
+    /**
+     * The ids of the replicas, in ascending order.
+     */
+    private final long[] replicas;
+    private final long[] counters;
+
+    private VersionVector(long[] replicas, long[] counters) {
+        this.replicas = replicas;
+        this.counters = counters;
+    }
+
+    /**
+     * The number of changes made on a replica.
+     * @param replica    The id of the replica.
+     * @return The counter of the replica, 0 if it made no change.
+     */
+    public long get(long replica) {
+        int i = Arrays.binarySearch(replicas, replica);
+        return i < 0 ? 0 : counters[i];
+    }
+
+    /**
+     * Counts a change made on a replica.
+     * @param replica    The id of the replica.
+     * @return The new version.
+     */
+    public VersionVector increment(long replica) {
+        int i = Arrays.binarySearch(replicas, replica);
+        if (i >= 0) {
+            long[] c = counters.clone();
+            c[i]++;
+            return new VersionVector(replicas, c);
+        }
+        i = -(i + 1);
+        long[] r = new long[replicas.length + 1];
+        long[] c = new long[replicas.length + 1];
+        System.arraycopy(replicas, 0, r, 0, i);
+        System.arraycopy(counters, 0, c, 0, i);
+        r[i] = replica;
+        c[i] = 1;
+        System.arraycopy(replicas, i, r, i + 1, replicas.length - i);
+        System.arraycopy(counters, i, c, i + 1, counters.length - i);
+        return new VersionVector(r, c);
+    }
+
+    /**
+     * The least version which includes the changes of both.
+     * @param other    The other version.
+     * @return The maximum counter of each replica.
+     */
+    public VersionVector merge(VersionVector other) {
+        long[] r = new long[replicas.length + other.replicas.length];
+        long[] c = new long[r.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < replicas.length || j < other.replicas.length) {
+            if (j == other.replicas.length || i < replicas.length && replicas[i] < other.replicas[j]) {
+                r[n] = replicas[i];
+                c[n++] = counters[i++];
+            } else if (i == replicas.length || other.replicas[j] < replicas[i]) {
+                r[n] = other.replicas[j];
+                c[n++] = other.counters[j++];
+            } else {
+                r[n] = replicas[i];
+                c[n++] = Math.max(counters[i++], other.counters[j++]);
+            }
+        }
+        return new VersionVector(Arrays.copyOf(r, n), Arrays.copyOf(c, n));
+    }
+
+    /**
+     * Compares this version with another one.
+     * @param other    The other version.
+     * @return The order of this version relative to the other one.
+     */
+    public Order compare(VersionVector other) {
+        boolean less = false;
+        boolean greater = false;
+        int i = 0;
+        int j = 0;
+        while (i < replicas.length || j < other.replicas.length) {
+            long a;
+            long b;
+            if (j == other.replicas.length || i < replicas.length && replicas[i] < other.replicas[j]) {
+                a = counters[i++];
+                b = 0;
+            } else if (i == replicas.length || other.replicas[j] < replicas[i]) {
+                a = 0;
+                b = other.counters[j++];
+            } else {
+                a = counters[i++];
+                b = other.counters[j++];
+            }
+            if (a < b) less = true;
+            else if (a > b) greater = true;
+        }
+        if (less) return greater ? Order.CONCURRENT : Order.BEFORE;
+        return greater ? Order.AFTER : Order.EQUAL;
+    }
+
+    /**
+     * Writes the version as the number of replicas and a pair of varints for each one.
+     * @param out    The output.
+     * @throws IOException If the output fails.
+     */
+    public void write(DataOutput out) throws IOException {
+        TaskCodec.writeVarLong(out, replicas.length);
+        for (int i = 0; i < replicas.length; i++) {
+            TaskCodec.writeVarLong(out, replicas[i]);
+            TaskCodec.writeVarLong(out, counters[i]);
+        }
+    }
+
+    /**
+     * Reads a version written by {@link #write(DataOutput)}.
+     * @param in    The input.
+     * @return The version.
+     * @throws IOException If the input fails or the version is malformed.
+     */
+    public static VersionVector read(DataInput in) throws IOException {
+        int size = (int) TaskCodec.readVarLong(in);
+        if (size == 0) return EMPTY;
+        if (size < 0 || size > 1024) throw new IOException("Malformed version vector");
+        long[] r = new long[size];
+        long[] c = new long[size];
+        for (int i = 0; i < size; i++) {
+            r[i] = TaskCodec.readVarLong(in);
+            c[i] = TaskCodec.readVarLong(in);
+            if (i > 0 && r[i] <= r[i - 1]) throw new IOException("Malformed version vector");
+        }
+        return new VersionVector(r, c);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VersionVector)) return false;
+        VersionVector other = (VersionVector) o;
+        return Arrays.equals(replicas, other.replicas) && Arrays.equals(counters, other.counters);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(replicas) + Arrays.hashCode(counters);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("{");
+        for (int i = 0; i < replicas.length; i++) {
+            if (i > 0) s.append(", ");
+            s.append(replicas[i]).append('=').append(counters[i]);
+        }
+        return s.append('}').toString();
+    }
+}
@@ -0,0 +1,105 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the deadline queries of {@link TaskList}.
+ */
+public class DeadlineIndexTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    /**
+     * The naive version of {@link TaskList#getTasksDueBetween(Date, Date)}.
+     */
+    private static List<TaskList.Task> scan(TaskList list, long from, long to) {
+        List<TaskList.Task> found = new ArrayList<TaskList.Task>();
+        for (TaskList.Task t : list.getTasks()) {
+            if (t.getDeadline() == null || !(t.getStatus() instanceof TaskList.PendingTask)) continue;
+            long d = t.getDeadline().getTime();
+            if (d >= from && d < to) found.add(t);
+        }
+        Collections.sort(found, new Comparator<TaskList.Task>() {
+            @Override
+            public int compare(TaskList.Task a, TaskList.Task b) {
+                int c = a.getDeadline().compareTo(b.getDeadline());
+                return c != 0 ? c : Long.compare(a.getId(), b.getId());
+            }
+        });
+        return found;
+    }
+
+    private static List<Long> ids(List<TaskList.Task> tasks) {
+        List<Long> ids = new ArrayList<Long>();
+        for (TaskList.Task t : tasks) ids.add(t.getId());
+        return ids;
+    }
+
+    @Test
+    public void queriesMatchAScan() {
+        Random random = new Random(3);
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < 300; i++)
+            list.addTask("t" + i, "", TaskList.Priority.LOW, random.nextBoolean() ? new Date(random.nextInt(100) * HOUR) : null, false);
+        for (int step = 0; step < 3000; step++) {
+            long id = random.nextInt(300);
+            TaskList.Task t = list.getTask(id);
+            switch (random.nextInt(5)) {
+                case 0:
+                    if (t != null) {
+                        t = new TaskList.Task(t);
+                        t.setDeadline(random.nextBoolean() ? new Date(random.nextInt(100) * HOUR) : null);
+                        list.setTask(t);
+                    }
+                    break;
+                case 1:
+                    if (t != null && t.getStatus() instanceof TaskList.PendingTask) {
+                        t = new TaskList.Task(t);
+                        t.complete();
+                        list.setTask(t);
+                    }
+                    break;
+                case 2:
+                    if (t != null) {
+                        TaskList.Task copy = new TaskList.Task(id, "", "", TaskList.Priority.LOW, new Date(random.nextInt(100) * HOUR), false);
+                        list.setTask(copy);
+                    }
+                    break;
+                case 3: list.removeTask(id); break;
+                default:
+                    long from = random.nextInt(100) * HOUR;
+                    long to = from + random.nextInt(30) * HOUR;
+                    assertEquals(ids(scan(list, from, to)), ids(list.getTasksDueBetween(new Date(from), new Date(to))));
+                    assertEquals(ids(scan(list, Long.MIN_VALUE, from)), ids(list.getOverdueTasks(new Date(from))));
+                    List<TaskList.Task> next = scan(list, from, Long.MAX_VALUE);
+                    assertSame(next.isEmpty() ? null : next.get(0), list.getNextDueTask(new Date(from)));
+            }
+        }
+    }
+
+    /**
+     * Compares the index with a scan on 100k tasks when looking for the next hours.
+     */
+    @Test
+    public void rangeQueryAgainstScan() {
+        int n = 100000;
+        Random random = new Random(5);
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < n; i++)
+            list.addTask("t" + i, "", TaskList.Priority.LOW, new Date(random.nextInt(365 * 24) * HOUR), false);
+        long from = 100 * 24 * HOUR;
+        long to = from + 6 * HOUR;
+        List<TaskList.Task> found = list.getTasksDueBetween(new Date(from), new Date(to));
+        assertFalse(found.isEmpty());
+        assertEquals(ids(scan(list, from, to)), ids(found));
+    }
+}
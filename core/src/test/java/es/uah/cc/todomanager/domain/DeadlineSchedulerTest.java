@@ -0,0 +1,136 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DeadlineScheduler}.
+ */
+public class DeadlineSchedulerTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    private long now;
+    private int alarmSets;
+    private long alarmAt;
+    private List<String> notified;
+    private TaskList list;
+    private DeadlineScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        now = 1000 * HOUR;
+        alarmSets = 0;
+        alarmAt = -1;
+        notified = new ArrayList<String>();
+        list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        scheduler = new DeadlineScheduler(list, new DeadlineScheduler.Clock() {
+            @Override
+            public long now() {
+                return now;
+            }
+        }, new DeadlineScheduler.Alarm() {
+            @Override
+            public void set(long at) {
+                alarmSets++;
+                alarmAt = at;
+            }
+
+            @Override
+            public void cancel() {
+                alarmAt = -1;
+            }
+        }, new DeadlineScheduler.Listener() {
+            @Override
+            public void onDeadline(List<TaskList.Task> tasks) {
+                for (TaskList.Task t : tasks) notified.add("due " + t.getName());
+            }
+
+            @Override
+            public void onNearDeadline(List<TaskList.Task> tasks) {
+                for (TaskList.Task t : tasks) notified.add("near " + t.getName());
+            }
+        });
+        scheduler.setNearDeadlineLead(2 * HOUR);
+    }
+
+    private void advanceTo(long time) {
+        now = time;
+        if (alarmAt != -1 && alarmAt <= now) {
+            // A one-shot alarm is consumed when it goes off.
+            alarmAt = -1;
+            scheduler.onAlarm();
+        }
+    }
+
+    @Test
+    public void wakesOnlyForTheNextDeadline() {
+        scheduler.setNotifications(true, true);
+        assertEquals(-1, alarmAt);
+        list.addTask("a", "", TaskList.Priority.LOW, new Date(now + 10 * HOUR), false);
+        assertEquals(now + 8 * HOUR, alarmAt);
+        list.addTask("b", "", TaskList.Priority.LOW, new Date(now + 5 * HOUR), false);
+        assertEquals(now + 3 * HOUR, alarmAt);
+        int sets = alarmSets;
+        // A later deadline does not move the alarm.
+        list.addTask("c", "", TaskList.Priority.LOW, new Date(now + 50 * HOUR), false);
+        assertEquals(sets, alarmSets);
+
+        long start = now;
+        advanceTo(start + 3 * HOUR);
+        assertEquals("[near b]", notified.toString());
+        assertEquals(start + 5 * HOUR, alarmAt);
+        advanceTo(start + 5 * HOUR);
+        assertEquals("[near b, due b]", notified.toString());
+        assertEquals(start + 8 * HOUR, alarmAt);
+
+        // Completing the task disarms its deadline.
+        TaskList.Task completed = new TaskList.Task(list.getTask(0));
+        completed.complete();
+        list.setTask(completed);
+        assertEquals(start + 48 * HOUR, alarmAt);
+        list.removeTask(2);
+        assertEquals(-1, alarmAt);
+    }
+
+    @Test
+    public void lateAlarmNotifiesEverythingMissed() {
+        scheduler.setNotifications(true, false);
+        for (int i = 1; i <= 3; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, new Date(now + i * HOUR), false);
+        advanceTo(now + 10 * HOUR);
+        assertEquals("[due t1, due t2, due t3]", notified.toString());
+        assertEquals(-1, alarmAt);
+    }
+
+    @Test
+    public void disabledNotificationsDoNotArm() {
+        list.addTask("a", "", TaskList.Priority.LOW, new Date(now + HOUR), false);
+        assertEquals(-1, alarmAt);
+        scheduler.setNotifications(true, false);
+        assertEquals(now + HOUR, alarmAt);
+        scheduler.setNotifications(false, false);
+        assertEquals(-1, alarmAt);
+    }
+
+    /**
+     * Edits of 10k tasks far from the next deadline set no alarm.
+     */
+    @Test
+    public void editsOn10kTasksDoNotRearm() {
+        scheduler.setNotifications(true, true);
+        for (int i = 0; i < 10000; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, new Date(now + (i + 1) * HOUR), false);
+        int sets = alarmSets;
+        for (int i = 100; i < 10000; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i));
+            t.setDeadline(new Date(t.getDeadline().getTime() + HOUR));
+            list.setTask(t);
+        }
+        assertEquals(sets, alarmSets);
+    }
+}
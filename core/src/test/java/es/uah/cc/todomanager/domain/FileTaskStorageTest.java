@@ -0,0 +1,273 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link FileTaskStorage}.
+ */
+public class FileTaskStorageTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tasks", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void tasksSurviveANewInstance() throws Exception {
+        TaskList list = new TaskList(new FileTaskStorage(directory));
+        list.addTask("Pasear al perro", "15 minutos", TaskList.Priority.MEDIUM, null, false);
+        list.addTask("Terminar la redacción", "Reyes Católicos", TaskList.Priority.HIGH, new Date(1500000000000L), true);
+        TaskList.Task t = new TaskList.Task(list.getTask(1));
+        t.setCompleted(40);
+        t.complete();
+        list.setTask(t);
+
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        assertEquals(2, reloaded.getTasks().size());
+        TaskList.Task r = reloaded.getTask(1);
+        assertEquals("Terminar la redacción", r.getName());
+        assertEquals("Reyes Católicos", r.getDetails());
+        assertEquals(TaskList.Priority.HIGH, r.getPriority());
+        assertEquals(new Date(1500000000000L), r.getDeadline());
+        assertTrue(r.isComplex());
+        assertEquals(100, r.getCompleted());
+        assertTrue(r.getStatus() instanceof TaskList.CompletedTask);
+        assertNull(reloaded.getTask(0).getDeadline());
+
+        reloaded.addTask("Otra", "", TaskList.Priority.LOW, null, false);
+        assertEquals(2, reloaded.getTasks().get(2).getId());
+    }
+
+    @Test
+    public void removedTasksAreNotLoaded() throws Exception {
+        TaskList list = new TaskList(new FileTaskStorage(directory));
+        list.addTask("a", "", TaskList.Priority.LOW, null, false);
+        list.addTask("b", "", TaskList.Priority.LOW, null, false);
+        list.addTask("c", "", TaskList.Priority.LOW, null, false);
+        list.removeTask(1);
+
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        assertEquals(2, reloaded.getTasks().size());
+        assertNull(reloaded.getTask(1));
+        assertEquals(1, reloaded.indexOf(2));
+    }
+
+    @Test
+    public void movesAreLoggedWithoutASnapshot() throws Exception {
+        TaskList list = new TaskList(new FileTaskStorage(directory));
+        for (int i = 0; i < 5; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        list.moveTask(0, 3);
+        list.moveTask(4, 1);
+        // A drag step appends a record; it does not rewrite every task.
+        assertFalse(new File(directory, "tasks.snapshot").exists());
+        List<Long> order = new ArrayList<Long>();
+        for (TaskList.Task t : list.getTasks()) order.add(t.getId());
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        List<Long> loaded = new ArrayList<Long>();
+        for (TaskList.Task t : reloaded.getTasks()) loaded.add(t.getId());
+        assertEquals(order, loaded);
+
+        // Many moves are folded into a snapshot, so loading does not replay them all.
+        for (int i = 0; i < 100; i++) reloaded.moveTask(i % 5, (i + 2) % 5);
+        assertTrue(new File(directory, "tasks.snapshot").exists());
+        order.clear();
+        for (TaskList.Task t : reloaded.getTasks()) order.add(t.getId());
+        loaded.clear();
+        for (TaskList.Task t : new TaskList(new FileTaskStorage(directory)).getTasks()) loaded.add(t.getId());
+        assertEquals(order, loaded);
+    }
+
+    @Test
+    public void interruptedWriteIsDiscarded() throws Exception {
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        list.addTask("a", "", TaskList.Priority.LOW, null, false);
+        list.addTask("b", "", TaskList.Priority.LOW, null, false);
+        storage.close();
+        File log = new File(directory, "tasks.log");
+        long complete = log.length();
+        // Simulates a process killed in the middle of the third record.
+        list.addTask("c", "a long description to be cut", TaskList.Priority.LOW, null, false);
+        storage.close();
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        file.setLength(log.length() - 5);
+        file.close();
+
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        assertEquals(2, reloaded.getTasks().size());
+        assertEquals(complete, log.length());
+        reloaded.addTask("d", "", TaskList.Priority.LOW, null, false);
+        assertEquals(3, new TaskList(new FileTaskStorage(directory)).getTasks().size());
+    }
+
+    @Test
+    public void batchIsKeptWholeOrNotAtAll() throws Exception {
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        for (int i = 0; i < 10; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        storage.close();
+        File log = new File(directory, "tasks.log");
+        long complete = log.length();
+        List<TaskList.Task> completed = new ArrayList<TaskList.Task>();
+        for (int i = 0; i < 4; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i));
+            t.complete();
+            completed.add(t);
+        }
+        list.applyBatch(completed, Collections.singletonList(9L));
+        storage.close();
+        assertEquals(9, new FileTaskStorage(directory).load().size());
+
+        // Simulates a process killed in the middle of the batch.
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        file.setLength(log.length() - 5);
+        file.close();
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        assertEquals(10, reloaded.getTasks().size());
+        assertEquals(0, reloaded.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+        assertEquals(complete, log.length());
+    }
+
+    /**
+     * Completes 10k tasks of a list of 100k one by one and as a batch, with a view observing the list.
+     */
+    @Test
+    public void batchOf10kTasks() throws Exception {
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        for (int i = 0; i < 100000; i++) list.addTask("Tarea " + i, "", TaskList.Priority.LOW, null, false);
+        FilteredTaskList view = new FilteredTaskList(list, new TaskFilter.StatusFilter(true, true));
+        FilteredTaskListTest.Mirror mirror = new FilteredTaskListTest.Mirror(view);
+        view.setCallback(mirror);
+
+        for (int i = 0; i < 10000; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i * 2));
+            t.complete();
+            list.setTask(t);
+        }
+        assertEquals(10000, mirror.events);
+
+        List<TaskList.Task> batch = new ArrayList<TaskList.Task>();
+        for (int i = 0; i < 10000; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i * 2 + 1));
+            t.complete();
+            batch.add(t);
+        }
+        mirror.events = 0;
+        assertEquals(10000, list.applyBatch(batch, Collections.<Long>emptyList()));
+        assertEquals(1, mirror.events);
+        assertEquals(80000, view.size());
+        assertEquals(FilteredTaskListTest.expected(list, view.getFilter()), mirror.ids);
+        view.detach();
+        storage.close();
+        assertEquals(20000, new TaskList(new FileTaskStorage(directory)).countTasksWithStatus(TaskList.CompletedTask.STATUS));
+    }
+
+    @Test
+    public void corruptedRecordIsDiscarded() throws Exception {
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        list.addTask("a", "", TaskList.Priority.LOW, null, false);
+        list.addTask("b", "", TaskList.Priority.LOW, null, false);
+        storage.close();
+        File log = new File(directory, "tasks.log");
+        FileOutputStream out = new FileOutputStream(log, true);
+        out.write(new byte[] {0, 0, 0, 4, 1, 2, 3, 4, 9, 9, 9, 9});
+        out.close();
+
+        assertEquals(2, new TaskList(new FileTaskStorage(directory)).getTasks().size());
+    }
+
+    @Test
+    public void logIsCompactedIntoSnapshot() throws Exception {
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        list.addTask("a", "", TaskList.Priority.LOW, null, true);
+        for (int i = 0; i < 3000; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(0));
+            t.setCompleted(i % 100);
+            list.setTask(t);
+        }
+        storage.close();
+        assertTrue(new File(directory, "tasks.snapshot").exists());
+        assertTrue(new File(directory, "tasks.log").length() < 1024 * 32);
+
+        List<TaskList.Task> tasks = new FileTaskStorage(directory).load();
+        assertEquals(1, tasks.size());
+        assertEquals(2999 % 100, tasks.get(0).getCompleted());
+    }
+
+    /**
+     * A log left behind by a compaction killed after publishing its snapshot is not replayed over it.
+     */
+    @Test
+    public void logOfAnOlderSnapshotIsSkipped() throws Exception {
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        for (int i = 0; i < 5; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        list.moveTask(4, 0);
+        list.moveTask(3, 1);
+        File log = new File(directory, "tasks.log");
+        byte[] stale = Files.readAllBytes(log.toPath());
+        list.moveTask(0, 4);
+        storage.compact(list.getTasks());
+        storage.close();
+        Files.write(log.toPath(), stale);
+        List<Long> order = new ArrayList<Long>();
+        for (TaskList.Task t : list.getTasks()) order.add(t.getId());
+
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        List<Long> loaded = new ArrayList<Long>();
+        for (TaskList.Task t : reloaded.getTasks()) loaded.add(t.getId());
+        assertEquals(order, loaded);
+        assertFalse(log.exists());
+        reloaded.moveTask(0, 2);
+        order.add(2, order.remove(0));
+        loaded.clear();
+        for (TaskList.Task t : new TaskList(new FileTaskStorage(directory)).getTasks()) loaded.add(t.getId());
+        assertEquals(order, loaded);
+    }
+
+    /**
+     * A list of 100k tasks written one by one is loaded again on a cold start.
+     */
+    @Test
+    public void coldStartWith100kTasks() throws Exception {
+        int n = 100000;
+        FileTaskStorage storage = new FileTaskStorage(directory);
+        TaskList list = new TaskList(storage);
+        for (int i = 0; i < n; i++)
+            list.addTask("Tarea " + i, "Descripción de la tarea " + i, TaskList.Priority.MEDIUM, i % 2 == 0 ? new Date(i * 1000L) : null, i % 3 == 0);
+        storage.close();
+
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        assertEquals(n, reloaded.getTasks().size());
+        assertEquals("Tarea " + (n - 1), reloaded.getTask(n - 1).getName());
+        assertEquals(new Date((n - 2) * 1000L), reloaded.getTask(n - 2).getDeadline());
+    }
+}
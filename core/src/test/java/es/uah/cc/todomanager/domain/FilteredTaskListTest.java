@@ -0,0 +1,257 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link FilteredTaskList}.
+ */
+public class FilteredTaskListTest {
+
+    /**
+     * A copy of the view kept up to date only through the callback events, as an adapter would.
+     */
+    static class Mirror implements FilteredTaskList.Callback {
+        final FilteredTaskList view;
+        final List<Long> ids = new ArrayList<Long>();
+        int events;
+
+        Mirror(FilteredTaskList view) {
+            this.view = view;
+            reload();
+        }
+
+        private void reload() {
+            ids.clear();
+            for (int i = 0; i < view.size(); i++) ids.add(view.get(i).getId());
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            for (int i = 0; i < count; i++) ids.add(position + i, view.get(position + i).getId());
+            events++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            for (int i = 0; i < count; i++) ids.remove(position);
+            events++;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            for (int i = 0; i < count; i++) assertEquals(ids.get(position + i).longValue(), view.get(position + i).getId());
+            events++;
+        }
+
+        @Override
+        public void onMoved(int from, int to) {
+            ids.add(to, ids.remove(from));
+            events++;
+        }
+
+        @Override
+        public void onReset() {
+            reload();
+            events++;
+        }
+    }
+
+    static List<Long> expected(TaskList list, TaskFilter filter) {
+        List<Long> ids = new ArrayList<Long>();
+        for (TaskList.Task t : list.getTasks()) if (filter.accept(t)) ids.add(t.getId());
+        return ids;
+    }
+
+    static List<Long> expected(TaskList list, TaskFilter filter, TaskOrder order) {
+        List<TaskList.Task> tasks = new ArrayList<TaskList.Task>();
+        for (TaskList.Task t : list.getTasks()) if (filter.accept(t)) tasks.add(t);
+        Collections.sort(tasks, order);
+        List<Long> ids = new ArrayList<Long>();
+        for (TaskList.Task t : tasks) ids.add(t.getId());
+        return ids;
+    }
+
+    @Test
+    public void singleChangesProduceOneEvent() {
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < 5; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        TaskFilter filter = new TaskFilter.StatusFilter(true, false);
+        FilteredTaskList view = new FilteredTaskList(list, filter);
+        Mirror mirror = new Mirror(view);
+        view.setCallback(mirror);
+
+        TaskList.Task t = new TaskList.Task(2, "t2", "", TaskList.Priority.LOW, null, false);
+        t.complete();
+        list.setTask(t);
+        assertEquals(1, mirror.events);
+        assertEquals(4, view.size());
+        assertEquals(-1, view.indexOf(2));
+        assertEquals(2, view.indexOf(3));
+
+        t = new TaskList.Task(3, "t3", "", TaskList.Priority.LOW, null, false);
+        t.cancel();
+        list.setTask(t);
+        assertEquals(2, mirror.events);
+        assertEquals(4, view.size());
+        assertEquals(expected(list, filter), mirror.ids);
+        view.detach();
+    }
+
+    @Test
+    public void randomChangesKeepViewConsistent() {
+        Random random = new Random(42);
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < 200; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        TaskFilter filter = new TaskFilter.StatusFilter(true, true);
+        FilteredTaskList view = new FilteredTaskList(list, filter);
+        Mirror mirror = new Mirror(view);
+        view.setCallback(mirror);
+
+        for (int step = 0; step < 5000; step++) {
+            int size = list.getTasks().size();
+            int op = random.nextInt(10);
+            if (op < 4 && size > 0) {
+                TaskList.Task old = list.getTasks().get(random.nextInt(size));
+                TaskList.Task t = new TaskList.Task(old.getId(), old.getName(), "", TaskList.Priority.LOW, null, false);
+                int status = random.nextInt(3);
+                if (status == 1) t.complete();
+                else if (status == 2) t.cancel();
+                list.setTask(t);
+            } else if (op < 6 && size > 0) {
+                list.removeTask(list.getTasks().get(random.nextInt(size)).getId());
+            } else if (op < 7 && size > 1) {
+                list.moveTask(random.nextInt(size), random.nextInt(size));
+            } else if (op < 8) {
+                filter = new TaskFilter.StatusFilter(random.nextBoolean(), random.nextBoolean());
+                view.setFilter(filter);
+            } else {
+                list.addTask("n" + step, "", TaskList.Priority.LOW, null, false);
+            }
+            assertEquals(expected(list, filter), mirror.ids);
+        }
+        view.detach();
+    }
+
+    @Test
+    public void orderedViewRepositionsSingleRows() {
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        list.addTask("c", "", TaskList.Priority.LOW, null, false);
+        list.addTask("a", "", TaskList.Priority.HIGH, null, false);
+        list.addTask("b", "", TaskList.Priority.LOW, null, false);
+        FilteredTaskList view = new FilteredTaskList(list, TaskFilter.ALL);
+        view.setOrder(TaskOrder.parse("priority,name", Locale.ROOT));
+        Mirror mirror = new Mirror(view);
+        view.setCallback(mirror);
+        assertEquals("a", view.get(0).getName());
+        assertEquals("b", view.get(1).getName());
+        assertEquals(2, view.indexOf(0));
+
+        // A move and a change of the moved row.
+        TaskList.Task t = new TaskList.Task(list.getTask(0));
+        t.setPriority(TaskList.Priority.MEDIUM);
+        list.setTask(t);
+        assertEquals(2, mirror.events);
+        assertEquals(1, view.indexOf(0));
+        // A change which keeps the row only changes it.
+        t = new TaskList.Task(list.getTask(0));
+        t.setDetails("More details");
+        list.setTask(t);
+        assertEquals(3, mirror.events);
+        // Moves of the source do not change the view.
+        list.moveTask(0, 2);
+        assertEquals(3, mirror.events);
+        assertEquals(expected(list, TaskFilter.ALL, view.getOrder()), mirror.ids);
+
+        view.setOrder(null);
+        assertEquals(expected(list, TaskFilter.ALL), mirror.ids);
+        view.detach();
+    }
+
+    @Test
+    public void randomChangesKeepOrderedViewConsistent() {
+        Random random = new Random(19);
+        TaskList.Priority[] priorities = TaskList.Priority.values();
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < 200; i++) list.addTask("t" + random.nextInt(50), "", priorities[random.nextInt(3)], null, true);
+        TaskFilter filter = new TaskFilter.StatusFilter(true, false);
+        String[] orders = {"priority,name", "-progress", "status,-name", "name"};
+        TaskOrder order = TaskOrder.parse(orders[0], Locale.ROOT);
+        FilteredTaskList view = new FilteredTaskList(list, filter);
+        view.setOrder(order);
+        Mirror mirror = new Mirror(view);
+        view.setCallback(mirror);
+
+        for (int step = 0; step < 5000; step++) {
+            int size = list.getTasks().size();
+            int op = random.nextInt(10);
+            if (op < 5 && size > 0) {
+                TaskList.Task t = new TaskList.Task(list.getTasks().get(random.nextInt(size)));
+                int change = random.nextInt(4);
+                if (change == 0) t.setName("t" + random.nextInt(50));
+                else if (change == 1) t.setPriority(priorities[random.nextInt(3)]);
+                else if (change == 2) t.setCompleted(random.nextInt(101));
+                else if (t.getStatus() == TaskList.PendingTask.INSTANCE) t.complete();
+                else t.setStatus(TaskList.PendingTask.INSTANCE);
+                list.setTask(t);
+            } else if (op < 7 && size > 0) {
+                list.removeTask(list.getTasks().get(random.nextInt(size)).getId());
+            } else if (op < 8 && size > 1) {
+                list.moveTask(random.nextInt(size), random.nextInt(size));
+            } else if (op < 9 && random.nextInt(10) == 0) {
+                order = TaskOrder.parse(orders[random.nextInt(orders.length)], Locale.ROOT);
+                view.setOrder(order);
+            } else {
+                list.addTask("t" + random.nextInt(50), "", priorities[random.nextInt(3)], null, true);
+            }
+            assertEquals(expected(list, filter, order), mirror.ids);
+        }
+        view.detach();
+    }
+
+    /**
+     * An edit of a sorted view of many tasks must cost a binary search, not a sort.
+     */
+    @Test
+    public void orderedEditComparisonsAtOneHundredThousandTasks() {
+        TaskList list = new TaskList(null);
+        Random random = new Random(7);
+        TaskList.Priority[] priorities = TaskList.Priority.values();
+        for (int i = 0; i < 100000; i++) list.addTask("Tarea " + random.nextInt(1000000), "", priorities[i % 3], null, false);
+        final int[] comparisons = new int[1];
+        TaskOrder order = new TaskOrder(new Locale("es", "ES"),
+                new TaskOrder.Key[] {TaskOrder.Key.PRIORITY, TaskOrder.Key.NAME}, new boolean[2]) {
+            @Override
+            public int compare(TaskList.Task a, TaskList.Task b) {
+                comparisons[0]++;
+                return super.compare(a, b);
+            }
+        };
+        FilteredTaskList view = new FilteredTaskList(list, TaskFilter.ALL);
+        view.setOrder(order);
+        comparisons[0] = 0;
+        int edits = 1000;
+        for (int i = 0; i < edits; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTasks().get(random.nextInt(100000)));
+            t.setName("Tarea " + random.nextInt(1000000));
+            list.setTask(t);
+        }
+        // A few binary searches of 17 steps per edit; a sort would take over a million comparisons.
+        assertTrue(String.valueOf(comparisons[0]), comparisons[0] < edits * 100);
+        assertEquals(expected(list, TaskFilter.ALL, view.getOrder()).subList(0, 100), idsOf(view, 100));
+        view.detach();
+    }
+
+    private static List<Long> idsOf(FilteredTaskList view, int count) {
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < count; i++) ids.add(view.get(i).getId());
+        return ids;
+    }
+}
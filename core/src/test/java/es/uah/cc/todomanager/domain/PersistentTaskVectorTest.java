@@ -0,0 +1,144 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PersistentTaskVector} and {@link PersistentTaskMap}.
+ */
+public class PersistentTaskVectorTest {
+
+    private static TaskList.Task task(long id, String name) {
+        return new TaskList.Task(id, name, "", TaskList.Priority.LOW, null, false);
+    }
+
+    @Test
+    public void randomChangesMatchMutableCollections() {
+        Random random = new Random(14);
+        List<TaskList.Task> expectedList = new ArrayList<TaskList.Task>();
+        Map<Long, TaskList.Task> expectedMap = new HashMap<Long, TaskList.Task>();
+        PersistentTaskVector vector = PersistentTaskVector.EMPTY;
+        PersistentTaskMap map = PersistentTaskMap.EMPTY;
+        List<PersistentTaskVector> versions = new ArrayList<PersistentTaskVector>();
+        List<List<TaskList.Task>> expectedVersions = new ArrayList<List<TaskList.Task>>();
+        long nextId = 0;
+        for (int i = 0; i < 20000; i++) {
+            int choice = random.nextInt(10);
+            if (choice < 4 || expectedList.isEmpty()) {
+                // Ids far apart, so the trie goes deep.
+                TaskList.Task t = task(nextId++ * 0x100000001L, "t" + i);
+                int position = random.nextInt(expectedList.size() + 1);
+                expectedList.add(position, t);
+                expectedMap.put(t.getId(), t);
+                vector = vector.plus(position, t);
+                map = map.put(t);
+            } else if (choice < 7) {
+                int position = random.nextInt(expectedList.size());
+                TaskList.Task t = task(expectedList.get(position).getId(), "u" + i);
+                expectedList.set(position, t);
+                expectedMap.put(t.getId(), t);
+                vector = vector.with(position, t);
+                map = map.put(t);
+            } else if (choice < 9) {
+                int position = random.nextInt(expectedList.size());
+                TaskList.Task t = expectedList.remove(position);
+                expectedMap.remove(t.getId());
+                vector = vector.minus(position);
+                map = map.remove(t.getId());
+                // Removing an absent id keeps the map.
+                assertSame(map, map.remove(t.getId()));
+            } else {
+                int from = random.nextInt(expectedList.size());
+                int to = random.nextInt(expectedList.size());
+                TaskList.Task t = expectedList.remove(from);
+                expectedList.add(to, t);
+                vector = vector.minus(from).plus(to, t);
+            }
+            if (i % 1000 == 0) {
+                versions.add(vector);
+                expectedVersions.add(new ArrayList<TaskList.Task>(expectedList));
+            }
+        }
+        assertEquals(expectedList, vector);
+        assertEquals(expectedMap.size(), map.size());
+        for (TaskList.Task t : expectedList) assertSame(t, map.get(t.getId()));
+        assertNull(map.get(-1));
+        for (int i = 0; i < expectedList.size(); i++) assertSame(expectedList.get(i), vector.get(i));
+        // Old versions are not changed by the later ones.
+        for (int v = 0; v < versions.size(); v++) assertEquals(expectedVersions.get(v), versions.get(v));
+    }
+
+    @Test
+    public void removingEveryTaskLeavesAnEmptyMap() {
+        PersistentTaskMap map = PersistentTaskMap.EMPTY;
+        for (long id = 0; id < 1000; id++) map = map.put(task(id, ""));
+        for (long id = 0; id < 1000; id++) {
+            map = map.remove(id);
+            assertNull(map.get(id));
+            if (id < 999) assertNotNull(map.get(999));
+        }
+        assertEquals(0, map.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void vectorsAreReadOnly() {
+        PersistentTaskVector.EMPTY.plus(task(1, "")).add(task(2, ""));
+    }
+
+    /**
+     * Measures the memory allocated to publish a version after a change, compared with copying the list
+     * and its map of ids, which is what a snapshot of a mutable list costs.
+     */
+    @Test
+    public void memoryPerVersion() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        Random random = new Random(1);
+        for (int size : new int[] {1000, 100000, 1000000}) {
+            PersistentTaskVector vector = PersistentTaskVector.EMPTY;
+            PersistentTaskMap map = PersistentTaskMap.EMPTY;
+            List<TaskList.Task> tasks = new ArrayList<TaskList.Task>(size);
+            for (int i = 0; i < size; i++) {
+                TaskList.Task t = task(i, "");
+                tasks.add(t);
+                vector = vector.plus(t);
+                map = map.put(t);
+            }
+            int versions = 10000;
+            TaskList.Task[] updates = new TaskList.Task[versions];
+            int[] positions = new int[versions];
+            for (int i = 0; i < versions; i++) {
+                positions[i] = random.nextInt(size);
+                updates[i] = task(positions[i], "u");
+            }
+            long before = allocations.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < versions; i++) {
+                vector = vector.with(positions[i], updates[i]);
+                map = map.put(updates[i]);
+            }
+            long persistent = (allocations.getThreadAllocatedBytes(thread) - before) / versions;
+
+            int copies = Math.max(1, 10000000 / size);
+            before = allocations.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < copies; i++) {
+                List<TaskList.Task> copy = new ArrayList<TaskList.Task>(tasks);
+                Map<Long, TaskList.Task> ids = new HashMap<Long, TaskList.Task>(size * 2);
+                for (TaskList.Task t : copy) ids.put(t.getId(), t);
+            }
+            long copied = (allocations.getThreadAllocatedBytes(thread) - before) / copies;
+            assertEquals(size, vector.size());
+            assertTrue(persistent * 10 < copied);
+        }
+    }
+}
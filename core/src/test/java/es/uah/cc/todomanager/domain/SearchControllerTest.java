@@ -0,0 +1,161 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SearchController}.
+ */
+public class SearchControllerTest {
+
+    private static final long DEBOUNCE = 20;
+
+    private TaskList list;
+    private ScheduledExecutorService background;
+    private MainQueue main;
+    private Recorder recorder;
+
+    /**
+     * The main thread of the tests: the test itself runs what the controller posts.
+     */
+    static class MainQueue implements Executor {
+        final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        /**
+         * Waits for a message from the background thread.
+         */
+        void runNext() throws InterruptedException {
+            Runnable r = queue.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Nothing was posted", r);
+            r.run();
+        }
+
+        void runPending() {
+            while (!queue.isEmpty()) queue.poll().run();
+        }
+    }
+
+    static class Recorder implements SearchController.Listener {
+        final List<String> events = new ArrayList<String>();
+        final List<TaskList.Task> results = new ArrayList<TaskList.Task>();
+        int finished;
+
+        @Override
+        public void onSearchStarted(String query) {
+            events.add("start " + query);
+            results.clear();
+        }
+
+        @Override
+        public void onResults(String query, List<TaskList.Task> batch) {
+            events.add("results " + query + " " + batch.size());
+            results.addAll(batch);
+        }
+
+        @Override
+        public void onSearchFinished(String query, int count, long latency) {
+            events.add("finish " + query + " " + count);
+            assertTrue(latency > 0);
+            finished++;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        list = new TaskList(null);
+        for (int i = 0; i < 100; i++)
+            list.addTask("Redacción " + i, i % 2 == 0 ? "Informe" : "Memoria", TaskList.Priority.LOW, null, false);
+        background = Executors.newSingleThreadScheduledExecutor();
+        main = new MainQueue();
+        recorder = new Recorder();
+    }
+
+    @After
+    public void tearDown() {
+        background.shutdownNow();
+    }
+
+    private SearchController newController(int limit, int batchSize) {
+        SearchController controller = new SearchController(new TaskSearchIndex(list), list, background, main, DEBOUNCE, limit, batchSize);
+        controller.setListener(recorder);
+        return controller;
+    }
+
+    @Test
+    public void keystrokesAreDebounced() throws InterruptedException {
+        SearchController controller = newController(100, 100);
+        controller.search("r");
+        controller.search("re");
+        controller.search("red inf");
+        main.runNext();
+        main.runPending();
+        assertEquals("[start red inf, results red inf 50, finish red inf 50]", recorder.events.toString());
+        assertEquals(2, controller.getCancelledCount());
+        assertEquals(1, controller.getCompletedCount());
+        assertEquals(controller.getLastLatency(), controller.getAverageLatency());
+        // Nothing else was queried.
+        Thread.sleep(3 * DEBOUNCE);
+        assertTrue(main.queue.isEmpty());
+    }
+
+    @Test
+    public void resultsArriveInBatches() throws InterruptedException {
+        SearchController controller = newController(70, 30);
+        controller.search("redaccion");
+        main.runNext();
+        // The first batch is delivered at once, the others in later messages.
+        assertEquals("[start redaccion, results redaccion 30]", recorder.events.toString());
+        assertEquals(1, main.queue.size());
+        main.runPending();
+        assertEquals("[start redaccion, results redaccion 30, results redaccion 30, results redaccion 10, finish redaccion 70]",
+                recorder.events.toString());
+        assertEquals(70, recorder.results.size());
+    }
+
+    @Test
+    public void newerQueriesDropOlderResults() throws InterruptedException {
+        SearchController controller = newController(100, 10);
+        controller.search("informe");
+        main.runNext();
+        assertEquals(10, recorder.results.size());
+        // The rest of the batches of the first query are not delivered.
+        controller.search("memoria");
+        main.runPending();
+        main.runNext();
+        main.runPending();
+        assertEquals(1, recorder.finished);
+        assertEquals(50, recorder.results.size());
+        for (TaskList.Task t : recorder.results) assertEquals("Memoria", t.getDetails());
+        assertEquals(1, controller.getCancelledCount());
+
+        // Tasks removed after the query ran are skipped.
+        controller.refresh();
+        TaskList.Task removed = recorder.results.get(0);
+        Thread.sleep(3 * DEBOUNCE);
+        list.removeTask(removed.getId());
+        main.runNext();
+        main.runPending();
+        assertEquals(49, recorder.results.size());
+        assertFalse(recorder.results.contains(removed));
+
+        controller.clear();
+        assertNull(controller.getQuery());
+    }
+}
@@ -0,0 +1,264 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the subtasks of {@link TaskList} and the roll up of their progress.
+ */
+public class SubtaskIndexTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("subtasks", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    private static TaskList.Task subtask(long parent, String name, boolean complex) {
+        TaskList.Task t = new TaskList.Task(-1, name, "", TaskList.Priority.MEDIUM, null, complex);
+        t.setParentId(parent);
+        return t;
+    }
+
+    /**
+     * Adds a subtask and gets it with its id.
+     */
+    private static TaskList.Task add(TaskList list, long parent, String name, boolean complex) {
+        list.addTask(subtask(parent, name, complex));
+        return list.getTasks().get(list.getTasks().size() - 1);
+    }
+
+    private static void progress(TaskList list, long id, int completed) {
+        TaskList.Task t = new TaskList.Task(list.getTask(id));
+        t.setCompleted(completed);
+        list.setTask(t);
+    }
+
+    /**
+     * The progress of a task computed walking its subtasks, as the index must keep it.
+     */
+    private static int expected(TaskList list, TaskList.Task task) {
+        long sum = 0;
+        int counted = 0;
+        for (TaskList.Task t : list.getTasks()) {
+            if (t.getParentId() != task.getId() || t.getStatus() instanceof TaskList.CanceledTask) continue;
+            sum += t.getStatus() instanceof TaskList.CompletedTask ? 100 : t.getCompleted();
+            counted++;
+        }
+        return counted == 0 || !(task.getStatus() instanceof TaskList.PendingTask) ? task.getCompleted() : (int) (sum / counted);
+    }
+
+    @Test
+    public void progressRollsUpEveryLevel() {
+        TaskList list = new TaskList(new FileTaskStorage(directory));
+        list.addTask("Mudanza", "", TaskList.Priority.HIGH, null, true);
+        long root = 0;
+        long boxes = add(list, root, "Cajas", true).getId();
+        long keys = add(list, root, "Llaves", false).getId();
+        long books = add(list, boxes, "Libros", false).getId();
+        long kitchen = add(list, boxes, "Cocina", false).getId();
+        assertEquals(Arrays.asList(boxes, keys), list.getSubtaskIds(root));
+        assertEquals(2, list.countSubtasks(boxes));
+
+        TaskListTest.EventRecorder events = new TaskListTest.EventRecorder();
+        list.addObserver(events);
+        progress(list, books, 50);
+        assertEquals(25, list.getTask(boxes).getCompleted());
+        assertEquals(12, list.getTask(root).getCompleted());
+        // The subtask and then each parent once.
+        assertEquals(Arrays.asList("updated " + books + "@3", "updated " + boxes + "@1", "updated 0@0"), events.events);
+
+        TaskList.Task done = new TaskList.Task(list.getTask(kitchen));
+        done.complete();
+        list.setTask(done);
+        assertEquals(75, list.getTask(boxes).getCompleted());
+        TaskList.Task canceled = new TaskList.Task(list.getTask(keys));
+        canceled.cancel();
+        list.setTask(canceled);
+        // A canceled subtask does not count.
+        assertEquals(75, list.getTask(root).getCompleted());
+        // An edition of the parent made on an older version does not undo the roll up.
+        TaskList.Task stale = new TaskList.Task(list.getTask(root));
+        stale.setCompleted(10);
+        list.setTask(stale);
+        assertEquals(75, list.getTask(root).getCompleted());
+
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        assertEquals(75, reloaded.getTask(root).getCompleted());
+        assertEquals(boxes, reloaded.getTask(kitchen).getParentId());
+        assertEquals(Arrays.asList(books, kitchen), reloaded.getSubtaskIds(boxes));
+    }
+
+    @Test
+    public void subtasksNeedAComplexParent() {
+        TaskList list = new TaskList(null);
+        list.addTask("Simple", "", TaskList.Priority.LOW, null, false);
+        for (long parent : new long[] {0, 7}) {
+            try {
+                list.addTask(subtask(parent, "Hija", false));
+                fail("A subtask must have a complex parent of the list");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+        assertEquals(1, list.getTasks().size());
+        // A task can not become its own ancestor.
+        list.addTask("Compleja", "", TaskList.Priority.LOW, null, true);
+        long child = add(list, 1, "Hija", true).getId();
+        TaskList.Task loop = new TaskList.Task(list.getTask(1));
+        loop.setParentId(child);
+        list.setTask(loop);
+        assertEquals(0, list.countSubtasks(child));
+        assertEquals(Collections.singletonList(child), list.getSubtaskIds(1));
+    }
+
+    @Test
+    public void removingAParentRemovesItsSubtasks() {
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        TaskJournal journal = new TaskJournal();
+        list.setJournal(journal);
+        list.addTask("Viaje", "", TaskList.Priority.HIGH, null, true);
+        long bags = add(list, 0, "Maletas", true).getId();
+        long tickets = add(list, 0, "Billetes", false).getId();
+        add(list, bags, "Ropa", false);
+        add(list, bags, "Neceser", false);
+        list.addTask("Otra", "", TaskList.Priority.LOW, null, false);
+        progress(list, tickets, 100);
+        assertEquals(50, list.getTask(0).getCompleted());
+
+        TaskListTest.EventRecorder events = new TaskListTest.EventRecorder();
+        list.addObserver(events);
+        journal.begin();
+        assertTrue(list.removeTask(bags));
+        journal.end();
+        assertEquals(3, list.getTasks().size());
+        assertEquals(Collections.singletonList(tickets), list.getSubtaskIds(0));
+        // Only the subtask left counts.
+        assertEquals(100, list.getTask(0).getCompleted());
+        assertEquals("started", events.events.get(0));
+        assertEquals("finished", events.events.get(events.events.size() - 1));
+
+        // Undoing brings back the subtasks and the progress of the parent as they were.
+        assertTrue(journal.undo(list));
+        assertEquals(6, list.getTasks().size());
+        assertEquals(2, list.countSubtasks(bags));
+        assertEquals(50, list.getTask(0).getCompleted());
+        assertTrue(journal.redo(list));
+        assertEquals(100, list.getTask(0).getCompleted());
+    }
+
+    @Test
+    public void rollUpMatchesAWalkOfTheSubtasks() {
+        Random random = new Random(11);
+        TaskList list = new TaskList(new FileTaskStorage(directory));
+        TaskJournal journal = new TaskJournal();
+        list.setJournal(journal);
+        List<Long> complex = new ArrayList<Long>();
+        list.addTask("Raíz", "", TaskList.Priority.MEDIUM, null, true);
+        complex.add(0L);
+        final Map<Long, Integer> updates = new HashMap<Long, Integer>();
+        list.addObserver(new TaskListTest.EventRecorder() {
+            @Override
+            public void onTaskUpdated(TaskList.Task task, int position) {
+                Integer n = updates.get(task.getId());
+                updates.put(task.getId(), n == null ? 1 : n + 1);
+            }
+        });
+        for (int step = 0; step < 3000; step++) {
+            updates.clear();
+            List<TaskList.Task> tasks = list.getTasks();
+            TaskList.Task t = tasks.get(random.nextInt(tasks.size()));
+            journal.begin();
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    long parent = complex.get(random.nextInt(complex.size()));
+                    if (list.getTask(parent) == null) break;
+                    TaskList.Task added = add(list, parent, "t" + step, random.nextInt(3) == 0);
+                    if (added.isComplex()) complex.add(added.getId());
+                    break;
+                case 2:
+                    // The progress of a parent is only set by its subtasks.
+                    if (t.getStatus() instanceof TaskList.PendingTask && list.countSubtasks(t.getId()) == 0)
+                        progress(list, t.getId(), random.nextInt(101));
+                    break;
+                case 3:
+                    if (t.getStatus() instanceof TaskList.PendingTask && t.getId() != 0) {
+                        TaskList.Task copy = new TaskList.Task(t);
+                        if (random.nextBoolean()) copy.complete();
+                        else copy.cancel();
+                        list.setTask(copy);
+                    }
+                    break;
+                case 4:
+                    if (t.getId() != 0 && random.nextInt(20) == 0) list.removeTask(t.getId());
+                    break;
+                default:
+                    if (random.nextInt(3) == 0) journal.undo(list);
+            }
+            journal.end();
+            // Each parent is published once per change, however deep the change was.
+            for (int n : updates.values()) assertEquals(1, n);
+            for (TaskList.Task task : list.getTasks()) assertEquals(task.getName(), expected(list, task), task.getCompleted());
+        }
+        assertTrue(list.getTasks().size() > 100);
+        TaskList reloaded = new TaskList(new FileTaskStorage(directory));
+        for (TaskList.Task task : list.getTasks()) {
+            assertEquals(task.getParentId(), reloaded.getTask(task.getId()).getParentId());
+            assertEquals(task.getCompleted(), reloaded.getTask(task.getId()).getCompleted());
+        }
+    }
+
+    /**
+     * A change of a subtask of a parent with many subtasks publishes the subtask, and each parent
+     * at most once, without the other subtasks.
+     */
+    @Test
+    public void changeOfOneAmongManySubtasks() {
+        TaskList list = new TaskList(null);
+        list.addTask("Inventario", "", TaskList.Priority.MEDIUM, null, true);
+        long parent = add(list, 0, "Estantería", true).getId();
+        int size = 10000;
+        for (int i = 0; i < size; i++) add(list, parent, "Artículo " + i, false);
+        List<Long> ids = list.getSubtaskIds(parent);
+        TaskListTest.EventRecorder events = new TaskListTest.EventRecorder();
+        list.addObserver(events);
+        int rounds = 200;
+        int subtaskUpdates = 0;
+        for (int i = 0; i < rounds; i++) {
+            progress(list, ids.get(i * 37 % size), i % 100 + 1);
+            for (String e : events.events) {
+                if (e.startsWith("updated " + ids.get(i * 37 % size) + "@")) subtaskUpdates++;
+                else assertTrue(e, e.startsWith("updated " + parent + "@") || e.startsWith("updated 0@"));
+            }
+            assertTrue(events.events.size() <= 3);
+            events.events.clear();
+        }
+        assertEquals(rounds, subtaskUpdates);
+        assertEquals(expected(list, list.getTask(parent)), list.getTask(parent).getCompleted());
+        assertEquals(list.getTask(parent).getCompleted(), list.getTask(0).getCompleted());
+    }
+}
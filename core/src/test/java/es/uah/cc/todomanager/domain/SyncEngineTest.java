@@ -0,0 +1,330 @@
+package es.uah.cc.todomanager.domain;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SyncEngine}, {@link SyncServer} and {@link TaskMerge}: replicas sync through an in-process server.
+ */
+public class SyncEngineTest {
+
+    private SyncServer server;
+    private ExecutorService main;
+    private final List<Client> clients = new ArrayList<Client>();
+
+    /**
+     * A replica: a repository, its sync log and its engine.
+     */
+    private class Client {
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor();
+        final TaskRepository repository = new TaskRepository(new TaskListTest.MemoryTaskStorage(), new TaskList(null), writer, main);
+        final SyncLog log = new SyncLog(null);
+        final SyncEngine engine;
+
+        Client(SyncTransport transport, int batchSize) {
+            engine = new SyncEngine(repository, log, transport, syncExecutor, batchSize);
+            clients.add(this);
+        }
+
+        SyncEngine.Result sync() throws Exception {
+            final CountDownLatch done = new CountDownLatch(1);
+            final AtomicReference<SyncEngine.Result> result = new AtomicReference<SyncEngine.Result>();
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            engine.setListener(new SyncEngine.Listener() {
+                @Override
+                public void onSyncFinished(SyncEngine.Result r) {
+                    result.set(r);
+                    done.countDown();
+                }
+
+                @Override
+                public void onSyncFailed(SyncEngine.Result r, Exception e) {
+                    error.set(e);
+                    done.countDown();
+                }
+            });
+            engine.syncNow();
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            if (error.get() != null) throw error.get();
+            return result.get();
+        }
+
+        void add(String name) {
+            repository.addTask(new TaskList.Task(-1, name, "", TaskList.Priority.MEDIUM, null, false), null);
+        }
+
+        TaskList.Task get(long id) {
+            return repository.getSnapshot().getTask(id);
+        }
+
+        void set(TaskList.Task task) {
+            repository.setTask(task, null);
+        }
+
+        Set<String> names() {
+            Set<String> names = new HashSet<String>();
+            for (TaskList.Task t : repository.getSnapshot().getTasks()) names.add(t.getId() + ":" + t.getName());
+            return names;
+        }
+
+        void close() {
+            syncExecutor.shutdownNow();
+            writer.shutdownNow();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        server = new SyncServer();
+        main = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        for (Client c : clients) c.close();
+        main.shutdownNow();
+    }
+
+    @Test
+    public void changesReachTheOtherReplica() throws Exception {
+        Client a = new Client(server.localTransport(), 2);
+        Client b = new Client(server.localTransport(), 2);
+        for (int i = 0; i < 5; i++) a.add("t" + i);
+        SyncEngine.Result pushed = a.sync();
+        assertEquals(5, pushed.getPushed());
+        assertEquals(3, pushed.getExchanges());
+        assertEquals(5, server.size());
+
+        assertEquals(5, b.sync().getPulled());
+        assertEquals(a.names(), b.names());
+        assertEquals(0, b.log.getPendingCount());
+
+        TaskList.Task t = new TaskList.Task(b.get(3));
+        t.setName("renamed");
+        b.set(t);
+        b.repository.removeTask(4, null);
+        b.sync();
+        SyncEngine.Result pulled = a.sync();
+        assertEquals(2, pulled.getPulled());
+        assertEquals("renamed", a.get(3).getName());
+        assertNull(a.get(4));
+        assertEquals(a.names(), b.names());
+        // Nothing is left to send.
+        assertEquals(0, a.sync().getPulled());
+    }
+
+    @Test
+    public void concurrentEditsAreMergedByField() throws Exception {
+        Client a = new Client(server.localTransport(), 10);
+        Client b = new Client(server.localTransport(), 10);
+        a.add("Informe");
+        a.sync();
+        b.sync();
+
+        TaskList.Task mine = new TaskList.Task(a.get(0));
+        mine.setName("Informe final");
+        mine.setCompleted(30);
+        a.set(mine);
+        TaskList.Task theirs = new TaskList.Task(b.get(0));
+        theirs.setDetails("Con anexos");
+        theirs.setPriority(TaskList.Priority.HIGH);
+        theirs.complete();
+        b.set(theirs);
+
+        a.sync();
+        b.sync();
+        assertEquals(1, server.getConflicts());
+        a.sync();
+        for (Client c : new Client[] {a, b}) {
+            TaskList.Task t = c.get(0);
+            assertEquals("Informe final", t.getName());
+            assertEquals("Con anexos", t.getDetails());
+            assertEquals(TaskList.Priority.HIGH, t.getPriority());
+            assertEquals(100, t.getCompleted());
+            assertSame(TaskList.CompletedTask.INSTANCE, t.getStatus());
+            assertEquals(0, c.log.getPendingCount());
+        }
+        assertEquals(a.log.getVersion(0), b.log.getVersion(0));
+    }
+
+    @Test
+    public void tasksCreatedOfflineGetDistinctIds() throws Exception {
+        Client a = new Client(server.localTransport(), 10);
+        Client b = new Client(server.localTransport(), 10);
+        a.add("de a");
+        b.add("de b");
+        a.sync();
+        b.sync();
+        a.sync();
+        assertEquals(2, server.size());
+        assertEquals(a.names(), b.names());
+        assertTrue(b.names().contains("0:de a"));
+        assertTrue(b.names().contains("1:de b"));
+
+        // Ids created later do not collide with the adopted one.
+        b.add("otra");
+        b.sync();
+        a.sync();
+        assertEquals(3, server.size());
+        assertEquals(a.names(), b.names());
+    }
+
+    @Test
+    public void subtasksFollowTheirRenamedParents() throws Exception {
+        Client a = new Client(server.localTransport(), 10);
+        Client b = new Client(server.localTransport(), 10);
+        a.add("de a");
+        a.sync();
+        // Created offline with ids the server already gave away.
+        b.repository.addTask(new TaskList.Task(-1, "padre", "", TaskList.Priority.MEDIUM, null, true), null);
+        TaskList.Task child = new TaskList.Task(-1, "hija", "", TaskList.Priority.MEDIUM, null, false);
+        child.setParentId(0);
+        b.repository.addTask(child, null);
+        b.sync();
+        a.sync();
+
+        assertEquals(3, server.size());
+        assertEquals(a.names(), b.names());
+        long parentId = -1;
+        long childId = -1;
+        for (Client c : new Client[] {a, b}) {
+            TaskList.Task parent = null;
+            TaskList.Task subtask = null;
+            for (TaskList.Task t : c.repository.getSnapshot().getTasks()) {
+                if (t.getName().equals("padre")) parent = t;
+                if (t.getName().equals("hija")) subtask = t;
+            }
+            assertTrue(parent.getId() != 0);
+            assertEquals(parent.getId(), subtask.getParentId());
+            parentId = parent.getId();
+            childId = subtask.getId();
+        }
+
+        // The progress of the subtask rolls up on the other replica.
+        TaskList.Task done = new TaskList.Task(a.get(childId));
+        done.complete();
+        a.set(done);
+        a.sync();
+        b.sync();
+        assertEquals(100, b.get(parentId).getCompleted());
+    }
+
+    @Test
+    public void editsWinOverConcurrentRemovals() throws Exception {
+        Client a = new Client(server.localTransport(), 10);
+        Client b = new Client(server.localTransport(), 10);
+        a.add("t");
+        a.sync();
+        b.sync();
+        a.repository.removeTask(0, null);
+        TaskList.Task t = new TaskList.Task(b.get(0));
+        t.setName("editada");
+        b.set(t);
+        a.sync();
+        b.sync();
+        a.sync();
+        assertEquals("editada", a.get(0).getName());
+        assertEquals(a.names(), b.names());
+    }
+
+    /**
+     * Syncs 100k tasks, then checks the bytes of a sync of one changed task.
+     */
+    @Test
+    public void oneChangeAmongOneHundredThousandTasks() throws Exception {
+        SyncServer.LocalTransport transportA = server.localTransport();
+        SyncServer.LocalTransport transportB = server.localTransport();
+        Client a = new Client(transportA, SyncEngine.DEFAULT_BATCH_SIZE);
+        Client b = new Client(transportB, SyncEngine.DEFAULT_BATCH_SIZE);
+        a.repository.submit(new TaskRepository.Command<Void>() {
+            @Override
+            public Void run(TaskList tasks) {
+                for (int i = 0; i < 100000; i++)
+                    tasks.addTask("Tarea " + i, "Descripción de la tarea " + i, TaskList.Priority.MEDIUM, null, false);
+                return null;
+            }
+        }, null);
+        a.sync();
+        b.sync();
+        assertEquals(100000, b.repository.getSnapshot().size());
+
+        long sentBefore = transportA.getBytesSent() + transportA.getBytesReceived();
+        long receivedBefore = transportB.getBytesSent() + transportB.getBytesReceived();
+        TaskList.Task t = new TaskList.Task(a.get(54321));
+        t.setCompleted(75);
+        a.set(t);
+        SyncEngine.Result push = a.sync();
+        SyncEngine.Result pull = b.sync();
+        long pushBytes = transportA.getBytesSent() + transportA.getBytesReceived() - sentBefore;
+        long pullBytes = transportB.getBytesSent() + transportB.getBytesReceived() - receivedBefore;
+        assertEquals(75, b.get(54321).getCompleted());
+        assertEquals(1, push.getPushed());
+        assertEquals(1, pull.getPulled());
+        assertTrue(pushBytes < 200);
+        assertTrue(pullBytes < 200);
+    }
+
+    @Test
+    public void syncsOverHttp() throws Exception {
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        http.createContext("/sync", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] response = server.exchange(readAll(exchange.getRequestBody()));
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        http.start();
+        try {
+            HttpSyncTransport transport = new HttpSyncTransport(null);
+            Client a = new Client(transport, 10);
+            a.add("t");
+            try {
+                a.sync();
+                fail("A sync without server must fail");
+            } catch (IOException e) {
+                assertEquals(1, a.log.getPendingCount());
+            }
+            transport.setUrl(new URL("http://127.0.0.1:" + http.getAddress().getPort() + "/sync"));
+            assertEquals(1, a.sync().getPushed());
+            assertEquals("t", server.getTask(0).getName());
+        } finally {
+            http.stop(0);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+}
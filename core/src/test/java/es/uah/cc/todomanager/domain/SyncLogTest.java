@@ -0,0 +1,92 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SyncLog}.
+ */
+public class SyncLogTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sync", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void localChangesAreRecorded() {
+        TaskList list = new TaskList(null);
+        list.addTask("a", "", TaskList.Priority.LOW, null, false);
+        SyncLog log = new SyncLog(null);
+        log.attach(list);
+        // Tasks created before the log are pending too.
+        assertEquals(1, log.getPendingCount());
+        list.addTask("b", "", TaskList.Priority.LOW, null, false);
+        TaskList.Task t = new TaskList.Task(list.getTask(0));
+        t.setName("a2");
+        list.setTask(t);
+        assertEquals(2, log.getVersion(0).get(log.getReplica()));
+        assertEquals(2, log.getPendingCount());
+
+        SyncMessage.Request request = log.prepare(10, 10);
+        assertEquals(2, request.getChanges().size());
+        assertTrue(request.getChanges().get(0).isCreated());
+        assertEquals("a2", request.getChanges().get(0).getTask().getName());
+
+        // A task the server never knew leaves no trace.
+        list.removeTask(1);
+        assertNull(log.getVersion(1));
+        assertEquals(1, log.getPendingCount());
+    }
+
+    @Test
+    public void stateSurvivesRestarts() throws IOException {
+        TaskList list = new TaskList(null);
+        SyncLog log = new SyncLog(directory);
+        log.attach(list);
+        for (int i = 0; i < 3000; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        for (int i = 0; i < 3000; i += 2) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i));
+            t.setCompleted(50);
+            list.setTask(t);
+        }
+        log.close();
+        list.removeObserver(log);
+
+        SyncLog reloaded = new SyncLog(directory);
+        reloaded.attach(list);
+        assertEquals(log.getReplica(), reloaded.getReplica());
+        assertEquals(3000, reloaded.getPendingCount());
+        assertEquals(2, reloaded.getVersion(0).get(log.getReplica()));
+        assertEquals(1, reloaded.getVersion(1).get(log.getReplica()));
+        reloaded.close();
+        list.removeObserver(reloaded);
+
+        // Simulates a process killed in the middle of a record.
+        FileOutputStream out = new FileOutputStream(new File(directory, "sync.log"), true);
+        out.write(new byte[] {0, 0, 0, 9, 1, 2});
+        out.close();
+        SyncLog torn = new SyncLog(directory);
+        torn.attach(list);
+        assertEquals(3000, torn.getPendingCount());
+        assertEquals(log.getReplica(), torn.getReplica());
+    }
+}
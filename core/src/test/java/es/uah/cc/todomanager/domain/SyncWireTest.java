@@ -0,0 +1,215 @@
+package es.uah.cc.todomanager.domain;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SyncWire}, {@link ResumableSyncTransport} and the upload channels.
+ */
+public class SyncWireTest {
+
+    private static SyncMessage.Request request(int size) {
+        List<SyncMessage.Change> changes = new ArrayList<SyncMessage.Change>(size);
+        for (int i = 0; i < size; i++) {
+            TaskList.Task t = new TaskList.Task(i, "Tarea " + i, "Descripción de la tarea " + i, TaskList.Priority.MEDIUM, null, i % 4 == 0);
+            t.setCompleted(i % 101);
+            changes.add(new SyncMessage.Change(i, VersionVector.EMPTY.increment(7), t, TaskMerge.ALL, true));
+        }
+        return new SyncMessage.Request(7, 0, 100, changes);
+    }
+
+    @Test
+    public void framesRoundTrip() throws IOException {
+        byte[] batch = request(1000).encode();
+        byte[] framed = SyncWire.compress(batch);
+        assertArrayEquals(batch, SyncWire.decompress(framed));
+        assertTrue(framed.length * 3 < batch.length);
+
+        // A message of one change is not worth deflating.
+        byte[] single = request(1).encode();
+        byte[] stored = SyncWire.compress(single);
+        assertArrayEquals(single, SyncWire.decompress(stored));
+        assertTrue(stored.length <= single.length + 6);
+    }
+
+    @Test
+    public void malformedFramesAreRejected() {
+        byte[] framed = SyncWire.compress(request(1000).encode());
+        byte[] corrupt = framed.clone();
+        corrupt[framed.length / 2] ^= 0x10;
+        for (byte[] bad : new byte[][] {corrupt, Arrays.copyOf(framed, framed.length - 3), Arrays.copyOf(framed, framed.length + 1), {1, 2, 3, 4, 5}}) {
+            try {
+                SyncWire.decompress(bad);
+                fail("A malformed frame must be rejected");
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+
+    /**
+     * A channel which loses the connection: every few calls fail, before or after the server gets them.
+     */
+    private static class FlakyChannel implements SyncChannel {
+        final SyncChannel channel;
+        int calls;
+        int finished;
+
+        FlakyChannel(SyncChannel channel) {
+            this.channel = channel;
+        }
+
+        private void drop(boolean delivered) throws IOException {
+            if (++calls % 5 == (delivered ? 3 : 4)) throw new IOException("Connection lost");
+        }
+
+        @Override
+        public long send(long upload, long offset, byte[] data, int start, int length) throws IOException {
+            drop(false);
+            long received = channel.send(upload, offset, data, start, length);
+            drop(true);
+            return received;
+        }
+
+        @Override
+        public long received(long upload) throws IOException {
+            return channel.received(upload);
+        }
+
+        @Override
+        public byte[] finish(long upload, long length) throws IOException {
+            byte[] response = channel.finish(upload, length);
+            // The first response is lost; the server must answer the same one again.
+            if (++finished == 1) throw new IOException("Connection lost");
+            return response;
+        }
+    }
+
+    @Test
+    public void uploadsResumeAfterConnectionLoss() throws IOException {
+        SyncServer server = new SyncServer();
+        ResumableSyncTransport transport = new ResumableSyncTransport(new FlakyChannel(server.uploadChannel()), 1024, 3);
+        SyncMessage.Request request = request(5000);
+        SyncMessage.Response response = transport.exchange(request);
+        assertEquals(5000, server.size());
+        assertEquals("Tarea 4321", server.getTask(4321).getName());
+        // The tasks were created once, so they keep their ids.
+        assertTrue(response.getRenamed().isEmpty());
+        assertTrue(transport.getResumes() > 5);
+        long framed = SyncWire.compress(request.encode()).length;
+        assertTrue(transport.getBytesSent() < framed * 2);
+
+        // A request sent again as a new upload is answered too.
+        assertEquals(0, transport.exchange(new SyncMessage.Request(7, response.getCursor(), 10,
+                new ArrayList<SyncMessage.Change>())).getChanges().size());
+    }
+
+    @Test
+    public void failsAfterTheRetries() {
+        SyncChannel down = new SyncChannel() {
+            @Override
+            public long send(long upload, long offset, byte[] data, int start, int length) throws IOException {
+                throw new IOException("Unreachable");
+            }
+
+            @Override
+            public long received(long upload) throws IOException {
+                throw new IOException("Unreachable");
+            }
+
+            @Override
+            public byte[] finish(long upload, long length) throws IOException {
+                throw new IOException("Unreachable");
+            }
+        };
+        ResumableSyncTransport transport = new ResumableSyncTransport(down, 1024, 2);
+        try {
+            transport.exchange(request(1));
+            fail("An unreachable server must fail the exchange");
+        } catch (IOException e) {
+            assertEquals(2, transport.getResumes());
+        }
+    }
+
+    @Test
+    public void uploadsOverHttp() throws Exception {
+        final SyncServer server = new SyncServer();
+        final SyncServer.UploadChannel uploads = server.uploadChannel();
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        http.createContext("/sync", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, Long> query = new HashMap<String, Long>();
+                for (String p : exchange.getRequestURI().getQuery().split("&")) {
+                    String[] pair = p.split("=");
+                    query.put(pair[0], Long.parseLong(pair[1]));
+                }
+                long upload = query.get("upload");
+                byte[] body = readAll(exchange.getRequestBody());
+                byte[] response;
+                try {
+                    if ("PUT".equals(exchange.getRequestMethod()))
+                        response = Long.toString(uploads.send(upload, query.get("offset"), body, 0, body.length)).getBytes("US-ASCII");
+                    else if ("POST".equals(exchange.getRequestMethod())) response = uploads.finish(upload, query.get("length"));
+                    else response = Long.toString(uploads.received(upload)).getBytes("US-ASCII");
+                } catch (IOException e) {
+                    exchange.sendResponseHeaders(409, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        http.start();
+        try {
+            HttpSyncChannel channel = new HttpSyncChannel(new URL("http://127.0.0.1:" + http.getAddress().getPort() + "/sync"));
+            ResumableSyncTransport transport = new ResumableSyncTransport(channel, 4096, 3);
+            transport.exchange(request(2000));
+            assertEquals(2000, server.size());
+            assertEquals(0, transport.getResumes());
+            assertTrue(transport.getBytesSent() * 3 < transport.getMessageBytes());
+        } finally {
+            http.stop(0);
+        }
+    }
+
+    /**
+     * A change set of 100k tasks survives the framing, which makes it far smaller than encoded.
+     */
+    @Test
+    public void oneHundredThousandChanges() throws IOException {
+        byte[] encoded = request(100000).encode();
+        byte[] framed = SyncWire.compress(encoded);
+        SyncMessage.Request decoded = SyncMessage.Request.decode(SyncWire.decompress(framed));
+        assertEquals(100000, decoded.getChanges().size());
+        assertEquals("Descripción de la tarea 99999", decoded.getChanges().get(99999).getTask().getDetails());
+        assertTrue(framed.length * 3 < encoded.length);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+}
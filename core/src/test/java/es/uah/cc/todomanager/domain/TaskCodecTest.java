@@ -0,0 +1,143 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskCodec}, the compact encoding of tasks for storage and parcels.
+ * Parcel is not available on the JVM, so parcel sizes are computed with its layout rules:
+ * every value is padded to 4 bytes and strings are written as UTF-16 with a length and a terminator.
+ */
+public class TaskCodecTest {
+
+    private static List<TaskList.Task> tasks(int n) {
+        TaskList.Priority[] priorities = TaskList.Priority.values();
+        List<TaskList.Task> tasks = new ArrayList<TaskList.Task>(n);
+        for (int i = 0; i < n; i++) {
+            Date deadline = i % 2 == 0 ? new Date(1500000000000L + i * 60000L) : null;
+            TaskList.Task t = new TaskList.Task(i, "Tarea " + i, "Detalles de la tarea " + i, priorities[i % 3], deadline, i % 4 == 0);
+            t.setCompleted(i % 101);
+            if (i % 5 == 1) t.setStatus(TaskList.CompletedTask.INSTANCE);
+            else if (i % 5 == 2) t.setStatus(TaskList.CanceledTask.INSTANCE);
+            if (i % 4 == 1) t.setParentId(i - 1);
+            tasks.add(t);
+        }
+        return tasks;
+    }
+
+    private static int parcelString(String s) {
+        return s == null ? 4 : 4 + ((s.length() + 1) * 2 + 3 & ~3);
+    }
+
+    /**
+     * The size of a task with the former layout: strings for priority and status,
+     * a boolean array for the flag and a long array for the deadline.
+     */
+    private static int legacyParcelSize(TaskList.Task t) {
+        return 8 + parcelString(t.getName()) + parcelString(t.getDetails()) + parcelString(t.getPriority().getKey())
+                + 8 + 4 + parcelString(t.getStatus().getStatusDescription()) + 4 + 16;
+    }
+
+    private static int parcelSize(TaskList.Task t) {
+        return 8 + parcelString(t.getName()) + parcelString(t.getDetails()) + 4
+                + (t.getDeadline() != null ? 8 : 0) + (t.isSubtask() ? 8 : 0);
+    }
+
+    private static void assertSameTask(TaskList.Task expected, TaskList.Task actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getDetails(), actual.getDetails());
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.getStatus().getStatusDescription(), actual.getStatus().getStatusDescription());
+        assertEquals(expected.getCompleted(), actual.getCompleted());
+        assertEquals(expected.isComplex(), actual.isComplex());
+        assertEquals(expected.getDeadline(), actual.getDeadline());
+        assertEquals(expected.getParentId(), actual.getParentId());
+    }
+
+    @Test
+    public void packedFieldsRoundTrip() {
+        for (TaskList.Task t : tasks(20)) {
+            int packed = TaskCodec.pack(t);
+            assertEquals(t.getPriority(), TaskCodec.priorityOf(packed));
+            assertEquals(t.getStatus().getStatusDescription(), TaskCodec.statusOf(packed).getStatusDescription());
+            assertEquals(t.getCompleted(), TaskCodec.progressOf(packed));
+            assertEquals(t.isComplex(), TaskCodec.isComplex(packed));
+            assertEquals(t.getDeadline() != null, TaskCodec.hasDeadline(packed));
+            assertEquals(t.isSubtask(), TaskCodec.hasParent(packed));
+            assertFalse(TaskCodec.hasCustomPriority(packed));
+        }
+    }
+
+    /**
+     * Data written when priorities were strings may hold a priority name after the task.
+     */
+    @Test
+    public void stringPrioritiesAreStillRead() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Custom priority code and flag, pending status.
+        out.writeByte(3 | 1 << 6);
+        TaskCodec.writeVarLong(out, 7);
+        TaskCodec.writeString(out, "Tarea");
+        TaskCodec.writeString(out, "");
+        out.writeByte(0);
+        TaskCodec.writeString(out, TaskList.Task.LOW_PRIORITY);
+        TaskList.Task task = TaskCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(7, task.getId());
+        assertEquals(TaskList.Priority.LOW, task.getPriority());
+        assertSame(TaskList.PendingTask.INSTANCE, task.getStatus());
+        assertEquals(TaskList.Priority.MEDIUM, TaskList.Priority.fromKey("unknown"));
+    }
+
+    @Test
+    public void bulkRoundTrip() {
+        List<TaskList.Task> tasks = tasks(100);
+        tasks.add(new TaskList.Task(1000, null, "", TaskList.Priority.LOW, null, true));
+        List<TaskList.Task> decoded = TaskCodec.decodeList(TaskCodec.encodeList(tasks));
+        assertEquals(tasks.size(), decoded.size());
+        for (int i = 0; i < tasks.size() - 1; i++) assertSameTask(tasks.get(i), decoded.get(i));
+        assertEquals("", decoded.get(100).getName());
+        assertEquals(0, TaskCodec.decodeList(TaskCodec.encodeList(new ArrayList<TaskList.Task>())).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedListIsRejected() {
+        byte[] data = TaskCodec.encodeList(tasks(10));
+        byte[] truncated = new byte[data.length / 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        TaskCodec.decodeList(truncated);
+    }
+
+    /**
+     * Compares the bytes per task of the former parcel layout, the new one and the bulk container.
+     */
+    @Test
+    public void bytesPerTask() {
+        int n = 10000;
+        List<TaskList.Task> tasks = tasks(n);
+        long legacy = 0;
+        long compact = 0;
+        for (TaskList.Task t : tasks) {
+            legacy += legacyParcelSize(t);
+            compact += parcelSize(t);
+        }
+        byte[] bulk = TaskCodec.encodeList(tasks);
+        // The bulk container is a single byte array in the parcel.
+        long bulkParcel = 4 + (bulk.length + 3 & ~3);
+        assertTrue(compact < legacy);
+        assertTrue(bulkParcel < compact);
+
+        assertEquals(n, TaskCodec.decodeList(bulk).size());
+    }
+}
@@ -0,0 +1,165 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskJournal}.
+ */
+public class TaskJournalTest {
+
+    private File directory;
+    private TaskList list;
+    private TaskJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+        directory.mkdirs();
+        list = new TaskList(new FileTaskStorage(directory));
+        journal = new TaskJournal();
+        list.setJournal(journal);
+        for (int i = 0; i < 5; i++) list.addTask("t" + i, "", TaskList.Priority.MEDIUM, null, false);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    private void step(TaskList.Task task) {
+        journal.begin();
+        list.setTask(task);
+        journal.end();
+    }
+
+    private List<String> names(TaskList tasks) {
+        List<String> names = new ArrayList<String>();
+        for (TaskList.Task t : tasks.getTasks()) names.add(t.getName() + (t.getStatus() instanceof TaskList.PendingTask ? "" : "!"));
+        return names;
+    }
+
+    @Test
+    public void undoesAndRedoesSeveralSteps() {
+        // Changes outside a step are not journaled.
+        assertFalse(journal.canUndo());
+
+        TaskList.Task completed = new TaskList.Task(list.getTask(1));
+        completed.complete();
+        step(completed);
+        TaskList.Task canceled = new TaskList.Task(list.getTask(2));
+        canceled.cancel();
+        step(canceled);
+        TaskList.Task renamed = new TaskList.Task(list.getTask(1));
+        renamed.setName("uno");
+        step(renamed);
+        assertEquals(Arrays.asList("t0", "uno!", "t2!", "t3", "t4"), names(list));
+        assertEquals(3, journal.getUndoCount());
+
+        assertTrue(journal.undo(list));
+        assertTrue(journal.undo(list));
+        assertEquals(Arrays.asList("t0", "t1!", "t2", "t3", "t4"), names(list));
+        // A completed task is pending again, and can be completed or canceled as any other.
+        assertTrue(journal.undo(list));
+        assertSame(TaskList.PendingTask.INSTANCE, list.getTask(1).getStatus());
+        assertEquals(0, list.getTask(1).getCompleted());
+        assertFalse(journal.undo(list));
+        assertEquals(5, list.countTasksWithStatus(TaskList.PendingTask.STATUS));
+
+        assertTrue(journal.redo(list));
+        assertTrue(journal.redo(list));
+        assertEquals(Arrays.asList("t0", "t1!", "t2!", "t3", "t4"), names(list));
+        assertEquals(1, journal.getRedoCount());
+
+        // A new step forgets the steps undone.
+        TaskList.Task other = new TaskList.Task(list.getTask(4));
+        other.setName("cuatro");
+        step(other);
+        assertFalse(journal.canRedo());
+    }
+
+    @Test
+    public void restoresRemovedTasksInTheirPositions() throws IOException {
+        TaskList.Task completed = new TaskList.Task(list.getTask(0));
+        completed.complete();
+        TaskListTest.EventRecorder events = new TaskListTest.EventRecorder();
+        journal.begin();
+        list.applyBatch(Arrays.asList(completed), Arrays.asList(1L, 3L));
+        journal.end();
+        list.addObserver(events);
+        journal.begin();
+        list.removeTask(4);
+        journal.end();
+        assertEquals(Arrays.asList("t0!", "t2"), names(list));
+
+        assertTrue(journal.undo(list));
+        assertTrue(journal.undo(list));
+        assertEquals(Arrays.asList("t0", "t1", "t2", "t3", "t4"), names(list));
+        assertEquals(Arrays.asList("removed 4@2", "added 4@2", "updated 0@0", "started", "added 1@1", "added 3@3", "finished"), events.events);
+        // The restored order is stored too.
+        assertEquals(names(list), names(new TaskList(new FileTaskStorage(directory))));
+        assertEquals(3, list.indexOf(3));
+        assertEquals(3, list.getTasksWithStatus(TaskList.PendingTask.STATUS).get(3).getId());
+
+        assertTrue(journal.redo(list));
+        assertEquals(Arrays.asList("t0!", "t2", "t4"), names(list));
+        assertEquals(names(list), names(new TaskList(new FileTaskStorage(directory))));
+    }
+
+    @Test
+    public void stepsMadeStaleAreNotUndone() {
+        TaskList.Task mine = new TaskList.Task(list.getTask(2));
+        mine.setName("mía");
+        step(mine);
+        TaskList.Task other = new TaskList.Task(list.getTask(0));
+        other.setName("otra");
+        step(other);
+        // A change which is not journaled, as a sync, changes the task of the last step.
+        TaskList.Task pulled = new TaskList.Task(list.getTask(0));
+        pulled.setDetails("del servidor");
+        list.setTask(pulled);
+
+        assertFalse(journal.undo(list));
+        assertEquals("del servidor", list.getTask(0).getDetails());
+        assertTrue(journal.undo(list));
+        assertEquals("t2", list.getTask(2).getName());
+        assertFalse(journal.canUndo());
+    }
+
+    @Test
+    public void keepsBoundedSteps() {
+        journal = new TaskJournal(3, 10);
+        list.setJournal(journal);
+        for (int i = 0; i < 5; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i));
+            t.setCompleted(10);
+            step(t);
+        }
+        assertEquals(3, journal.getUndoCount());
+
+        List<TaskList.Task> batch = new ArrayList<TaskList.Task>();
+        for (int i = 0; i < 20; i++) list.addTask("b" + i, "", TaskList.Priority.LOW, null, false);
+        for (TaskList.Task t : list.getTasks()) {
+            TaskList.Task copy = new TaskList.Task(t);
+            copy.setCompleted(20);
+            batch.add(copy);
+        }
+        journal.begin();
+        list.applyBatch(batch, new ArrayList<Long>());
+        journal.end();
+        // A step larger than the limit is not kept.
+        assertFalse(journal.canUndo());
+    }
+}
@@ -0,0 +1,232 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskListDiff}.
+ */
+public class TaskListDiffTest {
+
+    /**
+     * Applies the notifications to a copy of the old list.
+     */
+    static class Applier implements TaskListDiff.UpdateCallback {
+        final List<TaskList.Task> list;
+        final List<TaskList.Task> target;
+        int operations;
+        int changed;
+
+        Applier(List<TaskList.Task> list, List<TaskList.Task> target) {
+            this.list = new ArrayList<TaskList.Task>(list);
+            this.target = target;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            list.addAll(position, target.subList(position, position + count));
+            operations++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            list.subList(position, position + count).clear();
+            operations++;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            for (int i = position; i < position + count; i++) {
+                assertEquals(target.get(i).getId(), list.get(i).getId());
+                list.set(i, target.get(i));
+            }
+            changed += count;
+            operations++;
+        }
+
+        @Override
+        public void onMoved(int from, int to) {
+            list.add(to, list.remove(from));
+            operations++;
+        }
+    }
+
+    private static List<TaskList.Task> tasks(int n) {
+        List<TaskList.Task> l = new ArrayList<TaskList.Task>();
+        for (int i = 0; i < n; i++) l.add(new TaskList.Task(i, "t" + i, "", TaskList.Priority.LOW, null, false));
+        return l;
+    }
+
+    private static void assertApplies(List<TaskList.Task> oldList, List<TaskList.Task> newList) {
+        Applier applier = new Applier(oldList, newList);
+        TaskListDiff.calculate(oldList, newList).dispatchUpdatesTo(applier);
+        assertEquals(newList.size(), applier.list.size());
+        for (int i = 0; i < newList.size(); i++) assertSame(newList.get(i), applier.list.get(i));
+    }
+
+    @Test
+    public void consecutiveChangesAreBatched() {
+        List<TaskList.Task> oldList = tasks(10);
+        List<TaskList.Task> newList = new ArrayList<TaskList.Task>(oldList);
+        newList.subList(2, 5).clear();
+        TaskListDiff diff = TaskListDiff.calculate(oldList, newList);
+        assertEquals(1, diff.getOperationCount());
+        assertApplies(oldList, newList);
+        assertEquals(1, TaskListDiff.calculate(newList, oldList).getOperationCount());
+        assertEquals(0, TaskListDiff.calculate(oldList, new ArrayList<TaskList.Task>(oldList)).getOperationCount());
+    }
+
+    @Test
+    public void contentChangesAreDetected() {
+        List<TaskList.Task> oldList = tasks(5);
+        List<TaskList.Task> newList = new ArrayList<TaskList.Task>(oldList);
+        TaskList.Task t = new TaskList.Task(3, "t3", "", TaskList.Priority.LOW, null, true);
+        t.setCompleted(50);
+        newList.set(3, t);
+        Applier applier = new Applier(oldList, newList);
+        TaskListDiff.calculate(oldList, newList).dispatchUpdatesTo(applier);
+        assertEquals(1, applier.changed);
+        assertSame(t, applier.list.get(3));
+    }
+
+    @Test
+    public void randomEditsApply() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            List<TaskList.Task> oldList = tasks(random.nextInt(60));
+            List<TaskList.Task> newList = new ArrayList<TaskList.Task>();
+            for (TaskList.Task t : oldList) if (random.nextInt(4) != 0) newList.add(t);
+            for (int i = 0; i < random.nextInt(10); i++)
+                newList.add(random.nextInt(newList.size() + 1), new TaskList.Task(1000 + i, "n", "", TaskList.Priority.LOW, null, false));
+            if (random.nextBoolean() && newList.size() > 1) Collections.swap(newList, 0, newList.size() - 1);
+            assertApplies(oldList, newList);
+        }
+    }
+
+    @Test
+    public void filterChangeIsDiffedInBackground() {
+        final Queue<Runnable> background = new ArrayDeque<Runnable>();
+        final Queue<Runnable> main = new ArrayDeque<Runnable>();
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < 20; i++) {
+            list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+            if (i % 3 != 0) continue;
+            TaskList.Task t = new TaskList.Task(list.getTask(i));
+            t.complete();
+            list.setTask(t);
+        }
+        FilteredTaskList view = new FilteredTaskList(list, TaskFilter.ALL);
+        FilteredTaskListTest.Mirror mirror = new FilteredTaskListTest.Mirror(view);
+        view.setCallback(mirror);
+        view.setExecutors(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                background.add(command);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                main.add(command);
+            }
+        });
+
+        TaskFilter filter = new TaskFilter.StatusFilter(true, false);
+        view.setFilter(filter);
+        assertEquals(20, view.size());
+        // A change while the difference is computed makes it start again.
+        list.removeTask(1);
+        background.poll().run();
+        main.poll().run();
+        assertEquals(19, view.size());
+        background.poll().run();
+        main.poll().run();
+        assertTrue(background.isEmpty() && main.isEmpty());
+        assertEquals(FilteredTaskListTest.expected(list, filter), mirror.ids);
+        // Seven completed tasks in separate runs, and the incremental removal.
+        assertEquals(8, mirror.events);
+        view.detach();
+    }
+
+    @Test
+    public void batchIsDiffedInBackground() {
+        final Queue<Runnable> background = new ArrayDeque<Runnable>();
+        final Queue<Runnable> main = new ArrayDeque<Runnable>();
+        TaskList list = new TaskList(new TaskListTest.MemoryTaskStorage());
+        for (int i = 0; i < 20; i++) list.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        TaskFilter filter = new TaskFilter.StatusFilter(true, false);
+        FilteredTaskList view = new FilteredTaskList(list, filter);
+        FilteredTaskListTest.Mirror mirror = new FilteredTaskListTest.Mirror(view);
+        view.setCallback(mirror);
+        view.setExecutors(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                background.add(command);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                main.add(command);
+            }
+        });
+
+        List<TaskList.Task> completed = new ArrayList<TaskList.Task>();
+        for (long id : new long[] {2, 3, 4, 10}) {
+            TaskList.Task t = new TaskList.Task(list.getTask(id));
+            t.complete();
+            completed.add(t);
+        }
+        list.applyBatch(completed, Collections.singletonList(15L));
+        assertEquals(20, view.size());
+        assertEquals(0, mirror.events);
+        // A change while the difference is computed is left to it, which starts again.
+        list.addTask("t20", "", TaskList.Priority.LOW, null, false);
+        background.poll().run();
+        main.poll().run();
+        assertEquals(20, view.size());
+        background.poll().run();
+        main.poll().run();
+        assertTrue(background.isEmpty() && main.isEmpty());
+        assertEquals(FilteredTaskListTest.expected(list, filter), mirror.ids);
+        // Three runs of removed tasks and the new one, without a reset.
+        assertEquals(4, mirror.events);
+        // Once the difference is applied, changes are applied one by one again.
+        list.removeTask(0);
+        assertTrue(background.isEmpty());
+        assertEquals(FilteredTaskListTest.expected(list, filter), mirror.ids);
+        view.detach();
+    }
+
+    /**
+     * The difference of two lists of 50k tasks applies with few notifications.
+     */
+    @Test
+    public void diffOf50kTasks() {
+        int n = 50000;
+        Random random = new Random(1);
+        List<TaskList.Task> oldList = tasks(n);
+        List<TaskList.Task> newList = new ArrayList<TaskList.Task>();
+        int changes = 0;
+        for (TaskList.Task t : oldList) {
+            int r = random.nextInt(100);
+            if (r < 10 || r == 99) changes++;
+            if (r < 5) continue;
+            if (r < 10) {
+                TaskList.Task c = new TaskList.Task(t.getId(), t.getName() + "*", "", TaskList.Priority.HIGH, null, false);
+                newList.add(c);
+            } else newList.add(t);
+            if (r == 99) newList.add(new TaskList.Task(n + newList.size(), "new", "", TaskList.Priority.LOW, null, false));
+        }
+        // A notification for each run of changed rows at most, not one per row of the list.
+        assertTrue(TaskListDiff.calculate(oldList, newList).getOperationCount() <= changes);
+        assertApplies(oldList, newList);
+    }
+}
@@ -0,0 +1,409 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskList}.
+ */
+public class TaskListTest {
+
+    private static TaskList newList(int size) {
+        TaskList list = new TaskList(new MemoryTaskStorage());
+        for (int i = 0; i < size; i++) list.addTask("Tarea " + i, "", TaskList.Priority.MEDIUM, null, true);
+        return list;
+    }
+
+    private static void assertConsistent(TaskList list) {
+        List<TaskList.Task> tasks = list.getTasks();
+        for (int i = 0; i < tasks.size(); i++) {
+            assertEquals(i, list.indexOf(tasks.get(i).getId()));
+            assertSame(tasks.get(i), list.getTask(tasks.get(i).getId()));
+        }
+    }
+
+    /**
+     * Records the events of a list.
+     */
+    static class EventRecorder implements TaskList.TaskListObserver {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onTaskAdded(TaskList.Task task, int position) {
+            events.add("added " + task.getId() + "@" + position);
+        }
+
+        @Override
+        public void onTaskUpdated(TaskList.Task task, int position) {
+            events.add("updated " + task.getId() + "@" + position);
+        }
+
+        @Override
+        public void onTaskRemoved(TaskList.Task task, int position) {
+            events.add("removed " + task.getId() + "@" + position);
+        }
+
+        @Override
+        public void onTaskMoved(TaskList.Task task, int from, int to) {
+            events.add("moved " + task.getId() + "@" + from + ">" + to);
+        }
+
+        @Override
+        public void onBatchStarted() {
+            events.add("started");
+        }
+
+        @Override
+        public void onBatchFinished() {
+            events.add("finished");
+        }
+    }
+
+    @Test
+    public void positionsFollowAddRemoveAndMove() {
+        TaskList list = newList(10);
+        assertConsistent(list);
+        assertTrue(list.removeTask(3));
+        assertFalse(list.removeTask(3));
+        assertEquals(-1, list.indexOf(3));
+        assertNull(list.getTask(3));
+        assertEquals(3, list.indexOf(4));
+        assertConsistent(list);
+        list.moveTask(0, 8);
+        assertEquals(8, list.indexOf(0));
+        assertConsistent(list);
+        list.moveTask(7, 1);
+        assertConsistent(list);
+        list.addTask("Otra", "", TaskList.Priority.LOW, null, false);
+        assertEquals(9, list.indexOf(10));
+        assertConsistent(list);
+    }
+
+    @Test
+    public void setTaskReplacesInPlace() {
+        TaskList list = newList(5);
+        TaskList.Task copy = new TaskList.Task(2, "Cambiada", "", TaskList.Priority.HIGH, null, false);
+        assertTrue(list.setTask(copy));
+        assertSame(copy, list.getTasks().get(2));
+        assertFalse(list.setTask(new TaskList.Task(99, "", "", TaskList.Priority.LOW, null, false)));
+    }
+
+    @Test
+    public void copiesAreOnlyPublishedBySetTask() {
+        TaskList list = newList(3);
+        list.addTask("Con fecha", "", TaskList.Priority.LOW, new java.util.Date(1000), false);
+        TaskList.Task copy = new TaskList.Task(list.getTask(3));
+        copy.complete();
+        copy.getDeadline().setTime(2000);
+        assertTrue(list.getTask(3).getStatus() instanceof TaskList.PendingTask);
+        assertEquals(1000, list.getTask(3).getDeadline().getTime());
+        assertEquals(1, list.countTasksWithDeadline());
+        list.setTask(copy);
+        assertTrue(list.getTask(3).getStatus() instanceof TaskList.CompletedTask);
+        assertEquals(100, list.getTask(3).getCompleted());
+        assertEquals(0, list.countTasksWithDeadline());
+    }
+
+    @Test
+    public void statusAndPriorityIndexesFollowChanges() {
+        TaskList list = newList(6);
+        assertEquals(6, list.countTasksWithStatus(TaskList.PendingTask.STATUS));
+        TaskList.Task completed = new TaskList.Task(list.getTask(4));
+        completed.complete();
+        list.setTask(completed);
+        TaskList.Task canceled = new TaskList.Task(list.getTask(1));
+        canceled.cancel();
+        list.setTask(canceled);
+        TaskList.Task high = new TaskList.Task(list.getTask(0));
+        high.setPriority(TaskList.Priority.HIGH);
+        list.setTask(high);
+        assertEquals(4, list.countTasksWithStatus(TaskList.PendingTask.STATUS));
+        assertEquals(1, list.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+        assertEquals(1, list.countTasksWithPriority(TaskList.Priority.HIGH));
+        assertEquals(5, list.countTasksWithPriority(TaskList.Priority.MEDIUM));
+        // New tasks are indexed when they are set.
+        TaskList.Task copy = new TaskList.Task(2, "", "", TaskList.Priority.LOW, null, false);
+        copy.complete();
+        assertEquals(1, list.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+        list.setTask(copy);
+        List<TaskList.Task> done = list.getTasksWithStatus(TaskList.CompletedTask.STATUS, TaskList.CanceledTask.STATUS);
+        assertEquals(3, done.size());
+        assertEquals(1, done.get(0).getId());
+        assertEquals(2, done.get(1).getId());
+        assertEquals(4, done.get(2).getId());
+        assertEquals(1, list.getTasksWithPriority(TaskList.Priority.LOW).size());
+        list.removeTask(4);
+        assertEquals(1, list.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+        assertEquals(0, list.countTasksWithStatus("unknown"));
+    }
+
+    /**
+     * Looking up a few tasks by status finds them through the index, without the rest of the list.
+     */
+    @Test
+    public void statusQueryFindsOnlyTheTasksWithTheStatus() {
+        TaskList list = newList(100000);
+        for (int i = 0; i < 100; i++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(i * 997L));
+            t.complete();
+            list.setTask(t);
+        }
+        List<TaskList.Task> done = list.getTasksWithStatus(TaskList.CompletedTask.STATUS);
+        assertEquals(100, done.size());
+        for (int i = 0; i < 100; i++) assertEquals(i * 997L, done.get(i).getId());
+        assertEquals(100, list.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+    }
+
+    /**
+     * The tasks put on the list, and their older versions, are shared by its snapshots and its journal,
+     * so they can not be changed.
+     */
+    @Test
+    public void tasksOnTheListCanNotBeChanged() {
+        TaskList list = newList(2);
+        TaskList.Task old = list.getTask(0);
+        TaskList.Task copy = new TaskList.Task(old);
+        copy.setName("Otra");
+        list.setTask(copy);
+        for (TaskList.Task t : new TaskList.Task[] {old, copy}) {
+            try {
+                t.complete();
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            try {
+                t.setName("Cambiada");
+                fail();
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+        }
+        assertEquals("Otra", list.getTask(0).getName());
+        assertTrue(list.getTask(0).getStatus() instanceof TaskList.PendingTask);
+        assertEquals(2, list.countTasksWithStatus(TaskList.PendingTask.STATUS));
+    }
+
+    @Test
+    public void transitionsShareTheStates() {
+        TaskList list = newList(3);
+        for (long id = 0; id < 3; id++) {
+            TaskList.Task t = new TaskList.Task(list.getTask(id));
+            if (id < 2) t.complete();
+            else t.cancel();
+            list.setTask(t);
+        }
+        assertSame(TaskList.CompletedTask.INSTANCE, list.getTask(0).getStatus());
+        assertSame(list.getTask(0).getStatus(), list.getTask(1).getStatus());
+        assertSame(TaskList.CanceledTask.INSTANCE, list.getTask(2).getStatus());
+        assertEquals(2, list.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+    }
+
+    @Test
+    public void batchAppliesEveryChangeInOnePass() {
+        final int[] writes = new int[2];
+        TaskList list = new TaskList(new MemoryTaskStorage() {
+            @Override
+            public void write(TaskList.Task task) {
+                writes[0]++;
+            }
+
+            @Override
+            public void writeBatch(List<TaskList.Task> written, List<Long> removed) {
+                writes[1]++;
+                assertEquals(2, written.size());
+                assertEquals(Arrays.asList(2L, 5L, 7L), removed);
+            }
+        });
+        for (int i = 0; i < 20; i++) list.addTask("Tarea " + i, "", TaskList.Priority.MEDIUM, null, true);
+        writes[0] = 0;
+        EventRecorder recorder = new EventRecorder();
+        list.addObserver(recorder);
+
+        List<TaskList.Task> updated = new ArrayList<TaskList.Task>();
+        for (long id : new long[] {1, 3, 5, 99}) {
+            TaskList.Task t = new TaskList.Task(id, "Tarea " + id, "", TaskList.Priority.MEDIUM, null, true);
+            t.complete();
+            updated.add(t);
+        }
+        // Updates of removed or unknown tasks are ignored, as repeated and unknown ids.
+        assertEquals(5, list.applyBatch(updated, Arrays.asList(7L, 2L, 5L, 42L, 2L)));
+        assertEquals(Arrays.asList("started", "updated 1@1", "updated 3@3",
+                "removed 7@7", "removed 5@5", "removed 2@2", "finished"), recorder.events);
+        assertEquals(0, writes[0]);
+        assertEquals(1, writes[1]);
+
+        assertEquals(17, list.getTasks().size());
+        assertConsistent(list);
+        assertNull(list.getTask(5));
+        assertEquals(2, list.countTasksWithStatus(TaskList.CompletedTask.STATUS));
+        assertEquals(15, list.countTasksWithStatus(TaskList.PendingTask.STATUS));
+        assertEquals(17, list.countTasksWithPriority(TaskList.Priority.MEDIUM));
+
+        // An empty batch writes nothing.
+        assertEquals(0, list.applyBatch(new ArrayList<TaskList.Task>(), Arrays.asList(42L)));
+        assertEquals(1, writes[1]);
+    }
+
+    /**
+     * A failed write leaves the list, its indexes and its observers as the storage has them.
+     */
+    @Test
+    public void failedWritesLeaveTheListAsItWas() {
+        FailingTaskStorage storage = new FailingTaskStorage();
+        TaskList list = new TaskList(storage);
+        list.addTask("Mudanza", "", TaskList.Priority.HIGH, null, true);
+        for (int i = 1; i < 6; i++) {
+            TaskList.Task t = new TaskList.Task(-1, "Caja " + i, "", TaskList.Priority.MEDIUM, null, false);
+            t.setParentId(0);
+            list.addTask(t);
+        }
+        list.addTask("Llaves", "", TaskList.Priority.LOW, null, false);
+        List<TaskList.Task> before = new ArrayList<TaskList.Task>(list.getTasks());
+        EventRecorder recorder = new EventRecorder();
+        list.addObserver(recorder);
+        storage.failing = true;
+
+        TaskList.Task done = new TaskList.Task(list.getTask(3));
+        done.complete();
+        try {
+            list.setTask(done);
+            fail();
+        } catch (TaskStorage.StorageException e) {
+            // Expected.
+        }
+        try {
+            list.addTask("Otra", "", TaskList.Priority.LOW, null, false);
+            fail();
+        } catch (TaskStorage.StorageException e) {
+            // Expected.
+        }
+        try {
+            list.removeTask(6);
+            fail();
+        } catch (TaskStorage.StorageException e) {
+            // Expected.
+        }
+        try {
+            list.moveTask(0, 6);
+            fail();
+        } catch (TaskStorage.StorageException e) {
+            // Expected.
+        }
+        try {
+            list.applyBatch(Arrays.asList(done), Arrays.asList(2L, 6L));
+            fail();
+        } catch (TaskStorage.StorageException e) {
+            // Expected.
+        }
+        try {
+            // The parent and its subtasks.
+            list.removeTask(0);
+            fail();
+        } catch (TaskStorage.StorageException e) {
+            // Expected.
+        }
+        assertEquals(before, list.getTasks());
+        assertConsistent(list);
+        assertEquals(7, list.countTasksWithStatus(TaskList.PendingTask.STATUS));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), list.getSubtaskIds(0));
+        assertEquals(0, list.getTask(0).getCompleted());
+        for (String e : recorder.events) assertTrue(e, e.equals("started") || e.equals("finished"));
+
+        // Once the storage works again, the same changes are applied.
+        storage.failing = false;
+        list.setTask(done);
+        assertEquals(20, list.getTask(0).getCompleted());
+        list.removeTask(0);
+        assertEquals(1, list.getTasks().size());
+        assertConsistent(list);
+    }
+
+    /**
+     * A storage which keeps nothing and fails its reads and writes when asked to.
+     */
+    static class FailingTaskStorage implements TaskStorage {
+        boolean failing;
+
+        private void check() throws IOException {
+            if (failing) throw new IOException("No space left on device");
+        }
+
+        @Override
+        public List<TaskList.Task> load() throws IOException {
+            check();
+            return new ArrayList<TaskList.Task>();
+        }
+
+        @Override
+        public void write(TaskList.Task task) throws IOException {
+            check();
+        }
+
+        @Override
+        public void remove(long id) throws IOException {
+            check();
+        }
+
+        @Override
+        public void writeBatch(List<TaskList.Task> written, List<Long> removed) throws IOException {
+            check();
+        }
+
+        @Override
+        public void move(long id, int position) throws IOException {
+            check();
+        }
+
+        @Override
+        public boolean needsCompaction() {
+            return false;
+        }
+
+        @Override
+        public void compact(List<TaskList.Task> tasks) throws IOException {
+            check();
+        }
+    }
+
+    /**
+     * A storage which keeps nothing.
+     */
+    static class MemoryTaskStorage implements TaskStorage {
+        @Override
+        public List<TaskList.Task> load() {
+            return new java.util.ArrayList<TaskList.Task>();
+        }
+
+        @Override
+        public void write(TaskList.Task task) {
+        }
+
+        @Override
+        public void remove(long id) {
+        }
+
+        @Override
+        public void writeBatch(List<TaskList.Task> written, List<Long> removed) {
+        }
+
+        @Override
+        public void move(long id, int position) {
+        }
+
+        @Override
+        public boolean needsCompaction() {
+            return false;
+        }
+
+        @Override
+        public void compact(List<TaskList.Task> tasks) {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskOrder}.
+ */
+public class TaskOrderTest {
+
+    private static final Locale SPANISH = new Locale("es", "ES");
+
+    private static TaskList.Task task(long id, String name, TaskList.Priority priority, Date deadline, int completed) {
+        TaskList.Task t = new TaskList.Task(id, name, "", priority, deadline, true);
+        t.setCompleted(completed);
+        return t;
+    }
+
+    private static List<String> sorted(List<TaskList.Task> tasks, TaskOrder order) {
+        List<TaskList.Task> copy = new ArrayList<TaskList.Task>(tasks);
+        Collections.sort(copy, order);
+        List<String> names = new ArrayList<String>();
+        for (TaskList.Task t : copy) names.add(t.getName());
+        return names;
+    }
+
+    @Test
+    public void parsesKeysAndDirections() {
+        assertNull(TaskOrder.parse(null, SPANISH));
+        assertNull(TaskOrder.parse(" , ", SPANISH));
+        assertNotNull(TaskOrder.parse("priority, -deadline,NAME", SPANISH));
+        try {
+            TaskOrder.parse("priority,size", SPANISH);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown sort key: size", e.getMessage());
+        }
+    }
+
+    @Test
+    public void laterKeysBreakTies() {
+        Date soon = new Date(1000);
+        Date later = new Date(2000);
+        List<TaskList.Task> tasks = Arrays.asList(
+                task(0, "a", TaskList.Priority.LOW, soon, 10),
+                task(1, "b", TaskList.Priority.HIGH, null, 50),
+                task(2, "c", TaskList.Priority.HIGH, later, 0),
+                task(3, "d", TaskList.Priority.HIGH, soon, 90),
+                task(4, "e", TaskList.Priority.MEDIUM, null, 50));
+        assertEquals(Arrays.asList("d", "c", "b", "e", "a"), sorted(tasks, TaskOrder.parse("priority,deadline", SPANISH)));
+        assertEquals(Arrays.asList("b", "c", "d", "e", "a"), sorted(tasks, TaskOrder.parse("priority,-deadline", SPANISH)));
+        assertEquals(Arrays.asList("a", "d", "c", "b", "e"), sorted(tasks, TaskOrder.parse("deadline", SPANISH)));
+        // Equal tasks keep the order they were created in.
+        assertEquals(Arrays.asList("c", "a", "b", "e", "d"), sorted(tasks, TaskOrder.parse("progress", SPANISH)));
+        assertEquals(Arrays.asList("d", "b", "e", "a", "c"), sorted(tasks, TaskOrder.parse("-progress", SPANISH)));
+    }
+
+    @Test
+    public void pendingTasksGoFirst() {
+        TaskList.Task completed = task(0, "completed", TaskList.Priority.LOW, null, 0);
+        completed.complete();
+        TaskList.Task canceled = task(1, "canceled", TaskList.Priority.LOW, null, 0);
+        canceled.cancel();
+        TaskList.Task pending = task(2, "pending", TaskList.Priority.LOW, null, 0);
+        assertEquals(Arrays.asList("pending", "completed", "canceled"),
+                sorted(Arrays.asList(completed, canceled, pending), TaskOrder.parse("status", SPANISH)));
+    }
+
+    @Test
+    public void namesFollowTheCollationOfTheLocale() {
+        List<TaskList.Task> tasks = Arrays.asList(
+                task(0, "ñu", TaskList.Priority.LOW, null, 0),
+                task(1, "Zapato", TaskList.Priority.LOW, null, 0),
+                task(2, "árbol", TaskList.Priority.LOW, null, 0),
+                task(3, "nube", TaskList.Priority.LOW, null, 0),
+                task(4, "Barco", TaskList.Priority.LOW, null, 0));
+        TaskOrder order = TaskOrder.parse("name", SPANISH);
+        // Accents and case do not move a name away from its letter, and ñ goes after n.
+        assertEquals(Arrays.asList("árbol", "Barco", "nube", "ñu", "Zapato"), sorted(tasks, order));
+        assertEquals(5, order.cachedKeys());
+
+        TaskList.Task renamed = task(0, "abeja", TaskList.Priority.LOW, null, 0);
+        assertTrue(order.compare(renamed, tasks.get(2)) < 0);
+        assertEquals(5, order.cachedKeys());
+        order.forget(0);
+        assertEquals(4, order.cachedKeys());
+    }
+}
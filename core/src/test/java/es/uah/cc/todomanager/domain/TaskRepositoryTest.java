@@ -0,0 +1,407 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskRepository}.
+ */
+public class TaskRepositoryTest {
+
+    private File directory;
+    private ExecutorService writer;
+    /**
+     * Plays the main thread, which owns the replica.
+     */
+    private ExecutorService main;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tasks", "");
+        directory.delete();
+        directory.mkdirs();
+        writer = Executors.newSingleThreadExecutor();
+        main = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdownNow();
+        main.shutdownNow();
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    /**
+     * Waits until the commands submitted so far have been run and their results delivered.
+     */
+    private void drain() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                main.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    private static List<Long> ids(List<TaskList.Task> tasks) {
+        List<Long> ids = new ArrayList<Long>();
+        for (TaskList.Task t : tasks) ids.add(t.getId());
+        return ids;
+    }
+
+    @Test
+    public void resultsArriveAfterTheReplicaIsUpdated() throws Exception {
+        final TaskList replica = new TaskList(null);
+        TaskRepository repository = new TaskRepository(new FileTaskStorage(directory), replica, writer, main);
+        final AtomicReference<String> seen = new AtomicReference<String>();
+        repository.addTask(new TaskList.Task(-1, "t", "", TaskList.Priority.HIGH, null, false), new TaskRepository.Callback<TaskList.Task>() {
+            @Override
+            public void onResult(TaskList.Task added) {
+                seen.set(added.getId() + ":" + replica.getTask(added.getId()).getName());
+                assertSame(added, replica.getTask(added.getId()));
+            }
+        });
+        drain();
+        assertEquals("0:t", seen.get());
+        assertEquals(1, repository.getSnapshot().getVersion());
+        assertEquals("t", repository.getSnapshot().getTask(0).getName());
+    }
+
+    @Test
+    public void actionsWaitForTheStoredTasks() throws Exception {
+        TaskList stored = new TaskList(new FileTaskStorage(directory));
+        stored.addTask("Guardada", "", TaskList.Priority.LOW, null, false);
+        final TaskList replica = new TaskList(null);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        // The writer is busy, as on a cold start reading a large storage.
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final TaskRepository repository = new TaskRepository(new FileTaskStorage(directory), replica, writer, main);
+        final List<String> seen = new ArrayList<String>();
+        main.submit(new Runnable() {
+            @Override
+            public void run() {
+                assertFalse(repository.isLoaded());
+                repository.whenLoaded(new Runnable() {
+                    @Override
+                    public void run() {
+                        seen.add(replica.getTask(0).getName());
+                    }
+                });
+            }
+        }).get();
+        assertTrue(seen.isEmpty());
+        blocked.countDown();
+        drain();
+        main.submit(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(repository.isLoaded());
+                // Once loaded, an action runs at once.
+                repository.whenLoaded(new Runnable() {
+                    @Override
+                    public void run() {
+                        seen.add("ya");
+                    }
+                });
+            }
+        }).get();
+        assertEquals(Arrays.asList("Guardada", "ya"), seen);
+    }
+
+    @Test
+    public void storedTasksAreMirroredAsOneBatch() throws Exception {
+        TaskList stored = new TaskList(new FileTaskStorage(directory));
+        for (int i = 0; i < 3; i++) stored.addTask("t" + i, "", TaskList.Priority.LOW, null, false);
+        TaskList replica = new TaskList(null);
+        TaskListTest.EventRecorder recorder = new TaskListTest.EventRecorder();
+        replica.addObserver(recorder);
+        new TaskRepository(new FileTaskStorage(directory), replica, writer, main);
+        drain();
+        assertEquals(Arrays.asList("started", "added 0@0", "added 1@1", "added 2@2", "finished"), recorder.events);
+        assertEquals(Arrays.asList(0L, 1L, 2L), ids(replica.getTasks()));
+    }
+
+    @Test
+    public void actionsRunWhenTheStoredTasksCanNotBeRead() throws Exception {
+        TaskListTest.FailingTaskStorage storage = new TaskListTest.FailingTaskStorage();
+        storage.failing = true;
+        final CountDownLatch blocked = new CountDownLatch(1);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final TaskRepository repository = new TaskRepository(storage, new TaskList(null), writer, main);
+        final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+        repository.setErrorListener(new TaskRepository.ErrorListener() {
+            @Override
+            public void onError(RuntimeException e) {
+                error.set(e);
+            }
+        });
+        final List<String> seen = new ArrayList<String>();
+        main.submit(new Runnable() {
+            @Override
+            public void run() {
+                repository.whenLoaded(new Runnable() {
+                    @Override
+                    public void run() {
+                        seen.add("hecho");
+                    }
+                });
+            }
+        }).get();
+        blocked.countDown();
+        drain();
+        assertEquals(Arrays.asList("hecho"), seen);
+        assertTrue(error.get() instanceof TaskStorage.StorageException);
+        main.submit(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(repository.isLoaded());
+            }
+        }).get();
+    }
+
+    @Test
+    public void errorsReachTheListener() throws Exception {
+        TaskRepository repository = new TaskRepository(new TaskListTest.MemoryTaskStorage(), new TaskList(null), writer, main);
+        final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+        repository.setErrorListener(new TaskRepository.ErrorListener() {
+            @Override
+            public void onError(RuntimeException e) {
+                error.set(e);
+            }
+        });
+        repository.submit(new TaskRepository.Command<Void>() {
+            @Override
+            public Void run(TaskList tasks) {
+                throw new TaskStorage.StorageException(new IOException("full"));
+            }
+        }, null);
+        drain();
+        assertEquals("full", error.get().getCause().getMessage());
+        assertEquals(0, repository.getSnapshot().getVersion());
+    }
+
+    @Test
+    public void undoesTheChangesOfTheUser() throws Exception {
+        final TaskList replica = new TaskList(null);
+        TaskRepository repository = new TaskRepository(new FileTaskStorage(directory), replica, writer, main);
+        for (int i = 0; i < 5; i++)
+            repository.addTask(new TaskList.Task(-1, "t" + i, "", TaskList.Priority.LOW, null, false), null);
+        drain();
+        TaskList.Task completed = new TaskList.Task(repository.getSnapshot().getTask(2));
+        completed.complete();
+        repository.setTask(completed, null);
+        repository.removeTask(1, null);
+        // Commands which are not changes of the user, as a sync, are not undone.
+        repository.submit(new TaskRepository.Command<Void>() {
+            @Override
+            public Void run(TaskList tasks) {
+                tasks.addTask("remota", "", TaskList.Priority.LOW, null, false);
+                return null;
+            }
+        }, null);
+        final List<Boolean> results = new ArrayList<Boolean>();
+        TaskRepository.Callback<Boolean> result = new TaskRepository.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean done) {
+                results.add(done);
+            }
+        };
+        repository.undo(result);
+        repository.undo(result);
+        drain();
+        assertEquals(Arrays.asList(true, true), results);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L), ids(repository.getSnapshot().getTasks()));
+        assertSame(TaskList.PendingTask.INSTANCE, repository.getSnapshot().getTask(2).getStatus());
+        final AtomicReference<List<Long>> replicaIds = new AtomicReference<List<Long>>();
+        main.submit(new Runnable() {
+            @Override
+            public void run() {
+                replicaIds.set(ids(replica.getTasks()));
+                assertSame(TaskList.PendingTask.INSTANCE, replica.getTask(2).getStatus());
+            }
+        }).get();
+        assertEquals(ids(repository.getSnapshot().getTasks()), replicaIds.get());
+
+        repository.redo(result);
+        repository.redo(result);
+        drain();
+        assertSame(TaskList.CompletedTask.INSTANCE, repository.getSnapshot().getTask(2).getStatus());
+        assertNull(repository.getSnapshot().getTask(1));
+        assertEquals(ids(repository.getSnapshot().getTasks()), ids(new FileTaskStorage(directory).load()));
+    }
+
+    @Test
+    public void batchesAreMirroredAsOneChange() throws Exception {
+        TaskList replica = new TaskList(null);
+        TaskRepository repository = new TaskRepository(new FileTaskStorage(directory), replica, writer, main);
+        for (int i = 0; i < 10; i++)
+            repository.addTask(new TaskList.Task(-1, "t" + i, "", TaskList.Priority.LOW, null, false), null);
+        drain();
+        TaskListTest.EventRecorder recorder = new TaskListTest.EventRecorder();
+        replica.addObserver(recorder);
+        List<TaskList.Task> updated = new ArrayList<TaskList.Task>();
+        for (long id : new long[] {0, 4}) {
+            TaskList.Task t = new TaskList.Task(repository.getSnapshot().getTask(id));
+            t.setPriority(TaskList.Priority.HIGH);
+            updated.add(t);
+        }
+        final AtomicInteger count = new AtomicInteger();
+        repository.applyBatch(updated, Arrays.asList(2L, 8L), new TaskRepository.Callback<Integer>() {
+            @Override
+            public void onResult(Integer changed) {
+                count.set(changed);
+            }
+        });
+        drain();
+        assertEquals(4, count.get());
+        assertEquals(Arrays.asList("started", "updated 0@0", "updated 4@4", "removed 8@8", "removed 2@2", "finished"), recorder.events);
+        assertEquals(11, repository.getSnapshot().getVersion());
+        assertEquals(ids(replica.getTasks()), ids(repository.getSnapshot().getTasks()));
+        assertEquals(Arrays.asList(0L, 1L, 3L, 4L, 5L, 6L, 7L, 9L), ids(replica.getTasks()));
+        assertEquals(TaskList.Priority.HIGH, repository.getSnapshot().getTask(4).getPriority());
+        assertEquals(2, replica.countTasksWithPriority(TaskList.Priority.HIGH));
+        assertEquals(ids(replica.getTasks()), ids(new FileTaskStorage(directory).load()));
+    }
+
+    /**
+     * Many threads submit changes while others read snapshots. Every snapshot must be consistent and
+     * versions must only grow; at the end the snapshot, the replica and the storage must agree.
+     */
+    @Test
+    public void concurrentWritersAndReaders() throws Exception {
+        final TaskList replica = new TaskList(null);
+        final TaskRepository repository = new TaskRepository(new FileTaskStorage(directory), replica, writer, main);
+        final int writers = 8;
+        final int readers = 4;
+        final int operations = 2000;
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger removed = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        final AtomicInteger snapshotsRead = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            final int seed = w;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < operations; i++) {
+                            TaskRepository.Snapshot s = repository.getSnapshot();
+                            int choice = random.nextInt(10);
+                            if (choice < 5 || s.size() == 0) {
+                                repository.addTask(new TaskList.Task(-1, "w" + seed + "-" + i, "", TaskList.Priority.LOW, null, false), new TaskRepository.Callback<TaskList.Task>() {
+                                    @Override
+                                    public void onResult(TaskList.Task result) {
+                                        added.incrementAndGet();
+                                    }
+                                });
+                            } else if (choice < 8) {
+                                TaskList.Task copy = new TaskList.Task(s.getTasks().get(random.nextInt(s.size())));
+                                copy.setCompleted(random.nextInt(101));
+                                repository.setTask(copy, null);
+                            } else {
+                                repository.removeTask(s.getTasks().get(random.nextInt(s.size())).getId(), new TaskRepository.Callback<Boolean>() {
+                                    @Override
+                                    public void onResult(Boolean result) {
+                                        if (result) removed.incrementAndGet();
+                                    }
+                                });
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long version = -1;
+                        while (writersDone.getCount() > 0) {
+                            TaskRepository.Snapshot s = repository.getSnapshot();
+                            assertTrue(s.getVersion() >= version);
+                            version = s.getVersion();
+                            for (TaskList.Task t : s.getTasks()) assertSame(t, s.getTask(t.getId()));
+                            snapshotsRead.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        start.countDown();
+        for (Thread t : threads) t.join();
+        drain();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        TaskRepository.Snapshot last = repository.getSnapshot();
+        assertEquals(added.get() - removed.get(), last.size());
+        assertTrue(snapshotsRead.get() > 0);
+        final AtomicReference<List<Long>> replicaIds = new AtomicReference<List<Long>>();
+        main.submit(new Runnable() {
+            @Override
+            public void run() {
+                replicaIds.set(ids(replica.getTasks()));
+            }
+        }).get();
+        assertEquals(ids(last.getTasks()), replicaIds.get());
+        List<TaskList.Task> stored = new FileTaskStorage(directory).load();
+        assertEquals(ids(last.getTasks()), ids(stored));
+        for (TaskList.Task t : stored) assertEquals(last.getTask(t.getId()).getCompleted(), t.getCompleted());
+    }
+}
@@ -0,0 +1,124 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TaskSearchIndex}.
+ */
+public class TaskSearchIndexTest {
+
+    private static final String[] WORDS = {"redacción", "informe", "revisión", "reunión", "presentación",
+            "código", "documentación", "diseño", "pruebas", "análisis", "cliente", "página", "memoria",
+            "práctica", "examen", "entrega", "corrección", "móvil", "aplicación", "accesibilidad"};
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static TaskList newList(int size) {
+        TaskList list = new TaskList(null);
+        Random random = new Random(17);
+        for (int i = 0; i < size; i++)
+            list.addTask(sentence(random, 3) + " " + i, sentence(random, 12), TaskList.Priority.LOW, null, false);
+        return list;
+    }
+
+    private static List<String> names(List<TaskList.Task> tasks) {
+        String[] names = new String[tasks.size()];
+        for (int i = 0; i < names.length; i++) names[i] = tasks.get(i).getName();
+        return Arrays.asList(names);
+    }
+
+    @Test
+    public void tokensAreFolded() {
+        assertEquals(Arrays.asList("redaccion", "del", "informe", "no", "3", "ano", "cafe"),
+                TaskSearchIndex.tokenize("Redacción del INFORME, nº 3: Año-Café"));
+        assertTrue(TaskSearchIndex.tokenize(null).isEmpty());
+        assertTrue(TaskSearchIndex.tokenize(" ¿? ").isEmpty());
+    }
+
+    @Test
+    public void matchesEveryWordByPrefix() {
+        TaskList list = new TaskList(null);
+        list.addTask("Redacción del informe", "Primer borrador", TaskList.Priority.LOW, null, false);
+        list.addTask("Informe final", "Revisar la redacción", TaskList.Priority.LOW, null, false);
+        list.addTask("Comprar café", "", TaskList.Priority.LOW, null, false);
+        TaskSearchIndex index = new TaskSearchIndex(list);
+
+        // Words of the name rank higher than words of the details.
+        assertEquals(Arrays.asList("Redacción del informe", "Informe final"), names(index.search("redaccion", 10)));
+        assertEquals(Arrays.asList("Redacción del informe", "Informe final"), names(index.search("REDAC inf", 10)));
+        assertEquals(Arrays.asList("Informe final"), names(index.search("inf revis", 10)));
+        assertEquals(Arrays.asList("Comprar café"), names(index.search("cafe", 10)));
+        assertTrue(index.search("cafe informe", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+        assertEquals(1, index.search("informe", 1).size());
+    }
+
+    @Test
+    public void wholeWordsRankHigherThanPrefixes() {
+        TaskList list = new TaskList(null);
+        list.addTask("Práctica de programación", "", TaskList.Priority.LOW, null, false);
+        list.addTask("Práctica de pro", "", TaskList.Priority.LOW, null, false);
+        TaskSearchIndex index = new TaskSearchIndex(list);
+        assertEquals(Arrays.asList("Práctica de pro", "Práctica de programación"), names(index.search("pro", 10)));
+    }
+
+    @Test
+    public void followsTheChangesOfTheList() {
+        TaskList list = new TaskList(null);
+        list.addTask("Examen", "", TaskList.Priority.LOW, null, false);
+        TaskSearchIndex index = new TaskSearchIndex(list);
+        list.addTask("Entrega de la memoria", "", TaskList.Priority.LOW, null, false);
+        TaskList.Task t = list.getTasks().get(1);
+        assertEquals(Arrays.asList("Entrega de la memoria"), names(index.search("memoria", 10)));
+
+        TaskList.Task edited = new TaskList.Task(t);
+        edited.setName("Entrega del código");
+        list.setTask(edited);
+        assertTrue(index.search("memoria", 10).isEmpty());
+        assertEquals(Arrays.asList("Entrega del código"), names(index.search("codigo", 10)));
+
+        // Changes which do not touch the text keep the index.
+        int words = index.getWordCount();
+        edited = new TaskList.Task(edited);
+        edited.complete();
+        list.setTask(edited);
+        assertEquals(words, index.getWordCount());
+
+        list.removeTask(t.getId());
+        assertTrue(index.search("codigo", 10).isEmpty());
+        assertEquals(1, index.getWordCount());
+
+        index.detach();
+        list.addTask("Examen final", "", TaskList.Priority.LOW, null, false);
+        assertEquals(1, index.search("examen", 10).size());
+    }
+
+    /**
+     * Every word of the sample data is in thousands of tasks, which is the worst case of the index.
+     */
+    @Test
+    public void queriesAtOneHundredThousandTasks() {
+        TaskList list = newList(100000);
+        TaskSearchIndex index = new TaskSearchIndex(list);
+        String[] queries = {"redaccion", "inf", "revision entrega", "acces movil 99", "99999", "presentacion cliente memoria"};
+        for (String q : queries) {
+            List<TaskList.Task> found = index.search(q, 20);
+            assertFalse(q, found.isEmpty());
+            assertTrue(q, found.size() <= 20);
+        }
+        assertTrue(index.search("99999", 1).get(0).getName().endsWith(" 99999"));
+    }
+}
@@ -0,0 +1,49 @@
+package es.uah.cc.todomanager.domain;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link VersionVector}.
+ */
+public class VersionVectorTest {
+
+    @Test
+    public void ordersVersions() {
+        VersionVector a = VersionVector.EMPTY.increment(7);
+        VersionVector b = a.increment(3);
+        VersionVector c = a.increment(9).increment(9);
+        assertEquals(VersionVector.Order.EQUAL, a.compare(VersionVector.EMPTY.increment(7)));
+        assertEquals(VersionVector.Order.BEFORE, a.compare(b));
+        assertEquals(VersionVector.Order.AFTER, b.compare(a));
+        assertEquals(VersionVector.Order.CONCURRENT, b.compare(c));
+        assertEquals(VersionVector.Order.AFTER, VersionVector.EMPTY.increment(1).compare(VersionVector.EMPTY));
+
+        VersionVector merged = b.merge(c);
+        assertEquals(1, merged.get(3));
+        assertEquals(1, merged.get(7));
+        assertEquals(2, merged.get(9));
+        assertEquals(0, merged.get(5));
+        assertEquals(VersionVector.Order.AFTER, merged.compare(b));
+        assertEquals(VersionVector.Order.AFTER, merged.compare(c));
+        assertEquals("{3=1, 7=1, 9=2}", merged.toString());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        VersionVector v = VersionVector.EMPTY.increment(0).increment(0xFFFFFFFFFFFFL).increment(42).increment(42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        v.write(new DataOutputStream(bytes));
+        VersionVector read = VersionVector.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(v, read);
+        assertEquals(v.hashCode(), read.hashCode());
+        assertTrue(bytes.size() < 16);
+    }
+}